@@ -0,0 +1,225 @@
+package org.artoolkit.ar.base;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The debug image of the native library (the thresholded frame shown while tuning the
+ * threshold), refreshed at a limited rate into a direct buffer that lives as long as the
+ * texture, optionally at a fraction of the frame size.
+ * <p/>
+ * While the texture is in use it owns the video debug mode, which {@link #beforeUpdate(long)}
+ * turns on once and {@link #stop()} turns off. Debug mode is left on between the frames whose
+ * image is shown, as the native library may allocate and free its debug image each time the mode
+ * changes, which would cost more than rendering it every frame. What is throttled is fetching
+ * the image: showing every Nth frame, or at most so many times a second, copies it only that
+ * often.
+ * <p/>
+ * Once the buffer is allocated, refreshing it allocates nothing. Its address doesn't change
+ * until the video size or downscale factor do, which {@link #getGeneration()} tells, so the
+ * reader can keep using it, e.g. to upload the pixels to a texture without copying them.
+ * <p/>
+ * If the native library does not provide arwUpdateDebugTextureBuffer, the image is fetched full
+ * size with arwUpdateDebugTexture32 into an array that is reused, and shrunk in Java.
+ */
+public class DebugTexture {
+
+    private static final String TAG = "DebugTexture";
+
+    public static final int BYTES_PER_PIXEL = 4;
+
+    /**
+     * Cleared the first time the native library turns out not to implement arwUpdateDebugTextureBuffer.
+     */
+    private static volatile boolean sNativeSupported = true;
+
+    private int mEveryNthFrame = 1;
+    private long mMinIntervalNs = 0;
+    private int mDownscale = 1;
+
+    private final VideoParams mVideoParams = new VideoParams();
+    private ByteBuffer mBuffer = null;
+    private int mWidth = 0;
+    private int mHeight = 0;
+    private int mGeneration = 0;
+
+    // For the fallback to arwUpdateDebugTexture32
+    private byte[] mImage = null;
+    private byte[] mRow = null;
+
+    private long mFrames = 0;
+    private long mLastRefreshNs = 0;
+    private boolean mDue = false;
+    private boolean mDebugMode = false;
+    private long mRefreshes = 0;
+
+    /**
+     * @param everyNthFrame Refresh the image at most every this many frames, 1 for every frame.
+     */
+    public void setEveryNthFrame(int everyNthFrame) {
+        mEveryNthFrame = Math.max(1, everyNthFrame);
+    }
+
+    /**
+     * @param maxHz Refresh the image at most this many times a second, or 0 for no limit.
+     */
+    public void setMaxRate(float maxHz) {
+        mMinIntervalNs = maxHz > 0.0f ? (long) (1e9f / maxHz) : 0;
+    }
+
+    /**
+     * @param downscale 1 for the full frame size, or a factor to shrink the image by in each direction.
+     */
+    public void setDownscale(int downscale) {
+        downscale = Math.max(1, downscale);
+        if (downscale != mDownscale) {
+            mDownscale = downscale;
+            mBuffer = null;
+        }
+    }
+
+    /**
+     * Decides whether the frame about to be processed is one whose debug image will be shown,
+     * and turns the native library's debug mode on if it isn't already. Call before every arwUpdateAR.
+     *
+     * @param nowNs The time, on the System.nanoTime() clock.
+     * @return true if the image will be refreshed by {@link #afterUpdate(boolean)}.
+     */
+    public boolean beforeUpdate(long nowNs) {
+        mDue = mFrames++ % mEveryNthFrame == 0
+                && (mMinIntervalNs == 0 || mRefreshes == 0 || nowNs - mLastRefreshNs >= mMinIntervalNs);
+        if (mDue) {
+            mLastRefreshNs = nowNs;
+        }
+        setDebugMode(true);
+        return mDue;
+    }
+
+    /**
+     * Refreshes the image, if the frame just processed was one whose image is shown. Call after
+     * every arwUpdateAR.
+     *
+     * @param updated Whether arwUpdateAR succeeded.
+     * @return true if the image was refreshed.
+     */
+    public boolean afterUpdate(boolean updated) {
+        if (!mDue || !updated) {
+            return false;
+        }
+        mDue = false;
+        if (mBuffer == null && !allocate()) {
+            return false;
+        }
+        boolean ok = sNativeSupported ? fetchNative() : fetchFallback();
+        if (!ok) {
+            // Most likely the video size changed, so the buffer is reallocated for the next image
+            mBuffer = null;
+            return false;
+        }
+        mRefreshes++;
+        return true;
+    }
+
+    /**
+     * Turns debug mode off, for when the image is no longer shown.
+     */
+    public void stop() {
+        setDebugMode(false);
+        mDue = false;
+    }
+
+    /**
+     * @return The image, as getWidth() x getHeight() RGBA pixels. Null until the buffer is
+     * allocated, when the first frame due to be shown has been processed, and from a failed
+     * refresh until the next. Its contents are only an image once {@link #getRefreshCount()} is
+     * non-zero.
+     */
+    public ByteBuffer getBuffer() {
+        return mBuffer;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return A number that changes whenever the buffer is reallocated, with a new size or address.
+     */
+    public int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * @return The number of times the image has been refreshed.
+     */
+    public long getRefreshCount() {
+        return mRefreshes;
+    }
+
+    private void setDebugMode(boolean debug) {
+        if (debug != mDebugMode) {
+            NativeInterface.arwSetVideoDebugMode(debug);
+            mDebugMode = debug;
+        }
+    }
+
+    private boolean allocate() {
+        if (!mVideoParams.update()) {
+            return false;
+        }
+        mWidth = mVideoParams.getWidth() / mDownscale;
+        mHeight = mVideoParams.getHeight() / mDownscale;
+        if (mWidth <= 0 || mHeight <= 0) {
+            return false;
+        }
+        mBuffer = ByteBuffer.allocateDirect(mWidth * mHeight * BYTES_PER_PIXEL);
+        mGeneration++;
+        Log.i(TAG, "allocate(): Debug image of " + mWidth + "x" + mHeight + ", 1/" + mDownscale + " of the frame size");
+        return true;
+    }
+
+    private boolean fetchNative() {
+        try {
+            return NativeInterface.arwUpdateDebugTextureBuffer(mBuffer, mDownscale);
+        } catch (UnsatisfiedLinkError e) {
+            Log.w(TAG, "afterUpdate(): Native library has no arwUpdateDebugTextureBuffer, using arwUpdateDebugTexture32.");
+            sNativeSupported = false;
+            return fetchFallback();
+        }
+    }
+
+    private boolean fetchFallback() {
+        int fullWidth = mVideoParams.getWidth();
+        int fullHeight = mVideoParams.getHeight();
+        int size = fullWidth * fullHeight * BYTES_PER_PIXEL;
+        if (mImage == null || mImage.length != size) {
+            mImage = new byte[size];
+        }
+        if (!NativeInterface.arwUpdateDebugTexture32(mImage)) {
+            return false;
+        }
+        mBuffer.clear();
+        if (mDownscale == 1) {
+            mBuffer.put(mImage, 0, mWidth * mHeight * BYTES_PER_PIXEL);
+        } else {
+            int rowSize = mWidth * BYTES_PER_PIXEL;
+            if (mRow == null || mRow.length != rowSize) {
+                mRow = new byte[rowSize];
+            }
+            for (int y = 0; y < mHeight; y++) {
+                int source = y * mDownscale * fullWidth * BYTES_PER_PIXEL;
+                for (int x = 0; x < mWidth; x++) {
+                    System.arraycopy(mImage, source + x * mDownscale * BYTES_PER_PIXEL, mRow, x * BYTES_PER_PIXEL, BYTES_PER_PIXEL);
+                }
+                mBuffer.put(mRow);
+            }
+        }
+        mBuffer.rewind();
+        return true;
+    }
+}
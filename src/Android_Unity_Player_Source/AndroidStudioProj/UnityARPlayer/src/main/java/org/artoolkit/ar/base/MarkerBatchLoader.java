@@ -0,0 +1,318 @@
+package org.artoolkit.ar.base;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Adds a set of markers in one go. The pattern, multimarker and NFT files their configurations
+ * refer to are read in parallel on a few threads first, so that they are checked before the
+ * native library sees them and are in the page cache when it loads them, and then the markers are
+ * added with a single call to arwAddMarkers.
+ * <p/>
+ * Markers are always added on the calling thread, as the native library's marker list is not
+ * safe to change from another thread while it tracks. A marker whose files are missing or empty
+ * is not passed to the native library at all, and gets the UID -1, as arwAddMarker gives one it
+ * fails to add.
+ * <p/>
+ * If the native library does not provide arwAddMarkers, the markers are added one at a time with
+ * arwAddMarker.
+ */
+public class MarkerBatchLoader {
+
+    private static final String TAG = "MarkerBatchLoader";
+
+    public static final int DEFAULT_THREADS = 4;
+
+    /**
+     * Cleared the first time the native library turns out not to implement arwAddMarkers.
+     */
+    private static volatile boolean sNativeSupported = true;
+
+    private final int mThreads;
+    private int[] mMarkerUIDs = new int[0];
+    private float[] mPrefetchMs = new float[0];
+    private float[] mAddMs = new float[0];
+    private float[] mLoadMs = new float[0];
+    private String[] mErrors = new String[0];
+
+    /**
+     * @param threads The most files to read at the same time.
+     */
+    public MarkerBatchLoader(int threads) {
+        mThreads = Math.max(1, threads);
+    }
+
+    public MarkerBatchLoader() {
+        this(DEFAULT_THREADS);
+    }
+
+    /**
+     * Checks and reads the files of the markers, then adds them.
+     *
+     * @param cfgs Marker configuration strings, as for arwAddMarker.
+     * @return The UID of each marker in the order of cfgs, or -1 for a marker that was not added.
+     */
+    public int[] addMarkers(String[] cfgs) {
+        int count = cfgs.length;
+        mMarkerUIDs = new int[count];
+        mPrefetchMs = new float[count];
+        mAddMs = new float[count];
+        mLoadMs = new float[count];
+        mErrors = new String[count];
+        if (count == 0) {
+            return mMarkerUIDs;
+        }
+        long start = System.nanoTime();
+
+        prefetch(cfgs);
+
+        int accepted = 0;
+        for (int i = 0; i < count; i++) {
+            mMarkerUIDs[i] = -1;
+            if (mErrors[i] == null) {
+                accepted++;
+            }
+        }
+        String[] acceptedCfgs = new String[accepted];
+        int[] indices = new int[accepted];
+        for (int i = 0, a = 0; i < count; i++) {
+            if (mErrors[i] == null) {
+                acceptedCfgs[a] = cfgs[i];
+                indices[a++] = i;
+            }
+        }
+
+        int[] uids = new int[accepted];
+        float[] addMs = new float[accepted];
+        int added = add(acceptedCfgs, uids, addMs);
+        for (int a = 0; a < accepted; a++) {
+            int i = indices[a];
+            mMarkerUIDs[i] = uids[a];
+            mAddMs[i] = addMs[a];
+            if (uids[a] < 0) {
+                mErrors[i] = "not added by the native library";
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            mLoadMs[i] = mPrefetchMs[i] + mAddMs[i];
+            if (mErrors[i] == null) {
+                Log.i(TAG, "addMarkers(): Added marker " + mMarkerUIDs[i] + " in " + mLoadMs[i] + " ms (" + mPrefetchMs[i] + " ms reading files): " + cfgs[i]);
+            } else {
+                Log.e(TAG, "addMarkers(): Marker " + cfgs[i] + " " + mErrors[i]);
+            }
+        }
+        Log.i(TAG, "addMarkers(): Added " + added + " of " + count + " markers in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return mMarkerUIDs;
+    }
+
+    /**
+     * @return How long each marker of the last {@link #addMarkers(String[])} took to load, reading its files and adding it, in milliseconds.
+     */
+    public float[] getLoadTimesMillis() {
+        return mLoadMs;
+    }
+
+    /**
+     * @return How long reading the files of a marker of the last {@link #addMarkers(String[])} took, in milliseconds.
+     */
+    public float getPrefetchMillis(int index) {
+        return mPrefetchMs[index];
+    }
+
+    /**
+     * @return How long the native library took to add a marker of the last {@link #addMarkers(String[])}, in milliseconds.
+     */
+    public float getAddMillis(int index) {
+        return mAddMs[index];
+    }
+
+    /**
+     * @return Why a marker of the last {@link #addMarkers(String[])} was not added, or null if it was.
+     */
+    public String getError(int index) {
+        return mErrors[index];
+    }
+
+    // Reads the files of every marker on up to mThreads threads, filling mPrefetchMs and mErrors
+    private void prefetch(final String[] cfgs) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(mThreads, cfgs.length), new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "marker_loader_" + mCount++);
+            }
+        });
+        List<Future<String>> results = new ArrayList<Future<String>>(cfgs.length);
+        for (int i = 0; i < cfgs.length; i++) {
+            final int index = i;
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    long start = System.nanoTime();
+                    String error = prefetchFiles(cfgs[index]);
+                    // Only this task writes this element, and get() below makes it visible
+                    mPrefetchMs[index] = (System.nanoTime() - start) / 1e6f;
+                    return error;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        for (int i = 0; i < cfgs.length; i++) {
+            try {
+                mErrors[i] = results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                for (int j = i; j < cfgs.length; j++) {
+                    mErrors[j] = "not loaded, interrupted";
+                }
+                return;
+            } catch (ExecutionException e) {
+                mErrors[i] = "could not be read: " + e.getCause();
+            }
+        }
+    }
+
+    // Adds markers with arwAddMarkers, or one at a time if the native library doesn't have it
+    private static int add(String[] cfgs, int[] markerUIDs, float[] addMs) {
+        if (cfgs.length == 0) {
+            return 0;
+        }
+        if (sNativeSupported) {
+            try {
+                return NativeInterface.arwAddMarkers(cfgs, markerUIDs, addMs);
+            } catch (UnsatisfiedLinkError e) {
+                Log.w(TAG, "addMarkers(): Native library has no arwAddMarkers, adding markers one at a time.");
+                sNativeSupported = false;
+            }
+        }
+        int added = 0;
+        for (int i = 0; i < cfgs.length; i++) {
+            long start = System.nanoTime();
+            markerUIDs[i] = NativeInterface.arwAddMarker(cfgs[i]);
+            addMs[i] = (System.nanoTime() - start) / 1e6f;
+            if (markerUIDs[i] >= 0) {
+                added++;
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Reads all the files a marker configuration refers to.
+     *
+     * @return Why the marker can't be loaded, or null if its files are all there.
+     */
+    static String prefetchFiles(String cfg) {
+        String[] parts = cfg.split(";");
+        if (parts.length < 2) {
+            return null; // Left to the native library to reject
+        }
+        String type = parts[0].trim();
+        String path = parts[1].trim();
+        try {
+            if (type.equals("single")) {
+                return readFile(new File(path));
+            } else if (type.equals("multi")) {
+                return prefetchMulti(new File(path));
+            } else if (type.equals("nft")) {
+                // The image set, feature set and 3D feature set of the data set
+                String[] extensions = {".iset", ".fset", ".fset3"};
+                for (String extension : extensions) {
+                    String error = readFile(new File(path + extension));
+                    if (error != null) {
+                        return error;
+                    }
+                }
+            }
+            // Barcodes and patterns given in the configuration have no files
+            return null;
+        } catch (IOException e) {
+            return "could not be read: " + e.toString();
+        }
+    }
+
+    // Reads a multimarker configuration and the pattern files it lists, which are relative to it
+    private static String prefetchMulti(File config) throws IOException {
+        if (!config.isFile()) {
+            return "has no file " + config;
+        }
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(config));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (lines.isEmpty()) {
+            return "has an empty file " + config;
+        }
+        // After the number of markers, each marker is its pattern file or barcode ID, then its
+        // width and transform, all numbers, so the only lines that aren't numbers are patterns
+        for (int i = 1; i < lines.size(); i++) {
+            String pattern = lines.get(i).split("\\s+")[0];
+            if (isNumber(pattern)) {
+                continue;
+            }
+            File file = new File(pattern);
+            if (!file.isAbsolute()) {
+                file = new File(config.getParentFile(), pattern);
+            }
+            String error = readFile(file);
+            if (error != null) {
+                return error;
+            }
+        }
+        return null;
+    }
+
+    private static String readFile(File file) throws IOException {
+        if (!file.isFile()) {
+            return "has no file " + file;
+        }
+        long length = 0;
+        byte[] buffer = new byte[64 * 1024];
+        InputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                length += read;
+            }
+        } finally {
+            in.close();
+        }
+        return length > 0 ? null : "has an empty file " + file;
+    }
+
+    private static boolean isNumber(String s) {
+        try {
+            Double.parseDouble(s);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
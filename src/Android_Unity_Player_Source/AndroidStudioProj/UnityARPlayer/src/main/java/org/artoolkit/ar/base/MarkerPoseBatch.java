@@ -0,0 +1,216 @@
+package org.artoolkit.ar.base;
+
+import android.util.Log;
+
+import org.artoolkit.ar.unity.PoseMath;
+
+/**
+ * The poses of a fixed set of markers, all queried from the native library in a single call per
+ * frame, into arrays owned by the batch. Once the markers are set, {@link #update()} allocates
+ * nothing.
+ * <p/>
+ * If the native library does not provide the batched queries, the batch falls back to querying
+ * the markers one at a time with arwQueryMarkerTransformationInto, arwQueryMarkerTransformation
+ * or arwQueryMarkerTransformationStereo.
+ */
+public class MarkerPoseBatch {
+
+    private static final String TAG = "MarkerPoseBatch";
+
+    public static final int STRIDE = PoseMath.MARKER_POSE_STRIDE;
+
+    /**
+     * Cleared the first time the native library turns out not to implement the batched queries.
+     */
+    private static volatile boolean sNativeSupported = true;
+    private static volatile boolean sStereoNativeSupported = true;
+
+    /**
+     * Cleared the first time the native library turns out not to implement arwQueryMarkerTransformationInto.
+     */
+    private static volatile boolean sIntoSupported = true;
+
+    private final boolean mStereo;
+    private int[] mMarkerUIDs = new int[0];
+    private int mCount = 0;
+    private float[] mPoses = new float[0];
+    private float[] mPosesR = new float[0];
+    private int mVisibleCount = 0;
+
+    // For the fallbacks, which fill one matrix per camera at a time
+    private final float[] mMatrixL = new float[16];
+    private final float[] mMatrixR = new float[16];
+
+    /**
+     * @param stereo true to query the matrices for both cameras of a stereo pair.
+     */
+    public MarkerPoseBatch(boolean stereo) {
+        mStereo = stereo;
+    }
+
+    /**
+     * Sets the markers to query. Arrays are only reallocated if there are more markers than before.
+     *
+     * @param markerUIDs The UIDs returned by arwAddMarker.
+     * @param count      The number of elements of markerUIDs to use.
+     */
+    public void setMarkers(int[] markerUIDs, int count) {
+        if (mMarkerUIDs.length < count) {
+            mMarkerUIDs = new int[count];
+            mPoses = new float[count * STRIDE];
+            if (mStereo) {
+                mPosesR = new float[count * STRIDE];
+            }
+        }
+        System.arraycopy(markerUIDs, 0, mMarkerUIDs, 0, count);
+        mCount = count;
+        mVisibleCount = 0;
+        for (int i = 0; i < count; i++) {
+            mPoses[i * STRIDE] = 0.0f;
+        }
+    }
+
+    /**
+     * Queries the poses of all the markers, normally once per frame after arwUpdateAR.
+     *
+     * @return The number of visible markers, or -1 if an error occurred.
+     */
+    public int update() {
+        if (mCount == 0) {
+            return 0;
+        }
+        if (mStereo ? sStereoNativeSupported : sNativeSupported) {
+            try {
+                mVisibleCount = mStereo
+                        ? NativeInterface.arwQueryMarkerTransformationsStereo(mMarkerUIDs, mCount, mPoses, mPosesR)
+                        : NativeInterface.arwQueryMarkerTransformations(mMarkerUIDs, mCount, mPoses);
+                return mVisibleCount;
+            } catch (UnsatisfiedLinkError e) {
+                Log.w(TAG, "update(): Native library has no batched marker queries, querying markers one at a time.");
+                if (mStereo) {
+                    sStereoNativeSupported = false;
+                } else {
+                    sNativeSupported = false;
+                }
+            }
+        }
+        mVisibleCount = mStereo ? updateEachStereo() : updateEach();
+        return mVisibleCount;
+    }
+
+    private int updateEach() {
+        if (sIntoSupported) {
+            try {
+                return updateEachInto();
+            } catch (UnsatisfiedLinkError e) {
+                Log.w(TAG, "update(): Native library has no arwQueryMarkerTransformationInto.");
+                sIntoSupported = false;
+            }
+        }
+        int visible = 0;
+        for (int i = 0; i < mCount; i++) {
+            int offset = i * STRIDE;
+            float[] matrix = NativeInterface.arwQueryMarkerTransformation(mMarkerUIDs[i]);
+            if (matrix != null) {
+                mPoses[offset] = 1.0f;
+                System.arraycopy(matrix, 0, mPoses, offset + 1, 16);
+                visible++;
+            } else {
+                mPoses[offset] = 0.0f;
+            }
+        }
+        return visible;
+    }
+
+    private int updateEachInto() {
+        int visible = 0;
+        for (int i = 0; i < mCount; i++) {
+            int offset = i * STRIDE;
+            if (NativeInterface.arwQueryMarkerTransformationInto(mMarkerUIDs[i], mMatrixL)) {
+                mPoses[offset] = 1.0f;
+                System.arraycopy(mMatrixL, 0, mPoses, offset + 1, 16);
+                visible++;
+            } else {
+                mPoses[offset] = 0.0f;
+            }
+        }
+        return visible;
+    }
+
+    private int updateEachStereo() {
+        int visible = 0;
+        for (int i = 0; i < mCount; i++) {
+            int offset = i * STRIDE;
+            if (NativeInterface.arwQueryMarkerTransformationStereo(mMarkerUIDs[i], mMatrixL, mMatrixR)) {
+                mPoses[offset] = 1.0f;
+                mPosesR[offset] = 1.0f;
+                System.arraycopy(mMatrixL, 0, mPoses, offset + 1, 16);
+                System.arraycopy(mMatrixR, 0, mPosesR, offset + 1, 16);
+                visible++;
+            } else {
+                mPoses[offset] = 0.0f;
+                mPosesR[offset] = 0.0f;
+            }
+        }
+        return visible;
+    }
+
+    public boolean isStereo() {
+        return mStereo;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getMarkerUID(int index) {
+        return mMarkerUIDs[index];
+    }
+
+    /**
+     * @return The array the UIDs are held in, of which the first {@link #getCount()} are used.
+     */
+    public int[] getMarkerUIDs() {
+        return mMarkerUIDs;
+    }
+
+    /**
+     * @return The number of markers visible at the last {@link #update()}.
+     */
+    public int getVisibleCount() {
+        return mVisibleCount;
+    }
+
+    public boolean isVisible(int index) {
+        return mPoses[index * STRIDE] != 0.0f;
+    }
+
+    /**
+     * Copies the transformation matrix of a marker, or of the left camera in stereo. Only
+     * meaningful if the marker is visible.
+     */
+    public void getTransformation(int index, float[] matrix) {
+        System.arraycopy(mPoses, index * STRIDE + 1, matrix, 0, 16);
+    }
+
+    /**
+     * Copies the transformation matrix of a marker for the right camera. Stereo only.
+     */
+    public void getTransformationR(int index, float[] matrix) {
+        System.arraycopy(mPosesR, index * STRIDE + 1, matrix, 0, 16);
+    }
+
+    /**
+     * @return The array the poses are written to, laid out as described by NativeInterface.MARKER_POSE_STRIDE. Overwritten by every update.
+     */
+    public float[] getPoses() {
+        return mPoses;
+    }
+
+    /**
+     * @return As {@link #getPoses()}, for the right camera. Stereo only.
+     */
+    public float[] getPosesR() {
+        return mPosesR;
+    }
+}
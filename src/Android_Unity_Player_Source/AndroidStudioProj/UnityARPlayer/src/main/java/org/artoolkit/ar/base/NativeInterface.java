@@ -39,6 +39,11 @@ package org.artoolkit.ar.base;
 
 import android.util.Log;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+import org.artoolkit.ar.unity.PoseMath;
+
 /**
  * The NativeInterface class contains the JNI function signatures for
  * native ARToolKit functions. These functions should be accessed via
@@ -56,12 +61,25 @@ public class NativeInterface {
      */
     private static final String LIBRARY_NAME = "ARWrapper";
 
+    private static boolean sLibraryLoaded = false;
+
+    // The library is loaded before any native function can be called. A thread that touches this
+    // class while another is loading the library waits for it to finish.
+    static {
+        loadNativeLibrary();
+    }
+
     /**
-     * Attempts to load the native library so that native functions can be called.
+     * Attempts to load the native library so that native functions can be called. Only the first
+     * successful call loads it, so this may be called any number of times from any thread.
      *
      * @return true if the library was successfully loaded, otherwise false.
      */
-    public static boolean loadNativeLibrary() {
+    public static synchronized boolean loadNativeLibrary() {
+
+        if (sLibraryLoaded) {
+            return true;
+        }
 
         try {
 
@@ -75,6 +93,7 @@ public class NativeInterface {
             return false;
         }
 
+        sLibraryLoaded = true;
         return true;
     }
 
@@ -188,6 +207,19 @@ public class NativeInterface {
      */
     public static native boolean arwGetProjectionMatrixStereo(float[] projL, float[] projR);
 
+    /**
+     * As arwGetProjectionMatrix, writing to a caller-owned array instead of allocating one.
+     *
+     * @param matrix An array of at least 16 floats, filled with the OpenGL compatible projection matrix.
+     * @return true if no error occurred, otherwise false.
+     */
+    public static native boolean arwGetProjectionMatrixInto(float[] matrix);
+
+    /**
+     * As arwGetProjectionMatrixInto, writing to a direct buffer from position zero.
+     */
+    public static native boolean arwGetProjectionMatrixBuffer(FloatBuffer matrix);
+
     /**
      * Returns the parameters of the video source frame.
      * <p/>
@@ -234,6 +266,30 @@ public class NativeInterface {
      */
     public static native boolean arwGetVideoParamsStereo(int[] widthL, int[] heightL, int[] pixelSizeL, String[] pixelFormatStringL, int[] widthR, int[] heightR, int[] pixelSizeR, String[] pixelFormatString);
 
+    /**
+     * The layout of the array filled by arwGetVideoParamsInto.
+     */
+    public static final int VIDEO_PARAM_WIDTH = 0,
+            VIDEO_PARAM_HEIGHT = 1,
+            VIDEO_PARAM_PIXEL_SIZE = 2,
+            VIDEO_PARAM_PIXEL_FORMAT = 3,
+            VIDEO_PARAM_COUNT = 4;
+
+    /**
+     * As arwGetVideoParams, writing all the parameters to one caller-owned array, with the pixel
+     * format as one of the AR_PIXEL_FORMAT_xxx values instead of a newly created String.
+     *
+     * @param params An array of at least VIDEO_PARAM_COUNT ints, indexed by the VIDEO_PARAM_xxx values.
+     * @return True if the values were returned OK, false if there is currently no video source or an error occurred.
+     * @see VideoParams
+     */
+    public static native boolean arwGetVideoParamsInto(int[] params);
+
+    /**
+     * As arwGetVideoParamsInto, for both cameras of a stereo pair.
+     */
+    public static native boolean arwGetVideoParamsStereoInto(int[] paramsL, int[] paramsR);
+
     /**
      * Checks if a new video frame is available.
      *
@@ -256,6 +312,17 @@ public class NativeInterface {
      */
     public static native int arwAddMarker(String cfg);
 
+    /**
+     * Adds several markers to be detected, in one call.
+     *
+     * @param cfgs        Marker configuration strings, as for arwAddMarker.
+     * @param markerUIDs  Filled with the UID of each marker in the order of cfgs, or -1 for a marker that was not added due to an error.
+     * @param loadTimesMs Filled with how long each marker took to add, in milliseconds, or null.
+     * @return The number of markers added.
+     * @see MarkerBatchLoader
+     */
+    public static native int arwAddMarkers(String[] cfgs, int[] markerUIDs, float[] loadTimesMs);
+
     /**
      * Removes the specified marker.
      *
@@ -287,6 +354,20 @@ public class NativeInterface {
      */
     public static native float[] arwQueryMarkerTransformation(int markerUID);
 
+    /**
+     * As arwQueryMarkerTransformation, writing to a caller-owned array instead of allocating one.
+     *
+     * @param markerUID The unique identifier (UID) of the marker to check
+     * @param matrix    An array of at least 16 floats, filled with the OpenGL compatible transformation matrix if the marker is visible.
+     * @return true if the marker is currently visible, otherwise false.
+     */
+    public static native boolean arwQueryMarkerTransformationInto(int markerUID, float[] matrix);
+
+    /**
+     * As arwQueryMarkerTransformationInto, writing to a direct buffer from position zero.
+     */
+    public static native boolean arwQueryMarkerTransformationBuffer(int markerUID, FloatBuffer matrix);
+
     /**
      * Retrieves the transformation matrix for the specified marker
      *
@@ -297,6 +378,37 @@ public class NativeInterface {
      */
     public static native boolean arwQueryMarkerTransformationStereo(int markerUID, float[] matrixL, float[] matrixR);
 
+    /**
+     * @see PoseMath#MARKER_POSE_STRIDE
+     */
+    public static final int MARKER_POSE_STRIDE = PoseMath.MARKER_POSE_STRIDE;
+
+    /**
+     * Retrieves the visibility and transformation matrix of several markers in one call.
+     *
+     * @param markerUIDs The unique identifiers (UIDs) of the markers to query.
+     * @param count      The number of elements of markerUIDs to query.
+     * @param poses      Filled with MARKER_POSE_STRIDE floats per marker, in the order of markerUIDs. The matrix of a marker that isn't visible is left as it was.
+     * @return The number of visible markers, or -1 if an error occurred.
+     * @see MarkerPoseBatch
+     */
+    public static native int arwQueryMarkerTransformations(int[] markerUIDs, int count, float[] poses);
+
+    /**
+     * As arwQueryMarkerTransformations, writing to a direct buffer, e.g. one shared with other native code.
+     *
+     * @param poses A direct buffer with room for count * MARKER_POSE_STRIDE floats, written from position zero.
+     */
+    public static native int arwQueryMarkerTransformationsBuffer(int[] markerUIDs, int count, FloatBuffer poses);
+
+    /**
+     * As arwQueryMarkerTransformations, for both cameras of a stereo pair.
+     *
+     * @param posesL Filled with MARKER_POSE_STRIDE floats per marker, with the matrices for the left camera.
+     * @param posesR Filled in the same way for the right camera.
+     */
+    public static native int arwQueryMarkerTransformationsStereo(int[] markerUIDs, int count, float[] posesL, float[] posesR);
+
     public static final int ARW_MARKER_OPTION_FILTERED = 1,
             ARW_MARKER_OPTION_FILTER_SAMPLE_RATE = 2,
             ARW_MARKER_OPTION_FILTER_CUTOFF_FREQ = 3,
@@ -393,9 +505,86 @@ public class NativeInterface {
      */
     public static native boolean arwAcceptVideoImageStereo(byte[] imageL, int widthL, int heightL, int cameraIndexL, boolean cameraIsFrontFacingL, byte[] imageR, int widthR, int heightR, int cameraIndexR, boolean cameraIsFrontFacingR);
 
+    public static final int AR_PIXEL_FORMAT_INVALID = -1;
+    public static final int AR_PIXEL_FORMAT_MONO = 5;
+    public static final int AR_PIXEL_FORMAT_NV21 = 14;
+
+    /**
+     * Passes the luminance plane of a video frame to the native library for processing. Only the
+     * first width * height bytes of the image are read, so an NV21 or YUV frame can be passed as
+     * it is and its chroma planes never cross JNI.
+     *
+     * @param image               Buffer starting with the luminance plane of the frame, one byte per pixel.
+     * @param width               Width of the video frame in pixels
+     * @param height              Height of the video frame in pixels
+     * @param cameraIndex         Zero-based index of the camera in use. If only one camera is present, will be 0.
+     * @param cameraIsFrontFacing false if camera is rear-facing (the default) or true if camera is facing toward the user.
+     * @return true if no error occurred, otherwise false
+     */
+    public static native boolean arwAcceptVideoImageMono(byte[] image, int width, int height, int cameraIndex, boolean cameraIsFrontFacing);
+
+    /**
+     * Registers a pool of direct buffers as the source of frames for a video stream. The frame
+     * parameters are fixed for the lifetime of the stream, so subsequent frames need only
+     * identify the buffer they were written to.
+     *
+     * @param buffers             Direct buffers, each large enough to hold one frame. The native side keeps a reference to them until the stream is unregistered.
+     * @param width               Width of the video frames in pixels
+     * @param height              Height of the video frames in pixels
+     * @param pixelFormat         One of the AR_PIXEL_FORMAT_xxx values, e.g. AR_PIXEL_FORMAT_NV21.
+     * @param cameraIndex         Zero-based index of the camera in use. If only one camera is present, will be 0.
+     * @param cameraIsFrontFacing false if camera is rear-facing (the default) or true if camera is facing toward the user.
+     * @return A video stream handle (>= 0), or -1 if an error occurred.
+     * @see arwAcceptVideoBuffer
+     * @see arwUnregisterVideoStream
+     */
+    public static native int arwRegisterVideoStream(ByteBuffer[] buffers, int width, int height, int pixelFormat, int cameraIndex, boolean cameraIsFrontFacing);
+
+    /**
+     * Passes a video frame held in one of a stream's registered buffers to the native library
+     * for processing. No frame data crosses JNI.
+     *
+     * @param streamHandle A handle returned by arwRegisterVideoStream.
+     * @param bufferIndex  A buffer index returned by arwAcquireVideoBuffer. The native library owns the buffer from this call until it releases it.
+     * @param timestampNs  Capture timestamp of the frame, in nanoseconds.
+     * @return true if no error occurred, otherwise false
+     */
+    public static native boolean arwAcceptVideoBuffer(int streamHandle, int bufferIndex, long timestampNs);
+
+    /**
+     * Takes one of a stream's buffers that the native library isn't using, for the next frame to
+     * be written to. A buffer passed to arwAcceptVideoBuffer is released by the native library
+     * once it has processed the frame, or dropped it for a newer one, and is only returned by
+     * this function after that.
+     *
+     * @param streamHandle A handle returned by arwRegisterVideoStream.
+     * @return The index of the buffer, or -1 if the native library still holds every buffer.
+     */
+    public static native int arwAcquireVideoBuffer(int streamHandle);
+
+    /**
+     * Releases a video stream and the native references to its buffers.
+     *
+     * @param streamHandle A handle returned by arwRegisterVideoStream.
+     * @return true if no error occurred, otherwise false
+     */
+    public static native boolean arwUnregisterVideoStream(int streamHandle);
+
 
     public static native boolean arwUpdateDebugTexture32(byte[] image);
 
+    /**
+     * Fills a direct buffer with the debug image of the last arwUpdateAR, as 32-bit RGBA pixels,
+     * optionally taking only every downscale-th pixel of every downscale-th row. No image data
+     * crosses JNI.
+     *
+     * @param image     A direct buffer with room for (width / downscale) * (height / downscale) * 4 bytes, written from position zero.
+     * @param downscale 1 for the full size image, or a larger factor to shrink it by.
+     * @return true if the image was written, false if debug mode is off, the buffer is too small or an error occurred.
+     * @see DebugTexture
+     */
+    public static native boolean arwUpdateDebugTextureBuffer(ByteBuffer image, int downscale);
+
 
     public static final int AR_LABELING_WHITE_REGION = 0,
             AR_LABELING_BLACK_REGION = 1;
@@ -0,0 +1,115 @@
+package org.artoolkit.ar.base;
+
+import android.util.Log;
+
+/**
+ * The parameters of the video source frame, refreshed in place by {@link #update()} so that one
+ * instance can be reused for every query instead of allocating arrays and a String each time.
+ * <p/>
+ * If the native library does not provide arwGetVideoParamsInto, the parameters are fetched with
+ * arwGetVideoParams, which still creates the pixel format name on every call.
+ */
+public class VideoParams {
+
+    private static final String TAG = "VideoParams";
+
+    /**
+     * Cleared the first time the native library turns out not to implement arwGetVideoParamsInto.
+     */
+    private static volatile boolean sNativeSupported = true;
+    private static volatile boolean sStereoNativeSupported = true;
+
+    private final int[] mParams = new int[NativeInterface.VIDEO_PARAM_COUNT];
+
+    // For the fallback to arwGetVideoParams
+    private final int[] mWidth = new int[1];
+    private final int[] mHeight = new int[1];
+    private final int[] mPixelSize = new int[1];
+    private final String[] mPixelFormatString = new String[1];
+
+    /**
+     * Fetches the parameters of the video source.
+     *
+     * @return true if the parameters were fetched, false if there is currently no video source or an error occurred.
+     */
+    public boolean update() {
+        if (sNativeSupported) {
+            try {
+                return NativeInterface.arwGetVideoParamsInto(mParams);
+            } catch (UnsatisfiedLinkError e) {
+                Log.w(TAG, "update(): Native library has no arwGetVideoParamsInto, using arwGetVideoParams.");
+                sNativeSupported = false;
+            }
+        }
+        if (!NativeInterface.arwGetVideoParams(mWidth, mHeight, mPixelSize, mPixelFormatString)) {
+            return false;
+        }
+        set(mWidth[0], mHeight[0], mPixelSize[0], mPixelFormatString[0]);
+        return true;
+    }
+
+    /**
+     * Fetches the parameters of both video sources of a stereo pair, into this instance for the
+     * left camera and into right for the right camera.
+     *
+     * @return true if the parameters were fetched, false if there is currently no stereo video source or an error occurred.
+     */
+    public boolean updateStereo(VideoParams right) {
+        if (sStereoNativeSupported) {
+            try {
+                return NativeInterface.arwGetVideoParamsStereoInto(mParams, right.mParams);
+            } catch (UnsatisfiedLinkError e) {
+                Log.w(TAG, "updateStereo(): Native library has no arwGetVideoParamsStereoInto, using arwGetVideoParamsStereo.");
+                sStereoNativeSupported = false;
+            }
+        }
+        if (!NativeInterface.arwGetVideoParamsStereo(mWidth, mHeight, mPixelSize, mPixelFormatString,
+                right.mWidth, right.mHeight, right.mPixelSize, right.mPixelFormatString)) {
+            return false;
+        }
+        set(mWidth[0], mHeight[0], mPixelSize[0], mPixelFormatString[0]);
+        right.set(right.mWidth[0], right.mHeight[0], right.mPixelSize[0], right.mPixelFormatString[0]);
+        return true;
+    }
+
+    private void set(int width, int height, int pixelSize, String pixelFormatString) {
+        mParams[NativeInterface.VIDEO_PARAM_WIDTH] = width;
+        mParams[NativeInterface.VIDEO_PARAM_HEIGHT] = height;
+        mParams[NativeInterface.VIDEO_PARAM_PIXEL_SIZE] = pixelSize;
+        mParams[NativeInterface.VIDEO_PARAM_PIXEL_FORMAT] = pixelFormatOf(pixelFormatString);
+    }
+
+    /**
+     * @return The AR_PIXEL_FORMAT_xxx value for the name of a pixel format, or AR_PIXEL_FORMAT_INVALID if it isn't one this class knows.
+     */
+    static int pixelFormatOf(String pixelFormatString) {
+        if ("AR_PIXEL_FORMAT_NV21".equals(pixelFormatString)) {
+            return NativeInterface.AR_PIXEL_FORMAT_NV21;
+        } else if ("AR_PIXEL_FORMAT_MONO".equals(pixelFormatString)) {
+            return NativeInterface.AR_PIXEL_FORMAT_MONO;
+        }
+        return NativeInterface.AR_PIXEL_FORMAT_INVALID;
+    }
+
+    public int getWidth() {
+        return mParams[NativeInterface.VIDEO_PARAM_WIDTH];
+    }
+
+    public int getHeight() {
+        return mParams[NativeInterface.VIDEO_PARAM_HEIGHT];
+    }
+
+    /**
+     * @return The number of bytes per pixel of the source frame.
+     */
+    public int getPixelSize() {
+        return mParams[NativeInterface.VIDEO_PARAM_PIXEL_SIZE];
+    }
+
+    /**
+     * @return One of the AR_PIXEL_FORMAT_xxx values.
+     */
+    public int getPixelFormat() {
+        return mParams[NativeInterface.VIDEO_PARAM_PIXEL_FORMAT];
+    }
+}
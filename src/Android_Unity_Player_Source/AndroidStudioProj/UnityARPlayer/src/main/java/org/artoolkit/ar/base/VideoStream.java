@@ -0,0 +1,304 @@
+package org.artoolkit.ar.base;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A video stream whose static frame parameters (size, pixel format, camera index and facing)
+ * are registered with the native library once, together with a pool of direct buffers. Each
+ * frame then crosses JNI as a buffer index and a timestamp only.
+ * <p/>
+ * Producers that can write straight into a direct buffer should use {@link #acquireBuffer()}
+ * and {@link #submitBuffer(long)}. Producers that only have a heap array (the camera preview
+ * callback) can use {@link #submit(byte[], long)}, which does a single bulk copy on the Java
+ * side instead of letting JNI pin or copy the array.
+ * <p/>
+ * A buffer belongs to one side at a time. Java acquires a buffer the native library has
+ * released, writes a frame into it and submits it, and the native library releases it once it
+ * has processed that frame, or dropped it for a newer one. If the native library still holds
+ * every buffer, the frame is dropped rather than written over one that may still be read.
+ * <p/>
+ * If the native library does not provide the stream API, or direct buffers were not requested,
+ * the stream falls back to {@link NativeInterface#arwAcceptVideoImage}. Submission times are
+ * accumulated in both modes so that the two can be compared on a device.
+ */
+public class VideoStream {
+
+    private static final String TAG = "VideoStream";
+
+    public static final int DEFAULT_BUFFER_COUNT = 3;
+
+    // Registration fails until arwStartRunning, so a failed one is only retried after this long
+    private static final long OPEN_RETRY_INTERVAL_NS = 250000000L;
+
+    /**
+     * Cleared the first time the native library turns out not to implement the stream API,
+     * including the release of buffers.
+     */
+    private static volatile boolean sNativeSupported = true;
+
+    /**
+     * Cleared the first time the native library turns out not to implement arwAcceptVideoImageMono.
+     */
+    private static volatile boolean sMonoSupported = true;
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mPixelFormat;
+    private final int mFrameSize;
+    private final int mNv21FrameSize;
+    private final boolean mLumaOnly;
+    private final int mCameraIndex;
+    private final boolean mCameraIsFrontFacing;
+
+    private final ByteBuffer[] mBuffers;
+    private int mHandle = -1;
+    private int mAcquired = -1; // The buffer Java holds, or -1
+    private boolean mOpenFailed = false;
+    private long mNextOpenNs = 0;
+
+    private long mSubmittedFrames = 0;
+    private long mDroppedFrames = 0;
+    private long mSubmitNanos = 0;
+    private int mLastCopiedBytes = 0;
+
+    /**
+     * Creates an NV21 stream.
+     *
+     * @param useDirectBuffers true to try the direct buffer API, false to always use arwAcceptVideoImage.
+     */
+    public VideoStream(int width, int height, int cameraIndex, boolean cameraIsFrontFacing, boolean useDirectBuffers) {
+        this(width, height, cameraIndex, cameraIsFrontFacing, useDirectBuffers, false);
+    }
+
+    /**
+     * Creates a stream that is given NV21 frames, and optionally passes on only their luminance.
+     *
+     * @param lumaOnly true to submit only the Y plane of each frame, as AR_PIXEL_FORMAT_MONO. If the native library can't accept it, full NV21 frames are submitted.
+     */
+    public VideoStream(int width, int height, int cameraIndex, boolean cameraIsFrontFacing, boolean useDirectBuffers, boolean lumaOnly) {
+        mWidth = width;
+        mHeight = height;
+        mLumaOnly = lumaOnly;
+        mPixelFormat = lumaOnly ? NativeInterface.AR_PIXEL_FORMAT_MONO : NativeInterface.AR_PIXEL_FORMAT_NV21;
+        mNv21FrameSize = width * height * 3 / 2;
+        mFrameSize = lumaOnly ? width * height : mNv21FrameSize;
+        mCameraIndex = cameraIndex;
+        mCameraIsFrontFacing = cameraIsFrontFacing;
+        mBuffers = useDirectBuffers ? new ByteBuffer[DEFAULT_BUFFER_COUNT] : null;
+    }
+
+    /**
+     * Registers the stream with the native library. Registration fails until arwStartRunning has
+     * been called, so {@link #submit(byte[], long)} retries it until it succeeds, though only
+     * every so often, as each attempt crosses JNI; frames submitted in the meantime go through
+     * arwAcceptVideoImage.
+     *
+     * @return true if frames will be submitted through direct buffers, false if the stream falls back to arwAcceptVideoImage.
+     */
+    public boolean open() {
+        if (mHandle >= 0) {
+            return true;
+        }
+        if (mBuffers == null || !sNativeSupported) {
+            return false;
+        }
+        long now = System.nanoTime();
+        if (mOpenFailed && now - mNextOpenNs < 0) {
+            return false;
+        }
+        for (int i = 0; i < mBuffers.length; i++) {
+            if (mBuffers[i] == null) {
+                mBuffers[i] = ByteBuffer.allocateDirect(mFrameSize);
+            }
+        }
+        try {
+            mHandle = NativeInterface.arwRegisterVideoStream(mBuffers, mWidth, mHeight, mPixelFormat, mCameraIndex, mCameraIsFrontFacing);
+        } catch (UnsatisfiedLinkError e) {
+            Log.w(TAG, "open(): Native library has no video stream support, using arwAcceptVideoImage.");
+            sNativeSupported = false;
+            mHandle = -1;
+        }
+        if (mHandle >= 0) {
+            Log.i(TAG, "open(): Registered " + mBuffers.length + " direct buffers of " + mFrameSize + " bytes as stream " + mHandle);
+        } else {
+            mOpenFailed = true;
+            mNextOpenNs = now + OPEN_RETRY_INTERVAL_NS;
+        }
+        return mHandle >= 0;
+    }
+
+    public void close() {
+        if (mSubmittedFrames > 0) {
+            Log.i(TAG, "close(): " + mSubmittedFrames + " frames submitted " + (isDirect() ? "via direct buffers" : "via arwAcceptVideoImage")
+                    + ", mean " + getMeanSubmitMicros() + " us/frame, " + mDroppedFrames + " dropped with every buffer in use");
+        }
+        if (mHandle >= 0) {
+            NativeInterface.arwUnregisterVideoStream(mHandle);
+            mHandle = -1;
+        }
+        mAcquired = -1;
+    }
+
+    public boolean isDirect() {
+        return mHandle >= 0;
+    }
+
+    /**
+     * Submits a frame held in a heap array.
+     */
+    public boolean submit(byte[] frame, long timestampNs) {
+        long start = System.nanoTime();
+        boolean ok;
+        ByteBuffer buffer = open() ? acquireBuffer() : null;
+        if (buffer != null) {
+            buffer.put(frame, 0, mFrameSize);
+            buffer.clear();
+            ok = acceptAcquired(timestampNs);
+        } else if (mHandle >= 0) {
+            // The native side is behind and holds every buffer, so this frame is dropped
+            ok = false;
+            mLastCopiedBytes = 0;
+        } else if (mLumaOnly && sMonoSupported) {
+            ok = acceptMono(frame);
+        } else {
+            ok = NativeInterface.arwAcceptVideoImage(frame, mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+            mLastCopiedBytes = mNv21FrameSize;
+        }
+        mSubmitNanos += System.nanoTime() - start;
+        mSubmittedFrames++;
+        return ok;
+    }
+
+    private boolean acceptMono(byte[] frame) {
+        try {
+            boolean ok = NativeInterface.arwAcceptVideoImageMono(frame, mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+            mLastCopiedBytes = mFrameSize;
+            return ok;
+        } catch (UnsatisfiedLinkError e) {
+            Log.w(TAG, "submit(): Native library has no luma-only support, using arwAcceptVideoImage.");
+            sMonoSupported = false;
+            mLastCopiedBytes = mNv21FrameSize;
+            return NativeInterface.arwAcceptVideoImage(frame, mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+        }
+    }
+
+    /**
+     * Takes a direct buffer the native side has released, for the next frame to be written to,
+     * positioned at zero. Only valid when {@link #isDirect()} is true. The buffer is the caller's
+     * until it is handed back by {@link #submitBuffer(long)}; until then this returns it again.
+     *
+     * @return The buffer, or null if the native side still holds every buffer, when the frame
+     * should be dropped, or if the stream has just fallen back to arwAcceptVideoImage, which
+     * {@link #isDirect()} then tells.
+     */
+    public ByteBuffer acquireBuffer() {
+        if (mAcquired < 0) {
+            int index;
+            try {
+                index = NativeInterface.arwAcquireVideoBuffer(mHandle);
+            } catch (UnsatisfiedLinkError e) {
+                // Without releases there is no telling when a buffer can be written again
+                Log.w(TAG, "acquireBuffer(): Native library doesn't release video buffers, using arwAcceptVideoImage.");
+                sNativeSupported = false;
+                NativeInterface.arwUnregisterVideoStream(mHandle);
+                mHandle = -1;
+                return null;
+            }
+            if (index < 0 || index >= mBuffers.length) {
+                mDroppedFrames++;
+                return null;
+            }
+            mAcquired = index;
+        }
+        ByteBuffer buffer = mBuffers[mAcquired];
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Submits the frame written to the buffer returned by {@link #acquireBuffer()}, handing the
+     * buffer to the native side.
+     *
+     * @return false if no buffer was acquired, or the native side didn't accept the frame.
+     */
+    public boolean submitBuffer(long timestampNs) {
+        if (mAcquired < 0) {
+            return false;
+        }
+        long start = System.nanoTime();
+        boolean ok = acceptAcquired(timestampNs);
+        mSubmitNanos += System.nanoTime() - start;
+        mSubmittedFrames++;
+        return ok;
+    }
+
+    private boolean acceptAcquired(long timestampNs) {
+        int index = mAcquired;
+        mAcquired = -1;
+        mLastCopiedBytes = mFrameSize;
+        return NativeInterface.arwAcceptVideoBuffer(mHandle, index, timestampNs);
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The size of the frames the stream submits, which is only the Y plane if luma-only.
+     */
+    public int getFrameSize() {
+        return mFrameSize;
+    }
+
+    /**
+     * @return true if only the Y plane of each frame is written to the direct buffers.
+     */
+    public boolean isLumaOnly() {
+        return mLumaOnly;
+    }
+
+    /**
+     * @return true if frames are actually submitted as luma only, i.e. luma-only was requested and the native library supports it so far.
+     */
+    public boolean submitsLumaOnly() {
+        return mLumaOnly && (mHandle >= 0 || sMonoSupported);
+    }
+
+    /**
+     * @return The number of bytes of the last frame that were copied to the native side.
+     */
+    public int getLastCopiedBytes() {
+        return mLastCopiedBytes;
+    }
+
+    /**
+     * @return The size of a full NV21 frame, for comparison with {@link #getLastCopiedBytes()}.
+     */
+    public int getNv21FrameSize() {
+        return mNv21FrameSize;
+    }
+
+    public long getSubmittedFrames() {
+        return mSubmittedFrames;
+    }
+
+    /**
+     * @return The number of frames dropped because the native side still held every buffer.
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
+    }
+
+    /**
+     * @return The mean time spent submitting a frame, including any Java-side copy, in microseconds.
+     */
+    public float getMeanSubmitMicros() {
+        return mSubmittedFrames == 0 ? 0.0f : (float) (mSubmitNanos / mSubmittedFrames) / 1000.0f;
+    }
+}
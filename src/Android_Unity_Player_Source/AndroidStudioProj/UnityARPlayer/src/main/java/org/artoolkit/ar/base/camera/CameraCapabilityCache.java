@@ -0,0 +1,355 @@
+package org.artoolkit.ar.base.camera;
+
+import android.content.Context;
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the device's cameras support, kept in the application's files directory so that it
+ * doesn't have to be probed again on every launch.
+ * <p/>
+ * The cache belongs to one build of one device model. When Build.FINGERPRINT changes, e.g. after
+ * an OS update, or the number of cameras changes, it is thrown away and rebuilt. Which way each
+ * camera faces is probed straight away, as that doesn't need the camera to be opened; the rest
+ * is recorded from the camera's parameters the first time it is opened, by
+ * {@link #record(int, Camera.Parameters)}.
+ * <p/>
+ * Call {@link #load(Context)} before opening the camera, off the main thread as it may probe the
+ * cameras. The Camera1 capture code then reads the cache through {@link #getInstance()}, and falls
+ * back to probing if there is none. Changes are saved in the background.
+ */
+public class CameraCapabilityCache {
+
+    public static final String TAG = "CameraCapabilityCache";
+
+    private static final String FILE_NAME = "camera_capabilities.json";
+    private static final int VERSION = 1;
+
+    private static CameraCapabilityCache sInstance = null;
+
+    // Writes the saves one at a time, in order, so that neither loading nor recording waits for
+    // the file to be synced. The thread exits when idle.
+    private static final ExecutorService sSaver = new ThreadPoolExecutor(0, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "camera_capabilities_saver");
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    });
+
+    /**
+     * What one camera supports, as reported by its Camera.Parameters.
+     */
+    public static final class Capabilities {
+        public final int[] previewWidths;
+        public final int[] previewHeights;
+        /** Null if the camera doesn't report separate video sizes. */
+        public final int[] videoWidths;
+        public final int[] videoHeights;
+        /** Frame rate ranges, in frames per second scaled by 1000. */
+        public final int[] fpsMins;
+        public final int[] fpsMaxs;
+        public final String[] focusModes;
+
+        Capabilities(int[] previewWidths, int[] previewHeights, int[] videoWidths, int[] videoHeights,
+                     int[] fpsMins, int[] fpsMaxs, String[] focusModes) {
+            this.previewWidths = previewWidths;
+            this.previewHeights = previewHeights;
+            this.videoWidths = videoWidths;
+            this.videoHeights = videoHeights;
+            this.fpsMins = fpsMins;
+            this.fpsMaxs = fpsMaxs;
+            this.focusModes = focusModes;
+        }
+    }
+
+    private final File mFile;
+    private final String mFingerprint;
+    private final boolean[] mFrontFacing;
+    private final Capabilities[] mCapabilities;
+
+    private CameraCapabilityCache(File file, String fingerprint, boolean[] frontFacing, Capabilities[] capabilities) {
+        mFile = file;
+        mFingerprint = fingerprint;
+        mFrontFacing = frontFacing;
+        mCapabilities = capabilities;
+    }
+
+    /**
+     * Loads the cache, or rebuilds it if it is missing or belongs to another device or build, and
+     * makes it the one returned by {@link #getInstance()}.
+     */
+    public static synchronized CameraCapabilityCache load(Context context) {
+        if (sInstance != null) {
+            return sInstance;
+        }
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        String fingerprint = Build.MODEL + "|" + Build.FINGERPRINT;
+        int cameraCount = Camera.getNumberOfCameras();
+
+        CameraCapabilityCache cache = null;
+        if (file.exists()) {
+            try {
+                cache = read(file, fingerprint, cameraCount);
+                if (cache == null) {
+                    Log.i(TAG, "Device or build changed, rebuilding camera capabilities");
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Could not read camera capabilities: " + e.getMessage());
+            } catch (JSONException e) {
+                Log.w(TAG, "Could not parse camera capabilities: " + e.getMessage());
+            }
+        }
+        if (cache == null) {
+            boolean[] frontFacing = new boolean[cameraCount];
+            Camera.CameraInfo info = new Camera.CameraInfo();
+            for (int i = 0; i < cameraCount; i++) {
+                Camera.getCameraInfo(i, info);
+                frontFacing[i] = info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+            }
+            cache = new CameraCapabilityCache(file, fingerprint, frontFacing, new Capabilities[cameraCount]);
+            cache.save();
+        }
+        sInstance = cache;
+        return cache;
+    }
+
+    /**
+     * @return The cache loaded by {@link #load(Context)}, or null if it hasn't been loaded.
+     */
+    public static synchronized CameraCapabilityCache getInstance() {
+        return sInstance;
+    }
+
+    public int getCameraCount() {
+        return mFrontFacing.length;
+    }
+
+    public boolean isFrontFacing(int cameraIndex) {
+        return mFrontFacing[cameraIndex];
+    }
+
+    /**
+     * @return The index of the first camera facing the given way, or -1 if there is none.
+     */
+    public int findFacing(boolean frontFacing) {
+        for (int i = 0; i < mFrontFacing.length; i++) {
+            if (mFrontFacing[i] == frontFacing) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return The camera's capabilities, or null if they haven't been recorded yet.
+     */
+    public synchronized Capabilities get(int cameraIndex) {
+        return cameraIndex >= 0 && cameraIndex < mCapabilities.length ? mCapabilities[cameraIndex] : null;
+    }
+
+    /**
+     * Records a camera's capabilities from its parameters, if they haven't been recorded yet, and
+     * saves the cache in the background.
+     *
+     * @return The camera's capabilities.
+     */
+    public synchronized Capabilities record(int cameraIndex, Camera.Parameters params) {
+        if (cameraIndex < 0 || cameraIndex >= mCapabilities.length) {
+            return null;
+        }
+        if (mCapabilities[cameraIndex] == null) {
+            mCapabilities[cameraIndex] = fromParameters(params);
+            save();
+        }
+        return mCapabilities[cameraIndex];
+    }
+
+    private static Capabilities fromParameters(Camera.Parameters params) {
+        List<Camera.Size> previewSizes = params.getSupportedPreviewSizes();
+        int previewCount = previewSizes != null ? previewSizes.size() : 0;
+        int[] previewWidths = new int[previewCount];
+        int[] previewHeights = new int[previewCount];
+        for (int i = 0; i < previewCount; i++) {
+            previewWidths[i] = previewSizes.get(i).width;
+            previewHeights[i] = previewSizes.get(i).height;
+        }
+
+        List<Camera.Size> videoSizes = params.getSupportedVideoSizes();
+        int[] videoWidths = null;
+        int[] videoHeights = null;
+        if (videoSizes != null) {
+            videoWidths = new int[videoSizes.size()];
+            videoHeights = new int[videoSizes.size()];
+            for (int i = 0; i < videoWidths.length; i++) {
+                videoWidths[i] = videoSizes.get(i).width;
+                videoHeights[i] = videoSizes.get(i).height;
+            }
+        }
+
+        List<int[]> ranges = params.getSupportedPreviewFpsRange();
+        int rangeCount = ranges != null ? ranges.size() : 0;
+        int[] fpsMins = new int[rangeCount];
+        int[] fpsMaxs = new int[rangeCount];
+        for (int i = 0; i < rangeCount; i++) {
+            fpsMins[i] = ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            fpsMaxs[i] = ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        }
+
+        List<String> modes = params.getSupportedFocusModes();
+        String[] focusModes = modes != null ? modes.toArray(new String[modes.size()]) : new String[0];
+
+        return new Capabilities(previewWidths, previewHeights, videoWidths, videoHeights, fpsMins, fpsMaxs, focusModes);
+    }
+
+    // --------------------------------------------------
+    // Storage
+    // --------------------------------------------------
+
+    private static CameraCapabilityCache read(File file, String fingerprint, int cameraCount) throws IOException, JSONException {
+        JSONObject root = new JSONObject(readFile(file));
+        if (root.optInt("version", 0) != VERSION || !fingerprint.equals(root.optString("fingerprint", null))) {
+            return null;
+        }
+        JSONArray cameras = root.getJSONArray("cameras");
+        if (cameras.length() != cameraCount) {
+            return null;
+        }
+        boolean[] frontFacing = new boolean[cameraCount];
+        Capabilities[] capabilities = new Capabilities[cameraCount];
+        for (int i = 0; i < cameraCount; i++) {
+            JSONObject camera = cameras.getJSONObject(i);
+            frontFacing[i] = camera.getBoolean("frontFacing");
+            if (camera.has("previewSizes")) {
+                JSONArray preview = camera.getJSONArray("previewSizes");
+                JSONArray video = camera.optJSONArray("videoSizes");
+                JSONArray fps = camera.getJSONArray("fpsRanges");
+                capabilities[i] = new Capabilities(column(preview, 0), column(preview, 1),
+                        video != null ? column(video, 0) : null, video != null ? column(video, 1) : null,
+                        column(fps, 0), column(fps, 1), strings(camera.getJSONArray("focusModes")));
+            }
+        }
+        return new CameraCapabilityCache(file, fingerprint, frontFacing, capabilities);
+    }
+
+    // Builds the JSON under the lock and leaves writing it to the saver thread
+    private synchronized void save() {
+        final String json;
+        try {
+            JSONObject root = new JSONObject();
+            root.put("version", VERSION);
+            root.put("fingerprint", mFingerprint);
+            JSONArray cameras = new JSONArray();
+            for (int i = 0; i < mFrontFacing.length; i++) {
+                JSONObject camera = new JSONObject();
+                camera.put("frontFacing", mFrontFacing[i]);
+                Capabilities caps = mCapabilities[i];
+                if (caps != null) {
+                    camera.put("previewSizes", pairs(caps.previewWidths, caps.previewHeights));
+                    if (caps.videoWidths != null) {
+                        camera.put("videoSizes", pairs(caps.videoWidths, caps.videoHeights));
+                    }
+                    camera.put("fpsRanges", pairs(caps.fpsMins, caps.fpsMaxs));
+                    JSONArray modes = new JSONArray();
+                    for (String mode : caps.focusModes) {
+                        modes.put(mode);
+                    }
+                    camera.put("focusModes", modes);
+                }
+                cameras.put(camera);
+            }
+            root.put("cameras", cameras);
+            json = root.toString();
+        } catch (JSONException e) {
+            Log.w(TAG, "Could not save camera capabilities: " + e.getMessage());
+            return;
+        }
+        sSaver.execute(new Runnable() {
+            @Override
+            public void run() {
+                write(json);
+            }
+        });
+    }
+
+    private void write(String json) {
+        try {
+            // Write to a temporary file first, so a crash never leaves a truncated cache behind
+            File tmp = new File(mFile.getPath() + ".tmp");
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(json.getBytes("UTF-8"));
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(mFile)) {
+                Log.w(TAG, "Could not replace " + mFile);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Could not save camera capabilities: " + e.getMessage());
+        }
+    }
+
+    private static JSONArray pairs(int[] first, int[] second) {
+        JSONArray array = new JSONArray();
+        for (int i = 0; i < first.length; i++) {
+            JSONArray pair = new JSONArray();
+            pair.put(first[i]);
+            pair.put(second[i]);
+            array.put(pair);
+        }
+        return array;
+    }
+
+    private static int[] column(JSONArray pairs, int column) throws JSONException {
+        int[] values = new int[pairs.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = pairs.getJSONArray(i).getInt(column);
+        }
+        return values;
+    }
+
+    private static String[] strings(JSONArray array) throws JSONException {
+        String[] values = new String[array.length()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = array.getString(i);
+        }
+        return values;
+    }
+
+    private static String readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -44,7 +44,6 @@ import android.os.Bundle;
 import android.preference.ListPreference;
 import android.preference.PreferenceActivity;
 import android.util.Log;
-import java.util.List;
 
 /**
  * CameraPreferencesActivity provides a menu which allows the camera and its
@@ -128,15 +127,14 @@ public class CameraPreferencesActivity extends PreferenceActivity implements
 
         // One time only, we need to build a list of cameras. If more than
         // one camera, enable the cameraIndexPreference. Otherwise, disable it.
-        cameraCount = Camera.getNumberOfCameras();
-        Camera.CameraInfo cameraInfo = new Camera.CameraInfo();
+        CameraCapabilityCache capabilities = CameraCapabilityCache.load(this);
+        cameraCount = capabilities.getCameraCount();
         int cameraCountFront = 0;
         int cameraCountRear = 0;
         CharSequence[] entries = new CharSequence[cameraCount];
         CharSequence[] entryValues = new CharSequence[cameraCount];
         for (int camIndex = 0; camIndex < cameraCount; camIndex++) {
-            Camera.getCameraInfo(camIndex, cameraInfo);
-            if (cameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
+            if (capabilities.isFrontFacing(camIndex)) {
                 cameraCountFront++;
                 entries[camIndex] = "Front camera";
                 if (cameraCountFront > 1)
@@ -161,11 +159,16 @@ public class CameraPreferencesActivity extends PreferenceActivity implements
 
         Camera cam = null;
         try {
-            cam = Camera.open(camIndex);
-
-            Camera.Parameters params = cam.getParameters();
-            List<Camera.Size> previewSizes = params.getSupportedPreviewSizes();
-            cam.release();
+            // Only open the camera if its sizes haven't been recorded yet
+            CameraCapabilityCache cache = CameraCapabilityCache.load(this);
+            CameraCapabilityCache.Capabilities capabilities = cache.get(camIndex);
+            if (capabilities == null) {
+                cam = Camera.open(camIndex);
+                capabilities = cache.record(camIndex, cam.getParameters());
+                cam.release();
+            }
+            int[] widths = capabilities.previewWidths;
+            int[] heights = capabilities.previewHeights;
 
             // Build list of resolutions, checking whether the current
             // resolution is in the list too.
@@ -174,11 +177,11 @@ public class CameraPreferencesActivity extends PreferenceActivity implements
             // getResources().getString(R.string.pref_defaultValue_cameraResolution);
             String camResolution = cameraResolutionPreference.getValue();
             boolean foundCurrentResolution = false;
-            CharSequence[] entries = new CharSequence[previewSizes.size()];
-            CharSequence[] entryValues = new CharSequence[previewSizes.size()];
-            for (int i = 0; i < previewSizes.size(); i++) {
-                int w = previewSizes.get(i).width;
-                int h = previewSizes.get(i).height;
+            CharSequence[] entries = new CharSequence[widths.length];
+            CharSequence[] entryValues = new CharSequence[widths.length];
+            for (int i = 0; i < widths.length; i++) {
+                int w = widths[i];
+                int h = heights[i];
                 entries[i] = w + "x" + h + "   (" + findAspectRatioName(w, h)
                         + ")";
                 entryValues[i] = w + "x" + h;
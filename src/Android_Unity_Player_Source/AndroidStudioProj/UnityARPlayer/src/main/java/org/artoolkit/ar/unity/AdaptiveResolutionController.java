@@ -0,0 +1,263 @@
+package org.artoolkit.ar.unity;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Steps the capture size up and down a list of supported sizes to hold a target frame rate.
+ * <p/>
+ * Frames are measured in windows of one second. A window is overloaded if the frame rate falls
+ * below the target, per-frame processing takes most of the frame budget, or the frame interval
+ * jitters; it has headroom if the frame rate holds with processing well inside the budget and a
+ * steady interval. The size steps down after {@link #DOWN_WINDOWS} overloaded windows in a row
+ * and up after {@link #UP_WINDOWS} windows with headroom. A size that had to be left because it
+ * was overloaded is not tried again for {@link #CEILING_WINDOWS} windows, so the controller
+ * doesn't oscillate between two sizes.
+ */
+class AdaptiveResolutionController {
+
+    final static long WINDOW_NS = 1000000000L;
+    final static int DOWN_WINDOWS = 2;
+    final static int UP_WINDOWS = 5;
+    final static int CEILING_WINDOWS = 30;
+    // Windows ignored after a size change, while the camera settles
+    final static int SETTLE_WINDOWS = 1;
+
+    private final static float OVERLOAD_FPS_RATIO = 0.9f;
+    private final static float HEADROOM_FPS_RATIO = 0.95f;
+    private final static float OVERLOAD_BUDGET_RATIO = 0.85f;
+    private final static float HEADROOM_BUDGET_RATIO = 0.5f;
+    private final static float OVERLOAD_JITTER = 0.25f;
+    private final static float HEADROOM_JITTER = 0.1f;
+
+    private final int mTargetFps;
+    private final long mBudgetNs;
+
+    // Sizes in increasing order of area
+    private int[] mWidths = new int[0];
+    private int[] mHeights = new int[0];
+    private int mIndex = -1;
+
+    // The current window
+    private long mWindowStartNs = 0;
+    private long mLastFrameNs = 0;
+    private int mFrames = 0;
+    private long mProcessingNs = 0;
+    private long mIntervalSumNs = 0;
+    private long mIntervalSquaresUs = 0;
+    private int mIntervals = 0;
+    // The totals of updates when the window started, so the Unity thread's are never cleared
+    private int mWindowUpdates = 0;
+    private long mWindowUpdateNs = 0;
+
+    // Totals of the updates Unity has reported, only ever added to, by the Unity thread
+    private final AtomicInteger mUpdates = new AtomicInteger(0);
+    private final AtomicLong mUpdateNs = new AtomicLong(0);
+
+    private int mSettleWindows = SETTLE_WINDOWS;
+    private int mDownVotes = 0;
+    private int mUpVotes = 0;
+    private int mCeiling = Integer.MAX_VALUE;
+    private int mCeilingWindows = 0;
+
+    // The last completed window, for logging
+    private float mLastFps = 0.0f;
+    private float mLastLoad = 0.0f;
+    private float mLastJitter = 0.0f;
+
+    AdaptiveResolutionController(int targetFps) {
+        mTargetFps = targetFps;
+        mBudgetNs = 1000000000L / targetFps;
+    }
+
+    /**
+     * Sets the sizes to choose between and starts at the one closest to the given size.
+     */
+    void setSizes(int[] widths, int[] heights, int startWidth, int startHeight) {
+        Integer[] order = new Integer[widths.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final int[] w = widths;
+        final int[] h = heights;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                long areaA = (long) w[a] * h[a];
+                long areaB = (long) w[b] * h[b];
+                return areaA < areaB ? -1 : (areaA == areaB ? 0 : 1);
+            }
+        });
+        mWidths = new int[order.length];
+        mHeights = new int[order.length];
+        mIndex = -1;
+        long startArea = (long) startWidth * startHeight;
+        long bestDiff = Long.MAX_VALUE;
+        for (int i = 0; i < order.length; i++) {
+            mWidths[i] = widths[order[i]];
+            mHeights[i] = heights[order[i]];
+            long diff = Math.abs((long) mWidths[i] * mHeights[i] - startArea);
+            if (diff < bestDiff) {
+                bestDiff = diff;
+                mIndex = i;
+            }
+        }
+        mCeiling = Integer.MAX_VALUE;
+        mCeilingWindows = 0;
+        onReconfigured();
+    }
+
+    boolean hasSizes() {
+        return mIndex >= 0;
+    }
+
+    int getWidth() {
+        return mWidths[mIndex];
+    }
+
+    int getHeight() {
+        return mHeights[mIndex];
+    }
+
+    int getTargetFps() {
+        return mTargetFps;
+    }
+
+    /**
+     * Starts measuring afresh, after the capture size has changed.
+     */
+    void onReconfigured() {
+        mWindowStartNs = 0;
+        mLastFrameNs = 0;
+        mSettleWindows = SETTLE_WINDOWS;
+        mDownVotes = 0;
+        mUpVotes = 0;
+        clearWindow();
+    }
+
+    /**
+     * Records the time Unity spent tracking a frame, if Unity reports it. Called on the Unity thread.
+     */
+    void onPoseUpdated(long updateNs) {
+        mUpdateNs.addAndGet(updateNs);
+        mUpdates.incrementAndGet();
+    }
+
+    /**
+     * Records a frame handed to the native side. Called on the ingest thread.
+     *
+     * @param nowNs        When the frame was accepted.
+     * @param processingNs The time spent accepting it.
+     * @return true if the size has changed and the camera should be reconfigured to {@link #getWidth()} x {@link #getHeight()}.
+     */
+    boolean onFrameAccepted(long nowNs, long processingNs) {
+        if (mIndex < 0) {
+            return false;
+        }
+        if (mWindowStartNs == 0) {
+            mWindowStartNs = nowNs;
+        }
+        if (mLastFrameNs != 0) {
+            long interval = nowNs - mLastFrameNs;
+            long intervalUs = interval / 1000;
+            mIntervalSumNs += interval;
+            mIntervalSquaresUs += intervalUs * intervalUs;
+            mIntervals++;
+        }
+        mLastFrameNs = nowNs;
+        mFrames++;
+        mProcessingNs += processingNs;
+
+        long elapsed = nowNs - mWindowStartNs;
+        if (elapsed < WINDOW_NS) {
+            return false;
+        }
+        boolean changed = endWindow(elapsed);
+        mWindowStartNs = nowNs;
+        clearWindow();
+        return changed;
+    }
+
+    private boolean endWindow(long elapsedNs) {
+        int updates = mUpdates.get() - mWindowUpdates;
+        long updateNs = mUpdateNs.get() - mWindowUpdateNs;
+        // Tracking runs on the Unity thread, so when it's reported its rate is the one that matters
+        int frames = updates > 0 ? Math.min(updates, mFrames) : mFrames;
+        float fps = frames * 1e9f / elapsedNs;
+        float processing = (float) mProcessingNs / mFrames + (updates > 0 ? (float) updateNs / updates : 0.0f);
+        float load = processing / mBudgetNs;
+        float jitter = 0.0f;
+        if (mIntervals > 1) {
+            double meanUs = mIntervalSumNs / 1000.0 / mIntervals;
+            double variance = Math.max(0.0, (double) mIntervalSquaresUs / mIntervals - meanUs * meanUs);
+            jitter = (float) (Math.sqrt(variance) / meanUs);
+        }
+        mLastFps = fps;
+        mLastLoad = load;
+        mLastJitter = jitter;
+
+        if (mCeilingWindows > 0 && --mCeilingWindows == 0) {
+            mCeiling = Integer.MAX_VALUE;
+        }
+        if (mSettleWindows > 0) {
+            mSettleWindows--;
+            return false;
+        }
+
+        boolean overloaded = fps < mTargetFps * OVERLOAD_FPS_RATIO || load > OVERLOAD_BUDGET_RATIO || jitter > OVERLOAD_JITTER;
+        boolean headroom = fps >= mTargetFps * HEADROOM_FPS_RATIO && load < HEADROOM_BUDGET_RATIO && jitter < HEADROOM_JITTER;
+        if (overloaded) {
+            mUpVotes = 0;
+            if (++mDownVotes >= DOWN_WINDOWS && mIndex > 0) {
+                mCeiling = mIndex;
+                mCeilingWindows = CEILING_WINDOWS;
+                mIndex--;
+                onReconfigured();
+                return true;
+            }
+        }
+        else if (headroom) {
+            mDownVotes = 0;
+            if (++mUpVotes >= UP_WINDOWS && mIndex + 1 < mWidths.length && mIndex + 1 < mCeiling) {
+                mIndex++;
+                onReconfigured();
+                return true;
+            }
+        }
+        else {
+            mDownVotes = 0;
+            mUpVotes = 0;
+        }
+        return false;
+    }
+
+    private void clearWindow() {
+        mFrames = 0;
+        mProcessingNs = 0;
+        mIntervalSumNs = 0;
+        mIntervalSquaresUs = 0;
+        mIntervals = 0;
+        mWindowUpdates = mUpdates.get();
+        mWindowUpdateNs = mUpdateNs.get();
+    }
+
+    float getLastFps() {
+        return mLastFps;
+    }
+
+    /**
+     * @return The mean processing time per frame in the last window, as a fraction of the frame budget.
+     */
+    float getLastLoad() {
+        return mLastLoad;
+    }
+
+    /**
+     * @return The standard deviation of the frame interval in the last window, relative to its mean.
+     */
+    float getLastJitter() {
+        return mLastJitter;
+    }
+}
@@ -0,0 +1,263 @@
+package org.artoolkit.ar.unity;
+
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unpacks the bundled assets that arwChangeToResourcesDir() needs on the filesystem (marker
+ * patterns, camera parameters and NFT data sets) in the background, copying only the files that
+ * changed since the last time.
+ * <p/>
+ * Which files changed is decided by comparing the {@link AssetManifest} bundled with the assets
+ * to the one kept with the unpacked copies from the last successful install, so an unchanged
+ * asset isn't even read. A file listed in both with the same hash is copied again only if its
+ * copy is missing or has the wrong size. Files are streamed with channel transfers, straight from
+ * the APK where the asset is stored uncompressed, into a temporary file that replaces the copy
+ * once complete. Copies of files no longer bundled are deleted.
+ * <p/>
+ * Without a bundled manifest there is nothing to install, and the installer is ready straight away.
+ */
+public class AssetInstaller {
+
+    protected final static String TAG = "AssetInstaller";
+
+    // The most copied per transfer call, so that a stop is noticed within a large file
+    private final static long TRANSFER_CHUNK = 1024 * 1024;
+
+    private final AssetManager mAssets;
+    private final File mDirectory;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private Thread mThread = null;
+    private volatile boolean mOk = false;
+    private volatile int mCopiedFiles = 0;
+    private volatile long mCopiedBytes = 0;
+    private volatile int mUnchangedFiles = 0;
+    private volatile long mInstallNs = 0;
+
+    /**
+     * @param directory Where to unpack the assets, to pass to arwChangeToResourcesDir().
+     */
+    public AssetInstaller(Context context, File directory) {
+        mAssets = context.getAssets();
+        mDirectory = directory;
+    }
+
+    /**
+     * Unpacks into a directory of the app's private files.
+     */
+    public AssetInstaller(Context context) {
+        this(context, new File(context.getFilesDir(), "ARToolKit"));
+    }
+
+    /**
+     * Starts unpacking on a thread of its own. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (mThread != null) {
+            return;
+        }
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                try {
+                    mOk = install();
+                } catch (IOException e) {
+                    Log.e(TAG, "Cannot unpack assets to " + mDirectory + ": " + e.toString());
+                } finally {
+                    mInstallNs = System.nanoTime() - start;
+                    mDone.countDown();
+                }
+                Log.i(TAG, "Unpacked " + mCopiedFiles + " changed files (" + mCopiedBytes / 1024 + " KiB), "
+                        + mUnchangedFiles + " unchanged, in " + mInstallNs / 1000000 + " ms");
+            }
+        }, "asset_installer");
+        mThread.setPriority(Thread.MIN_PRIORITY);
+        mThread.start();
+    }
+
+    /**
+     * Waits for unpacking to finish, starting it if it hasn't been.
+     *
+     * @return true if all the assets are unpacked.
+     */
+    public boolean awaitReady() {
+        start();
+        try {
+            mDone.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return mOk;
+    }
+
+    /**
+     * @return true if unpacking has finished, successfully or not, so {@link #awaitReady()} won't block.
+     */
+    public boolean isDone() {
+        return mDone.getCount() == 0;
+    }
+
+    /**
+     * @return The directory the assets are unpacked to.
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    public int getCopiedFileCount() {
+        return mCopiedFiles;
+    }
+
+    public long getCopiedByteCount() {
+        return mCopiedBytes;
+    }
+
+    public int getUnchangedFileCount() {
+        return mUnchangedFiles;
+    }
+
+    /**
+     * @return How long unpacking took, in milliseconds, or 0 if it hasn't finished.
+     */
+    public float getInstallMillis() {
+        return mInstallNs / 1e6f;
+    }
+
+    private boolean install() throws IOException {
+        AssetManifest bundled;
+        try {
+            bundled = AssetManifest.read(mAssets.open(AssetManifest.NAME));
+        } catch (FileNotFoundException e) {
+            Log.i(TAG, "No " + AssetManifest.NAME + " in the assets, nothing to unpack");
+            return true;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + mDirectory);
+        }
+        File installedFile = new File(mDirectory, AssetManifest.NAME);
+        AssetManifest installed = null;
+        if (installedFile.isFile()) {
+            try {
+                installed = AssetManifest.read(new FileInputStream(installedFile));
+            } catch (IOException e) {
+                Log.w(TAG, "Ignoring the manifest of the last install: " + e.toString());
+            }
+        }
+
+        // Each copy replaces the old one whole, so if this install is interrupted, every copy
+        // either still has the hash in the old manifest or is of a changed asset, which the next
+        // install copies again
+        for (AssetManifest.Entry entry : bundled.entries()) {
+            File target = new File(mDirectory, entry.path);
+            if (installed != null && installed.isUnchanged(entry, target)) {
+                mUnchangedFiles++;
+                continue;
+            }
+            copy(entry, target);
+            mCopiedFiles++;
+            mCopiedBytes += entry.size;
+        }
+
+        if (installed != null) {
+            for (AssetManifest.Entry entry : installed.entries()) {
+                if (bundled.get(entry.path) == null && !new File(mDirectory, entry.path).delete()) {
+                    Log.w(TAG, "Cannot delete " + entry.path + ", which is no longer bundled");
+                }
+            }
+        }
+
+        bundled.write(installedFile);
+        return true;
+    }
+
+    private void copy(AssetManifest.Entry entry, File target) throws IOException {
+        File parent = target.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        File temporary = new File(target.getPath() + ".tmp");
+        try {
+            FileOutputStream out = new FileOutputStream(temporary);
+            long copied;
+            try {
+                FileChannel destination = out.getChannel();
+                AssetFileDescriptor fd = openFd(entry.path);
+                if (fd != null) {
+                    copied = transfer(fd, destination);
+                } else {
+                    copied = transfer(mAssets.open(entry.path, AssetManager.ACCESS_STREAMING), destination);
+                }
+            } finally {
+                out.close();
+            }
+            if (copied != entry.size) {
+                throw new IOException("Asset " + entry.path + " is " + copied + " bytes, but the manifest says " + entry.size);
+            }
+            if (!temporary.renameTo(target)) {
+                throw new IOException("Cannot replace " + target);
+            }
+        } catch (IOException e) {
+            // Leave no partial copy behind for the next install to trip over
+            temporary.delete();
+            throw e;
+        }
+    }
+
+    // An asset stored uncompressed in the APK can be read straight from it; a compressed one can't
+    private AssetFileDescriptor openFd(String path) throws IOException {
+        try {
+            return mAssets.openFd(path);
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static long transfer(AssetFileDescriptor fd, FileChannel destination) throws IOException {
+        FileInputStream in = fd.createInputStream();
+        try {
+            FileChannel source = in.getChannel();
+            long start = fd.getStartOffset();
+            long length = fd.getLength();
+            long copied = 0;
+            while (copied < length) {
+                long n = source.transferTo(start + copied, Math.min(TRANSFER_CHUNK, length - copied), destination);
+                if (n <= 0) {
+                    break;
+                }
+                copied += n;
+            }
+            return copied;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long transfer(InputStream in, FileChannel destination) throws IOException {
+        ReadableByteChannel source = Channels.newChannel(in);
+        try {
+            long copied = 0;
+            long n;
+            while ((n = destination.transferFrom(source, copied, TRANSFER_CHUNK)) > 0) {
+                copied += n;
+            }
+            return copied;
+        } finally {
+            source.close();
+        }
+    }
+}
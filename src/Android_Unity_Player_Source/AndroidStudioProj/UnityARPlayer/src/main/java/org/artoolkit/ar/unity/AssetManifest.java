@@ -0,0 +1,140 @@
+package org.artoolkit.ar.unity;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The content hashes of a set of files, which {@link AssetInstaller} compares to decide which
+ * bundled assets have changed since they were last unpacked.
+ * <p/>
+ * A manifest is a UTF-8 text file with a line per file: its SHA-1 in hex, its size in bytes and
+ * its path relative to the assets, separated by single spaces. Lines starting with # are
+ * comments. A manifest of a directory of assets is generated at build time by the assetManifest
+ * task of this module, and bundled as {@link #NAME} at the root of the assets it describes.
+ */
+public class AssetManifest {
+
+    /** The name of the manifest bundled with the assets, and kept with the unpacked copies. */
+    public final static String NAME = "asset_manifest.txt";
+
+    public static class Entry {
+        public final String path;
+        public final String hash;
+        public final long size;
+
+        public Entry(String path, String hash, long size) {
+            this.path = path;
+            this.hash = hash;
+            this.size = size;
+        }
+    }
+
+    private final Map<String, Entry> mEntries = new LinkedHashMap<String, Entry>();
+
+    public void put(Entry entry) {
+        mEntries.put(entry.path, entry);
+    }
+
+    /**
+     * @return The entry for a path, or null if the manifest has none.
+     */
+    public Entry get(String path) {
+        return mEntries.get(path);
+    }
+
+    public Iterable<Entry> entries() {
+        return mEntries.values();
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    /**
+     * Decides whether an asset needs copying again, this being the manifest of the last install.
+     *
+     * @param bundled The asset's entry in the bundled manifest.
+     * @param copy    Where the asset is unpacked to.
+     * @return Whether the last install unpacked the same content, and the copy still has its size.
+     */
+    public boolean isUnchanged(Entry bundled, File copy) {
+        Entry previous = mEntries.get(bundled.path);
+        return previous != null && previous.hash.equals(bundled.hash) && copy.length() == bundled.size;
+    }
+
+    /**
+     * Reads a manifest, closing the stream.
+     *
+     * @throws IOException If the stream can't be read, or a line is malformed or has a path outside the assets.
+     */
+    public static AssetManifest read(InputStream in) throws IOException {
+        AssetManifest manifest = new AssetManifest();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            int number = 0;
+            while ((line = reader.readLine()) != null) {
+                number++;
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(" ", 3);
+                if (fields.length < 3 || !isSafePath(fields[2])) {
+                    throw new IOException("Malformed manifest line " + number + ": " + line);
+                }
+                try {
+                    manifest.put(new Entry(fields[2], fields[0], Long.parseLong(fields[1])));
+                } catch (NumberFormatException e) {
+                    throw new IOException("Malformed manifest line " + number + ": " + line);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest to a file, replacing it only once it is written completely.
+     */
+    public void write(File file) throws IOException {
+        File temporary = new File(file.getPath() + ".tmp");
+        try {
+            Writer out = new OutputStreamWriter(new FileOutputStream(temporary), "UTF-8");
+            try {
+                for (Entry entry : mEntries.values()) {
+                    out.write(entry.hash + " " + entry.size + " " + entry.path + "\n");
+                }
+            } finally {
+                out.close();
+            }
+            if (!temporary.renameTo(file)) {
+                throw new IOException("Cannot replace " + file);
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            throw e;
+        }
+    }
+
+    // Relative, '/'-separated and not leading out of the directory it is relative to
+    static boolean isSafePath(String path) {
+        if (path.length() == 0 || path.startsWith("/") || path.indexOf('\\') >= 0) {
+            return false;
+        }
+        for (String part : path.split("/")) {
+            if (part.length() == 0 || part.equals(".") || part.equals("..")) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
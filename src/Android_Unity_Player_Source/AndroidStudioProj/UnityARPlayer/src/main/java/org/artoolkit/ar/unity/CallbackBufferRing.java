@@ -0,0 +1,164 @@
+package org.artoolkit.ar.unity;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.util.Log;
+
+/**
+ * A ring of preview buffers for use with {@link Camera#setPreviewCallbackWithBuffer}.
+ * <p/>
+ * Buffers are sized from the negotiated preview size and format, so the camera HAL fills the
+ * same few arrays over and over instead of allocating a new one per frame. Each buffer must be
+ * handed back with {@link #recycle(byte[])} once the frame has been consumed.
+ * <p/>
+ * The ring starts with the minimum number of buffers and grows by one, up to the maximum,
+ * whenever a frame arrives while the camera has no spare buffer queued (i.e. the camera would
+ * otherwise have had to drop the next frame). It shrinks back to the minimum when the preview
+ * size changes.
+ */
+class CallbackBufferRing {
+
+    private final static String TAG = "CallbackBufferRing";
+
+    public final static int DEFAULT_MIN_BUFFERS = 3;
+    public final static int DEFAULT_MAX_BUFFERS = 8;
+
+    private final int mMinBuffers;
+    private final int mMaxBuffers;
+
+    private final byte[][] mBuffers;
+    private final boolean[] mInFlight;
+    private int mBufferCount = 0;
+    private int mBufferSize = 0;
+
+    private Camera mCamera = null;
+    private int mQueued = 0;
+
+    public CallbackBufferRing() {
+        this(DEFAULT_MIN_BUFFERS, DEFAULT_MAX_BUFFERS);
+    }
+
+    public CallbackBufferRing(int minBuffers, int maxBuffers) {
+        if (minBuffers < 1 || maxBuffers < minBuffers) {
+            throw new IllegalArgumentException("Invalid buffer range " + minBuffers + ".." + maxBuffers);
+        }
+        mMinBuffers = minBuffers;
+        mMaxBuffers = maxBuffers;
+        mBuffers = new byte[maxBuffers][];
+        mInFlight = new boolean[maxBuffers];
+    }
+
+    /**
+     * Queues the ring's buffers with the camera and installs the callback. Must be called after
+     * the preview size has been set and before startPreview(). If the frame size differs from the
+     * previous attach, the ring is reallocated.
+     */
+    public synchronized void attach(Camera camera, Camera.PreviewCallback callback, int width, int height, int previewFormat) {
+        int bufferSize = width * height * ImageFormat.getBitsPerPixel(previewFormat) / 8;
+        if (bufferSize != mBufferSize) {
+            for (int i = 0; i < mBufferCount; i++) {
+                mBuffers[i] = null;
+                mInFlight[i] = false;
+            }
+            mBufferSize = bufferSize;
+            mBufferCount = 0;
+            while (mBufferCount < mMinBuffers) {
+                mBuffers[mBufferCount++] = new byte[mBufferSize];
+            }
+            Log.i(TAG, "Allocated " + mBufferCount + " buffers of " + mBufferSize + " bytes for " + width + "x" + height);
+        }
+
+        // Installing a null callback clears anything the camera still has queued, so it is safe
+        // to queue every buffer that isn't currently held by a consumer.
+        camera.setPreviewCallbackWithBuffer(null);
+        mCamera = camera;
+        mQueued = 0;
+        for (int i = 0; i < mBufferCount; i++) {
+            if (!mInFlight[i]) {
+                camera.addCallbackBuffer(mBuffers[i]);
+                mQueued++;
+            }
+        }
+        camera.setPreviewCallbackWithBuffer(callback);
+    }
+
+    /**
+     * Stops handing buffers back to the camera. Buffers still held by a consumer can be recycled
+     * safely afterwards; they are simply kept until the next attach().
+     */
+    public synchronized void detach() {
+        mCamera = null;
+        mQueued = 0;
+    }
+
+    /**
+     * Drops all buffers. Call when the camera is released.
+     */
+    public synchronized void release() {
+        detach();
+        for (int i = 0; i < mBufferCount; i++) {
+            mBuffers[i] = null;
+            mInFlight[i] = false;
+        }
+        mBufferCount = 0;
+        mBufferSize = 0;
+    }
+
+    /**
+     * Must be called from onPreviewFrame() before the frame is consumed. Marks the buffer as in
+     * flight and grows the ring if the camera has run out of queued buffers.
+     *
+     * @return true if the buffer belongs to the ring and should later be passed to recycle().
+     */
+    public synchronized boolean onFrameReceived(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0) {
+            return false;
+        }
+        mInFlight[index] = true;
+        if (mQueued > 0) {
+            mQueued--;
+        }
+        if (mQueued == 0 && mCamera != null && mBufferCount < mMaxBuffers) {
+            byte[] buffer = new byte[mBufferSize];
+            mBuffers[mBufferCount++] = buffer;
+            mCamera.addCallbackBuffer(buffer);
+            mQueued++;
+            Log.i(TAG, "Camera starved of buffers, ring grown to " + mBufferCount);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a buffer to the camera once its frame has been consumed. Buffers from a previous
+     * allocation (before a resolution change) are dropped.
+     */
+    public synchronized void recycle(byte[] data) {
+        int index = indexOf(data);
+        if (index < 0) {
+            return;
+        }
+        mInFlight[index] = false;
+        if (mCamera != null) {
+            mCamera.addCallbackBuffer(data);
+            mQueued++;
+        }
+    }
+
+    public synchronized int getBufferCount() {
+        return mBufferCount;
+    }
+
+    public synchronized int getBufferSize() {
+        return mBufferSize;
+    }
+
+    private int indexOf(byte[] data) {
+        for (int i = 0; i < mBufferCount; i++) {
+            if (mBuffers[i] == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,686 @@
+package org.artoolkit.ar.unity;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+
+import org.artoolkit.ar.base.VideoStream;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Camera capture using the Camera2 API, with the same Open/Start/Stop/Close lifecycle as
+ * {@link CameraHolderNoThread}.
+ * <p/>
+ * Frames are captured into an {@link ImageReader} in YUV_420_888 and handed to the native side as
+ * NV21. When the Y plane is contiguous it is copied in one bulk transfer. When the chroma planes
+ * are semi-planar, as they are on most devices, the V plane is copied in one bulk transfer and
+ * only the U samples are written one at a time, so the common case needs half the per-sample
+ * repacking. When direct buffers are in use the planes are transferred straight into
+ * the registered buffer without touching the Java heap. Frames carry the sensor timestamp of the
+ * {@link Image}.
+ * <p/>
+ * Requires API level 21. Lifecycle calls block until the camera has completed the transition.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class Camera2Holder implements FrameSource {
+    private enum CameraHolderState
+    {
+        Closed,
+        Idle,
+        Capturing
+    }
+
+    protected final static String TAG = "Camera2Holder";
+
+    // provide static for call function from unity3d
+    public static Camera2Holder Instance = null;
+
+    private final static int MAX_IMAGES = 4;
+    private final static long TRANSITION_TIMEOUT_MS = 2500;
+
+    // --------------------------------------------------
+    // camera variable
+    // --------------------------------------------------
+    private final CameraManager mCameraManager;
+    private HandlerThread mCameraThread = null;
+    private Handler mCameraHandler = null;
+
+    private CameraDevice mCameraDevice = null;
+    // Created by the lifecycle calls and closed on the camera thread, which frames arrive on
+    private volatile CameraCaptureSession mCaptureSession = null;
+    private volatile ImageReader mImageReader = null;
+    private CameraCharacteristics mCharacteristics = null;
+
+    private int mWidth = 0;
+    private int mHeight = 0;
+    private boolean mCameraIsFrontFacing = false;
+    private int mCameraIndex = 0;
+    private int mRequestedCameraIndex = -1; // -1 for the first rear-facing camera
+
+    private int mConfigW = 1200;
+    private int mConfigH = 800;
+    private boolean forceDefaultAspectRatio;
+    private final FpsSettings mFps = new FpsSettings(TAG);
+
+    private boolean mSensorTimestampRealtime = false;
+
+    private final NativeFrameSink mNativeSink = new NativeFrameSink();
+    private volatile FrameSink mFrameSink = mNativeSink;
+    private volatile FrameSink mCaptureSink = null; // the sink of the current capture
+    private byte[] mNv21 = null;
+    private ByteBuffer mNv21Buffer = null;
+
+    private volatile CameraHolderState mState = CameraHolderState.Closed;
+
+    // --------------------------------------------------
+    // Camera Holder Functions
+    // --------------------------------------------------
+
+    public Camera2Holder(Context context)
+    {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+
+        if(Camera2Holder.Instance != null) {
+            Camera2Holder.Instance.StopCapture();
+            Camera2Holder.Instance.CloseCamera();
+            Camera2Holder.Instance = null;
+        }
+        Camera2Holder.Instance = this;
+    }
+
+    /**
+     * Creates a holder for a given camera, e.g. one eye of a stereo rig. Unlike the other
+     * constructor, this doesn't replace {@link #Instance}, so several holders can capture at once.
+     *
+     * @param cameraIndex Index into CameraManager.getCameraIdList().
+     */
+    public Camera2Holder(Context context, int cameraIndex)
+    {
+        mCameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+        mRequestedCameraIndex = cameraIndex;
+    }
+
+    /**
+     * @return true if the device can run this backend.
+     */
+    public static boolean IsSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    public void SetResolutionTargetMax(int targetWidth, int targetHeight, boolean forceDefaultAspectRatio) {
+        mConfigW = targetWidth;
+        mConfigH = targetHeight;
+        this.forceDefaultAspectRatio = forceDefaultAspectRatio;
+    }
+
+    /**
+     * Sets the frame rate requested from auto-exposure. Takes effect on the next StartCapture().
+     */
+    public void SetTargetFps(int targetFps) {
+        mFps.setTargetFps(targetFps);
+    }
+
+    /**
+     * @see CameraHolderNoThread#SetFpsProfile(String)
+     */
+    public void SetFpsProfile(String profile) {
+        mFps.setProfile(profile);
+    }
+
+    /**
+     * @see CameraHolderNoThread#SetUseDirectBuffers(boolean)
+     */
+    public void SetUseDirectBuffers(boolean useDirectBuffers) {
+        mNativeSink.setUseDirectBuffers(useDirectBuffers);
+    }
+
+    /**
+     * Selects submitting only the Y plane of each frame, as AR_PIXEL_FORMAT_MONO, so the chroma
+     * plane is never copied. Marker tracking only uses luminance. Falls back to full NV21
+     * frames if the native library doesn't support it. Takes effect on the next StartCapture().
+     */
+    public void SetUseLumaOnly(boolean lumaOnly) {
+        mNativeSink.setLumaOnly(lumaOnly);
+    }
+
+    @Override
+    public void SetFrameSink(FrameSink sink) {
+        mFrameSink = sink != null ? sink : mNativeSink;
+    }
+
+    public void OpenCamera() {
+        if (mCameraDevice != null) {
+            return;
+        }
+
+        // A failed open leaves the thread running, to be reused by the next attempt
+        if (mCameraThread == null) {
+            mCameraThread = new HandlerThread("camera2_thread", Process.THREAD_PRIORITY_DISPLAY);
+            mCameraThread.start();
+            mCameraHandler = new Handler(mCameraThread.getLooper());
+        }
+
+        try {
+            String cameraId;
+            if (mRequestedCameraIndex >= 0) {
+                String[] ids = mCameraManager.getCameraIdList();
+                if (mRequestedCameraIndex >= ids.length) {
+                    Log.e(TAG, "Error opening camera: no camera " + mRequestedCameraIndex);
+                    return;
+                }
+                mCameraIndex = mRequestedCameraIndex;
+                cameraId = ids[mCameraIndex];
+            }
+            else {
+                cameraId = findFacingCameraId(CameraMetadata.LENS_FACING_BACK);
+                if (cameraId == null) {
+                    Log.e(TAG, "Error opening camera: no rear-facing camera");
+                    return;
+                }
+            }
+            mCharacteristics = mCameraManager.getCameraCharacteristics(cameraId);
+            Integer facing = mCharacteristics.get(CameraCharacteristics.LENS_FACING);
+            mCameraIsFrontFacing = facing != null && facing == CameraMetadata.LENS_FACING_FRONT;
+            mSensorTimestampRealtime = false;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                Integer source = mCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                mSensorTimestampRealtime = source != null && source == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+            }
+
+            final CountDownLatch opened = new CountDownLatch(1);
+            mCameraManager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(CameraDevice camera) {
+                    mCameraDevice = camera;
+                    opened.countDown();
+                }
+
+                @Override
+                public void onDisconnected(CameraDevice camera) {
+                    Log.w(TAG, "Camera disconnected");
+                    camera.close();
+                    mCameraDevice = null;
+                    mState = CameraHolderState.Closed;
+                    opened.countDown();
+                }
+
+                @Override
+                public void onError(CameraDevice camera, int error) {
+                    Log.e(TAG, "Error opening camera with code: " + error);
+                    camera.close();
+                    mCameraDevice = null;
+                    mState = CameraHolderState.Closed;
+                    opened.countDown();
+                }
+            }, mCameraHandler);
+
+            if (!opened.await(TRANSITION_TIMEOUT_MS, TimeUnit.MILLISECONDS) || mCameraDevice == null) {
+                Log.e(TAG, "Error opening camera: timed out or failed");
+                return;
+            }
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Error opening camera with message: " + e.getMessage());
+            return;
+        } catch (SecurityException e) {
+            Log.e(TAG, "Error opening camera with message: " + e.getMessage());
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        mState = CameraHolderState.Idle;
+        Log.i(TAG, "Open Camera Success");
+    }
+
+    public void CloseCamera()
+    {
+        // Capture may not have been stopped, or the camera may have been lost while capturing
+        releaseCaptureResources();
+        if (mCameraDevice != null) {
+            mCameraDevice.close();
+            mCameraDevice = null;
+            mCharacteristics = null;
+            Log.i(TAG, "Close Camera Success");
+        }
+        if (mCameraThread != null) {
+            mCameraThread.quitSafely();
+            mCameraThread = null;
+            mCameraHandler = null;
+        }
+        mState = CameraHolderState.Closed;
+    }
+
+    public void StartCapture()
+    {
+        if (mCameraDevice == null || mState == CameraHolderState.Capturing) {
+            return;
+        }
+
+        ConfigCamera();
+        FrameMetrics.Shared.reset();
+        FrameSink sink = mFrameSink;
+        sink.onCaptureStarted(mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+        mCaptureSink = sink;
+        if (mNv21 == null || mNv21.length != mWidth * mHeight * 3 / 2) {
+            mNv21 = new byte[mWidth * mHeight * 3 / 2];
+            mNv21Buffer = ByteBuffer.wrap(mNv21);
+        }
+
+        mImageReader = ImageReader.newInstance(mWidth, mHeight, ImageFormat.YUV_420_888, MAX_IMAGES);
+        mImageReader.setOnImageAvailableListener(mImageAvailableListener, mCameraHandler);
+
+        try {
+            final CountDownLatch configured = new CountDownLatch(1);
+            mCameraDevice.createCaptureSession(Arrays.asList(mImageReader.getSurface()), new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(CameraCaptureSession session) {
+                    mCaptureSession = session;
+                    configured.countDown();
+                }
+
+                @Override
+                public void onConfigureFailed(CameraCaptureSession session) {
+                    Log.e(TAG, "Could not configure capture session");
+                    configured.countDown();
+                }
+            }, mCameraHandler);
+
+            if (!configured.await(TRANSITION_TIMEOUT_MS, TimeUnit.MILLISECONDS) || mCaptureSession == null) {
+                Log.e(TAG, "Could not start capture: session timed out or failed");
+                releaseCaptureResources();
+                return;
+            }
+
+            CaptureRequest.Builder builder = mCameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+            builder.addTarget(mImageReader.getSurface());
+            builder.set(CaptureRequest.CONTROL_MODE, CameraMetadata.CONTROL_MODE_AUTO);
+            Range<Integer> fpsRange = chooseFpsRange();
+            if (fpsRange != null) {
+                builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+                mFps.report(toScaledFps(fpsRange.getLower()), toScaledFps(fpsRange.getUpper()));
+            }
+            if (isAfModeSupported(CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO)) {
+                builder.set(CaptureRequest.CONTROL_AF_MODE, CameraMetadata.CONTROL_AF_MODE_CONTINUOUS_VIDEO);
+            }
+            mCaptureSession.setRepeatingRequest(builder.build(), null, mCameraHandler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not start capture with message: " + e.getMessage());
+            releaseCaptureResources();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            releaseCaptureResources();
+            return;
+        }
+
+        mState = CameraHolderState.Capturing;
+        Log.i(TAG, "Start Capture Success");
+    }
+
+    public void StopCapture()
+    {
+        if (mState != CameraHolderState.Capturing) {
+            return;
+        }
+        try {
+            mCaptureSession.stopRepeating();
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "Could not stop capture with message: " + e.getMessage());
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Could not stop capture with message: " + e.getMessage());
+        }
+        releaseCaptureResources();
+        mState = CameraHolderState.Idle;
+        Log.i(TAG, "Stop Capture Success");
+    }
+
+    public void ConfigCamera()
+    {
+        StreamConfigurationMap map = mCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+        int[] widths = new int[sizes.length];
+        int[] heights = new int[sizes.length];
+        for (int i = 0; i < sizes.length; i++) {
+            widths[i] = sizes[i].getWidth();
+            heights[i] = sizes[i].getHeight();
+        }
+        int optimal = PreviewSizeSelector.selectOptimal(widths, heights, mConfigW, mConfigH, forceDefaultAspectRatio);
+        if (optimal >= 0) {
+            mWidth = widths[optimal];
+            mHeight = heights[optimal];
+        } else {
+            mWidth = mConfigW;
+            mHeight = mConfigH;
+        }
+        Log.i(TAG, "Set Config Camera " + mWidth + "x" + mHeight);
+    }
+
+    public int GetParamWidth() {
+        return mWidth;
+    }
+
+    public int GetParamHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Closes the session and the reader, and stops the sink, on the camera thread, and waits for
+     * that to happen. stopRepeating() doesn't wait for frames already captured, so a frame may
+     * still be being copied from the reader, or submitted to the sink, on the camera thread; this
+     * runs after it, as the Camera1 holders stop their ingest worker before stopping the sink.
+     */
+    private void releaseCaptureResources() {
+        Handler handler = mCameraHandler;
+        if (handler == null || handler.getLooper() == Looper.myLooper()) {
+            releaseCaptureResourcesOnCameraThread();
+            return;
+        }
+        final CountDownLatch released = new CountDownLatch(1);
+        boolean posted = handler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    releaseCaptureResourcesOnCameraThread();
+                } finally {
+                    released.countDown();
+                }
+            }
+        });
+        if (!posted) {
+            // The thread has quit, so no frame can be in progress on it
+            releaseCaptureResourcesOnCameraThread();
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (!released.await(TRANSITION_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    Log.e(TAG, "Timed out waiting for the camera thread to release capture");
+                }
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void releaseCaptureResourcesOnCameraThread() {
+        CameraCaptureSession session = mCaptureSession;
+        mCaptureSession = null;
+        if (session != null) {
+            session.close();
+        }
+        ImageReader reader = mImageReader;
+        mImageReader = null;
+        if (reader != null) {
+            reader.setOnImageAvailableListener(null, null);
+            reader.close();
+        }
+        FrameSink sink = mCaptureSink;
+        mCaptureSink = null;
+        if (sink != null) {
+            sink.onCaptureStopped();
+        }
+    }
+
+    /**
+     * Chooses the auto-exposure frame rate range for the current profile.
+     */
+    private Range<Integer> chooseFpsRange() {
+        Range<Integer>[] ranges = mCharacteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges == null || ranges.length == 0) {
+            return null;
+        }
+        int[] mins = new int[ranges.length];
+        int[] maxs = new int[ranges.length];
+        for (int i = 0; i < ranges.length; i++) {
+            mins[i] = toScaledFps(ranges[i].getLower());
+            maxs[i] = toScaledFps(ranges[i].getUpper());
+        }
+        int best = mFps.select(mins, maxs);
+        return best >= 0 ? ranges[best] : null;
+    }
+
+    /**
+     * Some devices report ranges scaled by 1000, as Camera1 does, and most in frames per second.
+     */
+    private static int toScaledFps(int fps) {
+        return fps < 1000 ? fps * 1000 : fps;
+    }
+
+    private boolean isAfModeSupported(int mode) {
+        int[] modes = mCharacteristics.get(CameraCharacteristics.CONTROL_AF_AVAILABLE_MODES);
+        if (modes != null) {
+            for (int m : modes) {
+                if (m == mode) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private String findFacingCameraId(int facing) throws CameraAccessException {
+        String[] ids = mCameraManager.getCameraIdList();
+        for (int i = 0; i < ids.length; i++) {
+            Integer lensFacing = mCameraManager.getCameraCharacteristics(ids[i]).get(CameraCharacteristics.LENS_FACING);
+            if (lensFacing != null && lensFacing == facing) {
+                mCameraIndex = i;
+                return ids[i];
+            }
+        }
+        return null;
+    }
+
+    // --------------------------------------------------
+    // Camera Holder Callback
+    // --------------------------------------------------
+    private final ImageReader.OnImageAvailableListener mImageAvailableListener = new ImageReader.OnImageAvailableListener() {
+        @Override
+        public void onImageAvailable(ImageReader reader) {
+            if (reader != mImageReader) {
+                // Posted before the reader was closed
+                return;
+            }
+            Image image = reader.acquireLatestImage();
+            if (image == null) {
+                return;
+            }
+            long callbackNs = System.nanoTime();
+            // Sinks get the frame's sensor timestamp moved to the System.nanoTime() clock when it can
+            // be, so frames from several cameras can be matched by exposure time
+            long frameNs = callbackNs;
+            if (mSensorTimestampRealtime) {
+                // Sensor timestamps are then on the elapsedRealtime clock, not System.nanoTime()'s
+                long sensorToCallbackNs = SystemClock.elapsedRealtimeNanos() - image.getTimestamp();
+                FrameMetrics.Shared.onFrameArrived(sensorToCallbackNs);
+                frameNs = callbackNs - sensorToCallbackNs;
+            }
+            try {
+                FrameSink sink = mCaptureSink;
+                if (sink == null) {
+                    return;
+                }
+                // Only the native sink can take frames written straight into its own buffers
+                VideoStream stream = sink == mNativeSink ? mNativeSink.getDirectStream() : null;
+                long acceptStartNs = System.nanoTime();
+                ByteBuffer buffer = stream != null ? stream.acquireBuffer() : null;
+                if (buffer == null && stream != null && stream.isDirect()) {
+                    // The native side is behind and holds every buffer, so this frame is dropped
+                    return;
+                }
+                if (buffer != null) {
+                    if (stream.isLumaOnly()) {
+                        copyLuma(image, buffer);
+                    } else {
+                        copyToNv21(image, buffer);
+                    }
+                    stream.submitBuffer(frameNs);
+                    FrameMetrics.Shared.onFrameCopied(stream.getLastCopiedBytes(), stream.getNv21FrameSize());
+                    // The native sink does this for frames given to it, which this one wasn't. The
+                    // native side only reads the buffer, so it can still be read here
+                    ThresholdEstimator estimator = ThresholdEstimator.getActive();
+                    if (estimator != null) {
+                        estimator.onFrame(buffer, mWidth, mHeight);
+                    }
+                } else {
+                    mNv21Buffer.clear();
+                    if (sink == mNativeSink && mNativeSink.submitsLumaOnly()) {
+                        // Only the Y plane will be read, so the rest of the array is left as it was
+                        copyLuma(image, mNv21Buffer);
+                    } else {
+                        copyToNv21(image, mNv21Buffer);
+                    }
+                    sink.onFrame(mNv21, frameNs);
+                }
+                FrameMetrics.Shared.onFrameAccepted(frameNs, callbackNs, acceptStartNs, System.nanoTime());
+            } finally {
+                image.close();
+            }
+        }
+    };
+
+    /**
+     * Writes a YUV_420_888 image to the buffer in NV21 layout: the full Y plane followed by
+     * interleaved V and U samples.
+     */
+    static void copyToNv21(Image image, ByteBuffer out) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        Image.Plane[] planes = image.getPlanes();
+
+        putLuma(planes[0], width, height, out);
+
+        // Chroma: if the planes are semi-planar, the V plane's samples are already two bytes
+        // apart, so it is transferred as-is and the U samples written between them. Whether the
+        // bytes between are the U samples already can't be told from the documented API.
+        Image.Plane uPlane = planes[1];
+        Image.Plane vPlane = planes[2];
+        ByteBuffer u = uPlane.getBuffer();
+        ByteBuffer v = vPlane.getBuffer();
+        int chromaWidth = width / 2;
+        int chromaHeight = height / 2;
+        if (isSemiPlanar(uPlane, vPlane, width, chromaHeight)) {
+            int vuLength = width * chromaHeight;
+            int vuStart = out.position();
+            int uStart = u.position();
+            v.limit(v.position() + vuLength - 1);
+            out.put(v);
+            for (int i = 1; i < vuLength; i += 2) {
+                out.put(vuStart + i, u.get(uStart + i - 1));
+            }
+            out.position(vuStart + vuLength);
+        } else {
+            int uRowStride = uPlane.getRowStride();
+            int vRowStride = vPlane.getRowStride();
+            int uPixelStride = uPlane.getPixelStride();
+            int vPixelStride = vPlane.getPixelStride();
+            int uStart = u.position();
+            int vStart = v.position();
+            for (int row = 0; row < chromaHeight; row++) {
+                for (int col = 0; col < chromaWidth; col++) {
+                    out.put(v.get(vStart + row * vRowStride + col * vPixelStride));
+                    out.put(u.get(uStart + row * uRowStride + col * uPixelStride));
+                }
+            }
+        }
+        out.flip();
+    }
+
+    /**
+     * Writes only the Y plane of a YUV_420_888 image to the buffer, for luma-only submission.
+     */
+    static void copyLuma(Image image, ByteBuffer out) {
+        putLuma(image.getPlanes()[0], image.getWidth(), image.getHeight(), out);
+        out.flip();
+    }
+
+    /**
+     * Y plane: one bulk transfer if the rows are contiguous.
+     */
+    private static void putLuma(Image.Plane yPlane, int width, int height, ByteBuffer out) {
+        ByteBuffer y = yPlane.getBuffer();
+        if (yPlane.getPixelStride() == 1 && yPlane.getRowStride() == width) {
+            y.limit(y.position() + width * height);
+            out.put(y);
+        } else {
+            copyPlane(y, yPlane.getRowStride(), yPlane.getPixelStride(), width, height, out);
+        }
+    }
+
+    private static void copyPlane(ByteBuffer src, int rowStride, int pixelStride, int width, int height, ByteBuffer out) {
+        int start = src.position();
+        if (pixelStride == 1) {
+            for (int row = 0; row < height; row++) {
+                src.limit(start + row * rowStride + width);
+                src.position(start + row * rowStride);
+                out.put(src);
+            }
+        } else {
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    out.put(src.get(start + row * rowStride + col * pixelStride));
+                }
+            }
+        }
+    }
+
+    /**
+     * True if the U and V planes each hold their samples two bytes apart, in rows as long as the
+     * frame is wide, as in an NV21 or NV12 buffer.
+     */
+    private static boolean isSemiPlanar(Image.Plane uPlane, Image.Plane vPlane, int width, int chromaHeight) {
+        if (uPlane.getPixelStride() != 2 || vPlane.getPixelStride() != 2
+                || uPlane.getRowStride() != width || vPlane.getRowStride() != width) {
+            return false;
+        }
+        int length = width * chromaHeight;
+        return vPlane.getBuffer().remaining() >= length - 1 && uPlane.getBuffer().remaining() >= length - 1;
+    }
+
+    // --------------------------------------------------
+    // Camera Holder Interactives
+    // --------------------------------------------------
+    public static Boolean IsCameraOpened()
+    {
+        if (Camera2Holder.Instance != null) {
+            return Camera2Holder.Instance.mState != CameraHolderState.Closed;
+        }
+        return false;
+    }
+
+    public static Boolean IsCameraCapturing()
+    {
+        if (Camera2Holder.Instance != null) {
+            return Camera2Holder.Instance.mState == CameraHolderState.Capturing;
+        }
+        return false;
+    }
+}
@@ -12,21 +12,20 @@ import android.os.Message;
 import android.os.Process;
 import android.util.Log;
 
-import org.artoolkit.ar.base.NativeInterface;
+import com.unity3d.player.UnityPlayer;
 
 import java.io.IOException;
 import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Nam Nguyen on 12/28/2016.
  */
 
 
-public class CameraHolder {
-    static {
-        NativeInterface.loadNativeLibrary();
-    }
-
+public class CameraHolder implements FrameSource {
     private enum CameraHolderState
     {
         Closed,
@@ -43,6 +42,7 @@ public class CameraHolder {
     private final static int CloseCamera = 1;
     private final static int StartCapture = 2;
     private final static int StopCapture = 3;
+    private final static int Reconcile = 4;
 
     private final static String FaceBack = "Back";
     private final static String FaceFront = "Front";
@@ -52,13 +52,47 @@ public class CameraHolder {
     // --------------------------------------------------
     public SurfaceTexture mHolderTexture;
     private Camera mCamera;
-    private int mWidth = 0;
-    private int mHeight = 0;
+    private volatile int mWidth = 0;
+    private volatile int mHeight = 0;
+    private int mPreviewFormat = ImageFormat.NV21;
     private boolean mCameraIsFrontFacing = false;
     private int mCameraIndex= 0;
+    private int mConfigW = 640;
+    private int mConfigH = 480;
+    private boolean mForceDefaultAspectRatio = false;
+
+    // Preview buffers reused across frames when capturing with setPreviewCallbackWithBuffer()
+    private final CallbackBufferRing mBufferRing = new CallbackBufferRing();
+    private boolean mUseCallbackBuffers = true;
+
+    private final FpsSettings mFps = new FpsSettings("CameraHolder");
 
-    private CameraHolderState mState = CameraHolderState.Closed;
-    private boolean mReminderCapturing = false;
+    // Where frames go; by default the native side, through a VideoStream
+    private final NativeFrameSink mNativeSink = new NativeFrameSink();
+    private volatile FrameSink mFrameSink = mNativeSink;
+    private volatile FrameSink mCaptureSink = mNativeSink; // the sink of the current capture
+
+    // Optional thread that takes native ingest off the camera callback thread
+    private volatile IngestWorker mIngestWorker = null;
+    private boolean mUseIngestWorker = false;
+
+    // --------------------------------------------------
+    // State machine
+    // --------------------------------------------------
+    // The state and the target state are each packed with a version into one atomic word, so
+    // any thread reads a consistent pair without locking. Every transition bumps the version.
+    private final static CameraHolderState[] States = CameraHolderState.values();
+    private final AtomicLong mStateWord = new AtomicLong(packState(0, CameraHolderState.Closed));
+    // The state the Command functions have asked for; its version is the ticket of the last command
+    private final AtomicLong mTargetWord = new AtomicLong(packState(0, CameraHolderState.Closed));
+    // The version of the last target reached, or given up on
+    private volatile int mCompletedVersion = 0;
+    private final AtomicBoolean mReconcilePosted = new AtomicBoolean(false);
+    // Optional Unity object and method told about completed commands
+    private volatile String mListenerObject = null;
+    private volatile String mListenerMethod = null;
+
+    private volatile boolean mReminderCapturing = false;
     // --------------------------------------------------
     // camera Thread variable
     // --------------------------------------------------
@@ -92,6 +126,9 @@ public class CameraHolder {
                 case CameraHolder.StopCapture:
                     cameraHolder.StopCapture();
                     break;
+                case CameraHolder.Reconcile:
+                    cameraHolder.reconcile();
+                    break;
                 default:
                     break;
             }
@@ -143,18 +180,20 @@ public class CameraHolder {
         catch (Exception e){
             // trigger Open Camera Error here.
         }
+        if (mCamera == null) {
+            Log.e("CameraHolder", "Could not open camera " + mCameraIndex);
+            return;
+        }
         // -------------------------------------------------------
         mHolderTexture = new SurfaceTexture(49);
         try {
             mCamera.setPreviewTexture(mHolderTexture);
-            mCamera.setPreviewCallback(mPreviewCallback);
-
-            Log.i("CameraHolder", "Set Camera Preview Callback");
+            Log.i("CameraHolder", "Set Camera Preview Texture");
         } catch (IOException e) {
             e.printStackTrace();
         }
 
-        mState = CameraHolderState.Idle;
+        setState(CameraHolderState.Idle);
     }
 
     public void CloseCamera()
@@ -162,8 +201,9 @@ public class CameraHolder {
         if(mCamera != null) {
             mCamera.release();
             mCamera = null;
+            mBufferRing.release();
 
-            mState = CameraHolderState.Closed;
+            setState(CameraHolderState.Closed);
             Log.i("CameraHolder", "Close Camera Success");
         }
     }
@@ -172,9 +212,24 @@ public class CameraHolder {
     {
         if(mCamera != null) {
             ConfigCamera();
+            FrameMetrics.Shared.reset();
+            mCaptureSink = mFrameSink;
+            mCaptureSink.onCaptureStarted(mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+            if (mUseIngestWorker) {
+                mIngestWorker = new IngestWorker("camera_ingest_thread", mFrameConsumer, mBufferRecycler);
+                mIngestWorker.start();
+            }
+            if (mUseCallbackBuffers) {
+                mBufferRing.attach(mCamera, mPreviewCallback, mWidth, mHeight, mPreviewFormat);
+                Log.i("CameraHolder", "Set Camera Preview Callback with " + mBufferRing.getBufferCount() + " buffers");
+            }
+            else {
+                mCamera.setPreviewCallback(mPreviewCallback);
+                Log.i("CameraHolder", "Set Camera Preview Callback");
+            }
             mCamera.startPreview();
 
-            mState = CameraHolderState.Capturing;
+            setState(CameraHolderState.Capturing);
             Log.i("CameraHolder", "Start Capture Success");
         }
     }
@@ -183,13 +238,83 @@ public class CameraHolder {
     {
         if(mCamera != null) {
             mCamera.stopPreview();
+            mCamera.setPreviewCallback(null);
+            mBufferRing.detach();
+            if (mIngestWorker != null) {
+                mIngestWorker.stop();
+                Log.i("CameraHolder", "Ingest worker stopped, " + mIngestWorker.getConsumedCount() + " frames ingested, " + mIngestWorker.getDroppedCount() + " dropped");
+                mIngestWorker = null;
+            }
+            mCaptureSink.onCaptureStopped();
 
-            mState = CameraHolderState.Idle;
+            setState(CameraHolderState.Idle);
             Log.i("CameraHolder", "Stop Capture Success");
             mReminderCapturing = false;
         }
     }
 
+    public void SetResolutionTargetMax(int targetWidth, int targetHeight, boolean forceDefaultAspectRatio) {
+        mConfigW = targetWidth;
+        mConfigH = targetHeight;
+        mForceDefaultAspectRatio = forceDefaultAspectRatio;
+    }
+
+    /**
+     * Selects how the preview frame rate range is negotiated, by the name of one of the
+     * FpsRangeSelector profiles: "low-latency" (the default), "balanced" or "power-save".
+     * Takes effect on the next StartCapture().
+     */
+    public void SetFpsProfile(String profile) {
+        mFps.setProfile(profile);
+    }
+
+    /**
+     * Sets the frame rate the FPS profile aims for. Takes effect on the next StartCapture().
+     */
+    public void SetTargetFps(int targetFps) {
+        mFps.setTargetFps(targetFps);
+    }
+
+    /**
+     * Selects between a ring of reused preview buffers (the default) and the camera allocating a
+     * new buffer for every frame. Takes effect on the next StartCapture().
+     */
+    public void SetUseCallbackBuffers(boolean useCallbackBuffers) {
+        mUseCallbackBuffers = useCallbackBuffers;
+    }
+
+    /**
+     * Selects submitting frames through a pool of direct buffers registered once with the
+     * native side, instead of arwAcceptVideoImage. Falls back to arwAcceptVideoImage if the
+     * native library doesn't support it. Takes effect on the next StartCapture().
+     */
+    public void SetUseDirectBuffers(boolean useDirectBuffers) {
+        mNativeSink.setUseDirectBuffers(useDirectBuffers);
+    }
+
+    /**
+     * Selects submitting only the Y plane of each frame, as AR_PIXEL_FORMAT_MONO, so the chroma
+     * plane is never copied. Marker tracking only uses luminance. Falls back to full NV21
+     * frames if the native library doesn't support it. Takes effect on the next StartCapture().
+     */
+    public void SetUseLumaOnly(boolean lumaOnly) {
+        mNativeSink.setLumaOnly(lumaOnly);
+    }
+
+    @Override
+    public void SetFrameSink(FrameSink sink) {
+        mFrameSink = sink != null ? sink : mNativeSink;
+    }
+
+    /**
+     * Selects handing frames to a dedicated ingest thread, so the camera callback returns
+     * immediately. If ingest falls behind, older frames are dropped in favour of the newest one.
+     * Takes effect on the next StartCapture().
+     */
+    public void SetUseIngestWorker(boolean useIngestWorker) {
+        mUseIngestWorker = useIngestWorker;
+    }
+
     public void DestroyCamera()
     {
         try {
@@ -203,31 +328,84 @@ public class CameraHolder {
             e.printStackTrace();
         }
 
-        mState = CameraHolderState.Closed;
+        setState(CameraHolderState.Closed);
     }
 
     public void ConfigCamera()
     {
         Camera.Parameters params = mCamera.getParameters();
         params.setPreviewFormat(ImageFormat.NV21);
-        params.setPreviewSize(640, 480);
+        List<Camera.Size> sizes = params.getSupportedPreviewSizes();
+        int[] widths = new int[sizes.size()];
+        int[] heights = new int[sizes.size()];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = sizes.get(i).width;
+            heights[i] = sizes.get(i).height;
+        }
+        int optimal = PreviewSizeSelector.selectOptimal(widths, heights, mConfigW, mConfigH, mForceDefaultAspectRatio);
+        if (optimal >= 0) {
+            params.setPreviewSize(widths[optimal], heights[optimal]);
+        }
+        else {
+            params.setPreviewSize(mConfigW, mConfigH);
+        }
+        mFps.apply(params);
         // -- finish set parameter
         mCamera.setParameters(params);
         // gather some ARToolkit require values
         params = mCamera.getParameters();
+        mFps.report(params);
         mWidth = params.getPreviewSize().width;;
         mHeight = params.getPreviewSize().height;;
+        mPreviewFormat = params.getPreviewFormat();
         mCameraIsFrontFacing = false;
         Log.i("CameraHolder", "Set Config Camera");
     }
 
+    public int GetParamWidth() {
+        return mWidth;
+    }
+
+    public int GetParamHeight() {
+        return mHeight;
+    }
+
     // --------------------------------------------------
     // Camera Holder Callback
     // --------------------------------------------------
     private Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            NativeInterface.arwAcceptVideoImage(data, mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+            if (data == null) {
+                // A queued buffer was too small for the current preview size
+                return;
+            }
+            long timestampNs = System.nanoTime();
+            mBufferRing.onFrameReceived(data);
+            IngestWorker worker = mIngestWorker;
+            if (worker != null) {
+                worker.offer(data, timestampNs);
+            }
+            else {
+                mFrameConsumer.onFrame(data, timestampNs);
+                mBufferRing.recycle(data);
+            }
+        }
+    };
+
+    private final IngestWorker.FrameConsumer mFrameConsumer = new IngestWorker.FrameConsumer() {
+        @Override
+        public void onFrame(byte[] data, long timestampNs) {
+            long acceptStartNs = System.nanoTime();
+            mCaptureSink.onFrame(data, timestampNs);
+            FrameMetrics.Shared.onFrameAccepted(timestampNs, timestampNs, acceptStartNs, System.nanoTime());
+        }
+    };
+
+    private final IngestWorker.BufferRecycler mBufferRecycler = new IngestWorker.BufferRecycler() {
+        @Override
+        public void recycle(byte[] data) {
+            mBufferRing.recycle(data);
         }
     };
     // --------------------------------------------------
@@ -263,45 +441,198 @@ public class CameraHolder {
         return camera_id;
     }
 
+    // --------------------------------------------------
+    // Camera Holder State Machine
+    // --------------------------------------------------
+    private static long packState(int version, CameraHolderState state) {
+        return ((long) version << 8) | state.ordinal();
+    }
+
+    private static CameraHolderState stateOf(long word) {
+        return States[(int) (word & 0xff)];
+    }
+
+    private static int versionOf(long word) {
+        return (int) (word >>> 8);
+    }
+
+    private CameraHolderState getState() {
+        return stateOf(mStateWord.get());
+    }
+
+    private void setState(CameraHolderState state) {
+        long word;
+        do {
+            word = mStateWord.get();
+        } while (!mStateWord.compareAndSet(word, packState(versionOf(word) + 1, state)));
+    }
+
+    /**
+     * Applies a command to the target state and makes sure the camera thread will move towards
+     * it. Commands that arrive before the camera thread gets to them are collapsed into the
+     * state they add up to, so e.g. Start, Stop, Start while capturing causes no transition.
+     *
+     * @return The command's ticket, for IsCommandComplete().
+     */
+    private long command(int what) {
+        long word;
+        long next;
+        do {
+            word = mTargetWord.get();
+            // Commands apply on top of any still pending, otherwise on top of the actual state
+            CameraHolderState base = versionOf(word) == mCompletedVersion ? getState() : stateOf(word);
+            CameraHolderState target = base;
+            switch (what) {
+                case OpenCamera:
+                    target = base == CameraHolderState.Closed ? CameraHolderState.Idle : base;
+                    break;
+                case CloseCamera:
+                    target = CameraHolderState.Closed;
+                    break;
+                case StartCapture:
+                    // As with StartCapture(), nothing happens unless the camera is open
+                    target = base == CameraHolderState.Closed ? base : CameraHolderState.Capturing;
+                    break;
+                case StopCapture:
+                    target = base == CameraHolderState.Capturing ? CameraHolderState.Idle : base;
+                    break;
+            }
+            next = packState(versionOf(word) + 1, target);
+        } while (!mTargetWord.compareAndSet(word, next));
+
+        if (mReconcilePosted.compareAndSet(false, true)) {
+            Message msg = mServiceHandler.obtainMessage();
+            msg.what = CameraHolder.Reconcile;
+            mServiceHandler.sendMessage(msg);
+        }
+        return versionOf(next);
+    }
+
+    /**
+     * Moves the camera one transition at a time towards the target state, on the camera thread,
+     * until it gets there or a transition fails.
+     */
+    private void reconcile() {
+        mReconcilePosted.set(false);
+        while (true) {
+            long target = mTargetWord.get();
+            CameraHolderState want = stateOf(target);
+            CameraHolderState have = getState();
+            if (have != want) {
+                switch (have) {
+                    case Closed:
+                        OpenCamera();
+                        break;
+                    case Idle:
+                        if (want == CameraHolderState.Capturing) {
+                            StartCapture();
+                        } else {
+                            CloseCamera();
+                        }
+                        break;
+                    case Capturing:
+                        StopCapture();
+                        break;
+                }
+                if (getState() != have) {
+                    continue;
+                }
+                Log.w("CameraHolder", "Could not move camera from " + have + " to " + want);
+            }
+            if (mTargetWord.get() == target) {
+                // The target was reached or can't be; either way the commands up to it are done
+                mCompletedVersion = versionOf(target);
+                notifyCompleted(versionOf(target), getState());
+                return;
+            }
+        }
+    }
+
+    private void notifyCompleted(int ticket, CameraHolderState state) {
+        String object = mListenerObject;
+        String method = mListenerMethod;
+        if (object != null && method != null) {
+            UnityPlayer.UnitySendMessage(object, method, ticket + ":" + state);
+        }
+    }
+
     // --------------------------------------------------
     // Camera Holder Interactives
     // --------------------------------------------------
     public static void CommandOpenCamera() {
         if (CameraHolder.Instance != null) {
-            Message msg = CameraHolder.Instance.mServiceHandler.obtainMessage();
-            msg.what = CameraHolder.OpenCamera;
-            CameraHolder.Instance.mServiceHandler.sendMessage(msg);
+            CameraHolder.Instance.command(CameraHolder.OpenCamera);
         }
     }
 
     public static void CommandCloseCamera() {
         if (CameraHolder.Instance != null) {
-            Message msg = CameraHolder.Instance.mServiceHandler.obtainMessage();
-            msg.what = CameraHolder.CloseCamera;
-            CameraHolder.Instance.mServiceHandler.sendMessage(msg);
+            CameraHolder.Instance.command(CameraHolder.CloseCamera);
         }
     }
 
     public static void CommandStartCapture() {
         if (CameraHolder.Instance != null) {
-            Message msg = CameraHolder.Instance.mServiceHandler.obtainMessage();
-            msg.what = CameraHolder.StartCapture;
-            CameraHolder.Instance.mServiceHandler.sendMessage(msg);
+            CameraHolder.Instance.command(CameraHolder.StartCapture);
         }
     }
 
     public static void CommandStopCapture() {
         if (CameraHolder.Instance != null) {
-            Message msg = CameraHolder.Instance.mServiceHandler.obtainMessage();
-            msg.what = CameraHolder.StopCapture;
-            CameraHolder.Instance.mServiceHandler.sendMessage(msg);
+            CameraHolder.Instance.command(CameraHolder.StopCapture);
+        }
+    }
+
+    /**
+     * @return The ticket of the last command given, to pass to IsCommandComplete().
+     */
+    public static long GetCommandTicket() {
+        if (CameraHolder.Instance != null) {
+            return versionOf(CameraHolder.Instance.mTargetWord.get());
+        }
+        return 0;
+    }
+
+    /**
+     * @return true once the camera has reached the state asked for by the command with the given
+     *         ticket and every command before it, or has failed to.
+     */
+    public static Boolean IsCommandComplete(long ticket)
+    {
+        if (CameraHolder.Instance != null) {
+            return CameraHolder.Instance.mCompletedVersion - (int) ticket >= 0;
         }
+        return true;
+    }
+
+    /**
+     * Asks for UnityPlayer.UnitySendMessage() to be called on the given game object whenever
+     * the camera finishes carrying out commands, with "ticket:state" as the message, so Unity
+     * doesn't have to poll. Pass null to stop.
+     */
+    public static void SetCommandListener(String gameObject, String method)
+    {
+        if (CameraHolder.Instance != null) {
+            CameraHolder.Instance.mListenerObject = gameObject;
+            CameraHolder.Instance.mListenerMethod = method;
+        }
+    }
+
+    /**
+     * @return A number that changes whenever the camera changes state.
+     */
+    public static long GetStateVersion()
+    {
+        if (CameraHolder.Instance != null) {
+            return versionOf(CameraHolder.Instance.mStateWord.get());
+        }
+        return 0;
     }
 
     public static Boolean IsCameraOpened()
     {
         if (CameraHolder.Instance != null) {
-            return CameraHolder.Instance.mState != CameraHolderState.Closed;
+            return CameraHolder.Instance.getState() != CameraHolderState.Closed;
         }
         return false;
     }
@@ -309,7 +640,47 @@ public class CameraHolder {
     public static Boolean IsCameraCapturing()
     {
         if (CameraHolder.Instance != null) {
-            return CameraHolder.Instance.mState == CameraHolderState.Capturing;
+            return CameraHolder.Instance.getState() == CameraHolderState.Capturing;
+        }
+        return false;
+    }
+
+    /**
+     * @return The mean time spent handing a frame to the native side, in microseconds, for the current capture.
+     */
+    public static float GetMeanSubmitMicros() {
+        if (CameraHolder.Instance != null) {
+            return CameraHolder.Instance.mNativeSink.getMeanSubmitMicros();
+        }
+        return 0.0f;
+    }
+
+    /**
+     * @return The number of frames dropped by the ingest worker in favour of newer ones, for the current capture.
+     */
+    public static long GetDroppedFrameCount() {
+        if (CameraHolder.Instance != null) {
+            IngestWorker worker = CameraHolder.Instance.mIngestWorker;
+            if (worker != null) {
+                return worker.getDroppedCount();
+            }
+        }
+        return 0;
+    }
+
+    public static long GetIngestedFrameCount() {
+        if (CameraHolder.Instance != null) {
+            IngestWorker worker = CameraHolder.Instance.mIngestWorker;
+            if (worker != null) {
+                return worker.getConsumedCount();
+            }
+        }
+        return 0;
+    }
+
+    public static Boolean IsSubmittingDirectBuffers() {
+        if (CameraHolder.Instance != null) {
+            return CameraHolder.Instance.mNativeSink.isDirect();
         }
         return false;
     }
@@ -6,12 +6,18 @@ import android.graphics.ImageFormat;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.Size;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.Message;
 import android.util.Log;
 
+import java.util.Arrays;
 import java.util.List;
 
+import org.artoolkit.ar.base.DebugTexture;
+import org.artoolkit.ar.base.MarkerPoseBatch;
 import org.artoolkit.ar.base.NativeInterface;
+import org.artoolkit.ar.base.camera.CameraCapabilityCache;
 
 import java.io.IOException;
 
@@ -20,11 +26,7 @@ import java.io.IOException;
  */
 
 
-public class CameraHolderNoThread {
-    static {
-        NativeInterface.loadNativeLibrary();
-    }
-
+public class CameraHolderNoThread implements FrameSource {
     private enum CameraHolderState
     {
         Closed,
@@ -37,6 +39,17 @@ public class CameraHolderNoThread {
     // provide static for call function from unity3d
     public static CameraHolderNoThread Instance = null;
 
+    // The markers whose poses UpdateAR() publishes, or null; Unity thread only
+    private static MarkerPoseBatch sSnapshotBatch = null;
+    private static PoseFilterBank sSnapshotFilter = null;
+    private static PosePredictor sSnapshotPredictor = null;
+    private static float[] sPredictedPoses = null;
+    private static ImuPoseFusion sImuFusion = null;
+    private static float[] sPropagatedPoses = null;
+    private static long sImuFrameLatencyNs = 0;
+    // The debug image refreshed around UpdateAR(), or null; Unity thread only
+    private static DebugTexture sDebugTexture = null;
+
     // --------------------------------------------------
     // Message ID
     // --------------------------------------------------
@@ -49,14 +62,47 @@ public class CameraHolderNoThread {
     private Camera mCamera = null;
     private int mWidth = 0;
     private int mHeight = 0;
+    private int mPreviewFormat = ImageFormat.NV21;
     private boolean mCameraIsFrontFacing = false;
     private int mCameraIndex= 0;
+    private int mRequestedCameraIndex = -1; // -1 for the first rear-facing camera
+
+    // Preview buffers reused across frames when capturing with setPreviewCallbackWithBuffer()
+    private final CallbackBufferRing mBufferRing = new CallbackBufferRing();
+    private boolean mUseCallbackBuffers = true;
+
+    private final FpsSettings mFps = new FpsSettings(TAG);
+
+    // Where frames go; by default the native side, through a VideoStream
+    private final NativeFrameSink mNativeSink = new NativeFrameSink();
+    private volatile FrameSink mFrameSink = mNativeSink;
+    private volatile FrameSink mCaptureSink = mNativeSink; // the sink of the current capture
+
+    // Optional thread that takes native ingest off the camera callback thread
+    private volatile IngestWorker mIngestWorker = null;
+    private boolean mUseIngestWorker = false;
 
     private int mConfigW = 1024;
     private int mConfigH = 768;
     private boolean forceDefaultAspectRatio;
 
-    private CameraHolderState mState = CameraHolderState.Closed;
+    // The settings the open camera was last configured with, so StartCapture() can skip
+    // configuring it again after PrepareCamera() or a StopCapture() if they haven't changed since
+    private boolean mConfigured = false;
+    private int mConfiguredW = 0;
+    private int mConfiguredH = 0;
+    private int mConfiguredFpsProfile = 0;
+    private int mConfiguredTargetFps = 0;
+
+    // Optional adaptive resolution, which steps the preview size to hold a target frame rate
+    private final static int ADAPTIVE_MAX_WIDTH = 1920;
+    private final static int ADAPTIVE_MAX_HEIGHT = 1080;
+    private final static double ADAPTIVE_ASPECT_TOLERANCE = 0.05;
+    private volatile AdaptiveResolutionController mAdaptive = null;
+    private Handler mReconfigureHandler = null;
+    private volatile int mResolutionGeneration = 0;
+
+    private volatile CameraHolderState mState = CameraHolderState.Closed;
     private boolean mReminderCapturing = false;
 
     // --------------------------------------------------
@@ -77,12 +123,91 @@ public class CameraHolderNoThread {
         CameraHolderNoThread.Instance = this;
     }
 
+    /**
+     * Creates a holder for a given camera, e.g. one eye of a stereo rig. Unlike the default
+     * constructor, this doesn't replace {@link #Instance}, so several holders can capture at once.
+     */
+    public CameraHolderNoThread(int cameraIndex)
+    {
+        mConfigW = 1200;
+        mConfigH = 800;
+        mRequestedCameraIndex = cameraIndex;
+    }
+
     public void SetResolutionTargetMax(int targetWidth, int targetHeight, boolean forceDefaultAspectRatio) {
         mConfigW = targetWidth;
         mConfigH = targetHeight;
         this.forceDefaultAspectRatio = forceDefaultAspectRatio;
     }
 
+    /**
+     * Enables adaptive resolution: while capturing, the preview size steps up or down through
+     * the supported sizes with the same aspect ratio as the size chosen by
+     * SetResolutionTargetMax(), to hold the target frame rate. Each change restarts capture and
+     * increments {@link #GetResolutionGeneration()}. Takes effect on the next StartCapture().
+     *
+     * @param targetFps The frame rate to hold, or 0 to disable adaptive resolution.
+     */
+    public void SetAdaptiveResolution(int targetFps) {
+        mAdaptive = targetFps > 0 ? new AdaptiveResolutionController(targetFps) : null;
+    }
+
+    /**
+     * Selects how the preview frame rate range is negotiated, by the name of one of the
+     * FpsRangeSelector profiles: "low-latency" (the default), "balanced" or "power-save".
+     * Takes effect on the next StartCapture().
+     */
+    public void SetFpsProfile(String profile) {
+        mFps.setProfile(profile);
+    }
+
+    /**
+     * Sets the frame rate the FPS profile aims for. Takes effect on the next StartCapture().
+     */
+    public void SetTargetFps(int targetFps) {
+        mFps.setTargetFps(targetFps);
+    }
+
+    /**
+     * Selects between a ring of reused preview buffers (the default) and the camera allocating a
+     * new buffer for every frame. Takes effect on the next StartCapture().
+     */
+    public void SetUseCallbackBuffers(boolean useCallbackBuffers) {
+        mUseCallbackBuffers = useCallbackBuffers;
+    }
+
+    /**
+     * Selects submitting frames through a pool of direct buffers registered once with the
+     * native side, instead of arwAcceptVideoImage. Falls back to arwAcceptVideoImage if the
+     * native library doesn't support it. Takes effect on the next StartCapture().
+     */
+    public void SetUseDirectBuffers(boolean useDirectBuffers) {
+        mNativeSink.setUseDirectBuffers(useDirectBuffers);
+    }
+
+    /**
+     * Selects submitting only the Y plane of each frame, as AR_PIXEL_FORMAT_MONO, so the chroma
+     * plane is never copied. Marker tracking only uses luminance. Falls back to full NV21
+     * frames if the native library doesn't support it. Takes effect on the next StartCapture().
+     */
+    public void SetUseLumaOnly(boolean lumaOnly) {
+        mNativeSink.setLumaOnly(lumaOnly);
+    }
+
+    @Override
+    public void SetFrameSink(FrameSink sink) {
+        mFrameSink = sink != null ? sink : mNativeSink;
+    }
+
+    /**
+     * Selects handing frames to a dedicated ingest thread, so the camera callback returns
+     * immediately. If ingest falls behind, older frames are dropped in favour of the newest one.
+     * Takes effect on the next StartCapture().
+     */
+    public void SetUseIngestWorker(boolean useIngestWorker) {
+        mUseIngestWorker = useIngestWorker;
+    }
+
     public void OpenCamera() {
 
         if(mCamera != null) {
@@ -90,7 +215,22 @@ public class CameraHolderNoThread {
         }
 
         // get camera ID
-        mCameraIndex = findFacingCameraId(FaceBack);
+        if (mRequestedCameraIndex >= 0) {
+            mCameraIndex = mRequestedCameraIndex;
+            CameraCapabilityCache cache = CameraCapabilityCache.getInstance();
+            if (cache != null && mCameraIndex < cache.getCameraCount()) {
+                mCameraIsFrontFacing = cache.isFrontFacing(mCameraIndex);
+            }
+            else {
+                Camera.CameraInfo info = new Camera.CameraInfo();
+                Camera.getCameraInfo(mCameraIndex, info);
+                mCameraIsFrontFacing = info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+            }
+        }
+        else {
+            mCameraIndex = findFacingCameraId(FaceBack);
+            mCameraIsFrontFacing = false;
+        }
         try {
             mCamera = Camera.open(mCameraIndex); // attempt to get a Camera instance
             Log.i(TAG, "Open Camera Success");
@@ -98,13 +238,15 @@ public class CameraHolderNoThread {
         catch (Exception e) {
             Log.e(TAG, "Error opening camera with message: " + e.getMessage());
         }
+        if (mCamera == null) {
+            Log.e(TAG, "Could not open camera " + mCameraIndex);
+            return;
+        }
 
         mHolderTexture = new SurfaceTexture(49);
         try {
             mCamera.setPreviewTexture(mHolderTexture);
-            mCamera.setPreviewCallback(mPreviewCallback);
-
-            Log.i(TAG, "Set Camera Preview Callback");
+            Log.i(TAG, "Set Camera Preview Texture");
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -112,10 +254,41 @@ public class CameraHolderNoThread {
         mState = CameraHolderState.Idle;
     }
 
-    public void CloseCamera()
+    /**
+     * Opens and configures the camera ahead of StartCapture(), e.g. on a background thread while
+     * the application starts up. StartCapture() then only reconfigures the camera if its settings
+     * have changed in the meantime.
+     *
+     * @return true if the camera was opened.
+     */
+    public synchronized boolean PrepareCamera() {
+        OpenCamera();
+        if (mCamera == null) {
+            return false;
+        }
+        ConfigCamera();
+        return true;
+    }
+
+    private boolean isConfigCurrent() {
+        // Adaptive resolution restarts capture precisely to change the configuration
+        return mConfigured && mAdaptive == null && mConfiguredW == mConfigW && mConfiguredH == mConfigH
+                && mConfiguredFpsProfile == mFps.getProfile() && mConfiguredTargetFps == mFps.getTargetFps();
+    }
+
+    public synchronized void CloseCamera()
     {
+        mConfigured = false;
         if(mCamera != null) {
 
+            if (mState == CameraHolderState.Capturing) {
+                StopCapture();
+            }
+            // Even if stopping failed, nothing may hand buffers back to the camera or still be
+            // ingesting its frames once it is released
+            mBufferRing.release();
+            stopIngestWorker();
+
             try {
                 mHolderTexture.release();
                 mHolderTexture = null;
@@ -137,10 +310,30 @@ public class CameraHolderNoThread {
         }
     }
 
-    public void StartCapture()
+    public synchronized void StartCapture()
     {
         if(mCamera != null) {
-            ConfigCamera();
+            if (!isConfigCurrent()) {
+                ConfigCamera();
+            }
+            FrameMetrics.Shared.reset();
+            if (mAdaptive != null) {
+                mAdaptive.onReconfigured();
+            }
+            mCaptureSink = mFrameSink;
+            mCaptureSink.onCaptureStarted(mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+            if (mUseIngestWorker) {
+                mIngestWorker = new IngestWorker("camera_ingest_thread", mFrameConsumer, mBufferRecycler);
+                mIngestWorker.start();
+            }
+            if (mUseCallbackBuffers) {
+                mBufferRing.attach(mCamera, mPreviewCallback, mWidth, mHeight, mPreviewFormat);
+                Log.i(TAG, "Set Camera Preview Callback with " + mBufferRing.getBufferCount() + " buffers");
+            }
+            else {
+                mCamera.setPreviewCallback(mPreviewCallback);
+                Log.i(TAG, "Set Camera Preview Callback");
+            }
             mCamera.startPreview();
 
             mState = CameraHolderState.Capturing;
@@ -148,12 +341,15 @@ public class CameraHolderNoThread {
         }
     }
 
-    public void StopCapture()
+    public synchronized void StopCapture()
     {
         if(mCamera != null) {
             try {
                 mCamera.stopPreview();
                 mCamera.setPreviewCallback(null); // <-- NEVER FORGET TO DO THIS AFTER STOP PREVIEW
+                mBufferRing.detach();
+                stopIngestWorker();
+                mCaptureSink.onCaptureStopped();
 
                 mState = CameraHolderState.Idle;
                 Log.i(TAG, "Stop Capture Success");
@@ -164,6 +360,14 @@ public class CameraHolderNoThread {
         }
     }
 
+    private void stopIngestWorker() {
+        if (mIngestWorker != null) {
+            mIngestWorker.stop();
+            Log.i(TAG, "Ingest worker stopped, " + mIngestWorker.getConsumedCount() + " frames ingested, " + mIngestWorker.getDroppedCount() + " dropped");
+            mIngestWorker = null;
+        }
+    }
+
     public void DestroyCamera() {
         mState = CameraHolderState.Closed;
     }
@@ -172,25 +376,97 @@ public class CameraHolderNoThread {
     {
         Camera.Parameters params = mCamera.getParameters();
         params.setPreviewFormat(ImageFormat.NV21);
+        CameraCapabilityCache cache = CameraCapabilityCache.getInstance();
+        CameraCapabilityCache.Capabilities caps = cache != null ? cache.record(mCameraIndex, params) : null;
 
         List<Size> sizes = params.getSupportedVideoSizes();
         Size optimalSize = getOptimalPreviewSize(sizes, mConfigW, mConfigH);
-        if (optimalSize != null) {
+        AdaptiveResolutionController adaptive = mAdaptive;
+        if (adaptive != null && optimalSize != null && !adaptive.hasSizes()) {
+            setAdaptiveSizes(adaptive, sizes, optimalSize);
+        }
+        if (adaptive != null && adaptive.hasSizes()) {
+            params.setPreviewSize(adaptive.getWidth(), adaptive.getHeight());
+        }
+        else if (optimalSize != null) {
             params.setPreviewSize(optimalSize.width, optimalSize.height);
         }else {
             params.setPreviewSize(mConfigW, mConfigH);
         }
 
+        if (caps != null) {
+            mFps.apply(params, caps.fpsMins, caps.fpsMaxs);
+        }
+        else {
+            mFps.apply(params);
+        }
         // -- finish set parameter
         mCamera.setParameters(params);
-        // gather some ARToolkit require values
+        // gather some ARToolkit require values. The camera may adjust what it was given, e.g. the
+        // FPS range, so report what it applied rather than what was asked for.
         params = mCamera.getParameters();
+        mFps.report(params);
         mWidth = params.getPreviewSize().width;
         mHeight = params.getPreviewSize().height;
-        mCameraIsFrontFacing = false;
+        mPreviewFormat = params.getPreviewFormat();
+        mConfigured = true;
+        mConfiguredW = mConfigW;
+        mConfiguredH = mConfigH;
+        mConfiguredFpsProfile = mFps.getProfile();
+        mConfiguredTargetFps = mFps.getTargetFps();
         Log.i(TAG, "Set Config Camera");
     }
 
+    /**
+     * Gives the controller the supported sizes it may choose between: those with the aspect ratio
+     * of the starting size, up to ADAPTIVE_MAX_WIDTH x ADAPTIVE_MAX_HEIGHT.
+     */
+    private void setAdaptiveSizes(AdaptiveResolutionController adaptive, List<Size> sizes, Size start) {
+        double aspect = (double) start.width / start.height;
+        int count = 0;
+        int[] widths = new int[sizes.size()];
+        int[] heights = new int[sizes.size()];
+        for (Size size : sizes) {
+            if (size.width > ADAPTIVE_MAX_WIDTH || size.height > ADAPTIVE_MAX_HEIGHT) {
+                continue;
+            }
+            if (Math.abs((double) size.width / size.height - aspect) > ADAPTIVE_ASPECT_TOLERANCE) {
+                continue;
+            }
+            widths[count] = size.width;
+            heights[count] = size.height;
+            count++;
+        }
+        adaptive.setSizes(Arrays.copyOf(widths, count), Arrays.copyOf(heights, count), start.width, start.height);
+        Log.i(TAG, "Adaptive resolution over " + count + " sizes, starting at " + adaptive.getWidth() + "x" + adaptive.getHeight()
+                + ", target " + adaptive.getTargetFps() + " fps");
+    }
+
+    /**
+     * Restarts capture at the size the adaptive controller has chosen. Runs on the main thread,
+     * as it must not run on the ingest thread it stops.
+     */
+    private void requestReconfigure(final AdaptiveResolutionController adaptive) {
+        if (mReconfigureHandler == null) {
+            mReconfigureHandler = new Handler(Looper.getMainLooper());
+        }
+        mReconfigureHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (CameraHolderNoThread.this) {
+                    if (mState != CameraHolderState.Capturing || adaptive != mAdaptive) {
+                        return;
+                    }
+                    Log.i(TAG, "Adaptive resolution: " + adaptive.getLastFps() + " fps, load " + adaptive.getLastLoad()
+                            + ", jitter " + adaptive.getLastJitter() + ", switching to " + adaptive.getWidth() + "x" + adaptive.getHeight());
+                    StopCapture();
+                    StartCapture();
+                    mResolutionGeneration++;
+                }
+            }
+        });
+    }
+
     public int GetParamWidth() {
         return mWidth;
     }
@@ -199,13 +475,307 @@ public class CameraHolderNoThread {
         return mHeight;
     }
 
-    private Size getOptimalPreviewSize(List<Size> sizes, int w, int h) {
+    /**
+     * @return The mean time spent handing a frame to the native side, in microseconds, for the current capture.
+     */
+    public static float GetMeanSubmitMicros() {
+        if (CameraHolderNoThread.Instance != null) {
+            return CameraHolderNoThread.Instance.mNativeSink.getMeanSubmitMicros();
+        }
+        return 0.0f;
+    }
+
+    /**
+     * @return The number of frames dropped by the ingest worker in favour of newer ones, for the current capture.
+     */
+    public static long GetDroppedFrameCount() {
+        if (CameraHolderNoThread.Instance != null) {
+            IngestWorker worker = CameraHolderNoThread.Instance.mIngestWorker;
+            if (worker != null) {
+                return worker.getDroppedCount();
+            }
+        }
+        return 0;
+    }
+
+    public static long GetIngestedFrameCount() {
+        if (CameraHolderNoThread.Instance != null) {
+            IngestWorker worker = CameraHolderNoThread.Instance.mIngestWorker;
+            if (worker != null) {
+                return worker.getConsumedCount();
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Summarises the latency of each stage of the frame pipeline and the frame rates, for
+     * whichever capture backend is running. Cheap enough to call every frame.
+     *
+     * @return An array laid out as described by the FrameMetrics.SNAPSHOT_ constants, reused by every call.
+     */
+    public static float[] GetFrameMetrics() {
+        return FrameMetrics.Shared.snapshot();
+    }
+
+    public static void ResetFrameMetrics() {
+        FrameMetrics.Shared.reset();
+    }
 
-        Size optimalSize = null;
-        double minDiffHeight = Double.MAX_VALUE;
+    /**
+     * Calls arwCapture(), timing it for the frame metrics. Use in place of calling arwCapture()
+     * directly to have the pose stages of {@link #GetFrameMetrics()} recorded.
+     */
+    public static boolean Capture() {
+        FrameMetrics.Shared.onCaptureCalled(System.nanoTime());
+        return NativeInterface.arwCapture();
+    }
+
+    /**
+     * Calls arwUpdateAR(), timing it for the frame metrics.
+     *
+     * @see #Capture()
+     */
+    public static boolean UpdateAR() {
+        DebugTexture debugTexture = sDebugTexture;
+        if (debugTexture != null) {
+            debugTexture.beforeUpdate(System.nanoTime());
+        }
+        ThresholdEstimator estimator = ThresholdEstimator.getActive();
+        if (estimator != null) {
+            int threshold = estimator.takeThreshold();
+            if (threshold >= 0) {
+                NativeInterface.arwSetVideoThreshold(threshold);
+            }
+        }
+        boolean ok = NativeInterface.arwUpdateAR();
+        if (debugTexture != null) {
+            debugTexture.afterUpdate(ok);
+        }
+        long updateNs = FrameMetrics.Shared.onPoseUpdated(System.nanoTime());
+        if (CameraHolderNoThread.Instance != null) {
+            AdaptiveResolutionController adaptive = CameraHolderNoThread.Instance.mAdaptive;
+            if (adaptive != null) {
+                adaptive.onPoseUpdated(updateNs);
+            }
+        }
+        MarkerPoseBatch batch = sSnapshotBatch;
+        if (ok && batch != null && batch.update() >= 0) {
+            long frameNs = FrameMetrics.Shared.getLastCaptureNs();
+            PoseFilterBank filter = sSnapshotFilter;
+            if (filter != null) {
+                filter.filter(batch.getPoses(), batch.getCount(), frameNs);
+            }
+            PosePredictor predictor = sSnapshotPredictor;
+            if (predictor != null) {
+                predictor.observe(batch.getPoses(), batch.getCount(), frameNs);
+            }
+            ImuPoseFusion fusion = sImuFusion;
+            if (fusion != null) {
+                fusion.observe(batch.getPoses(), batch.getCount(), frameNs);
+                ImuSampler imu = ImuSampler.Instance;
+                if (imu != null) {
+                    imu.logPoses(frameNs, batch.getPoses(), batch.getCount());
+                }
+            }
+            PoseSnapshotStore.Shared.publish(batch.getMarkerUIDs(), batch.getCount(), batch.getPoses(),
+                    batch.isStereo() ? batch.getPosesR() : null,
+                    FrameMetrics.Shared.getAcceptedFrameCount(), frameNs);
+        }
+        return ok;
+    }
+
+    /**
+     * Shows the thresholded debug image of the native library at a limited rate, by having
+     * {@link #UpdateAR()} fetch the image only for the frames whose image is shown. Debug mode
+     * stays on until {@link #StopDebugTexture()}, and should not also be set with
+     * arwSetVideoDebugMode while the image is shown. Call from the thread that calls UpdateAR().
+     *
+     * @param everyNthFrame Refresh the image at most every this many frames, 1 for every frame.
+     * @param maxHz         Refresh the image at most this many times a second, or 0 for no limit.
+     * @param downscale     1 for the full frame size, or a factor to shrink the image by in each direction.
+     * @return The debug image, whose buffer UpdateAR() refreshes in place.
+     */
+    public static DebugTexture StartDebugTexture(int everyNthFrame, float maxHz, int downscale) {
+        DebugTexture debugTexture = sDebugTexture;
+        if (debugTexture == null) {
+            debugTexture = new DebugTexture();
+        }
+        debugTexture.setEveryNthFrame(everyNthFrame);
+        debugTexture.setMaxRate(maxHz);
+        debugTexture.setDownscale(downscale);
+        sDebugTexture = debugTexture;
+        return debugTexture;
+    }
+
+    /**
+     * Stops showing the debug image, turning debug mode off.
+     */
+    public static void StopDebugTexture() {
+        DebugTexture debugTexture = sDebugTexture;
+        sDebugTexture = null;
+        if (debugTexture != null) {
+            debugTexture.stop();
+        }
+    }
+
+    /**
+     * Estimates the labeling threshold in Java from the luminance of the captured frames, and
+     * runs the native detector in manual threshold mode with it, which follows changes in
+     * lighting for little more than the cost of manual mode. The threshold is set by
+     * {@link #UpdateAR()}, and only when it moves further than the deadband. Call from the thread
+     * that calls UpdateAR().
+     *
+     * @param method   ThresholdEstimator.METHOD_OTSU or METHOD_MEDIAN.
+     * @param threads  The number of threads to sample each frame on.
+     * @param stride   Sample every this many pixels of every this many rows.
+     * @param deadband How many levels the threshold must move by before it is set again.
+     */
+    public static void StartAutoThreshold(int method, int threads, int stride, int deadband) {
+        StopAutoThreshold(NativeInterface.AR_LABELING_THRESH_MODE_MANUAL);
+        ThresholdEstimator estimator = new ThresholdEstimator(method, threads);
+        estimator.setStride(stride);
+        estimator.setDeadband(deadband);
+        ThresholdEstimator.setActive(estimator);
+    }
+
+    /**
+     * Stops estimating the threshold in Java.
+     *
+     * @param mode The threshold mode to go back to, one of NativeInterface.AR_LABELING_THRESH_MODE_xxx.
+     */
+    public static void StopAutoThreshold(int mode) {
+        ThresholdEstimator estimator = ThresholdEstimator.getActive();
+        ThresholdEstimator.setActive(null);
+        if (estimator != null) {
+            estimator.close();
+        }
+        NativeInterface.arwSetVideoThresholdMode(mode);
+    }
+
+    /**
+     * Sets the markers whose poses {@link #UpdateAR()} publishes to PoseSnapshotStore.Shared after
+     * every update, so that other threads can read them. Call from the thread that calls UpdateAR().
+     *
+     * @param markerUIDs The UIDs returned by arwAddMarker, or null to stop publishing.
+     * @param stereo     true to publish the poses for both cameras of a stereo pair.
+     */
+    public static void SetSnapshotMarkers(int[] markerUIDs, boolean stereo) {
+        if (markerUIDs == null) {
+            sSnapshotBatch = null;
+            sSnapshotFilter = null;
+            sSnapshotPredictor = null;
+            sImuFusion = null;
+            return;
+        }
+        MarkerPoseBatch batch = new MarkerPoseBatch(stereo);
+        batch.setMarkers(markerUIDs, markerUIDs.length);
+        sSnapshotBatch = batch;
+        sSnapshotFilter = stereo ? null : new PoseFilterBank(markerUIDs.length);
+        sSnapshotPredictor = stereo ? null : new PosePredictor(markerUIDs.length);
+        sPredictedPoses = stereo ? null : new float[markerUIDs.length * MarkerPoseBatch.STRIDE];
+        sImuFusion = stereo ? null : createImuFusion(markerUIDs.length);
+        sPropagatedPoses = stereo ? null : new float[markerUIDs.length * MarkerPoseBatch.STRIDE];
+    }
+
+    private static ImuPoseFusion createImuFusion(int capacity) {
+        ImuPoseFusion fusion = new ImuPoseFusion(capacity, ImuSampler.Gyroscope);
+        CameraHolderNoThread holder = CameraHolderNoThread.Instance;
+        if (holder != null) {
+            Camera.CameraInfo info = new Camera.CameraInfo();
+            Camera.getCameraInfo(holder.mCameraIndex, info);
+            fusion.setCameraOrientation(info.orientation, info.facing == Camera.CameraInfo.CAMERA_FACING_FRONT);
+        }
+        fusion.setFrameLatency(sImuFrameLatencyNs);
+        return fusion;
+    }
+
+    /**
+     * Gets the filter applied to the poses {@link #UpdateAR()} publishes, which leaves every
+     * marker unfiltered until it is given a class. Markers filtered this way should not also
+     * have ARW_MARKER_OPTION_FILTERED set.
+     *
+     * @return The filter for the markers set with {@link #SetSnapshotMarkers(int[], boolean)}, indexed in the same order, or null if there are none or they are stereo.
+     */
+    public static PoseFilterBank GetSnapshotFilter() {
+        return sSnapshotFilter;
+    }
+
+    /**
+     * @return The predictor fed with the (filtered) poses {@link #UpdateAR()} publishes, e.g. to read its prediction errors, or null if there are no snapshot markers or they are stereo.
+     */
+    public static PosePredictor GetSnapshotPredictor() {
+        return sSnapshotPredictor;
+    }
+
+    /**
+     * Predicts the poses of the markers set with {@link #SetSnapshotMarkers(int[], boolean)} for
+     * when the frame being rendered will be shown, extrapolated from the times their frames were
+     * captured.
+     *
+     * @param aheadMillis How long from now the frame will be shown, e.g. until the next vsync plus the latency of the display.
+     * @return The poses, laid out as described by NativeInterface.MARKER_POSE_STRIDE in an array reused by every call, or null if there are no snapshot markers or they are stereo.
+     */
+    public static float[] PredictSnapshotPoses(float aheadMillis) {
+        PosePredictor predictor = sSnapshotPredictor;
+        float[] poses = sPredictedPoses;
+        if (predictor == null || poses == null) {
+            return null;
+        }
+        predictor.predictAll(System.nanoTime() + (long) (aheadMillis * 1000000.0f), poses, predictor.getCapacity());
+        return poses;
+    }
 
-        int targetWidth = w;
-        int targetHeight = h;
+    /**
+     * Propagates the poses of the markers set with {@link #SetSnapshotMarkers(int[], boolean)}
+     * from the capture of their frame to when the frame being rendered will be shown, by the
+     * rotation the gyroscope measured in between. The gyroscope must be being read, see
+     * UnityARPlayerActivity.StartImuFusion(); otherwise the poses are returned unchanged.
+     *
+     * @param aheadMillis How long from now the frame will be shown.
+     * @return The poses, laid out as described by NativeInterface.MARKER_POSE_STRIDE in an array reused by every call, or null if there are no snapshot markers or they are stereo.
+     */
+    public static float[] PropagateSnapshotPoses(float aheadMillis) {
+        ImuPoseFusion fusion = sImuFusion;
+        float[] poses = sPropagatedPoses;
+        if (fusion == null || poses == null) {
+            return null;
+        }
+        fusion.propagate(System.nanoTime() + (long) (aheadMillis * 1000000.0f), poses, fusion.getCapacity());
+        return poses;
+    }
+
+    /**
+     * @param frameLatencyMs How long before a frame's timestamp it is captured, for {@link #PropagateSnapshotPoses(float)} to propagate
+     *                       from: how long before it reaches Java with Camera1, and 0 with Camera2, which timestamps frames at the sensor.
+     */
+    public static void SetImuFrameLatency(float frameLatencyMs) {
+        sImuFrameLatencyNs = (long) (frameLatencyMs * 1000000.0f);
+        ImuPoseFusion fusion = sImuFusion;
+        if (fusion != null) {
+            fusion.setFrameLatency(sImuFrameLatencyNs);
+        }
+    }
+
+    /**
+     * @return A number that changes whenever adaptive resolution has changed the capture size, so
+     * Unity can poll it and restart tracking with the new GetParamWidth() x GetParamHeight().
+     */
+    public static int GetResolutionGeneration() {
+        if (CameraHolderNoThread.Instance != null) {
+            return CameraHolderNoThread.Instance.mResolutionGeneration;
+        }
+        return 0;
+    }
+
+    public static Boolean IsSubmittingDirectBuffers() {
+        if (CameraHolderNoThread.Instance != null) {
+            return CameraHolderNoThread.Instance.mNativeSink.isDirect();
+        }
+        return false;
+    }
+
+    private Size getOptimalPreviewSize(List<Size> sizes, int w, int h) {
 
         if (sizes == null) {
             Log.d(TAG, "Null sizes. Bailing...");
@@ -218,48 +788,21 @@ public class CameraHolderNoThread {
             }
         }
 
-        if (forceDefaultAspectRatio) {
-            final double ASPECT_TOLERANCE = 0.05;
-            double targetRatio = (double) 4 / 3;
-            Log.i(TAG, "Looking for default target aspect ratio of: " + targetRatio + " from " + w + ", " + h);
-
-            for (Size size : sizes) {
-                if (size.width > targetWidth || size.height > targetHeight) {
-                    continue;
-                }
-
-                double ratio = (double) size.width / size.height;
-                if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) {
-                    continue;
-                }
-
-                Log.i(TAG, "Checking size: " + size.width + ", " + size.height);
-                if (Math.abs(size.height - targetHeight) < minDiffHeight) {
-                    optimalSize = size;
-                    minDiffHeight = Math.abs(size.height - targetHeight);
-                }
-            }
+        int[] widths = new int[sizes.size()];
+        int[] heights = new int[sizes.size()];
+        for (int i = 0; i < widths.length; i++) {
+            widths[i] = sizes.get(i).width;
+            heights[i] = sizes.get(i).height;
         }
 
-        // If we didn't want to enforce the default aspect ratio, or a resolution with that ratio
-        // couldn't be found, just as close as possible to the requested maximum resolution:
-        if (!forceDefaultAspectRatio || optimalSize == null) {
-            double minDiffTotal = Double.MAX_VALUE;
-            for (Size size : sizes) {
-                Log.i(TAG, "Checking size: " + size.width + ", " + size.height);
-                if (size.width > targetWidth || size.height > targetHeight) {
-                    continue;
-                }
-                Log.i(TAG, "Checked size falls within max resolution: " + size.width + ", " + size.height);
-
-                float totalDiff = (targetHeight - size.height) + (targetWidth - size.width);
-                if (totalDiff < minDiffTotal) {
-                    optimalSize = size;
-                    minDiffTotal = totalDiff;
-                }
-            }
+        Log.i(TAG, "Looking for optimal size within " + w + ", " + h + (forceDefaultAspectRatio ? ", preferring 4:3" : ""));
+        int optimal = PreviewSizeSelector.selectOptimal(widths, heights, w, h, forceDefaultAspectRatio);
+        if (optimal < 0) {
+            Log.i(TAG, "No size fits within " + w + ", " + h);
+            return null;
         }
 
+        Size optimalSize = sizes.get(optimal);
         Log.i(TAG, "Found optimal size: "+ optimalSize.width + ", " + optimalSize.height);
         return optimalSize;
     }
@@ -270,7 +813,42 @@ public class CameraHolderNoThread {
     private Camera.PreviewCallback mPreviewCallback = new Camera.PreviewCallback() {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            NativeInterface.arwAcceptVideoImage(data, mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+            if (data == null) {
+                // A queued buffer was too small for the current preview size
+                return;
+            }
+            long timestampNs = System.nanoTime();
+            mBufferRing.onFrameReceived(data);
+            IngestWorker worker = mIngestWorker;
+            if (worker != null) {
+                worker.offer(data, timestampNs);
+            }
+            else {
+                mFrameConsumer.onFrame(data, timestampNs);
+                mBufferRing.recycle(data);
+            }
+        }
+    };
+
+    private final IngestWorker.FrameConsumer mFrameConsumer = new IngestWorker.FrameConsumer() {
+        @Override
+        public void onFrame(byte[] data, long timestampNs) {
+            long acceptStartNs = System.nanoTime();
+            mCaptureSink.onFrame(data, timestampNs);
+            long acceptEndNs = System.nanoTime();
+            // Camera1 has no sensor timestamp, so frames count as captured when they reach Java
+            FrameMetrics.Shared.onFrameAccepted(timestampNs, timestampNs, acceptStartNs, acceptEndNs);
+            AdaptiveResolutionController adaptive = mAdaptive;
+            if (adaptive != null && adaptive.onFrameAccepted(acceptEndNs, acceptEndNs - acceptStartNs)) {
+                requestReconfigure(adaptive);
+            }
+        }
+    };
+
+    private final IngestWorker.BufferRecycler mBufferRecycler = new IngestWorker.BufferRecycler() {
+        @Override
+        public void recycle(byte[] data) {
+            mBufferRing.recycle(data);
         }
     };
     // --------------------------------------------------
@@ -289,6 +867,10 @@ public class CameraHolderNoThread {
     }
 
     private int findFacingCameraId(String face) {
+        CameraCapabilityCache cache = CameraCapabilityCache.getInstance();
+        if (cache != null) {
+            return cache.findFacing(face.equals(FaceFront));
+        }
         int camera_id = -1;
         // Search for the front facing camera
         int numberOfCameras = Camera.getNumberOfCameras();
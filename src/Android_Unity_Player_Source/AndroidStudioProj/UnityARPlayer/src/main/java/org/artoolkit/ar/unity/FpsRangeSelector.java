@@ -0,0 +1,122 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Chooses a preview frame rate range from a list of supported ranges, independent of the camera
+ * API the ranges came from. Rates are in frames per second scaled by 1000, as Camera1 reports them.
+ */
+final class FpsRangeSelector {
+
+    /** The highest fixed rate that reaches the target, so the rate doesn't drop in low light. */
+    final static int PROFILE_LOW_LATENCY = 0;
+    /** Up to the target rate, letting it drop to no less than half of it in low light. */
+    final static int PROFILE_BALANCED = 1;
+    /** The lowest rates that reach half the target, letting the sensor slow down freely. */
+    final static int PROFILE_POWER_SAVE = 2;
+
+    final static int DEFAULT_PROFILE = PROFILE_LOW_LATENCY;
+
+    private final static String[] PROFILE_NAMES = { "low-latency", "balanced", "power-save" };
+
+    private FpsRangeSelector() {
+    }
+
+    /**
+     * @return The profile with the given name, or -1 if there is none.
+     */
+    static int profileFromName(String name) {
+        for (int i = 0; i < PROFILE_NAMES.length; i++) {
+            if (PROFILE_NAMES[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String nameOf(int profile) {
+        return profile >= 0 && profile < PROFILE_NAMES.length ? PROFILE_NAMES[profile] : "unknown";
+    }
+
+    /**
+     * @param mins      Lower bounds of the supported ranges.
+     * @param maxs      Upper bounds, in the same order as mins.
+     * @param profile   One of the PROFILE_ constants.
+     * @param targetFps The rate the application wants, in frames per second scaled by 1000.
+     * @return The index of the chosen range, or -1 if there are no ranges.
+     */
+    static int select(int[] mins, int[] maxs, int profile, int targetFps) {
+        switch (profile) {
+            case PROFILE_BALANCED:
+                return selectBalanced(mins, maxs, targetFps);
+            case PROFILE_POWER_SAVE:
+                return selectPowerSave(mins, maxs, targetFps);
+            default:
+                return selectLowLatency(mins, maxs, targetFps);
+        }
+    }
+
+    private static int selectLowLatency(int[] mins, int[] maxs, int targetFps) {
+        boolean anyReachesTarget = anyReaches(maxs, targetFps);
+        int best = -1;
+        for (int i = 0; i < mins.length; i++) {
+            if (anyReachesTarget && maxs[i] < targetFps) {
+                continue;
+            }
+            if (best < 0 || mins[i] > mins[best] || (mins[i] == mins[best] && maxs[i] < maxs[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int selectBalanced(int[] mins, int[] maxs, int targetFps) {
+        boolean anyReachesTarget = anyReaches(maxs, targetFps);
+        int floor = targetFps / 2;
+        int best = -1;
+        for (int i = 0; i < mins.length; i++) {
+            if (anyReachesTarget && maxs[i] < targetFps) {
+                continue;
+            }
+            if (best < 0) {
+                best = i;
+                continue;
+            }
+            // Don't overshoot the target, then prefer the lowest lower bound above the floor
+            if (maxs[i] != maxs[best]) {
+                if (anyReachesTarget ? maxs[i] < maxs[best] : maxs[i] > maxs[best]) {
+                    best = i;
+                }
+                continue;
+            }
+            boolean above = mins[i] >= floor;
+            boolean bestAbove = mins[best] >= floor;
+            if (above != bestAbove ? above : (above ? mins[i] < mins[best] : mins[i] > mins[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int selectPowerSave(int[] mins, int[] maxs, int targetFps) {
+        int floor = targetFps / 2;
+        boolean anyReachesFloor = anyReaches(maxs, floor);
+        int best = -1;
+        for (int i = 0; i < mins.length; i++) {
+            if (anyReachesFloor && maxs[i] < floor) {
+                continue;
+            }
+            if (best < 0 || maxs[i] < maxs[best] || (maxs[i] == maxs[best] && mins[i] < mins[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static boolean anyReaches(int[] maxs, int fps) {
+        for (int max : maxs) {
+            if (max >= fps) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
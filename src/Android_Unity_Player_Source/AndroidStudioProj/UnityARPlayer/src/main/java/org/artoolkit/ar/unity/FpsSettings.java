@@ -0,0 +1,104 @@
+package org.artoolkit.ar.unity;
+
+import android.hardware.Camera;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * The frame rate profile and target a capture backend was asked for, and the code the backends
+ * share to apply them: choosing a range with {@link FpsRangeSelector}, setting it on Camera1
+ * parameters, and reporting the range in use.
+ */
+final class FpsSettings {
+
+    private final String mTag;
+    private int mProfile = FpsRangeSelector.DEFAULT_PROFILE;
+    private int mTargetFps = 30;
+
+    /**
+     * @param tag The log tag of the backend the settings belong to.
+     */
+    FpsSettings(String tag) {
+        mTag = tag;
+    }
+
+    /**
+     * @param profile The name of one of the FpsRangeSelector profiles. An unknown name is logged
+     *                and the profile kept.
+     */
+    void setProfile(String profile) {
+        int index = FpsRangeSelector.profileFromName(profile);
+        if (index < 0) {
+            Log.w(mTag, "Unknown FPS profile " + profile + ", keeping " + FpsRangeSelector.nameOf(mProfile));
+            return;
+        }
+        mProfile = index;
+    }
+
+    int getProfile() {
+        return mProfile;
+    }
+
+    void setTargetFps(int targetFps) {
+        mTargetFps = targetFps;
+    }
+
+    int getTargetFps() {
+        return mTargetFps;
+    }
+
+    /**
+     * @return The index of the range to use for the current profile and target, or -1 if there are no ranges.
+     * @see FpsRangeSelector#select(int[], int[], int, int)
+     */
+    int select(int[] mins, int[] maxs) {
+        return FpsRangeSelector.select(mins, maxs, mProfile, mTargetFps * 1000);
+    }
+
+    /**
+     * Sets the preview frame rate range for the current profile, chosen from the ranges the
+     * parameters say are supported.
+     */
+    void apply(Camera.Parameters params) {
+        List<int[]> ranges = params.getSupportedPreviewFpsRange();
+        if (ranges == null) {
+            return;
+        }
+        int[] mins = new int[ranges.size()];
+        int[] maxs = new int[ranges.size()];
+        for (int i = 0; i < mins.length; i++) {
+            mins[i] = ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+            maxs[i] = ranges.get(i)[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+        }
+        apply(params, mins, maxs);
+    }
+
+    /**
+     * As {@link #apply(Camera.Parameters)}, choosing from ranges already known to be supported.
+     */
+    void apply(Camera.Parameters params, int[] mins, int[] maxs) {
+        int best = select(mins, maxs);
+        if (best >= 0) {
+            params.setPreviewFpsRange(mins[best], maxs[best]);
+        }
+    }
+
+    /**
+     * Reports the preview frame rate range the parameters hold to FrameMetrics and the log.
+     */
+    void report(Camera.Parameters params) {
+        int[] range = new int[2];
+        params.getPreviewFpsRange(range);
+        report(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX], range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+    }
+
+    /**
+     * @param min The lower bound of the range in use, in frames per second scaled by 1000.
+     * @param max The upper bound, likewise.
+     */
+    void report(int min, int max) {
+        FrameMetrics.Shared.onFpsRangeConfigured(mProfile, min, max);
+        Log.i(mTag, "Using " + FpsRangeSelector.nameOf(mProfile) + " FPS range " + min / 1000.0f + "-" + max / 1000.0f);
+    }
+}
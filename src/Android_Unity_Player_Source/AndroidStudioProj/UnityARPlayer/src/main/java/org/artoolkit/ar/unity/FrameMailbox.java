@@ -0,0 +1,84 @@
+package org.artoolkit.ar.unity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single-slot, lock-free mailbox between one producer (the camera callback) and one consumer
+ * (the ingest worker), where a newer frame replaces an older one that hasn't been taken yet.
+ * <p/>
+ * Implemented as a triple buffer: the producer owns a back slot, the consumer owns a front slot,
+ * and the two swap with a shared middle slot using a single atomic exchange. No allocation takes
+ * place after construction.
+ */
+class FrameMailbox {
+
+    static final class Slot {
+        byte[] data;
+        long timestampNs;
+    }
+
+    // The middle slot index, with this bit set while it holds a frame the consumer hasn't taken.
+    private final static int FRESH = 4;
+    private final static int INDEX_MASK = 3;
+
+    private final Slot[] mSlots = new Slot[] { new Slot(), new Slot(), new Slot() };
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    private int mBack = 0;  // producer only
+    private int mFront = 2; // consumer only
+
+    private final AtomicLong mPublished = new AtomicLong();
+    private final AtomicLong mTaken = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+
+    /**
+     * Producer side. Publishes a frame, replacing any frame the consumer hasn't taken yet.
+     *
+     * @return The data of the replaced frame, which the caller now owns again, or null.
+     */
+    byte[] publish(byte[] data, long timestampNs) {
+        Slot back = mSlots[mBack];
+        back.data = data;
+        back.timestampNs = timestampNs;
+        int old = mMiddle.getAndSet(mBack | FRESH);
+        mBack = old & INDEX_MASK;
+        mPublished.incrementAndGet();
+        if ((old & FRESH) == 0) {
+            return null;
+        }
+        Slot dropped = mSlots[mBack];
+        byte[] droppedData = dropped.data;
+        dropped.data = null;
+        mDropped.incrementAndGet();
+        return droppedData;
+    }
+
+    /**
+     * Consumer side. Takes the most recently published frame.
+     *
+     * @return The slot holding the frame, valid until the next call, or null if nothing new has been published.
+     */
+    Slot take() {
+        if ((mMiddle.get() & FRESH) == 0) {
+            return null;
+        }
+        mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        mTaken.incrementAndGet();
+        return mSlots[mFront];
+    }
+
+    long getPublishedCount() {
+        return mPublished.get();
+    }
+
+    long getTakenCount() {
+        return mTaken.get();
+    }
+
+    /**
+     * @return The number of frames replaced before the consumer could take them.
+     */
+    long getDroppedCount() {
+        return mDropped.get();
+    }
+}
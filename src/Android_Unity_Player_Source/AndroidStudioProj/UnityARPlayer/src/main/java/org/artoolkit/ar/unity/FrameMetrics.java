@@ -0,0 +1,277 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Latency of each stage a frame goes through, from the sensor to a pose being available to
+ * Unity, and the rate frames go through it. All times are on the System.nanoTime() clock.
+ * <p/>
+ * The camera holders record the stages up to the frame being accepted by the native side. The
+ * stages after that are recorded when Unity calls ARToolKit through
+ * {@link CameraHolderNoThread#Capture()} and {@link CameraHolderNoThread#UpdateAR()}.
+ * <p/>
+ * Recording doesn't allocate. The capture stages are recorded by the ingest thread and the update
+ * stages by the Unity thread; {@link #snapshot()} may be called from any thread.
+ */
+public class FrameMetrics {
+
+    /** From the sensor timestamp to the frame reaching Java. Only available from Camera2. */
+    public final static int STAGE_SENSOR_TO_CALLBACK = 0;
+    /** From the frame reaching Java to the native side returning from accepting it, including any queueing. */
+    public final static int STAGE_CALLBACK_TO_ACCEPT = 1;
+    /** The call handing the frame to the native side. */
+    public final static int STAGE_ACCEPT = 2;
+    /** From the native side accepting a frame to arwUpdateAR() returning with its poses. */
+    public final static int STAGE_ACCEPT_TO_POSE = 3;
+    /** arwCapture() and arwUpdateAR() together. */
+    public final static int STAGE_UPDATE = 4;
+    /** From the frame reaching Java to arwUpdateAR() returning with its poses. */
+    public final static int STAGE_CALLBACK_TO_POSE = 5;
+    public final static int STAGE_COUNT = 6;
+
+    // Layout of the array returned by snapshot()
+    public final static int SNAPSHOT_CAPTURE_FPS = 0;
+    public final static int SNAPSHOT_UPDATE_FPS = 1;
+    /** Each stage has three elements from here on, its 50th, 95th and 99th percentiles in milliseconds. */
+    public final static int SNAPSHOT_STAGES = 2;
+    /** The frame rate profile in use, as the index of one of FpsRangeSelector's profiles, or -1. */
+    public final static int SNAPSHOT_FPS_PROFILE = SNAPSHOT_STAGES + STAGE_COUNT * 3;
+    /** The frame rate range the camera was configured with, in frames per second. */
+    public final static int SNAPSHOT_FPS_RANGE_MIN = SNAPSHOT_FPS_PROFILE + 1;
+    public final static int SNAPSHOT_FPS_RANGE_MAX = SNAPSHOT_FPS_PROFILE + 2;
+    /** Frame data copied to the native side, in megabytes per second. */
+    public final static int SNAPSHOT_COPY_MBPS = SNAPSHOT_FPS_PROFILE + 3;
+    /** Frame data not copied because only the luminance was submitted, in megabytes per second. */
+    public final static int SNAPSHOT_SAVED_MBPS = SNAPSHOT_FPS_PROFILE + 4;
+    /** From the start of startup to the first frame accepted by the native side, in milliseconds, or 0. */
+    public final static int SNAPSHOT_TIME_TO_FIRST_FRAME = SNAPSHOT_FPS_PROFILE + 5;
+    /** From the start of startup to arwUpdateAR() first returning with the poses of a frame, in milliseconds, or 0. */
+    public final static int SNAPSHOT_TIME_TO_FIRST_TRACKED_FRAME = SNAPSHOT_FPS_PROFILE + 6;
+    public final static int SNAPSHOT_SIZE = SNAPSHOT_FPS_PROFILE + 7;
+
+    /** Shared by all capture backends, as only one captures at a time. */
+    public final static FrameMetrics Shared = new FrameMetrics();
+
+    // A rate counts as stopped if no event happened for this long
+    private final static long STALE_NS = 1000000000L;
+
+    private final LatencyHistogram[] mStages = new LatencyHistogram[STAGE_COUNT];
+    private final RateMeter mCaptureRate = new RateMeter();
+    private final RateMeter mUpdateRate = new RateMeter();
+    private final float[] mSnapshot = new float[SNAPSHOT_SIZE];
+
+    // The last frame accepted, and whether arwUpdateAR() has processed it yet
+    private volatile long mLastCaptureNs = 0;
+    private volatile long mLastCallbackNs = 0;
+    private volatile long mLastAcceptedNs = 0;
+    private volatile boolean mPosePending = false;
+    private volatile long mAcceptedFrames = 0; // Written by the ingest thread only
+    private long mCaptureStartNs = 0; // Unity thread only
+
+    private volatile int mFpsProfile = -1;
+    private volatile float mFpsRangeMin = 0.0f;
+    private volatile float mFpsRangeMax = 0.0f;
+
+    // Bytes copied and saved since the last reset; written by the ingest thread only
+    private volatile long mBytesCopied = 0;
+    private volatile long mBytesSaved = 0;
+    private volatile long mBytesSinceNs = System.nanoTime();
+
+    // Startup milestones, kept across resets
+    private volatile long mStartupNs = 0;
+    private volatile long mFirstFrameNs = 0;
+    private volatile long mFirstPoseNs = 0;
+
+    FrameMetrics() {
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mStages[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Records how long a frame took from the sensor to Java.
+     */
+    void onFrameArrived(long sensorToCallbackNs) {
+        mStages[STAGE_SENSOR_TO_CALLBACK].recordNanos(sensorToCallbackNs);
+    }
+
+    /**
+     * Records a frame handed to the native side.
+     *
+     * @param captureNs     When the frame was captured: its sensor timestamp where the backend has
+     *                      one, otherwise when it reached Java.
+     * @param callbackNs    When the frame reached Java.
+     * @param acceptStartNs When the call handing it over started.
+     * @param acceptEndNs   When that call returned.
+     */
+    void onFrameAccepted(long captureNs, long callbackNs, long acceptStartNs, long acceptEndNs) {
+        mStages[STAGE_CALLBACK_TO_ACCEPT].recordNanos(acceptEndNs - callbackNs);
+        mStages[STAGE_ACCEPT].recordNanos(acceptEndNs - acceptStartNs);
+        mCaptureRate.onEvent(acceptEndNs);
+        mLastCaptureNs = captureNs;
+        mLastCallbackNs = callbackNs;
+        mLastAcceptedNs = acceptEndNs;
+        mAcceptedFrames++;
+        mPosePending = true;
+        if (mStartupNs != 0 && mFirstFrameNs == 0) {
+            mFirstFrameNs = acceptEndNs;
+        }
+    }
+
+    /**
+     * Records how much of a frame was copied to the native side.
+     *
+     * @param copiedBytes The bytes copied.
+     * @param frameBytes  The size of the whole frame.
+     */
+    void onFrameCopied(int copiedBytes, int frameBytes) {
+        mBytesCopied += copiedBytes;
+        mBytesSaved += frameBytes - copiedBytes;
+    }
+
+    void onCaptureCalled(long startNs) {
+        mCaptureStartNs = startNs;
+    }
+
+    /**
+     * Records arwUpdateAR() returning. Only the first update after a frame was accepted counts
+     * towards the frame's latency.
+     *
+     * @return The time taken by arwCapture() and arwUpdateAR().
+     */
+    long onPoseUpdated(long endNs) {
+        long updateNs = endNs - mCaptureStartNs;
+        mStages[STAGE_UPDATE].recordNanos(updateNs);
+        mUpdateRate.onEvent(endNs);
+        if (mPosePending) {
+            mPosePending = false;
+            mStages[STAGE_ACCEPT_TO_POSE].recordNanos(endNs - mLastAcceptedNs);
+            mStages[STAGE_CALLBACK_TO_POSE].recordNanos(endNs - mLastCallbackNs);
+            if (mStartupNs != 0 && mFirstPoseNs == 0) {
+                mFirstPoseNs = endNs;
+            }
+        }
+        return updateNs;
+    }
+
+    /**
+     * Records the frame rate range the camera was configured with.
+     *
+     * @param minFps Lower bound, in frames per second scaled by 1000.
+     * @param maxFps Upper bound, in frames per second scaled by 1000.
+     */
+    void onFpsRangeConfigured(int profile, int minFps, int maxFps) {
+        mFpsProfile = profile;
+        mFpsRangeMin = minFps / 1000.0f;
+        mFpsRangeMax = maxFps / 1000.0f;
+    }
+
+    /**
+     * Marks the start of startup, which the time to the first frame and the first tracked frame
+     * are measured from.
+     */
+    void onStartupBegan(long startNs) {
+        mFirstFrameNs = 0;
+        mFirstPoseNs = 0;
+        mStartupNs = startNs;
+    }
+
+    /**
+     * @return From the start of startup to arwUpdateAR() first returning with the poses of a frame, or 0 if it hasn't yet.
+     */
+    long getTimeToFirstTrackedFrameNs() {
+        long first = mFirstPoseNs;
+        return first != 0 ? first - mStartupNs : 0;
+    }
+
+    /**
+     * Discards everything recorded so far, e.g. when capture restarts at a new resolution.
+     */
+    public void reset() {
+        // The startup milestones are kept, as capture restarting doesn't restart the application
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mStages[i].reset();
+        }
+        mCaptureRate.reset();
+        mUpdateRate.reset();
+        mPosePending = false;
+        mBytesCopied = 0;
+        mBytesSaved = 0;
+        mBytesSinceNs = System.nanoTime();
+    }
+
+    /**
+     * Summarises the metrics into an array laid out as described by the SNAPSHOT_ constants.
+     *
+     * @return An array reused by every call, so it must be read before the next call.
+     */
+    public synchronized float[] snapshot() {
+        long now = System.nanoTime();
+        mSnapshot[SNAPSHOT_CAPTURE_FPS] = mCaptureRate.getRate(now);
+        mSnapshot[SNAPSHOT_UPDATE_FPS] = mUpdateRate.getRate(now);
+        for (int i = 0; i < STAGE_COUNT; i++) {
+            mStages[i].getPercentilesMillis(mSnapshot, SNAPSHOT_STAGES + i * 3);
+        }
+        mSnapshot[SNAPSHOT_FPS_PROFILE] = mFpsProfile;
+        mSnapshot[SNAPSHOT_FPS_RANGE_MIN] = mFpsRangeMin;
+        mSnapshot[SNAPSHOT_FPS_RANGE_MAX] = mFpsRangeMax;
+        float seconds = (now - mBytesSinceNs) / 1e9f;
+        mSnapshot[SNAPSHOT_COPY_MBPS] = seconds > 0.0f ? mBytesCopied / 1e6f / seconds : 0.0f;
+        mSnapshot[SNAPSHOT_SAVED_MBPS] = seconds > 0.0f ? mBytesSaved / 1e6f / seconds : 0.0f;
+        long firstFrame = mFirstFrameNs;
+        mSnapshot[SNAPSHOT_TIME_TO_FIRST_FRAME] = firstFrame != 0 ? (firstFrame - mStartupNs) / 1e6f : 0.0f;
+        mSnapshot[SNAPSHOT_TIME_TO_FIRST_TRACKED_FRAME] = getTimeToFirstTrackedFrameNs() / 1e6f;
+        return mSnapshot;
+    }
+
+    /**
+     * @return The number of frames handed to the native side so far. Unlike the other metrics,
+     * not cleared by {@link #reset()}.
+     */
+    long getAcceptedFrameCount() {
+        return mAcceptedFrames;
+    }
+
+    /**
+     * @return When the last frame handed to the native side was captured, as given to
+     * {@link #onFrameAccepted(long, long, long, long)}, or 0 if none has been.
+     */
+    long getLastCaptureNs() {
+        return mLastCaptureNs;
+    }
+
+    long getCount(int stage) {
+        return mStages[stage].getCount();
+    }
+
+    /**
+     * Events per second, from a moving average of the intervals between them. Written by one
+     * thread, read by any.
+     */
+    private final static class RateMeter {
+        private volatile long mLastNs = 0;
+        private volatile long mMeanIntervalNs = 0;
+
+        void onEvent(long nowNs) {
+            long last = mLastNs;
+            mLastNs = nowNs;
+            if (last == 0) {
+                return;
+            }
+            long interval = nowNs - last;
+            long mean = mMeanIntervalNs;
+            mMeanIntervalNs = mean == 0 ? interval : mean + (interval - mean) / 8;
+        }
+
+        float getRate(long nowNs) {
+            long mean = mMeanIntervalNs;
+            if (mean <= 0 || nowNs - mLastNs > STALE_NS) {
+                return 0.0f;
+            }
+            return 1e9f / mean;
+        }
+
+        void reset() {
+            mLastNs = 0;
+            mMeanIntervalNs = 0;
+        }
+    }
+}
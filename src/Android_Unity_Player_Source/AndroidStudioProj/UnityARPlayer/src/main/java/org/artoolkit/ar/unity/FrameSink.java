@@ -0,0 +1,28 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Receives the frames produced by a {@link FrameSource}.
+ */
+public interface FrameSink {
+
+    /**
+     * Called when capture starts, before the first frame, with the parameters that stay fixed
+     * for the whole capture.
+     */
+    void onCaptureStarted(int width, int height, int cameraIndex, boolean cameraIsFrontFacing);
+
+    /**
+     * Called for every NV21 frame, on the thread that ingests frames. The data is only valid
+     * until this method returns.
+     *
+     * @param timestampNs When the frame was captured, on the System.nanoTime() clock: its sensor
+     *                    timestamp where the backend can tell, otherwise when it reached Java.
+     * @return true if the frame was accepted.
+     */
+    boolean onFrame(byte[] data, long timestampNs);
+
+    /**
+     * Called after the last frame of a capture has been delivered.
+     */
+    void onCaptureStopped();
+}
@@ -0,0 +1,37 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * A source of video frames with the Open/Start/Stop/Close lifecycle used by the camera holders.
+ * <p/>
+ * Frames are delivered to a {@link FrameSink}, which by default hands them to the native
+ * ARToolKit library. Replacing the sink lets the Java frame path run without the native library
+ * or camera hardware, e.g. with {@link ReplayFrameSource} on a plain JVM.
+ */
+public interface FrameSource {
+
+    void SetResolutionTargetMax(int targetWidth, int targetHeight, boolean forceDefaultAspectRatio);
+
+    /**
+     * Sets the sink frames are delivered to. Passing null restores the default native sink.
+     * Takes effect on the next StartCapture().
+     */
+    void SetFrameSink(FrameSink sink);
+
+    void OpenCamera();
+
+    void StartCapture();
+
+    void StopCapture();
+
+    void CloseCamera();
+
+    /**
+     * @return The width of the frames being captured, valid once capture has started.
+     */
+    int GetParamWidth();
+
+    /**
+     * @return The height of the frames being captured, valid once capture has started.
+     */
+    int GetParamHeight();
+}
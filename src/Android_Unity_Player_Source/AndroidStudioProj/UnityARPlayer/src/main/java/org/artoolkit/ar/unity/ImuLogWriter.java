@@ -0,0 +1,94 @@
+package org.artoolkit.ar.unity;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Records gyroscope and accelerometer samples and optical marker poses, interleaved in the order
+ * they arrive, to a file that {@link ImuReplay} can play back off the device.
+ * <p/>
+ * The file is a big-endian header of two ints (magic "IMU1", version), followed by records, each
+ * a byte giving its type and a long timestamp in nanoseconds. A gyroscope or accelerometer
+ * record then has three floats; a poses record has an int count and count poses laid out as
+ * described by PoseMath.MARKER_POSE_STRIDE. Samples and poses come from different
+ * threads, so writing is synchronized.
+ */
+public class ImuLogWriter {
+
+    public final static int MAGIC = 0x494D5531; // "IMU1"
+    public final static int VERSION = 1;
+
+    public final static byte RECORD_GYROSCOPE = 1;
+    public final static byte RECORD_ACCELEROMETER = 2;
+    public final static byte RECORD_POSES = 3;
+
+    private DataOutputStream mOut;
+    private volatile IOException mLastError = null;
+
+    public ImuLogWriter(String path) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 64 * 1024));
+        mOut.writeInt(MAGIC);
+        mOut.writeInt(VERSION);
+    }
+
+    /**
+     * @param type RECORD_GYROSCOPE or RECORD_ACCELEROMETER.
+     */
+    public synchronized void writeSample(byte type, long timestampNs, float x, float y, float z) {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.writeByte(type);
+            mOut.writeLong(timestampNs);
+            mOut.writeFloat(x);
+            mOut.writeFloat(y);
+            mOut.writeFloat(z);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void writePoses(long frameNs, float[] poses, int count) {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.writeByte(RECORD_POSES);
+            mOut.writeLong(frameNs);
+            mOut.writeInt(count);
+            for (int i = 0; i < count * PoseMath.MARKER_POSE_STRIDE; i++) {
+                mOut.writeFloat(poses[i]);
+            }
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    public synchronized void close() {
+        if (mOut == null) {
+            return;
+        }
+        try {
+            mOut.close();
+        } catch (IOException e) {
+            mLastError = e;
+        }
+        mOut = null;
+    }
+
+    public IOException getLastError() {
+        return mLastError;
+    }
+
+    private void fail(IOException e) {
+        mLastError = e;
+        try {
+            mOut.close();
+        } catch (IOException ignored) {
+        }
+        mOut = null;
+    }
+}
@@ -0,0 +1,184 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Carries the last optical poses of a set of markers forward from the time their frame was
+ * captured to the time they are rendered, by the rotation of the camera the gyroscope measured
+ * in between, so that content anchored to markers moves smoothly at the render rate rather than
+ * stepping at the camera's.
+ * <p/>
+ * Only rotation is propagated. Rotation is what makes marker-anchored content step visibly, and
+ * the gyroscope measures it directly; recovering translation from the accelerometer needs the
+ * camera's velocity, which the optical poses don't give between two frames, and drifts within a
+ * frame without it. The accelerometer is still sampled and logged, for replay.
+ * <p/>
+ * Observing and propagating are meant for the thread calling arwUpdateAR(); the gyroscope ring
+ * may be written by any one other thread. Neither allocates.
+ */
+public class ImuPoseFusion {
+
+    public final static long DEFAULT_MAX_HORIZON_NS = 100000000L;
+
+    private final static int N = PoseMath.POSE_SIZE;
+
+    // At the fastest sensor rates a frame's worth of propagation takes a few tens of samples
+    private final static int MAX_SAMPLES = 256;
+
+    private final int mCapacity;
+    private final ImuSampleRing mGyroscope;
+
+    // The gyroscope's axes in the camera's, row-major
+    private final float[] mDeviceToCamera = {1, 0, 0, 0, 1, 0, 0, 0, 1};
+    private long mFrameLatencyNs = 0;
+    private long mMaxHorizonNs = DEFAULT_MAX_HORIZON_NS;
+
+    // The last optical poses, from the frame captured at mCaptureNs
+    private final float[] mPoses;
+    private final boolean[] mVisible;
+    private long mFrameNs = 0;
+    private long mCaptureNs = 0;
+
+    private final long[] mSampleNs = new long[MAX_SAMPLES];
+    private final float[] mSamples = new float[MAX_SAMPLES * 3];
+    private final float[] mRotation = new float[N];
+    private final float[] mScratch = new float[N];
+
+    /**
+     * @param capacity  The number of markers, indexed in the order of the poses given to {@link #observe}.
+     * @param gyroscope Angular velocities in radians per second about the device's axes, timestamped on the clock of the frames.
+     */
+    public ImuPoseFusion(int capacity, ImuSampleRing gyroscope) {
+        mCapacity = capacity;
+        mGyroscope = gyroscope;
+        mPoses = new float[capacity * N];
+        mVisible = new boolean[capacity];
+    }
+
+    /**
+     * Sets how the camera is mounted, to map the gyroscope's axes to the camera's.
+     * <p/>
+     * The device's axes are Android's sensor axes: x to the right and y up in the device's
+     * natural orientation, and z out of the screen. The camera's are OpenGL's, as in the poses:
+     * x to the right and y up in the camera image, and z away from the scene.
+     *
+     * @param orientation The clockwise rotation of the camera image relative to the device's natural orientation, as in Camera.CameraInfo.orientation.
+     * @param frontFacing true for a camera on the screen side, which looks along the device's z axis rather than against it.
+     */
+    public void setCameraOrientation(int orientation, boolean frontFacing) {
+        double radians = Math.toRadians(orientation);
+        float cos = (float) Math.cos(radians);
+        float sin = (float) Math.sin(radians);
+        // A rotation about z by the orientation; a front camera is also turned about its y axis
+        float flip = frontFacing ? -1.0f : 1.0f;
+        mDeviceToCamera[0] = cos * flip;
+        mDeviceToCamera[1] = -sin * flip;
+        mDeviceToCamera[2] = 0.0f;
+        mDeviceToCamera[3] = sin;
+        mDeviceToCamera[4] = cos;
+        mDeviceToCamera[5] = 0.0f;
+        mDeviceToCamera[6] = 0.0f;
+        mDeviceToCamera[7] = 0.0f;
+        mDeviceToCamera[8] = flip;
+    }
+
+    /**
+     * @param frameLatencyNs How long before a frame's timestamp it was actually captured, e.g. when the timestamp is when it reached Java.
+     */
+    public void setFrameLatency(long frameLatencyNs) {
+        mFrameLatencyNs = Math.max(0, frameLatencyNs);
+    }
+
+    /**
+     * @param maxHorizonNs The furthest past the capture of the last frame a pose is propagated; propagation further ahead stops there.
+     */
+    public void setMaxHorizon(long maxHorizonNs) {
+        mMaxHorizonNs = Math.max(0, maxHorizonNs);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Takes the optical poses of a frame as the ones to propagate from.
+     *
+     * @param poses   The poses, laid out as described by PoseMath.MARKER_POSE_STRIDE.
+     * @param count   The number of markers in poses.
+     * @param frameNs The timestamp of the frame. A frame with the same timestamp as the last is ignored.
+     */
+    public void observe(float[] poses, int count, long frameNs) {
+        if (frameNs == mFrameNs) {
+            return;
+        }
+        mFrameNs = frameNs;
+        mCaptureNs = frameNs - mFrameLatencyNs;
+        int n = Math.min(count, mCapacity);
+        for (int m = 0; m < mCapacity; m++) {
+            mVisible[m] = m < n && poses[m * PoseMath.MARKER_POSE_STRIDE] != 0.0f;
+            if (mVisible[m]) {
+                PoseMath.matrixToPose(poses, m * PoseMath.MARKER_POSE_STRIDE + 1, mPoses, m * N);
+            }
+        }
+    }
+
+    /**
+     * Propagates the poses of the last frame to a given time.
+     *
+     * @param targetNs When the poses will be shown, on the clock of the frame timestamps.
+     * @param poses    Receives the poses, laid out as described by PoseMath.MARKER_POSE_STRIDE.
+     * @return The number of visible markers.
+     */
+    public int propagate(long targetNs, float[] poses, int count) {
+        computeRotation(mCaptureNs, Math.min(targetNs, mCaptureNs + mMaxHorizonNs));
+        int n = Math.min(count, mCapacity);
+        int visible = 0;
+        for (int m = 0; m < n; m++) {
+            int offset = m * PoseMath.MARKER_POSE_STRIDE;
+            if (!mVisible[m]) {
+                poses[offset] = 0.0f;
+                continue;
+            }
+            System.arraycopy(mPoses, m * N, mScratch, 0, N);
+            PoseMath.rotateByInverse(mScratch, 0, mRotation, 0);
+            PoseMath.normalizeRotation(mScratch, 0);
+            poses[offset] = 1.0f;
+            PoseMath.poseToMatrix(mScratch, 0, poses, offset + 1);
+            visible++;
+        }
+        return visible;
+    }
+
+    /**
+     * @return The angle the camera turned through between the capture of the last frame and the last {@link #propagate}, in radians.
+     */
+    public float getLastRotationAngle() {
+        float w = Math.min(1.0f, Math.abs(mRotation[PoseMath.QW]));
+        return 2.0f * (float) Math.acos(w);
+    }
+
+    // Integrates the gyroscope from fromNs to toNs into mRotation, holding each sample until the
+    // next and the last until toNs
+    private void computeRotation(long fromNs, long toNs) {
+        mRotation[PoseMath.QX] = 0.0f;
+        mRotation[PoseMath.QY] = 0.0f;
+        mRotation[PoseMath.QZ] = 0.0f;
+        mRotation[PoseMath.QW] = 1.0f;
+        if (toNs <= fromNs) {
+            return;
+        }
+        int count = mGyroscope.copySince(fromNs, mSampleNs, mSamples, MAX_SAMPLES);
+        float[] r = mDeviceToCamera;
+        for (int i = 0; i < count; i++) {
+            long start = Math.max(fromNs, mSampleNs[i]);
+            long end = i + 1 < count ? Math.min(toNs, mSampleNs[i + 1]) : toNs;
+            if (end <= start) {
+                continue;
+            }
+            float x = mSamples[i * 3], y = mSamples[i * 3 + 1], z = mSamples[i * 3 + 2];
+            PoseMath.integrateBodyRotation(mRotation, 0,
+                    r[0] * x + r[1] * y + r[2] * z,
+                    r[3] * x + r[4] * y + r[5] * z,
+                    r[6] * x + r[7] * y + r[8] * z,
+                    (end - start) / 1e9f);
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package org.artoolkit.ar.unity;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Plays back a log recorded by {@link ImuLogWriter} through an {@link ImuPoseFusion}, so that
+ * the fusion can be tested and tuned off the device with the same input from run to run.
+ * <p/>
+ * Samples are fed to the fusion's gyroscope ring as they come. At each frame, the poses of the
+ * previous frame are propagated to the new frame's capture time and compared with its optical
+ * poses, for every marker visible in both, alongside the error of holding the previous poses
+ * unchanged, which is what rendering without the fusion shows.
+ */
+public class ImuReplay {
+
+    // Layout of the array filled by getErrors(); each has the 50th, 95th and 99th percentiles
+    /** The translation error of propagated poses, in mm. */
+    public final static int ERRORS_FUSED_TRANSLATION = 0;
+    /** The rotation error of propagated poses, in degrees. */
+    public final static int ERRORS_FUSED_ROTATION = 3;
+    /** The translation error of holding the previous poses, in mm. */
+    public final static int ERRORS_HELD_TRANSLATION = 6;
+    /** The rotation error of holding the previous poses, in degrees. */
+    public final static int ERRORS_HELD_ROTATION = 9;
+    public final static int ERRORS_SIZE = 12;
+
+    private final static int N = PoseMath.POSE_SIZE;
+
+    private final int mCapacity;
+    private final ImuSampleRing mGyroscope = new ImuSampleRing(1024);
+    private final ImuSampleRing mAccelerometer = new ImuSampleRing(1024);
+    private final ImuPoseFusion mFusion;
+    private long mFrameLatencyNs = 0;
+
+    private final float[] mPoses;
+    private final float[] mPrevious;
+    private final float[] mPropagated;
+    private boolean mHavePrevious = false;
+    private final float[] mA = new float[N];
+    private final float[] mB = new float[N];
+
+    // Errors in micrometres and millidegrees, so that the histograms report them in mm and degrees
+    private final LatencyHistogram mFusedTranslation = new LatencyHistogram();
+    private final LatencyHistogram mFusedRotation = new LatencyHistogram();
+    private final LatencyHistogram mHeldTranslation = new LatencyHistogram();
+    private final LatencyHistogram mHeldRotation = new LatencyHistogram();
+    private final float[] mErrors = new float[ERRORS_SIZE];
+
+    private long mFrames = 0;
+    private long mSamples = 0;
+
+    /**
+     * @param capacity The most markers a frame of the log has.
+     */
+    public ImuReplay(int capacity) {
+        mCapacity = capacity;
+        mFusion = new ImuPoseFusion(capacity, mGyroscope);
+        mPoses = new float[capacity * PoseMath.MARKER_POSE_STRIDE];
+        mPrevious = new float[capacity * PoseMath.MARKER_POSE_STRIDE];
+        mPropagated = new float[capacity * PoseMath.MARKER_POSE_STRIDE];
+    }
+
+    /**
+     * @return The fusion being replayed through, to configure before {@link #run(String)}.
+     */
+    public ImuPoseFusion getFusion() {
+        return mFusion;
+    }
+
+    /**
+     * As {@link ImuPoseFusion#setFrameLatency(long)}, which the replay needs to know too.
+     */
+    public void setFrameLatency(long frameLatencyNs) {
+        mFrameLatencyNs = frameLatencyNs;
+        mFusion.setFrameLatency(frameLatencyNs);
+    }
+
+    public void run(String path) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path), 64 * 1024));
+        try {
+            if (in.readInt() != ImuLogWriter.MAGIC || in.readInt() != ImuLogWriter.VERSION) {
+                throw new IOException("Not an IMU log, or of an unknown version: " + path);
+            }
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                long timestampNs = in.readLong();
+                if (type == ImuLogWriter.RECORD_POSES) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count * PoseMath.MARKER_POSE_STRIDE; i++) {
+                        float value = in.readFloat();
+                        if (i < mPoses.length) {
+                            mPoses[i] = value;
+                        }
+                    }
+                    onFrame(Math.min(count, mCapacity), timestampNs);
+                } else {
+                    float x = in.readFloat();
+                    float y = in.readFloat();
+                    float z = in.readFloat();
+                    if (type == ImuLogWriter.RECORD_GYROSCOPE) {
+                        mGyroscope.add(timestampNs, x, y, z);
+                    } else if (type == ImuLogWriter.RECORD_ACCELEROMETER) {
+                        mAccelerometer.add(timestampNs, x, y, z);
+                    } else {
+                        throw new IOException("Unknown record type " + type + " in " + path);
+                    }
+                    mSamples++;
+                }
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private void onFrame(int count, long frameNs) {
+        if (mHavePrevious) {
+            mFusion.propagate(frameNs - mFrameLatencyNs, mPropagated, count);
+            for (int m = 0; m < count; m++) {
+                int offset = m * PoseMath.MARKER_POSE_STRIDE;
+                if (mPoses[offset] == 0.0f || mPrevious[offset] == 0.0f || mPropagated[offset] == 0.0f) {
+                    continue;
+                }
+                recordError(mPropagated, offset, mFusedTranslation, mFusedRotation);
+                recordError(mPrevious, offset, mHeldTranslation, mHeldRotation);
+            }
+        }
+        mFusion.observe(mPoses, count, frameNs);
+        System.arraycopy(mPoses, 0, mPrevious, 0, count * PoseMath.MARKER_POSE_STRIDE);
+        for (int i = count * PoseMath.MARKER_POSE_STRIDE; i < mPrevious.length; i++) {
+            mPrevious[i] = 0.0f;
+        }
+        mHavePrevious = true;
+        mFrames++;
+    }
+
+    // Compares the pose at estimate[offset] with the observed one at mPoses[offset]
+    private void recordError(float[] estimate, int offset, LatencyHistogram translation, LatencyHistogram rotation) {
+        PoseMath.matrixToPose(estimate, offset + 1, mA, 0);
+        PoseMath.matrixToPose(mPoses, offset + 1, mB, 0);
+        float dx = mA[PoseMath.TX] - mB[PoseMath.TX];
+        float dy = mA[PoseMath.TY] - mB[PoseMath.TY];
+        float dz = mA[PoseMath.TZ] - mB[PoseMath.TZ];
+        translation.record((long) (Math.sqrt(dx * dx + dy * dy + dz * dz) * 1000.0));
+        rotation.record((long) (Math.toDegrees(PoseMath.rotationAngle(mA, 0, mB, 0)) * 1000.0));
+    }
+
+    /**
+     * @return An array reused by every call, laid out as described by the ERRORS_ constants.
+     */
+    public float[] getErrors() {
+        mFusedTranslation.getPercentilesMillis(mErrors, ERRORS_FUSED_TRANSLATION);
+        mFusedRotation.getPercentilesMillis(mErrors, ERRORS_FUSED_ROTATION);
+        mHeldTranslation.getPercentilesMillis(mErrors, ERRORS_HELD_TRANSLATION);
+        mHeldRotation.getPercentilesMillis(mErrors, ERRORS_HELD_ROTATION);
+        return mErrors;
+    }
+
+    public long getFrameCount() {
+        return mFrames;
+    }
+
+    public long getSampleCount() {
+        return mSamples;
+    }
+
+    public long getComparedCount() {
+        return mFusedTranslation.getCount();
+    }
+}
@@ -0,0 +1,103 @@
+package org.artoolkit.ar.unity;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The most recent timestamped samples of a 3-axis sensor, written by the thread the sensor
+ * delivers to and read by any other without locks.
+ * <p/>
+ * The writer fills the slot after the newest sample and then publishes it by advancing the
+ * count of samples written. The oldest slots are overwritten once the ring is full, so readers
+ * check after copying that none of what they copied was overwritten meanwhile, and copy again if
+ * it was. Readers only need the last few tens of milliseconds of a ring holding about a second,
+ * so that is rare. Neither side allocates.
+ */
+public class ImuSampleRing {
+
+    private final static int MAX_ATTEMPTS = 4;
+
+    private final int mMask;
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final AtomicLong mWritten = new AtomicLong(0);
+
+    /**
+     * @param capacity The number of samples kept, rounded up to a power of two.
+     */
+    public ImuSampleRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mMask = size - 1;
+        mTimestamps = new long[size];
+        mValues = new float[size * 3];
+    }
+
+    /**
+     * Adds a sample. Only one thread may add samples.
+     */
+    public void add(long timestampNs, float x, float y, float z) {
+        long index = mWritten.get();
+        int slot = (int) (index & mMask);
+        mTimestamps[slot] = timestampNs;
+        mValues[slot * 3] = x;
+        mValues[slot * 3 + 1] = y;
+        mValues[slot * 3 + 2] = z;
+        mWritten.lazySet(index + 1);
+    }
+
+    /**
+     * Copies the samples from the last one taken at or before fromNs, or the oldest kept if
+     * there is none, to the newest, in the order they were taken.
+     *
+     * @param timestamps Receives the timestamps of the samples.
+     * @param values     Receives the samples, three floats each.
+     * @param max        The most samples to copy. If there are more, the oldest are left out.
+     * @return The number of samples copied.
+     */
+    public int copySince(long fromNs, long[] timestamps, float[] values, int max) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            long written = mWritten.get();
+            // The slot of the sample being written next may already be partly overwritten
+            long oldest = Math.max(0, written - mMask);
+            long first = written - 1;
+            while (first > oldest && mTimestamps[(int) (first & mMask)] > fromNs) {
+                first--;
+            }
+            first = Math.max(first, written - max);
+            int count = 0;
+            for (long index = Math.max(first, 0); index < written; index++) {
+                int slot = (int) (index & mMask);
+                timestamps[count] = mTimestamps[slot];
+                values[count * 3] = mValues[slot * 3];
+                values[count * 3 + 1] = mValues[slot * 3 + 1];
+                values[count * 3 + 2] = mValues[slot * 3 + 2];
+                count++;
+            }
+            if (first >= mWritten.get() - mMask) {
+                return count;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return The number of samples added since construction or {@link #clear()}.
+     */
+    public long getWrittenCount() {
+        return mWritten.get();
+    }
+
+    /**
+     * @return The timestamp of the newest sample, or 0 if there is none.
+     */
+    public long getNewestTimestamp() {
+        long written = mWritten.get();
+        return written > 0 ? mTimestamps[(int) ((written - 1) & mMask)] : 0;
+    }
+
+    /**
+     * Discards all samples. Only the thread adding samples may call this.
+     */
+    public void clear() {
+        mWritten.set(0);
+    }
+}
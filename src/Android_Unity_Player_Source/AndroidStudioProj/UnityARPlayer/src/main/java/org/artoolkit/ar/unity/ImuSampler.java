@@ -0,0 +1,180 @@
+package org.artoolkit.ar.unity;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+
+/**
+ * Reads the gyroscope and accelerometer as fast as they deliver, on a thread of its own, into
+ * {@link #Gyroscope} and {@link #Accelerometer} for {@link ImuPoseFusion}.
+ * <p/>
+ * Sample timestamps are moved to the System.nanoTime() clock that frames are timestamped on.
+ * Sensor timestamps are on the elapsedRealtime clock on most devices, and on the uptime clock on
+ * some; which one is decided from the first sample.
+ */
+public class ImuSampler implements SensorEventListener {
+
+    private final static String TAG = "ImuSampler";
+
+    /** Angular velocity about the device's axes, in radians per second. */
+    public final static ImuSampleRing Gyroscope = new ImuSampleRing(512);
+    /** Acceleration along the device's axes including gravity, in m/s^2. */
+    public final static ImuSampleRing Accelerometer = new ImuSampleRing(512);
+
+    public static ImuSampler Instance = null;
+
+    private final SensorManager mSensorManager;
+    private final Sensor mGyroscope;
+    private final Sensor mAccelerometer;
+
+    private HandlerThread mThread = null;
+    private boolean mClockKnown = false; // Sensor thread only
+    private long mClockOffsetNs = 0;     // Sensor thread only
+    private volatile ImuLogWriter mLog = null;
+
+    public ImuSampler(Context context) {
+        mSensorManager = (SensorManager) context.getSystemService(Context.SENSOR_SERVICE);
+        mGyroscope = mSensorManager != null ? mSensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE) : null;
+        mAccelerometer = mSensorManager != null ? mSensorManager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER) : null;
+        Instance = this;
+    }
+
+    /**
+     * @return true if the device has a gyroscope, without which there is nothing to fuse.
+     */
+    public boolean isSupported() {
+        return mGyroscope != null;
+    }
+
+    public synchronized boolean isRunning() {
+        return mThread != null;
+    }
+
+    /**
+     * Starts reading the sensors. Does nothing if they are being read already.
+     *
+     * @return false if the device has no gyroscope.
+     */
+    public synchronized boolean start() {
+        if (mGyroscope == null) {
+            Log.w(TAG, "No gyroscope, not reading the sensors");
+            return false;
+        }
+        if (mThread != null) {
+            return true;
+        }
+        mThread = new HandlerThread("imu_thread", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        mThread.start();
+        final Handler handler = new Handler(mThread.getLooper());
+        handler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Samples from before a pause would be taken for recent ones
+                Gyroscope.clear();
+                Accelerometer.clear();
+                mClockKnown = false;
+            }
+        });
+        mSensorManager.registerListener(this, mGyroscope, SensorManager.SENSOR_DELAY_FASTEST, handler);
+        if (mAccelerometer != null) {
+            mSensorManager.registerListener(this, mAccelerometer, SensorManager.SENSOR_DELAY_FASTEST, handler);
+        }
+        Log.i(TAG, "Reading the gyroscope" + (mAccelerometer != null ? " and accelerometer" : ""));
+        return true;
+    }
+
+    public synchronized void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mSensorManager.unregisterListener(this);
+        mThread.quit();
+        mThread = null;
+        Log.i(TAG, "Stopped reading the sensors");
+    }
+
+    /**
+     * Starts recording the samples, and the poses given to {@link #logPoses}, for {@link ImuReplay}.
+     */
+    public void startLogging(String path) {
+        stopLogging();
+        try {
+            mLog = new ImuLogWriter(path);
+            Log.i(TAG, "Logging to " + path);
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot log to " + path + ": " + e.toString());
+        }
+    }
+
+    public void stopLogging() {
+        ImuLogWriter log = mLog;
+        mLog = null;
+        if (log != null) {
+            log.close();
+        }
+    }
+
+    /**
+     * Records the optical poses of a frame, if logging.
+     */
+    void logPoses(long frameNs, float[] poses, int count) {
+        ImuLogWriter log = mLog;
+        if (log != null) {
+            log.writePoses(frameNs, poses, count);
+        }
+    }
+
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        if (!mClockKnown) {
+            mClockOffsetNs = clockOffset(event.timestamp);
+            mClockKnown = true;
+        }
+        long timestampNs = event.timestamp - mClockOffsetNs;
+        float x = event.values[0], y = event.values[1], z = event.values[2];
+        byte type;
+        if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
+            Gyroscope.add(timestampNs, x, y, z);
+            type = ImuLogWriter.RECORD_GYROSCOPE;
+        } else {
+            Accelerometer.add(timestampNs, x, y, z);
+            type = ImuLogWriter.RECORD_ACCELEROMETER;
+        }
+        ImuLogWriter log = mLog;
+        if (log != null) {
+            log.writeSample(type, timestampNs, x, y, z);
+        }
+    }
+
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+    }
+
+    // How far the clock of a sensor timestamp just received is ahead of System.nanoTime()'s
+    private static long clockOffset(long sensorNs) {
+        long nanoTime = System.nanoTime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            long realtime = elapsedRealtimeNanos();
+            if (Math.abs(sensorNs - realtime) < Math.abs(sensorNs - nanoTime)) {
+                return realtime - nanoTime;
+            }
+        }
+        return 0;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR1)
+    private static long elapsedRealtimeNanos() {
+        return SystemClock.elapsedRealtimeNanos();
+    }
+}
@@ -0,0 +1,121 @@
+package org.artoolkit.ar.unity;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A dedicated thread that hands camera frames to the native side, so the camera callback can
+ * return immediately. Frames are passed through a {@link FrameMailbox}: if ingest falls behind,
+ * older frames are dropped and recycled, and the worker always processes the freshest one.
+ */
+class IngestWorker implements Runnable {
+
+    interface FrameConsumer {
+        /**
+         * Called on the worker thread for every frame taken from the mailbox.
+         */
+        void onFrame(byte[] data, long timestampNs);
+    }
+
+    interface BufferRecycler {
+        /**
+         * Called once a frame's data is no longer needed, either after it was consumed or
+         * because a newer frame replaced it. May be called from either thread.
+         */
+        void recycle(byte[] data);
+    }
+
+    private final String mName;
+    private final FrameConsumer mConsumer;
+    private final BufferRecycler mRecycler;
+    private final FrameMailbox mMailbox = new FrameMailbox();
+
+    private volatile boolean mRunning = false;
+    private Thread mThread = null;
+
+    IngestWorker(String name, FrameConsumer consumer, BufferRecycler recycler) {
+        mName = name;
+        mConsumer = consumer;
+        mRecycler = recycler;
+    }
+
+    void start() {
+        if (mThread != null) {
+            return;
+        }
+        mRunning = true;
+        mThread = new Thread(this, mName);
+        mThread.start();
+    }
+
+    /**
+     * Stops the worker and waits for the frame in progress, if any, to finish. A frame still
+     * waiting in the mailbox is recycled without being consumed.
+     */
+    void stop() {
+        if (mThread == null) {
+            return;
+        }
+        mRunning = false;
+        LockSupport.unpark(mThread);
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        mThread = null;
+        FrameMailbox.Slot pending = mMailbox.take();
+        if (pending != null && pending.data != null) {
+            mRecycler.recycle(pending.data);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Producer side. Never blocks.
+     */
+    void offer(byte[] data, long timestampNs) {
+        byte[] dropped = mMailbox.publish(data, timestampNs);
+        if (dropped != null) {
+            mRecycler.recycle(dropped);
+        }
+        Thread thread = mThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (mRunning) {
+            FrameMailbox.Slot slot = mMailbox.take();
+            if (slot == null) {
+                LockSupport.park(this);
+                continue;
+            }
+            byte[] data = slot.data;
+            try {
+                mConsumer.onFrame(data, slot.timestampNs);
+            } finally {
+                mRecycler.recycle(data);
+            }
+        }
+    }
+
+    long getOfferedCount() {
+        return mMailbox.getPublishedCount();
+    }
+
+    long getConsumedCount() {
+        return mMailbox.getTakenCount();
+    }
+
+    long getDroppedCount() {
+        return mMailbox.getDroppedCount();
+    }
+}
@@ -0,0 +1,156 @@
+package org.artoolkit.ar.unity;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size histogram of latencies, cheap enough to record into for every frame. Values are
+ * kept in microseconds in log-linear buckets: each power of two is split into 16 linear buckets,
+ * so a reported percentile is within about 6% of the true value. Nothing is allocated after
+ * construction.
+ * <p/>
+ * Any thread may record and read at any time; a read that races with recording may miss the
+ * values being recorded.
+ */
+final class LatencyHistogram {
+
+    private final static int SUB_BUCKET_BITS = 4;
+    private final static int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values up to 2^27 us (about two minutes); larger ones are counted in the last bucket.
+    private final static int MAX_EXPONENT = 26;
+    private final static long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+    final static int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mTotal = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    void recordNanos(long nanos) {
+        record(nanos / 1000);
+    }
+
+    void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        else if (micros > MAX_VALUE) {
+            micros = MAX_VALUE;
+        }
+        mCounts.incrementAndGet(bucketOf(micros));
+        mTotal.incrementAndGet();
+        mSum.addAndGet(micros);
+        long max;
+        while (micros > (max = mMax.get())) {
+            if (mMax.compareAndSet(max, micros)) {
+                break;
+            }
+        }
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts.set(i, 0);
+        }
+        mTotal.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    long getCount() {
+        return mTotal.get();
+    }
+
+    long getMaxMicros() {
+        return mMax.get();
+    }
+
+    float getMeanMicros() {
+        long total = mTotal.get();
+        return total > 0 ? (float) mSum.get() / total : 0.0f;
+    }
+
+    /**
+     * @param quantile Between 0 and 1, e.g. 0.95 for the 95th percentile.
+     * @return The upper bound of the bucket holding the quantile, in microseconds, or 0 if nothing has been recorded.
+     */
+    long getQuantileMicros(double quantile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += mCounts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBoundOf(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Writes the 50th, 95th and 99th percentiles, in milliseconds, to three consecutive elements
+     * of an array, in a single pass over the buckets.
+     */
+    void getPercentilesMillis(float[] out, int offset) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += mCounts.get(i);
+        }
+        out[offset] = 0.0f;
+        out[offset + 1] = 0.0f;
+        out[offset + 2] = 0.0f;
+        if (total == 0) {
+            return;
+        }
+        long rank50 = Math.max(1, (total * 50 + 99) / 100);
+        long rank95 = Math.max(1, (total * 95 + 99) / 100);
+        long rank99 = Math.max(1, (total * 99 + 99) / 100);
+        long max = mMax.get();
+        long seen = 0;
+        int found = 0;
+        for (int i = 0; i < BUCKET_COUNT && found < 3; i++) {
+            long count = mCounts.get(i);
+            if (count == 0) {
+                continue;
+            }
+            seen += count;
+            float millis = Math.min(upperBoundOf(i), max) / 1000.0f;
+            if (found == 0 && seen >= rank50) {
+                out[offset] = millis;
+                found = 1;
+            }
+            if (found == 1 && seen >= rank95) {
+                out[offset + 1] = millis;
+                found = 2;
+            }
+            if (found == 2 && seen >= rank99) {
+                out[offset + 2] = millis;
+                found = 3;
+            }
+        }
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + (int) ((micros >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
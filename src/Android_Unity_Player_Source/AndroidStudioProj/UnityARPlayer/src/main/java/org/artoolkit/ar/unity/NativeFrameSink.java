@@ -0,0 +1,93 @@
+package org.artoolkit.ar.unity;
+
+import org.artoolkit.ar.base.VideoStream;
+
+/**
+ * The default {@link FrameSink}: hands frames to the native ARToolKit library through a
+ * {@link VideoStream}.
+ */
+public class NativeFrameSink implements FrameSink {
+
+    private volatile VideoStream mVideoStream = null;
+    private boolean mUseDirectBuffers = false;
+    private boolean mLumaOnly = false;
+    private int mWidth = 0; // Published to the ingest thread by mVideoStream
+    private int mHeight = 0;
+
+    /**
+     * @see VideoStream
+     */
+    public void setUseDirectBuffers(boolean useDirectBuffers) {
+        mUseDirectBuffers = useDirectBuffers;
+    }
+
+    /**
+     * Selects submitting only the Y plane of each frame, for tracking that only needs luminance.
+     *
+     * @see VideoStream#VideoStream(int, int, int, boolean, boolean, boolean)
+     */
+    public void setLumaOnly(boolean lumaOnly) {
+        mLumaOnly = lumaOnly;
+    }
+
+    @Override
+    public void onCaptureStarted(int width, int height, int cameraIndex, boolean cameraIsFrontFacing) {
+        mWidth = width;
+        mHeight = height;
+        mVideoStream = new VideoStream(width, height, cameraIndex, cameraIsFrontFacing, mUseDirectBuffers, mLumaOnly);
+    }
+
+    @Override
+    public boolean onFrame(byte[] data, long timestampNs) {
+        VideoStream stream = mVideoStream;
+        if (stream == null) {
+            return false;
+        }
+        boolean ok = stream.submit(data, timestampNs);
+        if (stream.getLastCopiedBytes() > 0) {
+            // Otherwise the frame was dropped, with every buffer still in use
+            FrameMetrics.Shared.onFrameCopied(stream.getLastCopiedBytes(), stream.getNv21FrameSize());
+        }
+        // After submitting, so estimating the threshold doesn't delay this frame
+        ThresholdEstimator estimator = ThresholdEstimator.getActive();
+        if (estimator != null) {
+            estimator.onFrame(data, mWidth, mHeight);
+        }
+        return ok;
+    }
+
+    @Override
+    public void onCaptureStopped() {
+        VideoStream stream = mVideoStream;
+        mVideoStream = null;
+        if (stream != null) {
+            stream.close();
+        }
+    }
+
+    /**
+     * @return The stream if frames can be written straight into its direct buffers, otherwise null.
+     */
+    VideoStream getDirectStream() {
+        VideoStream stream = mVideoStream;
+        return stream != null && stream.open() ? stream : null;
+    }
+
+    /**
+     * @return true if only the Y plane of the frames given to {@link #onFrame(byte[], long)} is read.
+     */
+    public boolean submitsLumaOnly() {
+        VideoStream stream = mVideoStream;
+        return stream != null && stream.submitsLumaOnly();
+    }
+
+    public boolean isDirect() {
+        VideoStream stream = mVideoStream;
+        return stream != null && stream.isDirect();
+    }
+
+    public float getMeanSubmitMicros() {
+        VideoStream stream = mVideoStream;
+        return stream != null ? stream.getMeanSubmitMicros() : 0.0f;
+    }
+}
@@ -0,0 +1,81 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Operations on NV21 frames held in byte arrays: a full-resolution Y plane followed by a
+ * half-resolution plane of interleaved V and U samples. None of these allocate.
+ */
+final class Nv21 {
+
+    private Nv21() {
+    }
+
+    /**
+     * @return The size in bytes of an NV21 frame.
+     */
+    static int frameSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Copies the Y plane of a frame.
+     *
+     * @param out Receives width * height bytes.
+     */
+    static void extractLuma(byte[] nv21, int width, int height, byte[] out) {
+        System.arraycopy(nv21, 0, out, 0, width * height);
+    }
+
+    /**
+     * Downscales the Y plane of a frame by an integer factor, averaging each factor x factor
+     * block. Rows and columns left over when the size isn't a multiple of the factor are dropped.
+     *
+     * @param out Receives (width / factor) * (height / factor) bytes.
+     */
+    static void downscaleLuma(byte[] nv21, int width, int height, int factor, byte[] out) {
+        if (factor == 1) {
+            extractLuma(nv21, width, height, out);
+            return;
+        }
+        if (factor == 2) {
+            downscaleLuma2x(nv21, width, height, out);
+            return;
+        }
+        int outWidth = width / factor;
+        int outHeight = height / factor;
+        int area = factor * factor;
+        int half = area / 2;
+        for (int oy = 0; oy < outHeight; oy++) {
+            int rowBase = oy * factor * width;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int base = rowBase + ox * factor;
+                int sum = 0;
+                for (int y = 0; y < factor; y++) {
+                    int i = base + y * width;
+                    for (int x = 0; x < factor; x++) {
+                        sum += nv21[i + x] & 0xff;
+                    }
+                }
+                out[oy * outWidth + ox] = (byte) ((sum + half) / area);
+            }
+        }
+    }
+
+    /**
+     * The common case of {@link #downscaleLuma(byte[], int, int, int, byte[])} with a factor of 2.
+     */
+    static void downscaleLuma2x(byte[] nv21, int width, int height, byte[] out) {
+        int outWidth = width / 2;
+        int outHeight = height / 2;
+        int o = 0;
+        for (int oy = 0; oy < outHeight; oy++) {
+            int i0 = oy * 2 * width;
+            int i1 = i0 + width;
+            for (int ox = 0; ox < outWidth; ox++) {
+                int sum = (nv21[i0] & 0xff) + (nv21[i0 + 1] & 0xff) + (nv21[i1] & 0xff) + (nv21[i1 + 1] & 0xff);
+                out[o++] = (byte) ((sum + 2) >> 2);
+                i0 += 2;
+                i1 += 2;
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.artoolkit.ar.unity;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * A {@link FrameSink} that records frames to a file that {@link ReplayFrameSource} can play
+ * back. Each capture overwrites the file.
+ */
+public class Nv21SequenceWriter implements FrameSink {
+
+    private final String mPath;
+    private final int mMaxFrames;
+
+    private DataOutputStream mOut = null;
+    private int mFrameSize = 0;
+    private volatile int mWrittenFrames = 0;
+    private volatile IOException mLastError = null;
+
+    /**
+     * @param maxFrames Frames after this many are not recorded, or 0 for no limit.
+     */
+    public Nv21SequenceWriter(String path, int maxFrames) {
+        mPath = path;
+        mMaxFrames = maxFrames;
+    }
+
+    @Override
+    public void onCaptureStarted(int width, int height, int cameraIndex, boolean cameraIsFrontFacing) {
+        closeStream();
+        mWrittenFrames = 0;
+        mLastError = null;
+        mFrameSize = width * height * 3 / 2;
+        try {
+            mOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mPath), 64 * 1024));
+            mOut.writeInt(ReplayFrameSource.MAGIC);
+            mOut.writeInt(ReplayFrameSource.VERSION);
+            mOut.writeInt(width);
+            mOut.writeInt(height);
+        } catch (IOException e) {
+            mLastError = e;
+            closeStream();
+        }
+    }
+
+    @Override
+    public boolean onFrame(byte[] data, long timestampNs) {
+        if (mOut == null || data.length < mFrameSize || (mMaxFrames > 0 && mWrittenFrames >= mMaxFrames)) {
+            return false;
+        }
+        try {
+            mOut.writeLong(timestampNs);
+            mOut.write(data, 0, mFrameSize);
+            mWrittenFrames++;
+            return true;
+        } catch (IOException e) {
+            mLastError = e;
+            closeStream();
+            return false;
+        }
+    }
+
+    @Override
+    public void onCaptureStopped() {
+        closeStream();
+    }
+
+    public int getWrittenFrameCount() {
+        return mWrittenFrames;
+    }
+
+    /**
+     * @return The error that stopped the last recording, or null.
+     */
+    public IOException getLastError() {
+        return mLastError;
+    }
+
+    private void closeStream() {
+        if (mOut != null) {
+            try {
+                mOut.close();
+            } catch (IOException e) {
+                mLastError = e;
+            }
+            mOut = null;
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Smooths the poses of a set of markers on the Java side, as an alternative to the native
+ * ARW_MARKER_OPTION_FILTERED, which has a fixed sample rate and cutoff and has to be set up with
+ * native calls for each marker.
+ * <p/>
+ * Markers are filtered according to their class, so that e.g. markers held in the hand can
+ * trade more jitter for less lag than markers lying on a table. A class is either a One-Euro
+ * filter or a constant-velocity Kalman filter, applied to each component of the translation and
+ * rotation quaternion, and both adapt to the real interval between frames.
+ * <p/>
+ * The state of all the markers is held in flat arrays indexed by marker and component, and the
+ * update loops run over the components of a marker without branching. Filtering doesn't
+ * allocate. Not thread safe; normally used only by the thread calling arwUpdateAR().
+ */
+public class PoseFilterBank {
+
+    public final static int FILTER_ONE_EURO = 1;
+    public final static int FILTER_KALMAN = 2;
+
+    public final static int MAX_CLASSES = 8;
+
+    private final static int N = PoseMath.POSE_SIZE;
+
+    // The initial variance of each component's rate of change, relative to its measurement noise:
+    // about one measurement's worth of change per frame at 30 fps
+    private final static float INITIAL_RATE_VARIANCE = 900.0f;
+
+    // Classes
+    private final int[] mClassType = new int[MAX_CLASSES];
+    private final float[] mClassMinCutoff = new float[MAX_CLASSES];
+    private final float[] mClassDerivativeCutoff = new float[MAX_CLASSES];
+    private final float[] mClassBeta = new float[MAX_CLASSES * N];
+    private final float[] mClassProcessNoise = new float[MAX_CLASSES * N];
+    private final float[] mClassMeasurementNoise = new float[MAX_CLASSES * N];
+    private int mClassCount = 0;
+
+    // Markers
+    private final int mCapacity;
+    private final int[] mMarkerClass;
+    private final long[] mLastNs; // 0 if the marker has no state yet
+
+    // Components, N per marker
+    private final float[] mMeasured;
+    private final float[] mValue;
+    private final float[] mRate;
+    private final float[] mP00;
+    private final float[] mP01;
+    private final float[] mP11;
+    private final float[] mOutput = new float[N];
+
+    /**
+     * @param capacity The number of markers, indexed in the order of the poses given to {@link #filter}.
+     */
+    public PoseFilterBank(int capacity) {
+        mCapacity = capacity;
+        mMarkerClass = new int[capacity];
+        mLastNs = new long[capacity];
+        mMeasured = new float[capacity * N];
+        mValue = new float[capacity * N];
+        mRate = new float[capacity * N];
+        mP00 = new float[capacity * N];
+        mP01 = new float[capacity * N];
+        mP11 = new float[capacity * N];
+        for (int i = 0; i < capacity; i++) {
+            mMarkerClass[i] = -1;
+        }
+    }
+
+    /**
+     * Adds a class of markers filtered with a One-Euro filter.
+     *
+     * @param minCutoff        The cutoff frequency when still, in Hz. Lower means less jitter and more lag.
+     * @param betaTranslation  How fast the cutoff rises with the speed of the translation, per mm/s. Higher means less lag when moving.
+     * @param betaRotation     As betaTranslation, for the speed of the rotation quaternion's components, per unit/s.
+     * @param derivativeCutoff The cutoff frequency for the speed estimate, in Hz, normally 1.
+     * @return The class, for {@link #setMarkerClass(int, int)}, or -1 if there are MAX_CLASSES classes already.
+     */
+    public int addOneEuroClass(float minCutoff, float betaTranslation, float betaRotation, float derivativeCutoff) {
+        if (mClassCount == MAX_CLASSES) {
+            return -1;
+        }
+        int c = mClassCount++;
+        mClassType[c] = FILTER_ONE_EURO;
+        mClassMinCutoff[c] = minCutoff;
+        mClassDerivativeCutoff[c] = derivativeCutoff;
+        setPerComponent(mClassBeta, c, betaTranslation, betaRotation);
+        return c;
+    }
+
+    /**
+     * Adds a class of markers filtered with a constant-velocity Kalman filter.
+     *
+     * @param translationProcessNoise     How much the translation's velocity wanders, as the spectral density of its acceleration, in mm^2/s^3. Higher means less lag and more jitter.
+     * @param rotationProcessNoise        As translationProcessNoise, for the rotation quaternion's components, in 1/s^3.
+     * @param translationMeasurementNoise The variance of the measured translation, in mm^2.
+     * @param rotationMeasurementNoise    The variance of the measured rotation quaternion's components.
+     * @return The class, for {@link #setMarkerClass(int, int)}, or -1 if there are MAX_CLASSES classes already.
+     */
+    public int addKalmanClass(float translationProcessNoise, float rotationProcessNoise,
+                              float translationMeasurementNoise, float rotationMeasurementNoise) {
+        if (mClassCount == MAX_CLASSES) {
+            return -1;
+        }
+        int c = mClassCount++;
+        mClassType[c] = FILTER_KALMAN;
+        setPerComponent(mClassProcessNoise, c, translationProcessNoise, rotationProcessNoise);
+        setPerComponent(mClassMeasurementNoise, c, translationMeasurementNoise, rotationMeasurementNoise);
+        return c;
+    }
+
+    private static void setPerComponent(float[] values, int c, float translation, float rotation) {
+        for (int k = 0; k < N; k++) {
+            values[c * N + k] = k < PoseMath.QX ? translation : rotation;
+        }
+    }
+
+    /**
+     * Sets how a marker is filtered.
+     *
+     * @param markerClass A class returned by addOneEuroClass or addKalmanClass, or -1 to leave the marker unfiltered.
+     */
+    public void setMarkerClass(int marker, int markerClass) {
+        if (marker < 0 || marker >= mCapacity || markerClass >= mClassCount) {
+            return;
+        }
+        mMarkerClass[marker] = markerClass;
+        mLastNs[marker] = 0;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Forgets the state of every marker, e.g. when tracking restarts.
+     */
+    public void reset() {
+        for (int i = 0; i < mCapacity; i++) {
+            mLastNs[i] = 0;
+        }
+    }
+
+    /**
+     * Filters the poses of one frame in place. A marker that isn't visible loses its state, and
+     * starts again from its first pose when it is seen again.
+     *
+     * @param poses       The poses, laid out as described by PoseMath.MARKER_POSE_STRIDE.
+     * @param count       The number of markers in poses.
+     * @param timestampNs When the frame was captured. A frame with the same timestamp as the last leaves the filters as they are.
+     */
+    public void filter(float[] poses, int count, long timestampNs) {
+        int n = Math.min(count, mCapacity);
+        for (int m = 0; m < n; m++) {
+            int offset = m * PoseMath.MARKER_POSE_STRIDE;
+            if (poses[offset] == 0.0f) {
+                mLastNs[m] = 0;
+                continue;
+            }
+            int markerClass = mMarkerClass[m];
+            if (markerClass < 0) {
+                continue;
+            }
+            int c = m * N;
+            PoseMath.matrixToPose(poses, offset + 1, mMeasured, c);
+            if (mLastNs[m] == 0) {
+                start(markerClass, c);
+                mLastNs[m] = timestampNs;
+                continue;
+            }
+            PoseMath.alignRotation(mMeasured, c, mValue, c);
+            float dt = (timestampNs - mLastNs[m]) / 1e9f;
+            if (dt > 0.0f) {
+                mLastNs[m] = timestampNs;
+                if (mClassType[markerClass] == FILTER_ONE_EURO) {
+                    updateOneEuro(markerClass, c, dt);
+                } else {
+                    updateKalman(markerClass, c, dt);
+                }
+            }
+            System.arraycopy(mValue, c, mOutput, 0, N);
+            PoseMath.normalizeRotation(mOutput, 0);
+            PoseMath.poseToMatrix(mOutput, 0, poses, offset + 1);
+        }
+    }
+
+    private void start(int markerClass, int c) {
+        int p = markerClass * N;
+        for (int k = 0; k < N; k++) {
+            float r = mClassMeasurementNoise[p + k];
+            mValue[c + k] = mMeasured[c + k];
+            mRate[c + k] = 0.0f;
+            mP00[c + k] = r;
+            mP01[c + k] = 0.0f;
+            mP11[c + k] = r * INITIAL_RATE_VARIANCE;
+        }
+    }
+
+    private void updateOneEuro(int markerClass, int c, float dt) {
+        float minCutoff = mClassMinCutoff[markerClass];
+        float alphaRate = alpha(dt, mClassDerivativeCutoff[markerClass]);
+        int p = markerClass * N;
+        for (int k = 0; k < N; k++) {
+            float previous = mValue[c + k];
+            float x = mMeasured[c + k];
+            float rate = mRate[c + k] + alphaRate * ((x - previous) / dt - mRate[c + k]);
+            float cutoff = minCutoff + mClassBeta[p + k] * Math.abs(rate);
+            mRate[c + k] = rate;
+            mValue[c + k] = previous + alpha(dt, cutoff) * (x - previous);
+        }
+    }
+
+    private void updateKalman(int markerClass, int c, float dt) {
+        int p = markerClass * N;
+        float dt2 = dt * dt;
+        for (int k = 0; k < N; k++) {
+            int i = c + k;
+            float q = mClassProcessNoise[p + k];
+            float r = mClassMeasurementNoise[p + k];
+            // Predict
+            float predicted = mValue[i] + mRate[i] * dt;
+            float p00 = mP00[i] + dt * (2.0f * mP01[i] + dt * mP11[i]) + q * dt2 * dt / 3.0f;
+            float p01 = mP01[i] + dt * mP11[i] + q * dt2 / 2.0f;
+            float p11 = mP11[i] + q * dt;
+            // Correct
+            float s = p00 + r;
+            float k0 = p00 / s;
+            float k1 = p01 / s;
+            float innovation = mMeasured[i] - predicted;
+            mValue[i] = predicted + k0 * innovation;
+            mRate[i] += k1 * innovation;
+            mP00[i] = p00 - k0 * p00;
+            mP01[i] = p01 - k0 * p01;
+            mP11[i] = p11 - k1 * p01;
+        }
+    }
+
+    // The smoothing factor of a first-order low-pass filter with the given cutoff frequency
+    private static float alpha(float dt, float cutoffHz) {
+        float tau = 1.0f / (2.0f * (float) Math.PI * cutoffHz);
+        return dt / (dt + tau);
+    }
+}
@@ -0,0 +1,242 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Conversions between the OpenGL transformation matrices ARToolKit returns and a compact pose
+ * of a translation and a unit quaternion, for filtering and extrapolating poses component by
+ * component. Poses are POSE_SIZE consecutive floats: tx, ty, tz, qx, qy, qz, qw.
+ * <p/>
+ * Matrices are column-major, as returned by arwQueryMarkerTransformation, and assumed to be rigid.
+ * Nothing here allocates.
+ */
+public final class PoseMath {
+
+    /**
+     * The number of floats each marker occupies in an array of marker poses, as the batched
+     * marker queries of NativeInterface fill them: a visibility flag (1 if visible, 0 if not)
+     * followed by the 16-element transformation matrix.
+     */
+    public static final int MARKER_POSE_STRIDE = 17;
+
+    static final int TX = 0, TY = 1, TZ = 2, QX = 3, QY = 4, QZ = 5, QW = 6;
+    static final int POSE_SIZE = 7;
+
+    private PoseMath() {
+    }
+
+    /**
+     * Converts the 16-element matrix at m[mOff] to the pose at pose[pOff].
+     */
+    static void matrixToPose(float[] m, int mOff, float[] pose, int pOff) {
+        // Column-major: row r, column c is m[mOff + c * 4 + r]
+        float r00 = m[mOff], r10 = m[mOff + 1], r20 = m[mOff + 2];
+        float r01 = m[mOff + 4], r11 = m[mOff + 5], r21 = m[mOff + 6];
+        float r02 = m[mOff + 8], r12 = m[mOff + 9], r22 = m[mOff + 10];
+        float x, y, z, w;
+        float trace = r00 + r11 + r22;
+        if (trace > 0.0f) {
+            float s = (float) Math.sqrt(trace + 1.0f) * 2.0f;
+            w = 0.25f * s;
+            x = (r21 - r12) / s;
+            y = (r02 - r20) / s;
+            z = (r10 - r01) / s;
+        } else if (r00 > r11 && r00 > r22) {
+            float s = (float) Math.sqrt(1.0f + r00 - r11 - r22) * 2.0f;
+            w = (r21 - r12) / s;
+            x = 0.25f * s;
+            y = (r01 + r10) / s;
+            z = (r02 + r20) / s;
+        } else if (r11 > r22) {
+            float s = (float) Math.sqrt(1.0f + r11 - r00 - r22) * 2.0f;
+            w = (r02 - r20) / s;
+            x = (r01 + r10) / s;
+            y = 0.25f * s;
+            z = (r12 + r21) / s;
+        } else {
+            float s = (float) Math.sqrt(1.0f + r22 - r00 - r11) * 2.0f;
+            w = (r10 - r01) / s;
+            x = (r02 + r20) / s;
+            y = (r12 + r21) / s;
+            z = 0.25f * s;
+        }
+        pose[pOff + TX] = m[mOff + 12];
+        pose[pOff + TY] = m[mOff + 13];
+        pose[pOff + TZ] = m[mOff + 14];
+        pose[pOff + QX] = x;
+        pose[pOff + QY] = y;
+        pose[pOff + QZ] = z;
+        pose[pOff + QW] = w;
+    }
+
+    /**
+     * Converts the pose at pose[pOff] to a 16-element matrix at m[mOff]. The quaternion must be
+     * of unit length.
+     */
+    static void poseToMatrix(float[] pose, int pOff, float[] m, int mOff) {
+        float x = pose[pOff + QX], y = pose[pOff + QY], z = pose[pOff + QZ], w = pose[pOff + QW];
+        float xx = x * x, yy = y * y, zz = z * z;
+        float xy = x * y, xz = x * z, yz = y * z;
+        float wx = w * x, wy = w * y, wz = w * z;
+        m[mOff] = 1.0f - 2.0f * (yy + zz);
+        m[mOff + 1] = 2.0f * (xy + wz);
+        m[mOff + 2] = 2.0f * (xz - wy);
+        m[mOff + 3] = 0.0f;
+        m[mOff + 4] = 2.0f * (xy - wz);
+        m[mOff + 5] = 1.0f - 2.0f * (xx + zz);
+        m[mOff + 6] = 2.0f * (yz + wx);
+        m[mOff + 7] = 0.0f;
+        m[mOff + 8] = 2.0f * (xz + wy);
+        m[mOff + 9] = 2.0f * (yz - wx);
+        m[mOff + 10] = 1.0f - 2.0f * (xx + yy);
+        m[mOff + 11] = 0.0f;
+        m[mOff + 12] = pose[pOff + TX];
+        m[mOff + 13] = pose[pOff + TY];
+        m[mOff + 14] = pose[pOff + TZ];
+        m[mOff + 15] = 1.0f;
+    }
+
+    /**
+     * Scales the quaternion of the pose at pose[pOff] to unit length.
+     */
+    static void normalizeRotation(float[] pose, int pOff) {
+        float x = pose[pOff + QX], y = pose[pOff + QY], z = pose[pOff + QZ], w = pose[pOff + QW];
+        float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        if (length > 0.0f) {
+            float scale = 1.0f / length;
+            pose[pOff + QX] = x * scale;
+            pose[pOff + QY] = y * scale;
+            pose[pOff + QZ] = z * scale;
+            pose[pOff + QW] = w * scale;
+        } else {
+            pose[pOff + QX] = 0.0f;
+            pose[pOff + QY] = 0.0f;
+            pose[pOff + QZ] = 0.0f;
+            pose[pOff + QW] = 1.0f;
+        }
+    }
+
+    /**
+     * Negates the quaternion of the pose at pose[pOff] if needed to put it in the same hemisphere
+     * as the one at ref[rOff], so that both describe the rotation by the shortest path between
+     * them and can be interpolated component by component.
+     */
+    static void alignRotation(float[] pose, int pOff, float[] ref, int rOff) {
+        float dot = pose[pOff + QX] * ref[rOff + QX] + pose[pOff + QY] * ref[rOff + QY]
+                + pose[pOff + QZ] * ref[rOff + QZ] + pose[pOff + QW] * ref[rOff + QW];
+        if (dot < 0.0f) {
+            pose[pOff + QX] = -pose[pOff + QX];
+            pose[pOff + QY] = -pose[pOff + QY];
+            pose[pOff + QZ] = -pose[pOff + QZ];
+            pose[pOff + QW] = -pose[pOff + QW];
+        }
+    }
+
+    /**
+     * @return The angle of the rotation between the quaternions of the poses at a[aOff] and b[bOff], in radians.
+     */
+    static float rotationAngle(float[] a, int aOff, float[] b, int bOff) {
+        float dot = a[aOff + QX] * b[bOff + QX] + a[aOff + QY] * b[bOff + QY]
+                + a[aOff + QZ] * b[bOff + QZ] + a[aOff + QW] * b[bOff + QW];
+        return 2.0f * (float) Math.acos(Math.min(1.0f, Math.abs(dot)));
+    }
+
+    /**
+     * Finds the angular velocity that rotates the quaternion of the pose at from[fOff] to that of
+     * the pose at to[tOff] in the given time, about axes fixed in the frame the poses are in.
+     *
+     * @param out Receives the angular velocity, in radians per second, at out[oOff] to out[oOff + 2].
+     */
+    static void angularVelocity(float[] from, int fOff, float[] to, int tOff, float seconds, float[] out, int oOff) {
+        // delta = to * conjugate(from)
+        float ax = to[tOff + QX], ay = to[tOff + QY], az = to[tOff + QZ], aw = to[tOff + QW];
+        float bx = -from[fOff + QX], by = -from[fOff + QY], bz = -from[fOff + QZ], bw = from[fOff + QW];
+        float w = aw * bw - ax * bx - ay * by - az * bz;
+        float x = aw * bx + ax * bw + ay * bz - az * by;
+        float y = aw * by - ax * bz + ay * bw + az * bx;
+        float z = aw * bz + ax * by - ay * bx + az * bw;
+        if (w < 0.0f) {
+            x = -x;
+            y = -y;
+            z = -z;
+            w = -w;
+        }
+        float sin = (float) Math.sqrt(x * x + y * y + z * z);
+        if (sin < 1e-9f || seconds <= 0.0f) {
+            out[oOff] = 0.0f;
+            out[oOff + 1] = 0.0f;
+            out[oOff + 2] = 0.0f;
+            return;
+        }
+        float scale = 2.0f * (float) Math.atan2(sin, w) / (sin * seconds);
+        out[oOff] = x * scale;
+        out[oOff + 1] = y * scale;
+        out[oOff + 2] = z * scale;
+    }
+
+    /**
+     * Rotates the quaternion of the pose at pose[pOff] by a constant angular velocity for the
+     * given time, about axes fixed in the frame the pose is in.
+     */
+    static void integrateRotation(float[] pose, int pOff, float wx, float wy, float wz, float seconds) {
+        float angle = (float) Math.sqrt(wx * wx + wy * wy + wz * wz) * seconds;
+        if (angle < 1e-9f) {
+            return;
+        }
+        float half = 0.5f * angle;
+        float scale = (float) Math.sin(half) / (angle / seconds);
+        float bx = wx * scale, by = wy * scale, bz = wz * scale, bw = (float) Math.cos(half);
+        float ax = pose[pOff + QX], ay = pose[pOff + QY], az = pose[pOff + QZ], aw = pose[pOff + QW];
+        // delta * q
+        pose[pOff + QW] = bw * aw - bx * ax - by * ay - bz * az;
+        pose[pOff + QX] = bw * ax + bx * aw + by * az - bz * ay;
+        pose[pOff + QY] = bw * ay - bx * az + by * aw + bz * ax;
+        pose[pOff + QZ] = bw * az + bx * ay - by * ax + bz * aw;
+        normalizeRotation(pose, pOff);
+    }
+
+    /**
+     * Rotates the quaternion of the pose at pose[pOff] by a constant angular velocity for the
+     * given time, about axes that turn with the pose, as a gyroscope measures them.
+     */
+    static void integrateBodyRotation(float[] pose, int pOff, float wx, float wy, float wz, float seconds) {
+        float angle = (float) Math.sqrt(wx * wx + wy * wy + wz * wz) * seconds;
+        if (angle < 1e-9f) {
+            return;
+        }
+        float half = 0.5f * angle;
+        float scale = (float) Math.sin(half) / (angle / seconds);
+        float bx = wx * scale, by = wy * scale, bz = wz * scale, bw = (float) Math.cos(half);
+        float ax = pose[pOff + QX], ay = pose[pOff + QY], az = pose[pOff + QZ], aw = pose[pOff + QW];
+        // q * delta
+        pose[pOff + QW] = aw * bw - ax * bx - ay * by - az * bz;
+        pose[pOff + QX] = aw * bx + ax * bw + ay * bz - az * by;
+        pose[pOff + QY] = aw * by - ax * bz + ay * bw + az * bx;
+        pose[pOff + QZ] = aw * bz + ax * by - ay * bx + az * bw;
+        normalizeRotation(pose, pOff);
+    }
+
+    /**
+     * Transforms the pose at pose[pOff], of something in a frame that has since rotated by the
+     * rotation at rotation[rOff], into the rotated frame. Only the quaternion of the rotation is
+     * used.
+     */
+    static void rotateByInverse(float[] pose, int pOff, float[] rotation, int rOff) {
+        // The inverse of a unit quaternion is its conjugate
+        float ux = -rotation[rOff + QX], uy = -rotation[rOff + QY], uz = -rotation[rOff + QZ], uw = rotation[rOff + QW];
+
+        // t' = t + 2w(u x t) + 2u x (u x t)
+        float tx = pose[pOff + TX], ty = pose[pOff + TY], tz = pose[pOff + TZ];
+        float cx = 2.0f * (uy * tz - uz * ty);
+        float cy = 2.0f * (uz * tx - ux * tz);
+        float cz = 2.0f * (ux * ty - uy * tx);
+        pose[pOff + TX] = tx + uw * cx + (uy * cz - uz * cy);
+        pose[pOff + TY] = ty + uw * cy + (uz * cx - ux * cz);
+        pose[pOff + TZ] = tz + uw * cz + (ux * cy - uy * cx);
+
+        // q' = inverse * q
+        float bx = pose[pOff + QX], by = pose[pOff + QY], bz = pose[pOff + QZ], bw = pose[pOff + QW];
+        pose[pOff + QW] = uw * bw - ux * bx - uy * by - uz * bz;
+        pose[pOff + QX] = uw * bx + ux * bw + uy * bz - uz * by;
+        pose[pOff + QY] = uw * by - ux * bz + uy * bw + uz * bx;
+        pose[pOff + QZ] = uw * bz + ux * by - uy * bx + uz * bw;
+    }
+}
@@ -0,0 +1,268 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Extrapolates the poses of a set of markers from the time their frame was captured to the time
+ * they will be shown, e.g. the next vsync, to hide the latency between the two.
+ * <p/>
+ * A short history of each marker's poses and capture timestamps gives its linear velocity, by a
+ * least-squares fit over the history, and its angular velocity, from the rotation between the
+ * oldest and newest poses. A pose is then extrapolated at constant velocity, for no further
+ * ahead than {@link #setMaxHorizon(long)}.
+ * <p/>
+ * Each new observation is first compared with what the predictor would have predicted for its
+ * timestamp, and the errors recorded, so that the prediction can be judged on a device. Doesn't
+ * allocate after construction. Not thread safe; normally used only by the thread calling
+ * arwUpdateAR().
+ */
+public class PosePredictor {
+
+    public final static int DEFAULT_HISTORY = 4;
+    public final static long DEFAULT_MAX_HORIZON_NS = 100000000L;
+
+    // Layout of the array filled by getErrors()
+    /** The 50th, 95th and 99th percentiles of the translation error, in mm. */
+    public final static int ERRORS_TRANSLATION = 0;
+    /** The 50th, 95th and 99th percentiles of the rotation error, in degrees. */
+    public final static int ERRORS_ROTATION = 3;
+    public final static int ERRORS_SIZE = 6;
+
+    private final static int N = PoseMath.POSE_SIZE;
+
+    private final int mCapacity;
+    private final int mHistory;
+    private long mMaxHorizonNs = DEFAULT_MAX_HORIZON_NS;
+
+    // History, mHistory slots per marker, of which mCount[m] are used, the newest at mNewest[m]
+    private final float[] mPoses;
+    private final long[] mTimestamps;
+    private final int[] mCount;
+    private final int[] mNewest;
+
+    // Velocities estimated from the history, 3 per marker
+    private final float[] mVelocity;
+    private final float[] mAngularVelocity;
+
+    private final float[] mScratch = new float[N];
+    private final float[] mPredicted = new float[N];
+
+    // The errors of predictions checked against later observations; translation in micrometres
+    // and rotation in millidegrees, so that the histograms report them in mm and degrees
+    private final LatencyHistogram mTranslationErrors = new LatencyHistogram();
+    private final LatencyHistogram mRotationErrors = new LatencyHistogram();
+    private final float[] mErrors = new float[ERRORS_SIZE];
+
+    public PosePredictor(int capacity) {
+        this(capacity, DEFAULT_HISTORY);
+    }
+
+    /**
+     * @param capacity The number of markers, indexed in the order of the poses given to {@link #observe}.
+     * @param history  The number of poses kept for each marker, at least 2. More gives steadier velocities that respond more slowly.
+     */
+    public PosePredictor(int capacity, int history) {
+        mCapacity = capacity;
+        mHistory = Math.max(2, history);
+        mPoses = new float[capacity * mHistory * N];
+        mTimestamps = new long[capacity * mHistory];
+        mCount = new int[capacity];
+        mNewest = new int[capacity];
+        mVelocity = new float[capacity * 3];
+        mAngularVelocity = new float[capacity * 3];
+    }
+
+    /**
+     * @param maxHorizonNs The furthest ahead of the newest observation a pose is extrapolated; predictions further ahead are made for this far ahead.
+     */
+    public void setMaxHorizon(long maxHorizonNs) {
+        mMaxHorizonNs = Math.max(0, maxHorizonNs);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Adds the poses of one frame to the history. A marker that isn't visible loses its history.
+     *
+     * @param poses       The poses, laid out as described by PoseMath.MARKER_POSE_STRIDE.
+     * @param count       The number of markers in poses.
+     * @param timestampNs When the frame was captured. A frame with the same timestamp as the last is ignored.
+     */
+    public void observe(float[] poses, int count, long timestampNs) {
+        int n = Math.min(count, mCapacity);
+        for (int m = 0; m < n; m++) {
+            int offset = m * PoseMath.MARKER_POSE_STRIDE;
+            if (poses[offset] == 0.0f) {
+                mCount[m] = 0;
+                continue;
+            }
+            int used = mCount[m];
+            if (used > 0 && timestampNs <= mTimestamps[m * mHistory + mNewest[m]]) {
+                continue;
+            }
+            PoseMath.matrixToPose(poses, offset + 1, mScratch, 0);
+            if (used > 0) {
+                int newest = (m * mHistory + mNewest[m]) * N;
+                PoseMath.alignRotation(mScratch, 0, mPoses, newest);
+                if (used > 1) {
+                    recordError(m, timestampNs);
+                }
+            }
+            int slot = used > 0 ? (mNewest[m] + 1) % mHistory : 0;
+            System.arraycopy(mScratch, 0, mPoses, (m * mHistory + slot) * N, N);
+            mTimestamps[m * mHistory + slot] = timestampNs;
+            mNewest[m] = slot;
+            mCount[m] = Math.min(used + 1, mHistory);
+            estimateVelocity(m);
+        }
+    }
+
+    private void estimateVelocity(int m) {
+        int used = mCount[m];
+        int base = m * mHistory;
+        int v = m * 3;
+        if (used < 2) {
+            for (int k = 0; k < 3; k++) {
+                mVelocity[v + k] = 0.0f;
+                mAngularVelocity[v + k] = 0.0f;
+            }
+            return;
+        }
+        int newest = mNewest[m];
+        int oldest = (newest - used + 1 + mHistory) % mHistory;
+        long newestNs = mTimestamps[base + newest];
+
+        // Least-squares slope of each translation component against time
+        float meanT = 0.0f;
+        float meanX = 0.0f, meanY = 0.0f, meanZ = 0.0f;
+        for (int i = 0; i < used; i++) {
+            int slot = (oldest + i) % mHistory;
+            int p = (base + slot) * N;
+            meanT += (mTimestamps[base + slot] - newestNs) / 1e9f;
+            meanX += mPoses[p + PoseMath.TX];
+            meanY += mPoses[p + PoseMath.TY];
+            meanZ += mPoses[p + PoseMath.TZ];
+        }
+        meanT /= used;
+        meanX /= used;
+        meanY /= used;
+        meanZ /= used;
+        float sumTT = 0.0f;
+        float sumTX = 0.0f, sumTY = 0.0f, sumTZ = 0.0f;
+        for (int i = 0; i < used; i++) {
+            int slot = (oldest + i) % mHistory;
+            int p = (base + slot) * N;
+            float t = (mTimestamps[base + slot] - newestNs) / 1e9f - meanT;
+            sumTT += t * t;
+            sumTX += t * (mPoses[p + PoseMath.TX] - meanX);
+            sumTY += t * (mPoses[p + PoseMath.TY] - meanY);
+            sumTZ += t * (mPoses[p + PoseMath.TZ] - meanZ);
+        }
+        mVelocity[v] = sumTX / sumTT;
+        mVelocity[v + 1] = sumTY / sumTT;
+        mVelocity[v + 2] = sumTZ / sumTT;
+
+        float seconds = (newestNs - mTimestamps[base + oldest]) / 1e9f;
+        PoseMath.angularVelocity(mPoses, (base + oldest) * N, mPoses, (base + newest) * N, seconds, mAngularVelocity, v);
+    }
+
+    // Compares the prediction for a new observation, in mScratch, with the observation itself
+    private void recordError(int m, long timestampNs) {
+        extrapolate(m, timestampNs, mPredicted);
+        float dx = mPredicted[PoseMath.TX] - mScratch[PoseMath.TX];
+        float dy = mPredicted[PoseMath.TY] - mScratch[PoseMath.TY];
+        float dz = mPredicted[PoseMath.TZ] - mScratch[PoseMath.TZ];
+        float translationError = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        float rotationError = (float) Math.toDegrees(PoseMath.rotationAngle(mPredicted, 0, mScratch, 0));
+        mTranslationErrors.record((long) (translationError * 1000.0f));
+        mRotationErrors.record((long) (rotationError * 1000.0f));
+    }
+
+    // Extrapolates the newest pose of a marker with history to the target time, into pose[0..N)
+    private void extrapolate(int m, long targetNs, float[] pose) {
+        int newest = (m * mHistory + mNewest[m]) * N;
+        long aheadNs = targetNs - mTimestamps[m * mHistory + mNewest[m]];
+        float seconds = Math.max(0, Math.min(aheadNs, mMaxHorizonNs)) / 1e9f;
+        int v = m * 3;
+        System.arraycopy(mPoses, newest, pose, 0, N);
+        pose[PoseMath.TX] += mVelocity[v] * seconds;
+        pose[PoseMath.TY] += mVelocity[v + 1] * seconds;
+        pose[PoseMath.TZ] += mVelocity[v + 2] * seconds;
+        PoseMath.integrateRotation(pose, 0, mAngularVelocity[v], mAngularVelocity[v + 1], mAngularVelocity[v + 2], seconds);
+    }
+
+    /**
+     * Predicts the pose of a marker at a given time.
+     *
+     * @param targetNs When the pose will be shown, on the clock of the timestamps given to {@link #observe}.
+     * @param matrix   Receives the predicted transformation matrix at matrix[offset].
+     * @return false if the marker isn't visible, in which case matrix is left as it was.
+     */
+    public boolean predict(int marker, long targetNs, float[] matrix, int offset) {
+        if (marker < 0 || marker >= mCapacity || mCount[marker] == 0) {
+            return false;
+        }
+        extrapolate(marker, targetNs, mPredicted);
+        PoseMath.poseToMatrix(mPredicted, 0, matrix, offset);
+        return true;
+    }
+
+    /**
+     * Predicts the poses of all the markers at a given time.
+     *
+     * @param poses Receives the poses, laid out as described by PoseMath.MARKER_POSE_STRIDE.
+     * @return The number of visible markers.
+     */
+    public int predictAll(long targetNs, float[] poses, int count) {
+        int n = Math.min(count, mCapacity);
+        int visible = 0;
+        for (int m = 0; m < n; m++) {
+            int offset = m * PoseMath.MARKER_POSE_STRIDE;
+            if (predict(m, targetNs, poses, offset + 1)) {
+                poses[offset] = 1.0f;
+                visible++;
+            } else {
+                poses[offset] = 0.0f;
+            }
+        }
+        return visible;
+    }
+
+    /**
+     * @return The translation velocity of a marker in mm/s, into velocity[0..3), or false if it has too little history.
+     */
+    public boolean getVelocity(int marker, float[] velocity) {
+        if (marker < 0 || marker >= mCapacity || mCount[marker] < 2) {
+            return false;
+        }
+        System.arraycopy(mVelocity, marker * 3, velocity, 0, 3);
+        return true;
+    }
+
+    /**
+     * @return An array reused by every call, laid out as described by the ERRORS_ constants.
+     */
+    public float[] getErrors() {
+        mTranslationErrors.getPercentilesMillis(mErrors, ERRORS_TRANSLATION);
+        mRotationErrors.getPercentilesMillis(mErrors, ERRORS_ROTATION);
+        return mErrors;
+    }
+
+    public long getErrorCount() {
+        return mTranslationErrors.getCount();
+    }
+
+    public void resetErrors() {
+        mTranslationErrors.reset();
+        mRotationErrors.reset();
+    }
+
+    /**
+     * Forgets the history of every marker, e.g. when tracking restarts.
+     */
+    public void reset() {
+        for (int m = 0; m < mCapacity; m++) {
+            mCount[m] = 0;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package org.artoolkit.ar.unity;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The poses of all the tracked markers as of the latest arwUpdateAR(), published as a whole so
+ * that readers on any thread see the poses of one update together, without locks or calls into
+ * the native library.
+ * <p/>
+ * The updating thread copies the poses into a back buffer and publishes it with a single atomic
+ * swap. Readers either pin the published {@link Snapshot} with {@link #acquire()} and
+ * {@link #release(Snapshot)}, or copy it into their own with {@link #read(Snapshot)}. A pinned
+ * snapshot is never written to, so while a reader still holds the old front buffer when the next
+ * update is published, a further buffer is added rather than waiting for the reader.
+ * <p/>
+ * {@link #publish} must only be called from one thread, normally Unity's through
+ * {@link CameraHolderNoThread#UpdateAR()}.
+ */
+public class PoseSnapshotStore {
+
+    /** Published to by {@link CameraHolderNoThread#UpdateAR()}. */
+    public final static PoseSnapshotStore Shared = new PoseSnapshotStore();
+
+    // A snapshot's reference count while the updating thread is writing to it
+    private final static int WRITING = -1;
+
+    private final AtomicReference<Snapshot> mLatest;
+    private Snapshot[] mBuffers; // Updating thread only
+    private long mSequence = 0;  // Updating thread only
+
+    PoseSnapshotStore() {
+        mBuffers = new Snapshot[]{new Snapshot(), new Snapshot()};
+        mLatest = new AtomicReference<Snapshot>(mBuffers[0]);
+    }
+
+    /**
+     * Publishes the poses of one update.
+     *
+     * @param markerUIDs    The UIDs of the markers, in the order of the poses.
+     * @param count         The number of markers.
+     * @param poses         The poses, laid out as described by MarkerPoseBatch.
+     * @param posesR        The poses for the right camera of a stereo pair, or null.
+     * @param frameSequence The number of frames accepted by the native side when the update ran.
+     * @param frameNs       When the newest of those frames was captured, on the System.nanoTime() clock.
+     */
+    void publish(int[] markerUIDs, int count, float[] poses, float[] posesR, long frameSequence, long frameNs) {
+        Snapshot back = claim();
+        back.set(markerUIDs, count, poses, posesR);
+        back.mSequence = ++mSequence;
+        back.mFrameSequence = frameSequence;
+        back.mFrameNs = frameNs;
+        back.mRefs.set(0);
+        mLatest.set(back);
+    }
+
+    private Snapshot claim() {
+        Snapshot front = mLatest.get();
+        for (Snapshot buffer : mBuffers) {
+            if (buffer != front && buffer.mRefs.compareAndSet(0, WRITING)) {
+                return buffer;
+            }
+        }
+        // Every other buffer is held by a reader
+        Snapshot[] buffers = new Snapshot[mBuffers.length + 1];
+        System.arraycopy(mBuffers, 0, buffers, 0, mBuffers.length);
+        Snapshot buffer = new Snapshot();
+        buffer.mRefs.set(WRITING);
+        buffers[mBuffers.length] = buffer;
+        mBuffers = buffers;
+        return buffer;
+    }
+
+    /**
+     * Pins the latest snapshot, which stays unchanged until {@link #release(Snapshot)}. Every
+     * acquire must be followed by exactly one release, and the snapshot must not be used after it.
+     */
+    public Snapshot acquire() {
+        while (true) {
+            Snapshot snapshot = mLatest.get();
+            int refs = snapshot.mRefs.get();
+            // If the updating thread has reclaimed it in the meantime, start again with the newer one
+            if (refs != WRITING && snapshot.mRefs.compareAndSet(refs, refs + 1)) {
+                return snapshot;
+            }
+        }
+    }
+
+    public void release(Snapshot snapshot) {
+        snapshot.mRefs.decrementAndGet();
+    }
+
+    /**
+     * Copies the latest snapshot into one owned by the caller, which only allocates if it has
+     * fewer markers than the latest.
+     *
+     * @return The sequence number of the snapshot copied, 0 if nothing has been published yet.
+     */
+    public long read(Snapshot dst) {
+        Snapshot snapshot = acquire();
+        try {
+            dst.set(snapshot.mMarkerUIDs, snapshot.mCount, snapshot.mPoses, snapshot.mPosesR);
+            dst.mSequence = snapshot.mSequence;
+            dst.mFrameSequence = snapshot.mFrameSequence;
+            dst.mFrameNs = snapshot.mFrameNs;
+            return dst.mSequence;
+        } finally {
+            release(snapshot);
+        }
+    }
+
+    /**
+     * @return The sequence number of the latest snapshot, 0 if nothing has been published yet.
+     */
+    public long getSequence() {
+        return mLatest.get().mSequence;
+    }
+
+    /**
+     * The visibility and transformation matrices of all the markers as of one update.
+     */
+    public final static class Snapshot {
+
+        private final AtomicInteger mRefs = new AtomicInteger(0);
+        private long mSequence = 0;
+        private long mFrameSequence = 0;
+        private long mFrameNs = 0;
+        private int mCount = 0;
+        private int[] mMarkerUIDs = new int[0];
+        private float[] mPoses = new float[0];
+        private float[] mPosesR = null;
+        private boolean mStereo = false;
+
+        public Snapshot() {
+        }
+
+        private void set(int[] markerUIDs, int count, float[] poses, float[] posesR) {
+            if (mMarkerUIDs.length < count) {
+                mMarkerUIDs = new int[count];
+                mPoses = new float[count * PoseMath.MARKER_POSE_STRIDE];
+                mPosesR = null;
+            }
+            if (posesR != null && (mPosesR == null || mPosesR.length < count * PoseMath.MARKER_POSE_STRIDE)) {
+                mPosesR = new float[mPoses.length];
+            }
+            System.arraycopy(markerUIDs, 0, mMarkerUIDs, 0, count);
+            System.arraycopy(poses, 0, mPoses, 0, count * PoseMath.MARKER_POSE_STRIDE);
+            if (posesR != null) {
+                System.arraycopy(posesR, 0, mPosesR, 0, count * PoseMath.MARKER_POSE_STRIDE);
+            }
+            mCount = count;
+            mStereo = posesR != null;
+        }
+
+        /**
+         * @return Incremented by every update published, starting from 1.
+         */
+        public long getSequence() {
+            return mSequence;
+        }
+
+        /**
+         * @return The number of frames accepted by the native side when the update ran. Equal in
+         * two snapshots if no new frame arrived between their updates.
+         */
+        public long getFrameSequence() {
+            return mFrameSequence;
+        }
+
+        /**
+         * @return When the newest frame the update could have processed was captured, at the sensor with Camera2
+         * and when it reached Java with Camera1, on the System.nanoTime() clock.
+         */
+        public long getFrameTimestampNs() {
+            return mFrameNs;
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        public boolean isStereo() {
+            return mStereo;
+        }
+
+        public int getMarkerUID(int index) {
+            return mMarkerUIDs[index];
+        }
+
+        /**
+         * @return The index of a marker in the snapshot, or -1 if it isn't in it.
+         */
+        public int indexOf(int markerUID) {
+            for (int i = 0; i < mCount; i++) {
+                if (mMarkerUIDs[i] == markerUID) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public boolean isVisible(int index) {
+            return mPoses[index * PoseMath.MARKER_POSE_STRIDE] != 0.0f;
+        }
+
+        /**
+         * Copies the transformation matrix of a marker, or of the left camera in stereo. Only
+         * meaningful if the marker is visible.
+         */
+        public void getTransformation(int index, float[] matrix) {
+            System.arraycopy(mPoses, index * PoseMath.MARKER_POSE_STRIDE + 1, matrix, 0, 16);
+        }
+
+        /**
+         * Copies the transformation matrix of a marker for the right camera. Stereo only.
+         */
+        public void getTransformationR(int index, float[] matrix) {
+            System.arraycopy(mPosesR, index * PoseMath.MARKER_POSE_STRIDE + 1, matrix, 0, 16);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Chooses a capture size from a list of supported sizes, independent of the camera API the
+ * sizes came from.
+ */
+final class PreviewSizeSelector {
+
+    private final static double DEFAULT_ASPECT_RATIO = (double) 4 / 3;
+    private final static double ASPECT_TOLERANCE = 0.05;
+
+    private PreviewSizeSelector() {
+    }
+
+    /**
+     * Finds the size closest to, but not larger than, the target maximum resolution.
+     *
+     * @param widths                  Supported widths.
+     * @param heights                 Supported heights, in the same order as widths.
+     * @param targetWidth             Maximum width.
+     * @param targetHeight            Maximum height.
+     * @param forceDefaultAspectRatio If true, prefer a 4:3 size if one fits, and fall back to any aspect ratio otherwise.
+     * @return The index of the chosen size, or -1 if no size fits within the target.
+     */
+    static int selectOptimal(int[] widths, int[] heights, int targetWidth, int targetHeight, boolean forceDefaultAspectRatio) {
+        int optimal = -1;
+
+        if (forceDefaultAspectRatio) {
+            double minDiffHeight = Double.MAX_VALUE;
+            for (int i = 0; i < widths.length; i++) {
+                if (widths[i] > targetWidth || heights[i] > targetHeight) {
+                    continue;
+                }
+
+                double ratio = (double) widths[i] / heights[i];
+                if (Math.abs(ratio - DEFAULT_ASPECT_RATIO) > ASPECT_TOLERANCE) {
+                    continue;
+                }
+
+                if (Math.abs(heights[i] - targetHeight) < minDiffHeight) {
+                    optimal = i;
+                    minDiffHeight = Math.abs(heights[i] - targetHeight);
+                }
+            }
+        }
+
+        // If we didn't want to enforce the default aspect ratio, or a resolution with that ratio
+        // couldn't be found, just as close as possible to the requested maximum resolution:
+        if (!forceDefaultAspectRatio || optimal < 0) {
+            double minDiffTotal = Double.MAX_VALUE;
+            for (int i = 0; i < widths.length; i++) {
+                if (widths[i] > targetWidth || heights[i] > targetHeight) {
+                    continue;
+                }
+
+                float totalDiff = (targetHeight - heights[i]) + (targetWidth - widths[i]);
+                if (totalDiff < minDiffTotal) {
+                    optimal = i;
+                    minDiffTotal = totalDiff;
+                }
+            }
+        }
+
+        return optimal;
+    }
+}
@@ -0,0 +1,346 @@
+package org.artoolkit.ar.unity;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A {@link FrameSource} that plays back a recorded NV21 sequence from a file instead of a camera,
+ * so the frame path can be measured with identical input from run to run.
+ * <p/>
+ * The file is a big-endian header of four ints (magic "NV21", version, width, height), followed
+ * by frames, each a long timestamp in nanoseconds and width * height * 3 / 2 bytes of NV21 data.
+ * {@link Nv21SequenceWriter} records files in this format. The file is memory-mapped a window at
+ * a time and every frame is copied into the same array, so playback doesn't allocate per frame.
+ */
+public class ReplayFrameSource implements FrameSource, Runnable {
+
+    public enum Pacing {
+        /** Deliver frames at the intervals they were recorded at. */
+        ORIGINAL_TIMING,
+        /** Deliver every frame as soon as the sink has returned from the previous one. */
+        AS_FAST_AS_POSSIBLE
+    }
+
+    public final static int MAGIC = 0x4E563231; // "NV21"
+    public final static int VERSION = 1;
+    final static int HEADER_SIZE = 16;
+    final static int FRAME_HEADER_SIZE = 8;
+
+    // Upper bound on the size of the mapped window; always holds at least one frame.
+    private final static long MAX_WINDOW_BYTES = 32 * 1024 * 1024;
+
+    private final String mPath;
+    private final FrameSink mDefaultSink;
+    private volatile FrameSink mFrameSink;
+    private volatile Pacing mPacing = Pacing.ORIGINAL_TIMING;
+    private volatile boolean mLooping = false;
+
+    private RandomAccessFile mFile = null;
+    private FileChannel mChannel = null;
+    private int mWidth = 0;
+    private int mHeight = 0;
+    private int mFrameSize = 0;
+    private int mFrameCount = 0;
+    private IOException mLastError = null;
+
+    private MappedByteBuffer mWindow = null;
+    private int mWindowFirstFrame = 0;
+    private int mWindowFrameCount = 0;
+    private byte[] mFrame = null;
+
+    private volatile boolean mRunning = false;
+    private Thread mThread = null;
+    // Wakes the replay thread from waiting for a frame's time when capture stops. The thread is
+    // never interrupted, as that would close the file channel if it landed while mapping
+    private final Object mWakeLock = new Object();
+
+    private volatile long mDeliveredFrames = 0;
+    private volatile long mStartNs = 0;
+    private volatile long mEndNs = 0;
+
+    /**
+     * @param path        The recorded sequence.
+     * @param defaultSink The sink frames go to until {@link #SetFrameSink(FrameSink)} replaces it, usually a {@link NativeFrameSink}.
+     */
+    public ReplayFrameSource(String path, FrameSink defaultSink) {
+        mPath = path;
+        mDefaultSink = defaultSink;
+        mFrameSink = defaultSink;
+    }
+
+    /**
+     * A recording has a fixed resolution, so this has no effect.
+     */
+    public void SetResolutionTargetMax(int targetWidth, int targetHeight, boolean forceDefaultAspectRatio) {
+    }
+
+    /**
+     * Sets the sink frames are delivered to. Passing null restores the sink given at construction.
+     * Takes effect on the next StartCapture().
+     */
+    public void SetFrameSink(FrameSink sink) {
+        mFrameSink = sink != null ? sink : mDefaultSink;
+    }
+
+    public void SetPacing(Pacing pacing) {
+        mPacing = pacing;
+    }
+
+    /**
+     * If true, playback restarts from the first frame after the last one, until StopCapture().
+     */
+    public void SetLooping(boolean looping) {
+        mLooping = looping;
+    }
+
+    /**
+     * Opens the recording and reads its header. On failure the source stays closed and the
+     * error is available from {@link #GetLastError()}.
+     */
+    public void OpenCamera() {
+        try {
+            open();
+        } catch (IOException e) {
+            mLastError = e;
+        }
+    }
+
+    /**
+     * As {@link #OpenCamera()}, but reports a failure to the caller.
+     */
+    public void open() throws IOException {
+        if (mChannel != null) {
+            return;
+        }
+        mLastError = null;
+        RandomAccessFile file = new RandomAccessFile(mPath, "r");
+        try {
+            FileChannel channel = file.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+            while (header.hasRemaining()) {
+                if (channel.read(header, header.position()) < 0) {
+                    throw new IOException(mPath + ": truncated header");
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC) {
+                throw new IOException(mPath + ": not an NV21 sequence");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(mPath + ": unsupported version " + version);
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+                throw new IOException(mPath + ": invalid frame size " + width + "x" + height);
+            }
+            int frameSize = width * height * 3 / 2;
+            long frameCount = (channel.size() - HEADER_SIZE) / (FRAME_HEADER_SIZE + frameSize);
+            if (frameCount <= 0) {
+                throw new IOException(mPath + ": no frames");
+            }
+
+            mFile = file;
+            mChannel = channel;
+            mWidth = width;
+            mHeight = height;
+            mFrameSize = frameSize;
+            mFrameCount = (int) Math.min(frameCount, Integer.MAX_VALUE);
+            if (mFrame == null || mFrame.length != frameSize) {
+                mFrame = new byte[frameSize];
+            }
+        } finally {
+            if (mChannel == null) {
+                file.close();
+            }
+        }
+    }
+
+    public void StartCapture() {
+        if (mChannel == null || mThread != null) {
+            return;
+        }
+        mDeliveredFrames = 0;
+        mStartNs = System.nanoTime();
+        mEndNs = 0;
+        FrameMetrics.Shared.reset();
+        mRunning = true;
+        mThread = new Thread(this, "replay_thread");
+        mThread.start();
+    }
+
+    /**
+     * Stops playback and waits for the frame in progress, if any, to be delivered.
+     */
+    public void StopCapture() {
+        if (mThread == null) {
+            return;
+        }
+        synchronized (mWakeLock) {
+            mRunning = false;
+            mWakeLock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                mThread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        mThread = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void CloseCamera() {
+        StopCapture();
+        mWindow = null;
+        mWindowFrameCount = 0;
+        if (mFile != null) {
+            try {
+                mFile.close();
+            } catch (IOException e) {
+                mLastError = e;
+            }
+            mFile = null;
+            mChannel = null;
+        }
+    }
+
+    public int GetParamWidth() {
+        return mWidth;
+    }
+
+    public int GetParamHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return The number of frames in the recording, valid once opened.
+     */
+    public int GetFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return The error that made the last open or playback fail, or null.
+     */
+    public IOException GetLastError() {
+        return mLastError;
+    }
+
+    public boolean IsCapturing() {
+        return mThread != null && mEndNs == 0;
+    }
+
+    /**
+     * @return The number of frames delivered since the last StartCapture().
+     */
+    public long GetDeliveredFrameCount() {
+        return mDeliveredFrames;
+    }
+
+    /**
+     * @return The time since the last StartCapture(), or the length of the playback if it has ended, in nanoseconds.
+     */
+    public long GetElapsedNanos() {
+        long end = mEndNs;
+        return (end != 0 ? end : System.nanoTime()) - mStartNs;
+    }
+
+    public float GetDeliveredFps() {
+        long elapsed = GetElapsedNanos();
+        return elapsed > 0 ? mDeliveredFrames * 1e9f / elapsed : 0.0f;
+    }
+
+    @Override
+    public void run() {
+        FrameSink sink = mFrameSink;
+        sink.onCaptureStarted(mWidth, mHeight, 0, false);
+        try {
+            long delivered = 0;
+            do {
+                long firstRecordedNs = 0;
+                long loopStartNs = System.nanoTime();
+                for (int i = 0; i < mFrameCount && mRunning; i++) {
+                    long recordedNs = readFrame(i);
+                    long timestampNs;
+                    if (mPacing == Pacing.ORIGINAL_TIMING) {
+                        if (i == 0) {
+                            firstRecordedNs = recordedNs;
+                        }
+                        timestampNs = loopStartNs + (recordedNs - firstRecordedNs);
+                        if (!waitUntil(timestampNs)) {
+                            break;
+                        }
+                    } else {
+                        timestampNs = System.nanoTime();
+                    }
+                    // The time the frame is due stands in for both its capture and its callback,
+                    // as the Camera1 callback time does
+                    long acceptStartNs = System.nanoTime();
+                    sink.onFrame(mFrame, timestampNs);
+                    FrameMetrics.Shared.onFrameAccepted(timestampNs, timestampNs, acceptStartNs, System.nanoTime());
+                    mDeliveredFrames = ++delivered;
+                }
+            } while (mRunning && mLooping);
+        } catch (IOException e) {
+            mLastError = e;
+        } finally {
+            mEndNs = System.nanoTime();
+            sink.onCaptureStopped();
+        }
+    }
+
+    /**
+     * Waits until the System.nanoTime() clock reaches the given time.
+     *
+     * @return false if capture was stopped first.
+     */
+    private boolean waitUntil(long timeNs) {
+        synchronized (mWakeLock) {
+            while (mRunning) {
+                long waitNs = timeNs - System.nanoTime();
+                if (waitNs <= 0) {
+                    return true;
+                }
+                try {
+                    mWakeLock.wait(waitNs / 1000000, (int) (waitNs % 1000000));
+                } catch (InterruptedException e) {
+                    // Nothing here interrupts the thread, so whoever did wants it to stop
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Copies a frame into mFrame, mapping the window that holds it if needed.
+     *
+     * @return The frame's recorded timestamp.
+     */
+    private long readFrame(int index) throws IOException {
+        if (mWindow == null || index < mWindowFirstFrame || index >= mWindowFirstFrame + mWindowFrameCount) {
+            long stride = FRAME_HEADER_SIZE + mFrameSize;
+            int frames = (int) Math.max(1, Math.min(MAX_WINDOW_BYTES / stride, mFrameCount - index));
+            mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE + index * stride, frames * stride);
+            mWindow.order(ByteOrder.BIG_ENDIAN);
+            mWindowFirstFrame = index;
+            mWindowFrameCount = frames;
+        }
+        mWindow.position((index - mWindowFirstFrame) * (FRAME_HEADER_SIZE + mFrameSize));
+        long timestampNs = mWindow.getLong();
+        mWindow.get(mFrame, 0, mFrameSize);
+        return timestampNs;
+    }
+}
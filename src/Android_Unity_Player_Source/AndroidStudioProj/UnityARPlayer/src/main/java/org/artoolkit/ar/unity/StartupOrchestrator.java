@@ -0,0 +1,132 @@
+package org.artoolkit.ar.unity;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.artoolkit.ar.base.NativeInterface;
+import org.artoolkit.ar.base.camera.CameraCapabilityCache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the independent steps of startup at the same time, instead of one after the other as
+ * Unity reaches them: loading the native library, and loading the camera capabilities then
+ * opening and configuring the camera. Unity's own initialisation of ARToolKit overlaps with both.
+ * <p/>
+ * Each step runs on its own thread and is joined by whoever first needs its result, through the
+ * await methods. The time from {@link #start(Context, CameraHolderNoThread)} to the first tracked
+ * frame is reported by {@link FrameMetrics}.
+ */
+public class StartupOrchestrator {
+
+    protected final static String TAG = "StartupOrchestrator";
+
+    private final long mStartNs = System.nanoTime();
+    private volatile Future<Boolean> mNativeLibrary = null;
+    private volatile Future<Boolean> mCamera = null;
+
+    /**
+     * Starts the steps of startup. Does nothing if already started.
+     *
+     * @param context The context to load the {@link CameraCapabilityCache} with.
+     * @param holder  The holder whose camera to open and configure, or null to leave the camera
+     *                until Unity opens it, e.g. when camera permission hasn't been granted yet.
+     */
+    public synchronized void start(Context context, final CameraHolderNoThread holder) {
+        if (mNativeLibrary != null) {
+            return;
+        }
+        FrameMetrics.Shared.onStartupBegan(mStartNs);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            private int mCount = 0;
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                return new Thread(runnable, "startup_thread_" + mCount++);
+            }
+        });
+
+        mNativeLibrary = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                long start = System.nanoTime();
+                boolean ok = NativeInterface.loadNativeLibrary();
+                Log.i(TAG, "Native library " + (ok ? "loaded" : "failed to load") + " in " + millisSince(start) + " ms");
+                return ok;
+            }
+        });
+
+        final Context appContext = context.getApplicationContext();
+        Future<Boolean> camera = executor.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                long start = System.nanoTime();
+                // Before any camera is opened, so the holders don't have to probe the cameras
+                CameraCapabilityCache.load(appContext);
+                if (holder == null) {
+                    return false;
+                }
+                boolean ok = holder.PrepareCamera();
+                Log.i(TAG, "Camera " + (ok ? "opened and configured" : "failed to open") + " in " + millisSince(start) + " ms");
+                return ok;
+            }
+        });
+        if (holder != null) {
+            mCamera = camera;
+        }
+
+        // The threads exit once their steps are done
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for the native library to be loaded.
+     *
+     * @return true if it loaded.
+     */
+    public boolean awaitNativeLibrary() {
+        return await(mNativeLibrary);
+    }
+
+    /**
+     * Waits for the camera to be opened and configured, if
+     * {@link #start(Context, CameraHolderNoThread)} was given a holder.
+     *
+     * @return true if the camera was prepared.
+     */
+    public boolean awaitCamera() {
+        return await(mCamera);
+    }
+
+    /**
+     * @return From start() to arwUpdateAR() first returning with the poses of a frame, in milliseconds, or 0 if it hasn't yet.
+     */
+    public static float GetTimeToFirstTrackedFrameMillis() {
+        return FrameMetrics.Shared.getTimeToFirstTrackedFrameNs() / 1e6f;
+    }
+
+    private static boolean await(Future<Boolean> step) {
+        if (step == null) {
+            return false;
+        }
+        try {
+            return step.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Startup step failed: " + e.getCause());
+            return false;
+        }
+    }
+
+    private long millisSince(long startNs) {
+        return (System.nanoTime() - startNs) / 1000000;
+    }
+}
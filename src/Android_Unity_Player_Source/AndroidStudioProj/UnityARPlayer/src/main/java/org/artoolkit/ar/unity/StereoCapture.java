@@ -0,0 +1,179 @@
+package org.artoolkit.ar.unity;
+
+import android.util.Log;
+
+import org.artoolkit.ar.base.NativeInterface;
+
+/**
+ * Captures from the two cameras of a stereo rig and submits their frames to the native side in
+ * pairs, through arwAcceptVideoImageStereo(). ARToolKit must have been started with
+ * arwStartRunningStereo().
+ * <p/>
+ * Each eye is an ordinary {@link FrameSource} whose frames go to a {@link StereoFramePairer}
+ * rather than to the native side, so the two cameras run independently and one slow eye only
+ * costs the other its unpaired frames.
+ */
+public class StereoCapture implements FrameSource {
+
+    protected final static String TAG = "StereoCapture";
+
+    // provide static for call function from unity3d
+    public static StereoCapture Instance = null;
+
+    private final FrameSource mLeft;
+    private final FrameSource mRight;
+    private final EyeSink mLeftSink = new EyeSink(StereoFramePairer.LEFT);
+    private final EyeSink mRightSink = new EyeSink(StereoFramePairer.RIGHT);
+    private final StereoFramePairer mPairer;
+
+    /**
+     * @param left  The source of the left eye's frames; its frame sink is replaced.
+     * @param right The source of the right eye's frames; its frame sink is replaced.
+     */
+    public StereoCapture(FrameSource left, FrameSource right) {
+        mLeft = left;
+        mRight = right;
+        mPairer = new StereoFramePairer(new StereoFramePairer.PairConsumer() {
+            @Override
+            public boolean onPair(byte[] leftFrame, long leftNs, byte[] rightFrame, long rightNs) {
+                return NativeInterface.arwAcceptVideoImageStereo(
+                        leftFrame, mLeftSink.mWidth, mLeftSink.mHeight, mLeftSink.mCameraIndex, mLeftSink.mCameraIsFrontFacing,
+                        rightFrame, mRightSink.mWidth, mRightSink.mHeight, mRightSink.mCameraIndex, mRightSink.mCameraIsFrontFacing);
+            }
+        });
+        mLeft.SetFrameSink(mLeftSink);
+        mRight.SetFrameSink(mRightSink);
+
+        if (StereoCapture.Instance != null) {
+            StereoCapture.Instance.StopCapture();
+            StereoCapture.Instance.CloseCamera();
+        }
+        StereoCapture.Instance = this;
+    }
+
+    /**
+     * @param toleranceMs The largest difference between the timestamps of two frames that are paired.
+     */
+    public void SetPairingTolerance(float toleranceMs) {
+        mPairer.setTolerance((long) (toleranceMs * 1000000.0f));
+    }
+
+    @Override
+    public void SetResolutionTargetMax(int targetWidth, int targetHeight, boolean forceDefaultAspectRatio) {
+        mLeft.SetResolutionTargetMax(targetWidth, targetHeight, forceDefaultAspectRatio);
+        mRight.SetResolutionTargetMax(targetWidth, targetHeight, forceDefaultAspectRatio);
+    }
+
+    /**
+     * Not supported: the frames of a stereo capture are always submitted in pairs to the native side.
+     */
+    @Override
+    public void SetFrameSink(FrameSink sink) {
+        if (sink != null) {
+            Log.w(TAG, "Stereo capture can't deliver to a frame sink, ignoring");
+        }
+    }
+
+    @Override
+    public void OpenCamera() {
+        mLeft.OpenCamera();
+        mRight.OpenCamera();
+    }
+
+    @Override
+    public void StartCapture() {
+        mPairer.clear();
+        mPairer.resetCounts();
+        mLeft.StartCapture();
+        mRight.StartCapture();
+        Log.i(TAG, "Start stereo capture, " + mLeftSink.mWidth + "x" + mLeftSink.mHeight + " and " + mRightSink.mWidth + "x" + mRightSink.mHeight
+                + ", tolerance " + mPairer.getTolerance() / 1000000.0f + " ms");
+    }
+
+    @Override
+    public void StopCapture() {
+        mLeft.StopCapture();
+        mRight.StopCapture();
+        mPairer.clear();
+        Log.i(TAG, "Stop stereo capture, " + mPairer.getPairCount() + " pairs, dropped " + mPairer.getDroppedCount(StereoFramePairer.LEFT)
+                + " left and " + mPairer.getDroppedCount(StereoFramePairer.RIGHT) + " right frames");
+    }
+
+    @Override
+    public void CloseCamera() {
+        mLeft.CloseCamera();
+        mRight.CloseCamera();
+    }
+
+    @Override
+    public int GetParamWidth() {
+        return mLeft.GetParamWidth();
+    }
+
+    @Override
+    public int GetParamHeight() {
+        return mLeft.GetParamHeight();
+    }
+
+    // --------------------------------------------------
+    // Statistics, for Unity
+    // --------------------------------------------------
+
+    /**
+     * @return The pairs accepted by the native side since capture started.
+     */
+    public static long GetPairedFrameCount() {
+        return Instance != null ? Instance.mPairer.getPairCount() : 0;
+    }
+
+    /**
+     * @param eye 0 for the left eye, 1 for the right.
+     * @return The frames of that eye dropped without a partner since capture started.
+     */
+    public static long GetDroppedFrameCount(int eye) {
+        return Instance != null && (eye == StereoFramePairer.LEFT || eye == StereoFramePairer.RIGHT)
+                ? Instance.mPairer.getDroppedCount(eye) : 0;
+    }
+
+    /**
+     * @return The largest timestamp difference of a pair since capture started, in milliseconds.
+     */
+    public static float GetMaxPairSkewMillis() {
+        return Instance != null ? Instance.mPairer.getMaxSkewNs() / 1000000.0f : 0.0f;
+    }
+
+    /**
+     * Takes the frames of one eye: remembers the parameters the native call needs and passes the
+     * frames on to the pairer.
+     */
+    private final class EyeSink implements FrameSink {
+        private final int mEye;
+        private volatile int mWidth = 0;
+        private volatile int mHeight = 0;
+        private volatile int mFrameSize = 0;
+        private volatile int mCameraIndex = 0;
+        private volatile boolean mCameraIsFrontFacing = false;
+
+        EyeSink(int eye) {
+            mEye = eye;
+        }
+
+        @Override
+        public void onCaptureStarted(int width, int height, int cameraIndex, boolean cameraIsFrontFacing) {
+            mWidth = width;
+            mHeight = height;
+            mFrameSize = Nv21.frameSize(width, height);
+            mCameraIndex = cameraIndex;
+            mCameraIsFrontFacing = cameraIsFrontFacing;
+        }
+
+        @Override
+        public boolean onFrame(byte[] data, long timestampNs) {
+            return mPairer.offer(mEye, data, Math.min(mFrameSize, data.length), timestampNs);
+        }
+
+        @Override
+        public void onCaptureStopped() {
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package org.artoolkit.ar.unity;
+
+/**
+ * Pairs the frames of two independently running cameras by timestamp.
+ * <p/>
+ * Each eye keeps at most one frame waiting for its partner. A frame is paired with the other
+ * eye's waiting frame if their timestamps are within the tolerance. Otherwise whichever of the two
+ * is older can never be paired, as frames arrive in order, and is dropped; a waiting frame is also
+ * dropped when a newer one from the same eye replaces it. A slow or stalled eye therefore only
+ * costs the other eye the frames it can't pair, never a wait.
+ * <p/>
+ * The frame that completes a pair is passed on without being copied, so each pair costs one copy,
+ * of the waiting frame. Buffers are only allocated when the frame size changes. The consumer is
+ * called with the pairer locked, so an eye offering a frame meanwhile waits for that one call.
+ */
+final class StereoFramePairer {
+
+    final static int LEFT = 0;
+    final static int RIGHT = 1;
+
+    final static long DEFAULT_TOLERANCE_NS = 8000000L; // half a frame at 60 fps
+
+    /**
+     * Receives the pairs. Both arrays are only valid until the call returns.
+     */
+    interface PairConsumer {
+        boolean onPair(byte[] left, long leftNs, byte[] right, long rightNs);
+    }
+
+    private final PairConsumer mConsumer;
+    private volatile long mToleranceNs = DEFAULT_TOLERANCE_NS;
+
+    private final byte[][] mWaiting = new byte[2][];
+    private final long[] mWaitingNs = new long[2];
+    private final boolean[] mHasWaiting = new boolean[2];
+
+    // Written under the lock, read by any thread
+    private volatile long mPairs = 0;
+    private volatile long mRejectedPairs = 0;
+    private volatile long mDroppedLeft = 0;
+    private volatile long mDroppedRight = 0;
+    private volatile long mMaxSkewNs = 0;
+
+    StereoFramePairer(PairConsumer consumer) {
+        mConsumer = consumer;
+    }
+
+    /**
+     * @param toleranceNs The largest difference between the timestamps of a pair.
+     */
+    void setTolerance(long toleranceNs) {
+        mToleranceNs = Math.max(0, toleranceNs);
+    }
+
+    long getTolerance() {
+        return mToleranceNs;
+    }
+
+    /**
+     * Offers a frame of one eye. Called on that eye's ingest thread.
+     *
+     * @param eye         LEFT or RIGHT.
+     * @param data        The frame, only read until this method returns.
+     * @param length      The number of bytes of data that make up the frame.
+     * @param timestampNs When the frame was captured; both eyes must use the same clock.
+     * @return true if the frame completed a pair that the consumer accepted.
+     */
+    synchronized boolean offer(int eye, byte[] data, int length, long timestampNs) {
+        int other = 1 - eye;
+        long tolerance = mToleranceNs;
+        if (mHasWaiting[other]) {
+            long skew = timestampNs - mWaitingNs[other];
+            if (Math.abs(skew) <= tolerance) {
+                mHasWaiting[other] = false;
+                if (mHasWaiting[eye]) {
+                    // Older than the frame completing the pair, so it lost its chance
+                    mHasWaiting[eye] = false;
+                    drop(eye);
+                }
+                if (Math.abs(skew) > mMaxSkewNs) {
+                    mMaxSkewNs = Math.abs(skew);
+                }
+                boolean ok = eye == LEFT
+                        ? mConsumer.onPair(data, timestampNs, mWaiting[other], mWaitingNs[other])
+                        : mConsumer.onPair(mWaiting[other], mWaitingNs[other], data, timestampNs);
+                if (ok) {
+                    mPairs++;
+                } else {
+                    mRejectedPairs++;
+                }
+                return ok;
+            }
+            if (skew > tolerance) {
+                // The other eye's frame is too old to pair with this or any later frame
+                mHasWaiting[other] = false;
+                drop(other);
+            } else {
+                // This frame is too old to pair with the other eye's frame or any later one
+                drop(eye);
+                return false;
+            }
+        }
+        if (mHasWaiting[eye]) {
+            drop(eye);
+        }
+        byte[] waiting = mWaiting[eye];
+        if (waiting == null || waiting.length != length) {
+            waiting = new byte[length];
+            mWaiting[eye] = waiting;
+        }
+        System.arraycopy(data, 0, waiting, 0, length);
+        mWaitingNs[eye] = timestampNs;
+        mHasWaiting[eye] = true;
+        return false;
+    }
+
+    /**
+     * Forgets any waiting frames, e.g. when capture stops. The counts are kept.
+     */
+    synchronized void clear() {
+        mHasWaiting[LEFT] = false;
+        mHasWaiting[RIGHT] = false;
+    }
+
+    synchronized void resetCounts() {
+        mPairs = 0;
+        mRejectedPairs = 0;
+        mDroppedLeft = 0;
+        mDroppedRight = 0;
+        mMaxSkewNs = 0;
+    }
+
+    private void drop(int eye) {
+        if (eye == LEFT) {
+            mDroppedLeft++;
+        } else {
+            mDroppedRight++;
+        }
+    }
+
+    /**
+     * @return The pairs the consumer accepted.
+     */
+    long getPairCount() {
+        return mPairs;
+    }
+
+    /**
+     * @return The pairs the consumer refused.
+     */
+    long getRejectedPairCount() {
+        return mRejectedPairs;
+    }
+
+    /**
+     * @return The frames of one eye dropped without a partner.
+     */
+    long getDroppedCount(int eye) {
+        return eye == LEFT ? mDroppedLeft : mDroppedRight;
+    }
+
+    /**
+     * @return The largest timestamp difference of a pair so far.
+     */
+    long getMaxSkewNs() {
+        return mMaxSkewNs;
+    }
+}
@@ -0,0 +1,359 @@
+package org.artoolkit.ar.unity;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Estimates the labeling threshold from the luminance of the frames as they are captured, so
+ * that tracking can run in manual threshold mode, which costs the native detector nothing per
+ * frame, and still follow changes in lighting.
+ * <p/>
+ * Each frame's Y plane is sampled every few pixels of every few rows into a histogram, over which
+ * the threshold is found by Otsu's method or as the median, as the native AUTO_OTSU and
+ * AUTO_MEDIAN modes do over the whole frame, in a single pass over the 256 bins. Each frame's
+ * level is blended into a running threshold, so that it follows the lighting smoothly rather
+ * than flickering with noise, or jumping between the peaks of a histogram that is changing. A
+ * new threshold is only offered, through {@link #takeThreshold()}, once it has moved further
+ * than the deadband from the last one offered, so the native library isn't set for every change
+ * of a level or two.
+ * <p/>
+ * Frames are given to {@link #onFrame(byte[], int, int)} or {@link #onFrame(ByteBuffer, int, int)}
+ * by the thread that ingests them, and the threshold is taken by the thread that calls
+ * arwUpdateAR(). The sampling can be split across worker threads, which wait between frames and
+ * are reused, so estimating doesn't allocate.
+ */
+public class ThresholdEstimator {
+
+    public final static int METHOD_OTSU = 0;
+    public final static int METHOD_MEDIAN = 1;
+
+    public final static int DEFAULT_STRIDE = 4;
+    public final static int DEFAULT_DEADBAND = 4;
+    public final static float DEFAULT_ADAPTATION = 0.25f;
+
+    private final static int BINS = 256;
+
+    // Fed by the capture backends on the ingest thread and applied by UpdateAR(), or null
+    private static volatile ThresholdEstimator sActive = null;
+
+    private final int mMethod;
+    private volatile int mStride = DEFAULT_STRIDE;
+    private volatile int mDeadband = DEFAULT_DEADBAND;
+    private volatile float mAdaptation = DEFAULT_ADAPTATION;
+
+    // The histogram of the last frame, as fractions of the samples; ingest thread only
+    private final float[] mHistogram = new float[BINS];
+    private final int[] mCounts = new int[BINS];
+    private float mLevel = -1.0f;
+    private int mThreshold = -1;
+    private int mOffered = -1;
+    private final AtomicInteger mPending = new AtomicInteger(-1);
+    private volatile int mEstimates = 0;
+
+    // Workers sampling a share of the rows each; the ingest thread samples the first share
+    private final Worker[] mWorkers;
+    private final Object mLock = new Object();
+    private long mGeneration = 0;    // Guarded by mLock
+    private int mRunning = 0;        // Guarded by mLock
+    private boolean mStopped = false; // Guarded by mLock
+    private byte[] mData;            // Set before a generation starts, or
+    private ByteBuffer mBuffer;      // this instead
+    private int mWidth;
+    private int mFrameStride;
+    private int mSampledRows;
+
+    /**
+     * @param method  METHOD_OTSU or METHOD_MEDIAN.
+     * @param threads The number of threads to sample each frame on, including the one calling {@link #onFrame}.
+     */
+    public ThresholdEstimator(int method, int threads) {
+        mMethod = method;
+        mWorkers = new Worker[Math.max(0, threads - 1)];
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Worker(i + 1, mWorkers.length + 1);
+            mWorkers[i].start();
+        }
+    }
+
+    public ThresholdEstimator() {
+        this(METHOD_OTSU, 1);
+    }
+
+    /**
+     * @return The estimator the capture backends feed frames to, or null.
+     */
+    static ThresholdEstimator getActive() {
+        return sActive;
+    }
+
+    static void setActive(ThresholdEstimator estimator) {
+        sActive = estimator;
+    }
+
+    /**
+     * @param stride Sample every this many pixels of every this many rows.
+     */
+    public void setStride(int stride) {
+        mStride = Math.max(1, stride);
+    }
+
+    /**
+     * @param deadband How many levels the threshold must move by before it is offered again.
+     */
+    public void setDeadband(int deadband) {
+        mDeadband = Math.max(0, deadband);
+    }
+
+    /**
+     * @param adaptation The weight of each new frame's level in the running threshold, from 0 exclusive to 1, where 1 uses each frame's alone.
+     */
+    public void setAdaptation(float adaptation) {
+        mAdaptation = Math.min(1.0f, Math.max(0.001f, adaptation));
+    }
+
+    /**
+     * Samples the Y plane of a frame and updates the estimate.
+     *
+     * @param data An NV21 or luminance-only frame; only its first width * height bytes are read.
+     * @return true if a new threshold is offered.
+     */
+    public boolean onFrame(byte[] data, int width, int height) {
+        if (data.length < width * height) {
+            return false;
+        }
+        mData = data;
+        return estimate(width, height);
+    }
+
+    /**
+     * As {@link #onFrame(byte[], int, int)}, for a frame in a buffer, read from position zero.
+     */
+    public boolean onFrame(ByteBuffer data, int width, int height) {
+        if (data.capacity() < width * height) {
+            return false;
+        }
+        mBuffer = data;
+        return estimate(width, height);
+    }
+
+    private boolean estimate(int width, int height) {
+        mWidth = width;
+        mFrameStride = mStride;
+        mSampledRows = (height + mFrameStride - 1) / mFrameStride;
+        if (mWorkers.length > 0) {
+            synchronized (mLock) {
+                mRunning = mWorkers.length;
+                mGeneration++;
+                mLock.notifyAll();
+            }
+        }
+        int samples = count(mData, mBuffer, 0, mWorkers.length + 1, mCounts);
+        if (mWorkers.length > 0) {
+            synchronized (mLock) {
+                // A worker that stops doesn't report its share, so stop waiting then too
+                while (mRunning > 0 && !mStopped) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        mData = null;
+                        mBuffer = null;
+                        return false;
+                    }
+                }
+                if (mStopped) {
+                    mData = null;
+                    mBuffer = null;
+                    return false;
+                }
+            }
+            for (Worker worker : mWorkers) {
+                samples += worker.mSamples;
+                int[] counts = worker.mCounts;
+                for (int i = 0; i < BINS; i++) {
+                    mCounts[i] += counts[i];
+                }
+            }
+        }
+        mData = null;
+        mBuffer = null;
+        if (samples == 0) {
+            return false;
+        }
+
+        float scale = 1.0f / samples;
+        for (int i = 0; i < BINS; i++) {
+            mHistogram[i] = mCounts[i] * scale;
+        }
+        int level = mMethod == METHOD_MEDIAN ? median(mHistogram) : otsu(mHistogram);
+        mLevel = mLevel < 0.0f ? level : mLevel + (level - mLevel) * mAdaptation;
+        mThreshold = Math.round(mLevel);
+        mEstimates++;
+
+        if (mOffered < 0 || Math.abs(mThreshold - mOffered) > mDeadband) {
+            mOffered = mThreshold;
+            mPending.set(mThreshold);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The threshold to set, if one has been offered since the last call, otherwise -1.
+     */
+    public int takeThreshold() {
+        return mPending.getAndSet(-1);
+    }
+
+    /**
+     * @return The number of frames estimated from.
+     */
+    public int getEstimateCount() {
+        return mEstimates;
+    }
+
+    /**
+     * Forgets the running threshold, e.g. when capture restarts, and stops offering the last one.
+     * Call from the thread that calls {@link #onFrame}.
+     */
+    public void reset() {
+        mLevel = -1.0f;
+        mThreshold = -1;
+        mOffered = -1;
+        mPending.set(-1);
+    }
+
+    /**
+     * Stops the worker threads. The estimator can't be used after this: a frame being estimated
+     * when it is called, and any given after, offer no threshold.
+     */
+    public void close() {
+        synchronized (mLock) {
+            mStopped = true;
+            mLock.notifyAll();
+        }
+    }
+
+    // Counts the samples of share of shares of the sampled rows into counts, cleared first
+    private int count(byte[] data, ByteBuffer buffer, int share, int shares, int[] counts) {
+        for (int i = 0; i < BINS; i++) {
+            counts[i] = 0;
+        }
+        int width = mWidth;
+        int stride = mFrameStride;
+        int first = (int) ((long) mSampledRows * share / shares);
+        int last = (int) ((long) mSampledRows * (share + 1) / shares);
+        int samples = 0;
+        for (int row = first; row < last; row++) {
+            int start = row * stride * width;
+            int end = start + width;
+            if (data != null) {
+                for (int i = start; i < end; i += stride) {
+                    counts[data[i] & 0xFF]++;
+                }
+            } else {
+                for (int i = start; i < end; i += stride) {
+                    counts[buffer.get(i) & 0xFF]++;
+                }
+            }
+            samples += (width + stride - 1) / stride;
+        }
+        return samples;
+    }
+
+    // The level that best separates the histogram into dark and light, with the dark class up to and including it
+    static int otsu(float[] histogram) {
+        float total = 0.0f;
+        float sum = 0.0f;
+        for (int i = 0; i < BINS; i++) {
+            total += histogram[i];
+            sum += i * histogram[i];
+        }
+        float darkWeight = 0.0f;
+        float darkSum = 0.0f;
+        float best = -1.0f;
+        int first = 0;
+        int last = 0;
+        for (int t = 0; t < BINS - 1; t++) {
+            darkWeight += histogram[t];
+            float lightWeight = total - darkWeight;
+            darkSum += t * histogram[t];
+            if (darkWeight <= 0.0f || lightWeight <= 0.0f) {
+                continue;
+            }
+            float difference = darkSum / darkWeight - (sum - darkSum) / lightWeight;
+            float between = darkWeight * lightWeight * difference * difference;
+            if (between > best) {
+                best = between;
+                first = t;
+                last = t;
+            } else if (between == best) {
+                // Levels no sample has leave the classes unchanged; take the middle of the gap
+                last = t;
+            }
+        }
+        return (first + last) / 2;
+    }
+
+    static int median(float[] histogram) {
+        float total = 0.0f;
+        for (int i = 0; i < BINS; i++) {
+            total += histogram[i];
+        }
+        float cumulative = 0.0f;
+        for (int t = 0; t < BINS; t++) {
+            cumulative += histogram[t];
+            if (cumulative >= total * 0.5f) {
+                return t;
+            }
+        }
+        return BINS - 1;
+    }
+
+    private final class Worker extends Thread {
+        private final int mShare;
+        private final int mShares;
+        final int[] mCounts = new int[BINS];
+        int mSamples = 0; // Read by the ingest thread once the worker has reported done under mLock
+
+        Worker(int share, int shares) {
+            super("threshold_worker_" + share);
+            mShare = share;
+            mShares = shares;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            long seen = 0;
+            while (true) {
+                byte[] data;
+                ByteBuffer buffer;
+                synchronized (mLock) {
+                    while (mGeneration == seen && !mStopped) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            // Nothing else interrupts the workers, so stop as close() would,
+                            // rather than leave a frame waiting for a share that never comes
+                            mStopped = true;
+                            mLock.notifyAll();
+                        }
+                    }
+                    if (mStopped) {
+                        return;
+                    }
+                    seen = mGeneration;
+                    // Taken under the lock, as the ingest thread clears them once it stops waiting
+                    data = mData;
+                    buffer = mBuffer;
+                }
+                mSamples = count(data, buffer, mShare, mShares, mCounts);
+                synchronized (mLock) {
+                    mRunning--;
+                    mLock.notifyAll();
+                }
+            }
+        }
+    }
+}
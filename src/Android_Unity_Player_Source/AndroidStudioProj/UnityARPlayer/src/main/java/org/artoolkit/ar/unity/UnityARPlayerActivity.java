@@ -51,6 +51,7 @@ package org.artoolkit.ar.unity;
 
 import com.unity3d.player.UnityPlayerActivity;
 import android.Manifest;
+import android.content.ComponentCallbacks2;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.graphics.SurfaceTexture;
@@ -65,6 +66,7 @@ import android.view.ViewGroup;
 import android.view.ViewGroup.LayoutParams;
 import android.view.WindowManager;
 //import org.artoolkit.ar.base.camera.CameraPreferencesActivity;
+import org.artoolkit.ar.base.MarkerBatchLoader;
 import jp.epson.moverio.bt200.DisplayControl;
 
 //Imports below required to ask for permission to use the camera.
@@ -82,6 +84,18 @@ public class UnityARPlayerActivity extends UnityPlayerActivity {
     protected final static String TAG = "UnityARPlayerActivity";
 
     private CameraHolderNoThread _holder;
+    private Camera2Holder _camera2Holder;
+    private ReplayFrameSource _replaySource;
+    private StereoCapture _stereoCapture;
+    private StartupOrchestrator _startup;
+    private final WarmCameraRetention _retention = new WarmCameraRetention();
+    // The backend OpenCamera() and CloseCamera() act on
+    private FrameSource _source;
+    private ImuSampler _imu;
+    // Whether StartImuFusion() was called, so the sensors are read again on resume
+    private boolean _imuEnabled = false;
+    private final MarkerBatchLoader _markerLoader = new MarkerBatchLoader();
+    private AssetInstaller _assets;
 
     @SuppressWarnings("unused")
     public void OpenCamera()  {
@@ -94,7 +108,20 @@ public class UnityARPlayerActivity extends UnityPlayerActivity {
             }
         });
 
-        if (Build.VERSION.SDK_INT >= 23) {
+        // The camera may still be being prepared in the background
+        if (_startup.awaitCamera() && _source != _holder) {
+            // Another backend was selected since, so the camera it prepared isn't needed
+            _holder.CloseCamera();
+        }
+        FrameSource warm = _retention.reclaim();
+        if (warm != null && warm != _source) {
+            warm.CloseCamera();
+        }
+
+        if (_source == _replaySource) {
+            OpenAndStartCapture();
+        }
+        else if (Build.VERSION.SDK_INT >= 23) {
             //Request permission to use the camera on android 23+
             int permissionCheck = ContextCompat.checkSelfPermission(this.getApplicationContext(), Manifest.permission.CAMERA);
             if (permissionCheck != PackageManager.PERMISSION_GRANTED)
@@ -112,34 +139,198 @@ public class UnityARPlayerActivity extends UnityPlayerActivity {
 
     @SuppressWarnings("unused")
     public void SetupCameraAspect4x3() {
-        _holder.SetResolutionTargetMax(1200, 800, false);
+        setResolutionTargetMax(1200, 800, false);
         Log.i(TAG, "=========== Set up camera to use any resolution, 4x3 ratio ============");
     }
 
     @SuppressWarnings("unused")
     public void SetupCameraAnyAspect() {
-        _holder.SetResolutionTargetMax(1200, 800, true);
+        setResolutionTargetMax(1200, 800, true);
         Log.i(TAG, "=========== Set up camera to use any resolution ============");
     }
 
     @SuppressWarnings("unused")
     public void SetupCamera640x480() {
-        _holder.SetResolutionTargetMax(640, 480, false);
+        setResolutionTargetMax(640, 480, false);
         Log.i(TAG, "=========== Set up camera to use 640 x 480 resolution ============");
     }
 
     @SuppressWarnings("unused")
     public void SetupCamera864x480() {
-        _holder.SetResolutionTargetMax(864, 480, false);
+        setResolutionTargetMax(864, 480, false);
         Log.i(TAG, "=========== Set up camera to use 864 x 480 resolution ============");
     }
 
     @SuppressWarnings("unused")
     public void SetupCamera1024x768() {
-        _holder.SetResolutionTargetMax(1024, 768, false);
+        setResolutionTargetMax(1024, 768, false);
         Log.i(TAG, "=========== Set up camera to use 1024 x 768 resolution ============");
     }
 
+    /**
+     * Selects how the camera frame rate range is negotiated: "low-latency" (the default) keeps a
+     * fixed high rate, "balanced" lets it drop to half the target in low light and "power-save"
+     * runs at the lowest rates that reach half the target.
+     */
+    @SuppressWarnings("unused")
+    public void SetupCameraFpsProfile(String profile) {
+        _holder.SetFpsProfile(profile);
+        if (_camera2Holder != null) {
+            _camera2Holder.SetFpsProfile(profile);
+        }
+        Log.i(TAG, "=========== Set up camera to use " + profile + " FPS profile ============");
+    }
+
+    /**
+     * Lets the Camera1 backend step the preview size up or down from the size chosen by the
+     * SetupCamera presets, to hold the target frame rate.
+     *
+     * @param targetFps The frame rate to hold, or 0 to go back to a fixed size.
+     */
+    @SuppressWarnings("unused")
+    public void SetupCameraAdaptive(int targetFps) {
+        _holder.SetAdaptiveResolution(targetFps);
+        Log.i(TAG, "=========== Set up camera to use adaptive resolution, target " + targetFps + " fps ============");
+    }
+
+    /**
+     * Keeps the camera open for a while after CloseCamera(), so that an OpenCamera() soon after,
+     * e.g. after a brief pause, only has to restart the preview. The camera is closed when the
+     * grace period expires or the system runs low on memory.
+     *
+     * @param gracePeriodMs How long to keep the camera open, or 0 (the default) to close it straight away.
+     */
+    @SuppressWarnings("unused")
+    public void SetupCameraGracePeriod(int gracePeriodMs) {
+        _retention.setGracePeriod(gracePeriodMs);
+        Log.i(TAG, "=========== Set up camera to stay open for " + gracePeriodMs + " ms after closing ============");
+    }
+
+    /**
+     * Selects the Camera2 capture backend for subsequent OpenCamera() calls. Requires API level
+     * 21; on older devices the Camera1 backend stays selected.
+     */
+    @SuppressWarnings("unused")
+    public void SetupCameraBackendCamera2() {
+        if (_camera2Holder == null) {
+            Log.w(TAG, "=========== Camera2 not supported on this device, keeping Camera1 backend ============");
+            return;
+        }
+        _source = _camera2Holder;
+        Log.i(TAG, "=========== Set up camera to use Camera2 backend ============");
+    }
+
+    @SuppressWarnings("unused")
+    public void SetupCameraBackendCamera1() {
+        _source = _holder;
+        Log.i(TAG, "=========== Set up camera to use Camera1 backend ============");
+    }
+
+    /**
+     * Selects playing back a sequence recorded with Nv21SequenceWriter instead of using a camera,
+     * for subsequent OpenCamera() calls.
+     *
+     * @param path     The recorded sequence.
+     * @param realtime If true, frames are delivered at their recorded intervals, otherwise as fast as ARToolKit accepts them.
+     */
+    @SuppressWarnings("unused")
+    public void SetupCameraBackendReplay(String path, boolean realtime) {
+        if (_replaySource != null) {
+            _replaySource.CloseCamera();
+        }
+        _replaySource = new ReplayFrameSource(path, new NativeFrameSink());
+        _replaySource.SetPacing(realtime ? ReplayFrameSource.Pacing.ORIGINAL_TIMING : ReplayFrameSource.Pacing.AS_FAST_AS_POSSIBLE);
+        _replaySource.SetLooping(true);
+        _source = _replaySource;
+        Log.i(TAG, "=========== Set up camera to replay " + path + " ============");
+    }
+
+    /**
+     * Selects capturing from the two cameras of a stereo rig for subsequent OpenCamera() calls.
+     * Frames are paired by timestamp and submitted together, so ARToolKit must be started in
+     * stereo mode. Uses the Camera2 backend where available, as it timestamps frames at the sensor.
+     *
+     * @param leftCameraIndex  The camera of the left eye.
+     * @param rightCameraIndex The camera of the right eye.
+     * @param toleranceMs      The largest difference between the timestamps of two frames that are paired.
+     */
+    @SuppressWarnings("unused")
+    public void SetupCameraStereo(int leftCameraIndex, int rightCameraIndex, float toleranceMs) {
+        if (_stereoCapture != null) {
+            _stereoCapture.StopCapture();
+            _stereoCapture.CloseCamera();
+        }
+        FrameSource left;
+        FrameSource right;
+        if (Camera2Holder.IsSupported()) {
+            left = new Camera2Holder(this, leftCameraIndex);
+            right = new Camera2Holder(this, rightCameraIndex);
+        }
+        else {
+            left = new CameraHolderNoThread(leftCameraIndex);
+            right = new CameraHolderNoThread(rightCameraIndex);
+        }
+        _stereoCapture = new StereoCapture(left, right);
+        _stereoCapture.SetPairingTolerance(toleranceMs);
+        _source = _stereoCapture;
+        Log.i(TAG, "=========== Set up camera to capture stereo from cameras " + leftCameraIndex + " and " + rightCameraIndex + " ============");
+    }
+
+    /**
+     * Starts reading the gyroscope and accelerometer, so that
+     * CameraHolderNoThread.PropagateSnapshotPoses() can turn the snapshot markers' poses with the
+     * camera between frames. The sensors are stopped while the activity is paused.
+     *
+     * @return false if the device has no gyroscope.
+     */
+    @SuppressWarnings("unused")
+    public boolean StartImuFusion() {
+        if (_imu == null) {
+            _imu = new ImuSampler(this);
+        }
+        _imuEnabled = _imu.isSupported();
+        return _imu.start();
+    }
+
+    @SuppressWarnings("unused")
+    public void StopImuFusion() {
+        _imuEnabled = false;
+        if (_imu != null) {
+            _imu.stop();
+        }
+    }
+
+    /**
+     * Records the sensor samples and the snapshot markers' poses while the sensors are read, for
+     * ImuReplay to play back off the device.
+     *
+     * @param path The file to record to, e.g. under getExternalFilesDir(null).
+     */
+    @SuppressWarnings("unused")
+    public void StartImuLogging(String path) {
+        if (_imu == null) {
+            _imu = new ImuSampler(this);
+        }
+        _imu.startLogging(path);
+    }
+
+    @SuppressWarnings("unused")
+    public void StopImuLogging() {
+        if (_imu != null) {
+            _imu.stopLogging();
+        }
+    }
+
+    private void setResolutionTargetMax(int targetWidth, int targetHeight, boolean forceDefaultAspectRatio) {
+        _holder.SetResolutionTargetMax(targetWidth, targetHeight, forceDefaultAspectRatio);
+        if (_camera2Holder != null) {
+            _camera2Holder.SetResolutionTargetMax(targetWidth, targetHeight, forceDefaultAspectRatio);
+        }
+        if (_stereoCapture != null) {
+            _stereoCapture.SetResolutionTargetMax(targetWidth, targetHeight, forceDefaultAspectRatio);
+        }
+    }
+
     //Handle the result of asking the user for camera permission.
     @Override
     public void onRequestPermissionsResult(int requestCode, String permissions[], int[] grantResults) {
@@ -157,17 +348,58 @@ public class UnityARPlayerActivity extends UnityPlayerActivity {
         }
     }
 
+    /**
+     * Waits for the native library, which is loaded in the background during startup.
+     *
+     * @return true if it loaded.
+     */
+    @SuppressWarnings("unused")
+    public boolean AwaitNativeLibrary() {
+        return _startup.awaitNativeLibrary();
+    }
+
+    /**
+     * Waits for the bundled assets, which are unpacked in the background from startup, to be on
+     * the filesystem.
+     *
+     * @return The directory to pass to arwChangeToResourcesDir(), or null if unpacking failed.
+     */
+    @SuppressWarnings("unused")
+    public String AwaitResourcesDir() {
+        return _assets.awaitReady() ? _assets.getDirectory().getAbsolutePath() : null;
+    }
+
+    /**
+     * Adds markers as arwAddMarker does for each, reading the files they refer to in parallel
+     * first, so that a scene with many markers loads in a fraction of the time.
+     *
+     * @param cfgs Marker configuration strings.
+     * @return The UID of each marker in the order of cfgs, or -1 for a marker that was not added.
+     */
+    @SuppressWarnings("unused")
+    public int[] AddMarkers(String[] cfgs) {
+        return _markerLoader.addMarkers(cfgs);
+    }
+
+    /**
+     * @return How long each marker of the last AddMarkers() took to load, in milliseconds.
+     */
+    @SuppressWarnings("unused")
+    public float[] GetMarkerLoadTimesMillis() {
+        return _markerLoader.getLoadTimesMillis();
+    }
+
     public int GetVideoWidth() {
-        return _holder.GetParamWidth();
+        return _source.GetParamWidth();
     }
 
     public int GetVideoHeight(){
-       return _holder.GetParamHeight();
+        return _source.GetParamHeight();
     }
 
     private void OpenAndStartCapture() {
-        _holder.OpenCamera();
-        _holder.StartCapture();
+        _source.OpenCamera();
+        _source.StartCapture();
     }
 
     @SuppressWarnings("unused")
@@ -186,16 +418,66 @@ public class UnityARPlayerActivity extends UnityPlayerActivity {
             }
         });
 
-        _holder.StopCapture();
-        _holder.CloseCamera();
+        _source.StopCapture();
+        if (!_retention.retain(_source)) {
+            _source.CloseCamera();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Hiding the UI alone doesn't count, as that's the brief pause the camera is kept for
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL
+                || level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            _retention.release("memory pressure, level " + level);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        _retention.release("low memory");
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        if (_imuEnabled) {
+            _imu.start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        if (_imu != null) {
+            _imu.stop();
+        }
+        super.onPause();
     }
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
 
+        _startup = new StartupOrchestrator();
+
         super.onCreate(savedInstanceState);
 
+        // While the splash screen shows
+        _assets = new AssetInstaller(this);
+        _assets.start();
+
         _holder = new CameraHolderNoThread();
+        if (Camera2Holder.IsSupported()) {
+            _camera2Holder = new Camera2Holder(this);
+        }
+        _source = _holder;
+
+        // Load the native library and the camera capabilities, and open and configure the camera
+        // if it may be used already, while Unity starts up
+        boolean cameraPermitted = Build.VERSION.SDK_INT < 23
+                || ContextCompat.checkSelfPermission(this.getApplicationContext(), Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED;
+        _startup.start(this, cameraPermitted ? _holder : null);
 
         // This needs to be done just only the very first time the application is run,
         // or whenever a new preference is added (e.g. after an application upgrade).
@@ -203,6 +485,10 @@ public class UnityARPlayerActivity extends UnityPlayerActivity {
         PreferenceManager.setDefaultValues(this, resID, false);
     }
 
+    /**
+     * Called by ARController once the video background is set up, with whether the display is
+     * stereo. Stereo capture is selected separately, with SetupCameraStereo().
+     */
     void setStereo(boolean stereo)
     {
 
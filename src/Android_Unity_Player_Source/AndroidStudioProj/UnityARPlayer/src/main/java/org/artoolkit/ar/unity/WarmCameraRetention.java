@@ -0,0 +1,92 @@
+package org.artoolkit.ar.unity;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Keeps a camera open for a grace period after capture stops, so that reopening it soon after,
+ * e.g. when the user comes back from the notification shade, doesn't have to open and configure
+ * the camera again. The camera is closed when the grace period expires, or straight away under
+ * memory pressure.
+ * <p/>
+ * A stopped camera keeps its configuration and preview texture but has no preview callback, so
+ * it produces no frames while it's kept.
+ */
+final class WarmCameraRetention {
+
+    private final static String TAG = "WarmCameraRetention";
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mExpire = new Runnable() {
+        @Override
+        public void run() {
+            release("grace period expired");
+        }
+    };
+
+    private long mGracePeriodMs = 0;
+    private FrameSource mRetained = null;
+    private long mRetainedAtNs = 0;
+
+    /**
+     * @param gracePeriodMs How long a stopped camera is kept open, or 0 to close it straight away.
+     */
+    synchronized void setGracePeriod(long gracePeriodMs) {
+        mGracePeriodMs = Math.max(0, gracePeriodMs);
+        if (mGracePeriodMs == 0) {
+            release("retention disabled");
+        }
+    }
+
+    synchronized long getGracePeriod() {
+        return mGracePeriodMs;
+    }
+
+    /**
+     * Keeps a source whose capture has been stopped open for the grace period.
+     *
+     * @return false if there is no grace period, in which case the caller must close the source.
+     */
+    synchronized boolean retain(FrameSource source) {
+        if (mGracePeriodMs <= 0) {
+            return false;
+        }
+        if (mRetained != null && mRetained != source) {
+            mRetained.CloseCamera();
+        }
+        mRetained = source;
+        mRetainedAtNs = System.nanoTime();
+        mHandler.removeCallbacks(mExpire);
+        mHandler.postDelayed(mExpire, mGracePeriodMs);
+        Log.i(TAG, "Keeping camera open for " + mGracePeriodMs + " ms");
+        return true;
+    }
+
+    /**
+     * Takes back the source being kept open, if any, and cancels its release.
+     *
+     * @return The source, still open, or null if none is being kept.
+     */
+    synchronized FrameSource reclaim() {
+        FrameSource source = mRetained;
+        if (source != null) {
+            mHandler.removeCallbacks(mExpire);
+            mRetained = null;
+            Log.i(TAG, "Reusing camera kept open for " + (System.nanoTime() - mRetainedAtNs) / 1000000 + " ms");
+        }
+        return source;
+    }
+
+    /**
+     * Closes the source being kept open, if any.
+     */
+    synchronized void release(String reason) {
+        mHandler.removeCallbacks(mExpire);
+        if (mRetained != null) {
+            Log.i(TAG, "Closing camera kept open: " + reason);
+            mRetained.CloseCamera();
+            mRetained = null;
+        }
+    }
+}
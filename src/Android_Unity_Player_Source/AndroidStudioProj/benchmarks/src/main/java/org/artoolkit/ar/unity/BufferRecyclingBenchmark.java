@@ -0,0 +1,92 @@
+package org.artoolkit.ar.unity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame cost of getting a buffer for the camera to write into, compared across the
+ * buffer strategies the camera holders can use. Each operation copies a frame into the buffer,
+ * as the camera would, delivers it to a stub sink and gives the buffer back.
+ * <p/>
+ * Run with the gc profiler to see the allocation rate of each strategy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.AverageTime, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferRecyclingBenchmark {
+
+    private final static int RING_SIZE = 3;
+
+    @Param({ "640x480", "1280x720" })
+    public String resolution;
+
+    private byte[] mSensor;
+    private StubFrameSink mSink;
+    private ArrayDeque<byte[]> mRing;
+
+    @Setup
+    public void setup() {
+        String[] dims = resolution.split("x", 2);
+        int frameSize = Nv21.frameSize(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+        mSensor = new byte[frameSize];
+        new Random(42).nextBytes(mSensor);
+        mSink = new StubFrameSink(0);
+        mRing = new ArrayDeque<byte[]>(RING_SIZE);
+        for (int i = 0; i < RING_SIZE; i++) {
+            mRing.add(new byte[frameSize]);
+        }
+    }
+
+    /**
+     * setPreviewCallback(): a new array for every frame.
+     */
+    @Benchmark
+    public boolean allocatePerFrame() {
+        byte[] buffer = new byte[mSensor.length];
+        System.arraycopy(mSensor, 0, buffer, 0, buffer.length);
+        return mSink.onFrame(buffer, System.nanoTime());
+    }
+
+    /**
+     * setPreviewCallbackWithBuffer() with a ring of reused arrays, as CallbackBufferRing does.
+     */
+    @Benchmark
+    public boolean reuseRing() {
+        byte[] buffer;
+        synchronized (mRing) {
+            buffer = mRing.poll();
+        }
+        System.arraycopy(mSensor, 0, buffer, 0, buffer.length);
+        try {
+            return mSink.onFrame(buffer, System.nanoTime());
+        } finally {
+            synchronized (mRing) {
+                mRing.add(buffer);
+            }
+        }
+    }
+
+    /**
+     * The cost of the sink alone, for reference.
+     */
+    @Benchmark
+    public boolean sinkOnly() {
+        return mSink.onFrame(mSensor, System.nanoTime());
+    }
+}
@@ -0,0 +1,55 @@
+package org.artoolkit.ar.unity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The overhead the frame metrics add per frame, and the cost of Unity polling them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameMetricsBenchmark {
+
+    private FrameMetrics mMetrics;
+    private long mNow;
+
+    @Setup
+    public void setup() {
+        mMetrics = new FrameMetrics();
+        mNow = System.nanoTime();
+        // Fill the histograms with a spread of latencies, as after a few minutes of capture
+        for (int i = 0; i < 10000; i++) {
+            long t = mNow + i * 33000000L;
+            mMetrics.onFrameAccepted(t, t, t + (i % 50) * 100000L, t + (i % 50) * 110000L);
+            mMetrics.onCaptureCalled(t + 5000000L);
+            mMetrics.onPoseUpdated(t + 5000000L + (i % 20) * 200000L);
+        }
+    }
+
+    @Benchmark
+    public void recordFrame() {
+        long t = mNow += 33000000L;
+        mMetrics.onFrameAccepted(t, t, t + 1000000L, t + 2000000L);
+        mMetrics.onCaptureCalled(t + 5000000L);
+        mMetrics.onPoseUpdated(t + 9000000L);
+    }
+
+    @Benchmark
+    public float[] snapshot() {
+        return mMetrics.snapshot();
+    }
+}
@@ -0,0 +1,159 @@
+package org.artoolkit.ar.unity;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The handoff of frames from the camera callback thread to the ingest thread, through
+ * {@link IngestWorker} and {@link FrameMailbox}, with a stub sink in place of the native library.
+ * The benchmark thread plays the part of the camera callback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IngestHandoffBenchmark {
+
+    private final static int FRAME_SIZE = 640 * 480 * 3 / 2;
+    private final static int POOL_SIZE = 4;
+
+    /**
+     * Work done by the stub sink per frame, in Blackhole.consumeCPU() tokens.
+     */
+    @Param({ "0", "10000" })
+    public long sinkCost;
+
+    private StubFrameSink mSink;
+    private IngestWorker mWorker;
+    private final ConcurrentLinkedQueue<byte[]> mPool = new ConcurrentLinkedQueue<byte[]>();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        for (int i = 0; i < POOL_SIZE; i++) {
+            mPool.add(new byte[FRAME_SIZE]);
+        }
+        mSink = new StubFrameSink(sinkCost);
+        mWorker = new IngestWorker("benchmark_ingest_thread", new IngestWorker.FrameConsumer() {
+            @Override
+            public void onFrame(byte[] data, long timestampNs) {
+                mSink.onFrame(data, timestampNs);
+            }
+        }, new IngestWorker.BufferRecycler() {
+            @Override
+            public void recycle(byte[] data) {
+                mPool.add(data);
+            }
+        });
+        mWorker.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mWorker.stop();
+    }
+
+    /**
+     * The frames offered to the worker in each iteration, and how many it consumed and dropped,
+     * reported with the iteration's throughput as rates in the same unit.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class IngestCounts {
+
+        private IngestWorker mWorker = null;
+        private long mOfferedStart = 0;
+        private long mConsumedStart = 0;
+        private long mDroppedStart = 0;
+
+        @Setup(Level.Iteration)
+        public void startIteration() {
+            // The worker is new for each trial, so counts start at zero until it is first seen
+            if (mWorker != null) {
+                mOfferedStart = mWorker.getOfferedCount();
+                mConsumedStart = mWorker.getConsumedCount();
+                mDroppedStart = mWorker.getDroppedCount();
+            }
+        }
+
+        void attach(IngestWorker worker) {
+            mWorker = worker;
+        }
+
+        public long offered() {
+            return mWorker != null ? mWorker.getOfferedCount() - mOfferedStart : 0;
+        }
+
+        public long consumed() {
+            return mWorker != null ? mWorker.getConsumedCount() - mConsumedStart : 0;
+        }
+
+        public long dropped() {
+            return mWorker != null ? mWorker.getDroppedCount() - mDroppedStart : 0;
+        }
+    }
+
+    /**
+     * Ingest on the callback thread, as when the ingest worker is disabled.
+     */
+    @Benchmark
+    public boolean inline() {
+        byte[] buffer = mPool.poll();
+        try {
+            return mSink.onFrame(buffer, System.nanoTime());
+        } finally {
+            mPool.add(buffer);
+        }
+    }
+
+    /**
+     * The time the callback thread spends handing a frame over. Frames the worker can't keep up
+     * with are dropped, as they are from a camera delivering faster than ingest.
+     */
+    @Benchmark
+    public boolean offer(IngestCounts counts) {
+        counts.attach(mWorker);
+        byte[] buffer = mPool.poll();
+        if (buffer == null) {
+            // Every buffer is in flight; the camera would skip this frame
+            return false;
+        }
+        mWorker.offer(buffer, System.nanoTime());
+        return true;
+    }
+
+    /**
+     * The latency from offering a frame until the sink has consumed it, including waking up
+     * the worker.
+     */
+    @Benchmark
+    public long offerAndAwait(IngestCounts counts) {
+        counts.attach(mWorker);
+        byte[] buffer;
+        while ((buffer = mPool.poll()) == null) {
+            // Wait for the worker to recycle the previous frame
+        }
+        long expected = mSink.getFrameCount() + 1;
+        mWorker.offer(buffer, System.nanoTime());
+        while (mSink.getFrameCount() < expected) {
+            // Spin: parking here would measure the scheduler rather than the handoff
+        }
+        return mSink.getLastTimestampNs();
+    }
+}
@@ -0,0 +1,68 @@
+package org.artoolkit.ar.unity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Luma extraction and downscaling of a single NV21 frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Nv21Benchmark {
+
+    @Param({ "640x480", "1280x720", "1920x1080" })
+    public String resolution;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private byte[] mLuma;
+    private byte[] mHalf;
+    private byte[] mQuarter;
+
+    @Setup
+    public void setup() {
+        String[] dims = resolution.split("x", 2);
+        mWidth = Integer.parseInt(dims[0]);
+        mHeight = Integer.parseInt(dims[1]);
+        mFrame = new byte[Nv21.frameSize(mWidth, mHeight)];
+        new Random(42).nextBytes(mFrame);
+        mLuma = new byte[mWidth * mHeight];
+        mHalf = new byte[(mWidth / 2) * (mHeight / 2)];
+        mQuarter = new byte[(mWidth / 4) * (mHeight / 4)];
+    }
+
+    @Benchmark
+    public byte[] extractLuma() {
+        Nv21.extractLuma(mFrame, mWidth, mHeight, mLuma);
+        return mLuma;
+    }
+
+    @Benchmark
+    public byte[] downscaleLuma2x() {
+        Nv21.downscaleLuma(mFrame, mWidth, mHeight, 2, mHalf);
+        return mHalf;
+    }
+
+    @Benchmark
+    public byte[] downscaleLuma4x() {
+        Nv21.downscaleLuma(mFrame, mWidth, mHeight, 4, mQuarter);
+        return mQuarter;
+    }
+}
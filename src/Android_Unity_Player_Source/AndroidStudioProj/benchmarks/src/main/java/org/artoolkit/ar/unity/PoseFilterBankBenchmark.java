@@ -0,0 +1,82 @@
+package org.artoolkit.ar.unity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filtering the poses of every marker for one frame, to compare with the per-marker native calls
+ * needed to set up and query ARW_MARKER_OPTION_FILTERED.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseFilterBankBenchmark {
+
+    @Param({"4", "32"})
+    public int markers;
+
+    @Param({"1", "2"})
+    public int filter;
+
+    private PoseFilterBank mBank;
+    private float[][] mFrames;
+    private float[] mPoses;
+    private int mFrame;
+    private long mNow;
+
+    @Setup
+    public void setup() {
+        mBank = new PoseFilterBank(markers);
+        int markerClass = filter == PoseFilterBank.FILTER_ONE_EURO
+                ? mBank.addOneEuroClass(1.0f, 0.01f, 1.0f, 1.0f)
+                : mBank.addKalmanClass(1000.0f, 0.1f, 4.0f, 0.0001f);
+        for (int i = 0; i < markers; i++) {
+            mBank.setMarkerClass(i, markerClass);
+        }
+
+        // A few seconds of noisy poses of markers moving slowly, replayed in a loop
+        Random random = new Random(0);
+        float[] pose = new float[PoseMath.POSE_SIZE];
+        mFrames = new float[64][markers * 17];
+        for (int f = 0; f < mFrames.length; f++) {
+            for (int i = 0; i < markers; i++) {
+                pose[PoseMath.TX] = i * 50.0f + f + (float) random.nextGaussian();
+                pose[PoseMath.TY] = (float) random.nextGaussian();
+                pose[PoseMath.TZ] = 500.0f + (float) random.nextGaussian();
+                pose[PoseMath.QX] = 0.1f + 0.01f * (float) random.nextGaussian();
+                pose[PoseMath.QY] = 0.01f * f;
+                pose[PoseMath.QZ] = 0.0f;
+                pose[PoseMath.QW] = 1.0f;
+                PoseMath.normalizeRotation(pose, 0);
+                mFrames[f][i * 17] = 1.0f;
+                PoseMath.poseToMatrix(pose, 0, mFrames[f], i * 17 + 1);
+            }
+        }
+        mPoses = new float[markers * 17];
+        mNow = System.nanoTime();
+    }
+
+    @Benchmark
+    public float[] filterFrame() {
+        float[] frame = mFrames[mFrame++ & (mFrames.length - 1)];
+        System.arraycopy(frame, 0, mPoses, 0, mPoses.length);
+        mNow += 33333333L;
+        mBank.filter(mPoses, markers, mNow);
+        return mPoses;
+    }
+}
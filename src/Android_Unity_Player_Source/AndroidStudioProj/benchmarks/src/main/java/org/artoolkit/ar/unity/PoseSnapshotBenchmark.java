@@ -0,0 +1,90 @@
+package org.artoolkit.ar.unity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing the poses of every update while other threads read them. Neither side should
+ * allocate once the buffers have grown to the number of markers.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PoseSnapshotBenchmark {
+
+    @Param({"4", "32"})
+    public int markers;
+
+    private PoseSnapshotStore mStore;
+    private int[] mMarkerUIDs;
+    private float[] mPoses;
+    private long mFrame;
+
+    @State(Scope.Thread)
+    public static class Reader {
+        final PoseSnapshotStore.Snapshot mCopy = new PoseSnapshotStore.Snapshot();
+        final float[] mMatrix = new float[16];
+    }
+
+    @Setup
+    public void setup() {
+        mStore = new PoseSnapshotStore();
+        mMarkerUIDs = new int[markers];
+        mPoses = new float[markers * 17];
+        for (int i = 0; i < markers; i++) {
+            mMarkerUIDs[i] = i;
+            mPoses[i * 17] = (i % 2 == 0) ? 1.0f : 0.0f;
+        }
+    }
+
+    @Benchmark
+    @Group("publishAndRead")
+    @GroupThreads(1)
+    public void publish() {
+        mFrame++;
+        mStore.publish(mMarkerUIDs, markers, mPoses, null, mFrame, mFrame * 33000000L);
+    }
+
+    @Benchmark
+    @Group("publishAndRead")
+    @GroupThreads(2)
+    public long read(Reader reader) {
+        return mStore.read(reader.mCopy);
+    }
+
+    @Benchmark
+    @Group("publishAndAcquire")
+    @GroupThreads(1)
+    public void publishWhilePinned() {
+        publish();
+    }
+
+    @Benchmark
+    @Group("publishAndAcquire")
+    @GroupThreads(2)
+    public float acquire(Reader reader) {
+        PoseSnapshotStore.Snapshot snapshot = mStore.acquire();
+        try {
+            snapshot.getTransformation(0, reader.mMatrix);
+            return reader.mMatrix[0];
+        } finally {
+            mStore.release(snapshot);
+        }
+    }
+}
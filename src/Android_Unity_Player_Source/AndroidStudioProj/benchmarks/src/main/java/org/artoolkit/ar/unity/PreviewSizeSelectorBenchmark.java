@@ -0,0 +1,64 @@
+package org.artoolkit.ar.unity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Preview size selection over a size list typical of a current phone camera.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreviewSizeSelectorBenchmark {
+
+    private final static int[][] SIZES = {
+            { 4032, 3024 }, { 4000, 3000 }, { 3840, 2160 }, { 3264, 2448 }, { 3264, 1836 },
+            { 2592, 1944 }, { 2048, 1536 }, { 1920, 1440 }, { 1920, 1080 }, { 1600, 1200 },
+            { 1440, 1080 }, { 1280, 960 }, { 1280, 720 }, { 1024, 768 }, { 960, 720 },
+            { 864, 480 }, { 800, 600 }, { 800, 480 }, { 720, 480 }, { 640, 480 },
+            { 640, 360 }, { 352, 288 }, { 320, 240 }, { 176, 144 }
+    };
+
+    @Param({ "640x480", "1200x800", "1920x1080" })
+    public String target;
+
+    @Param({ "true", "false" })
+    public boolean forceDefaultAspectRatio;
+
+    private int[] mWidths;
+    private int[] mHeights;
+    private int mTargetWidth;
+    private int mTargetHeight;
+
+    @Setup
+    public void setup() {
+        mWidths = new int[SIZES.length];
+        mHeights = new int[SIZES.length];
+        for (int i = 0; i < SIZES.length; i++) {
+            mWidths[i] = SIZES[i][0];
+            mHeights[i] = SIZES[i][1];
+        }
+        String[] dims = target.split("x", 2);
+        mTargetWidth = Integer.parseInt(dims[0]);
+        mTargetHeight = Integer.parseInt(dims[1]);
+    }
+
+    @Benchmark
+    public int selectOptimal() {
+        return PreviewSizeSelector.selectOptimal(mWidths, mHeights, mTargetWidth, mTargetHeight, forceDefaultAspectRatio);
+    }
+}
@@ -0,0 +1,62 @@
+package org.artoolkit.ar.unity;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the native library: reads a sample of each frame and burns a fixed amount of
+ * CPU, so a benchmark pays a realistic, repeatable cost per frame without ARToolKit.
+ */
+public class StubFrameSink implements FrameSink {
+
+    private final static int SAMPLE_STRIDE = 64;
+
+    private final long mCostTokens;
+    private final AtomicLong mFrames = new AtomicLong();
+    private volatile long mLastTimestampNs = 0;
+    private volatile int mChecksum = 0;
+
+    /**
+     * @param costTokens Work done per frame, in {@link Blackhole#consumeCPU(long)} tokens.
+     */
+    public StubFrameSink(long costTokens) {
+        mCostTokens = costTokens;
+    }
+
+    @Override
+    public void onCaptureStarted(int width, int height, int cameraIndex, boolean cameraIsFrontFacing) {
+        mFrames.set(0);
+    }
+
+    @Override
+    public boolean onFrame(byte[] data, long timestampNs) {
+        int checksum = 0;
+        for (int i = 0; i < data.length; i += SAMPLE_STRIDE) {
+            checksum += data[i];
+        }
+        if (mCostTokens > 0) {
+            Blackhole.consumeCPU(mCostTokens);
+        }
+        mChecksum = checksum;
+        mLastTimestampNs = timestampNs;
+        mFrames.incrementAndGet();
+        return true;
+    }
+
+    @Override
+    public void onCaptureStopped() {
+    }
+
+    public long getFrameCount() {
+        return mFrames.get();
+    }
+
+    public long getLastTimestampNs() {
+        return mLastTimestampNs;
+    }
+
+    public int getChecksum() {
+        return mChecksum;
+    }
+}
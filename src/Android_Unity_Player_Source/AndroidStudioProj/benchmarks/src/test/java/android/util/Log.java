@@ -0,0 +1,31 @@
+package android.util;
+
+/**
+ * Stands in for Android's log in the tests of classes that log, printing to the console.
+ */
+public final class Log {
+
+    private Log() {
+    }
+
+    public static int d(String tag, String msg) {
+        return println("D", tag, msg);
+    }
+
+    public static int i(String tag, String msg) {
+        return println("I", tag, msg);
+    }
+
+    public static int w(String tag, String msg) {
+        return println("W", tag, msg);
+    }
+
+    public static int e(String tag, String msg) {
+        return println("E", tag, msg);
+    }
+
+    private static int println(String priority, String tag, String msg) {
+        System.out.println(priority + "/" + tag + ": " + msg);
+        return 0;
+    }
+}
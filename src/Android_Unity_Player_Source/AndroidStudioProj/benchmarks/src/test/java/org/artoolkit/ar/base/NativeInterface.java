@@ -0,0 +1,282 @@
+package org.artoolkit.ar.base;
+
+import org.artoolkit.ar.unity.PoseMath;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Stands in for the native library in the tests of the frame path: has the video entry points
+ * {@link VideoStream} calls, and records a checksum of every frame they are given. Streams can
+ * only be registered once {@link #setRunning(boolean)} is true, as they can only be after
+ * arwStartRunning. A stream's buffers are released as soon as their frames are accepted, unless
+ * {@link #setHoldBuffers(boolean)} makes them held until {@link #releaseBuffers()}, as if
+ * tracking had fallen behind.
+ * <p/>
+ * Also has the per-frame queries {@link MarkerPoseBatch} and {@link VideoParams} make, answered
+ * with fixed values and without allocating, as are frames once {@link #setChecksumFrames(boolean)}
+ * is false, so what a frame allocates can be counted.
+ */
+public class NativeInterface {
+
+    public static final int AR_PIXEL_FORMAT_MONO = 5;
+    public static final int AR_PIXEL_FORMAT_NV21 = 14;
+    public static final int AR_PIXEL_FORMAT_INVALID = -1;
+
+    public static final int VIDEO_PARAM_WIDTH = 0,
+            VIDEO_PARAM_HEIGHT = 1,
+            VIDEO_PARAM_PIXEL_SIZE = 2,
+            VIDEO_PARAM_PIXEL_FORMAT = 3,
+            VIDEO_PARAM_COUNT = 4;
+
+    public static final int MARKER_POSE_STRIDE = PoseMath.MARKER_POSE_STRIDE;
+
+    private static final int VIDEO_WIDTH = 640;
+    private static final int VIDEO_HEIGHT = 480;
+
+    private static boolean sRunning = false;
+    private static ByteBuffer[] sStreamBuffers = null;
+    private static long[] sHeldChecksums = null; // Of each buffer held, or -1
+    private static boolean sHoldBuffers = false;
+    private static boolean sChecksumFrames = true;
+    private static int sRegisterCalls = 0;
+    private static int sImageFrames = 0;
+    private static int sMonoFrames = 0;
+    private static int sBufferFrames = 0;
+    private static final List<Long> sChecksums = new ArrayList<Long>();
+
+    public static synchronized void reset(boolean running) {
+        sRunning = running;
+        sStreamBuffers = null;
+        sHeldChecksums = null;
+        sHoldBuffers = false;
+        sChecksumFrames = true;
+        sRegisterCalls = 0;
+        sImageFrames = 0;
+        sMonoFrames = 0;
+        sBufferFrames = 0;
+        sChecksums.clear();
+    }
+
+    public static synchronized void setRunning(boolean running) {
+        sRunning = running;
+    }
+
+    public static synchronized void setHoldBuffers(boolean holdBuffers) {
+        sHoldBuffers = holdBuffers;
+    }
+
+    /**
+     * @param checksumFrames false to only count the frames given, so accepting them allocates nothing.
+     */
+    public static synchronized void setChecksumFrames(boolean checksumFrames) {
+        sChecksumFrames = checksumFrames;
+    }
+
+    /**
+     * Releases the buffers held, as if tracking had caught up.
+     *
+     * @return true if none of them was written to while held.
+     */
+    public static synchronized boolean releaseBuffers() {
+        boolean intact = true;
+        for (int i = 0; sHeldChecksums != null && i < sHeldChecksums.length; i++) {
+            if (sHeldChecksums[i] >= 0 && checksum(sStreamBuffers[i]) != sHeldChecksums[i]) {
+                intact = false;
+            }
+            sHeldChecksums[i] = -1;
+        }
+        return intact;
+    }
+
+    public static synchronized boolean arwAcceptVideoImage(byte[] image, int width, int height, int cameraIndex, boolean cameraIsFrontFacing) {
+        sImageFrames++;
+        if (sChecksumFrames) {
+            sChecksums.add(checksum(image, width * height * 3 / 2));
+        }
+        return sRunning;
+    }
+
+    public static synchronized boolean arwAcceptVideoImageMono(byte[] image, int width, int height, int cameraIndex, boolean cameraIsFrontFacing) {
+        sMonoFrames++;
+        if (sChecksumFrames) {
+            sChecksums.add(checksum(image, width * height));
+        }
+        return sRunning;
+    }
+
+    public static synchronized int arwRegisterVideoStream(ByteBuffer[] buffers, int width, int height, int pixelFormat, int cameraIndex, boolean cameraIsFrontFacing) {
+        sRegisterCalls++;
+        if (!sRunning || sStreamBuffers != null) {
+            return -1;
+        }
+        sStreamBuffers = buffers;
+        sHeldChecksums = new long[buffers.length];
+        Arrays.fill(sHeldChecksums, -1);
+        return 0;
+    }
+
+    public static synchronized int arwAcquireVideoBuffer(int streamHandle) {
+        if (streamHandle != 0 || sStreamBuffers == null) {
+            return -1;
+        }
+        for (int i = 0; i < sHeldChecksums.length; i++) {
+            if (sHeldChecksums[i] < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public static synchronized boolean arwAcceptVideoBuffer(int streamHandle, int bufferIndex, long timestampNs) {
+        if (streamHandle != 0 || sStreamBuffers == null) {
+            return false;
+        }
+        if (sHeldChecksums[bufferIndex] >= 0) {
+            throw new IllegalStateException("Buffer " + bufferIndex + " submitted while held");
+        }
+        sBufferFrames++;
+        if (!sChecksumFrames) {
+            return true;
+        }
+        long checksum = checksum(sStreamBuffers[bufferIndex]);
+        sChecksums.add(checksum);
+        if (sHoldBuffers) {
+            sHeldChecksums[bufferIndex] = checksum;
+        }
+        return true;
+    }
+
+    public static synchronized boolean arwUnregisterVideoStream(int streamHandle) {
+        boolean ok = streamHandle == 0 && sStreamBuffers != null;
+        sStreamBuffers = null;
+        return ok;
+    }
+
+    public static boolean arwGetProjectionMatrixInto(float[] matrix) {
+        identity(matrix, 0);
+        return true;
+    }
+
+    public static boolean arwGetProjectionMatrixStereo(float[] projL, float[] projR) {
+        identity(projL, 0);
+        identity(projR, 0);
+        return true;
+    }
+
+    public static boolean arwGetVideoParamsInto(int[] params) {
+        params[VIDEO_PARAM_WIDTH] = VIDEO_WIDTH;
+        params[VIDEO_PARAM_HEIGHT] = VIDEO_HEIGHT;
+        params[VIDEO_PARAM_PIXEL_SIZE] = 1;
+        params[VIDEO_PARAM_PIXEL_FORMAT] = AR_PIXEL_FORMAT_NV21;
+        return true;
+    }
+
+    public static boolean arwGetVideoParamsStereoInto(int[] paramsL, int[] paramsR) {
+        return arwGetVideoParamsInto(paramsL) && arwGetVideoParamsInto(paramsR);
+    }
+
+    public static boolean arwGetVideoParams(int[] width, int[] height, int[] pixelSize, String[] pixelFormatStringBuffer) {
+        width[0] = VIDEO_WIDTH;
+        height[0] = VIDEO_HEIGHT;
+        pixelSize[0] = 1;
+        pixelFormatStringBuffer[0] = "AR_PIXEL_FORMAT_NV21";
+        return true;
+    }
+
+    public static boolean arwGetVideoParamsStereo(int[] widthL, int[] heightL, int[] pixelSizeL, String[] pixelFormatStringL, int[] widthR, int[] heightR, int[] pixelSizeR, String[] pixelFormatString) {
+        return arwGetVideoParams(widthL, heightL, pixelSizeL, pixelFormatStringL) && arwGetVideoParams(widthR, heightR, pixelSizeR, pixelFormatString);
+    }
+
+    /**
+     * Markers with even UIDs are visible, at the identity pose.
+     */
+    public static float[] arwQueryMarkerTransformation(int markerUID) {
+        if (markerUID % 2 != 0) {
+            return null;
+        }
+        float[] matrix = new float[16];
+        identity(matrix, 0);
+        return matrix;
+    }
+
+    public static boolean arwQueryMarkerTransformationInto(int markerUID, float[] matrix) {
+        if (markerUID % 2 != 0) {
+            return false;
+        }
+        identity(matrix, 0);
+        return true;
+    }
+
+    public static boolean arwQueryMarkerTransformationStereo(int markerUID, float[] matrixL, float[] matrixR) {
+        return arwQueryMarkerTransformationInto(markerUID, matrixL) && arwQueryMarkerTransformationInto(markerUID, matrixR);
+    }
+
+    public static int arwQueryMarkerTransformations(int[] markerUIDs, int count, float[] poses) {
+        int visible = 0;
+        for (int i = 0; i < count; i++) {
+            boolean found = markerUIDs[i] % 2 == 0;
+            poses[i * MARKER_POSE_STRIDE] = found ? 1.0f : 0.0f;
+            if (found) {
+                identity(poses, i * MARKER_POSE_STRIDE + 1);
+                visible++;
+            }
+        }
+        return visible;
+    }
+
+    public static int arwQueryMarkerTransformationsStereo(int[] markerUIDs, int count, float[] posesL, float[] posesR) {
+        arwQueryMarkerTransformations(markerUIDs, count, posesR);
+        return arwQueryMarkerTransformations(markerUIDs, count, posesL);
+    }
+
+    private static void identity(float[] matrix, int offset) {
+        for (int i = 0; i < 16; i++) {
+            matrix[offset + i] = i % 5 == 0 ? 1.0f : 0.0f;
+        }
+    }
+
+    public static synchronized boolean isStreamRegistered() {
+        return sStreamBuffers != null;
+    }
+
+    public static synchronized int getRegisterCalls() {
+        return sRegisterCalls;
+    }
+
+    public static synchronized int getImageFrames() {
+        return sImageFrames;
+    }
+
+    public static synchronized int getMonoFrames() {
+        return sMonoFrames;
+    }
+
+    public static synchronized int getBufferFrames() {
+        return sBufferFrames;
+    }
+
+    /**
+     * @return The checksums of the frames given, in order, of as many bytes as each entry point reads.
+     */
+    public static synchronized List<Long> getChecksums() {
+        return new ArrayList<Long>(sChecksums);
+    }
+
+    private static long checksum(ByteBuffer buffer) {
+        ByteBuffer frame = buffer.duplicate();
+        frame.clear();
+        byte[] data = new byte[frame.capacity()];
+        frame.get(data);
+        return checksum(data, data.length);
+    }
+
+    public static long checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return crc.getValue();
+    }
+}
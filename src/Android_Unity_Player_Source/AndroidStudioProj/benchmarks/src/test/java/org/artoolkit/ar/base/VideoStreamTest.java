@@ -0,0 +1,95 @@
+package org.artoolkit.ar.base;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class VideoStreamTest {
+
+    private final static int WIDTH = 32;
+    private final static int HEIGHT = 16;
+
+    @Test
+    public void framesAreDroppedRatherThanWrittenOverHeldBuffers() {
+        NativeInterface.reset(true);
+        NativeInterface.setHoldBuffers(true);
+        VideoStream stream = new VideoStream(WIDTH, HEIGHT, 0, false, true);
+        for (int i = 0; i < VideoStream.DEFAULT_BUFFER_COUNT; i++) {
+            assertTrue(stream.submit(frame(i), i));
+        }
+        assertFalse(stream.submit(frame(10), 10));
+        assertFalse(stream.submit(frame(11), 11));
+        assertEquals(2, stream.getDroppedFrames());
+        assertEquals(VideoStream.DEFAULT_BUFFER_COUNT, NativeInterface.getBufferFrames());
+        assertTrue("a held buffer was written to", NativeInterface.releaseBuffers());
+
+        assertTrue(stream.submit(frame(12), 12));
+        assertEquals(VideoStream.DEFAULT_BUFFER_COUNT + 1, NativeInterface.getBufferFrames());
+        stream.close();
+    }
+
+    @Test
+    public void acquiredBufferIsKeptUntilSubmitted() {
+        NativeInterface.reset(true);
+        NativeInterface.setHoldBuffers(true);
+        VideoStream stream = new VideoStream(WIDTH, HEIGHT, 0, false, true);
+        assertTrue(stream.open());
+        ByteBuffer first = stream.acquireBuffer();
+        assertSame(first, stream.acquireBuffer());
+        first.put(frame(1));
+        assertTrue(stream.submitBuffer(1));
+        assertFalse("submitted twice", stream.submitBuffer(2));
+        ByteBuffer second = stream.acquireBuffer();
+        assertFalse(first == second);
+        stream.close();
+    }
+
+    @Test
+    public void allBuffersHeldGivesNoBuffer() {
+        NativeInterface.reset(true);
+        NativeInterface.setHoldBuffers(true);
+        VideoStream stream = new VideoStream(WIDTH, HEIGHT, 0, false, true);
+        assertTrue(stream.open());
+        for (int i = 0; i < VideoStream.DEFAULT_BUFFER_COUNT; i++) {
+            stream.acquireBuffer().put(frame(i));
+            assertTrue(stream.submitBuffer(i));
+        }
+        assertNull(stream.acquireBuffer());
+        assertTrue(stream.isDirect());
+        NativeInterface.releaseBuffers();
+        assertTrue(stream.acquireBuffer() != null);
+        stream.close();
+    }
+
+    @Test
+    public void failedOpenIsNotRetriedEveryFrame() throws InterruptedException {
+        NativeInterface.reset(false);
+        VideoStream stream = new VideoStream(WIDTH, HEIGHT, 0, false, true);
+        for (int i = 0; i < 50; i++) {
+            stream.submit(frame(i), i);
+        }
+        assertEquals(1, NativeInterface.getRegisterCalls());
+        assertEquals(50, NativeInterface.getImageFrames());
+
+        NativeInterface.setRunning(true);
+        Thread.sleep(300);
+        assertTrue(stream.submit(frame(50), 50));
+        assertEquals(2, NativeInterface.getRegisterCalls());
+        assertTrue(stream.isDirect());
+        assertEquals(1, NativeInterface.getBufferFrames());
+        stream.close();
+    }
+
+    private static byte[] frame(int seed) {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(frame, (byte) seed);
+        return frame;
+    }
+}
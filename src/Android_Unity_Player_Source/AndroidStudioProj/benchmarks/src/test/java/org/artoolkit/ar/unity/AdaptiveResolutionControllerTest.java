@@ -0,0 +1,121 @@
+package org.artoolkit.ar.unity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptiveResolutionControllerTest {
+
+    private final static int TARGET_FPS = 30;
+    private final static int[] WIDTHS = { 1280, 320, 640 };
+    private final static int[] HEIGHTS = { 720, 240, 480 };
+
+    private final static long STEADY_NS = 33000000L;  // Just above the target rate
+    private final static long SLOW_NS = 50000000L;    // 20 fps
+    private final static long LIGHT_NS = 2000000L;    // Well inside the frame budget
+    private final static long HEAVY_NS = 31000000L;   // Most of it
+
+    private AdaptiveResolutionController mController;
+    private long mNowNs = 0;
+    // When the controller's current window started, or -1 before the first frame
+    private long mWindowStartNs = -1;
+
+    @Before
+    public void setUp() {
+        mController = new AdaptiveResolutionController(TARGET_FPS);
+    }
+
+    @Test
+    public void startsAtTheClosestSize() {
+        mController.setSizes(WIDTHS, HEIGHTS, 800, 600);
+        assertTrue(mController.hasSizes());
+        assertEquals(640, mController.getWidth());
+        assertEquals(480, mController.getHeight());
+    }
+
+    @Test
+    public void stepsDownAfterDownWindowsOfLowFrameRate() {
+        mController.setSizes(WIDTHS, HEIGHTS, 1280, 720);
+        for (int i = 0; i < AdaptiveResolutionController.SETTLE_WINDOWS + AdaptiveResolutionController.DOWN_WINDOWS - 1; i++) {
+            assertFalse(window(SLOW_NS, LIGHT_NS));
+        }
+        assertTrue(window(SLOW_NS, LIGHT_NS));
+        assertEquals(640, mController.getWidth());
+        assertEquals(20.0f, mController.getLastFps(), 1.0f);
+    }
+
+    @Test
+    public void stepsDownAfterDownWindowsOfSlowProcessing() {
+        mController.setSizes(WIDTHS, HEIGHTS, 640, 480);
+        for (int i = 0; i < AdaptiveResolutionController.SETTLE_WINDOWS + AdaptiveResolutionController.DOWN_WINDOWS - 1; i++) {
+            assertFalse(window(STEADY_NS, HEAVY_NS));
+        }
+        assertTrue(window(STEADY_NS, HEAVY_NS));
+        assertEquals(320, mController.getWidth());
+    }
+
+    @Test
+    public void aWindowWithHeadroomBreaksARunOfOverload() {
+        mController.setSizes(WIDTHS, HEIGHTS, 1280, 720);
+        for (int i = 0; i < AdaptiveResolutionController.SETTLE_WINDOWS + AdaptiveResolutionController.DOWN_WINDOWS - 1; i++) {
+            assertFalse(window(SLOW_NS, LIGHT_NS));
+        }
+        assertFalse(window(STEADY_NS, LIGHT_NS));
+        for (int i = 0; i < AdaptiveResolutionController.DOWN_WINDOWS - 1; i++) {
+            assertFalse(window(SLOW_NS, LIGHT_NS));
+        }
+        assertEquals(1280, mController.getWidth());
+    }
+
+    @Test
+    public void stepsUpAfterUpWindowsOfHeadroom() {
+        mController.setSizes(WIDTHS, HEIGHTS, 320, 240);
+        for (int i = 0; i < AdaptiveResolutionController.SETTLE_WINDOWS + AdaptiveResolutionController.UP_WINDOWS - 1; i++) {
+            assertFalse(window(STEADY_NS, LIGHT_NS));
+        }
+        assertTrue(window(STEADY_NS, LIGHT_NS));
+        assertEquals(640, mController.getWidth());
+    }
+
+    @Test
+    public void doesNotReturnToAnOverloadedSizeUntilTheCeilingExpires() {
+        mController.setSizes(WIDTHS, HEIGHTS, 1280, 720);
+        for (int i = 0; i < AdaptiveResolutionController.SETTLE_WINDOWS + AdaptiveResolutionController.DOWN_WINDOWS - 1; i++) {
+            window(SLOW_NS, LIGHT_NS);
+        }
+        assertTrue(window(SLOW_NS, LIGHT_NS));
+        assertEquals(640, mController.getWidth());
+
+        // Plenty of headroom from here on, but 1280x720 stays out of bounds for a while
+        for (int i = 1; i < AdaptiveResolutionController.CEILING_WINDOWS; i++) {
+            assertFalse("Stepped up after " + i + " windows", window(STEADY_NS, LIGHT_NS));
+        }
+        assertTrue(window(STEADY_NS, LIGHT_NS));
+        assertEquals(1280, mController.getWidth());
+    }
+
+    /**
+     * Runs the controller through one window of frames at a steady interval.
+     *
+     * @return true if the size changed at the end of the window.
+     */
+    private boolean window(long intervalNs, long processingNs) {
+        if (mWindowStartNs < 0) {
+            mNowNs += intervalNs;
+            mWindowStartNs = mNowNs;
+            assertFalse(mController.onFrameAccepted(mNowNs, processingNs));
+        }
+        while (true) {
+            mNowNs += intervalNs;
+            boolean changed = mController.onFrameAccepted(mNowNs, processingNs);
+            if (mNowNs - mWindowStartNs >= AdaptiveResolutionController.WINDOW_NS) {
+                mWindowStartNs = mNowNs;
+                return changed;
+            }
+            assertFalse(changed);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.artoolkit.ar.unity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AssetManifestTest {
+
+    private final static String HASH_A = "da39a3ee5e6b4b0d3255bfef95601890afd80709";
+    private final static String HASH_B = "a9993e364706816aba3e25717850c26c9cd0d89d";
+
+    private File mDirectory;
+
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("assets", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    @Test
+    public void readsWhatItWrites() throws IOException {
+        AssetManifest manifest = new AssetManifest();
+        manifest.put(new AssetManifest.Entry("Data/camera_para.dat", HASH_A, 136));
+        manifest.put(new AssetManifest.Entry("Data/hiro.patt", HASH_B, 2048));
+        manifest.put(new AssetManifest.Entry("DataNFT/pinball with spaces.fset", HASH_A, 0));
+        File file = new File(mDirectory, AssetManifest.NAME);
+        manifest.write(file);
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+
+        AssetManifest read = AssetManifest.read(new FileInputStream(file));
+        assertEquals(3, read.size());
+        Iterator<AssetManifest.Entry> expected = manifest.entries().iterator();
+        for (AssetManifest.Entry entry : read.entries()) {
+            AssetManifest.Entry written = expected.next();
+            assertEquals(written.path, entry.path);
+            assertEquals(written.hash, entry.hash);
+            assertEquals(written.size, entry.size);
+        }
+    }
+
+    @Test
+    public void skipsCommentsAndBlankLines() throws IOException {
+        AssetManifest manifest = read("# Generated\n\n" + HASH_A + " 136 Data/camera_para.dat\n");
+        assertEquals(1, manifest.size());
+        assertEquals(136, manifest.get("Data/camera_para.dat").size);
+        assertNull(manifest.get("Data/hiro.patt"));
+    }
+
+    @Test
+    public void rejectsMalformedLines() {
+        assertMalformed(HASH_A + " 136");
+        assertMalformed(HASH_A + " many Data/camera_para.dat");
+    }
+
+    @Test
+    public void rejectsPathsOutsideTheAssets() {
+        assertMalformed(HASH_A + " 136 ../camera_para.dat");
+        assertMalformed(HASH_A + " 136 Data/../../camera_para.dat");
+        assertMalformed(HASH_A + " 136 /sdcard/camera_para.dat");
+        assertMalformed(HASH_A + " 136 Data//camera_para.dat");
+        assertMalformed(HASH_A + " 136 Data\\camera_para.dat");
+    }
+
+    @Test
+    public void anAssetIsUnchangedIfItsHashAndCopyAreTheSame() throws IOException {
+        File copy = new File(mDirectory, "camera_para.dat");
+        writeBytes(copy, 136);
+        AssetManifest installed = read(HASH_A + " 136 camera_para.dat\n");
+        assertTrue(installed.isUnchanged(new AssetManifest.Entry("camera_para.dat", HASH_A, 136), copy));
+    }
+
+    @Test
+    public void anAssetWithANewHashHasChanged() throws IOException {
+        File copy = new File(mDirectory, "camera_para.dat");
+        writeBytes(copy, 136);
+        AssetManifest installed = read(HASH_A + " 136 camera_para.dat\n");
+        assertFalse(installed.isUnchanged(new AssetManifest.Entry("camera_para.dat", HASH_B, 136), copy));
+    }
+
+    @Test
+    public void anAssetNotInstalledBeforeHasChanged() throws IOException {
+        File copy = new File(mDirectory, "hiro.patt");
+        writeBytes(copy, 136);
+        AssetManifest installed = read(HASH_A + " 136 camera_para.dat\n");
+        assertFalse(installed.isUnchanged(new AssetManifest.Entry("hiro.patt", HASH_A, 136), copy));
+    }
+
+    @Test
+    public void anAssetWithAMissingOrDamagedCopyHasChanged() throws IOException {
+        File copy = new File(mDirectory, "camera_para.dat");
+        AssetManifest installed = read(HASH_A + " 136 camera_para.dat\n");
+        AssetManifest.Entry bundled = new AssetManifest.Entry("camera_para.dat", HASH_A, 136);
+        assertFalse(installed.isUnchanged(bundled, copy));
+        writeBytes(copy, 100);
+        assertFalse(installed.isUnchanged(bundled, copy));
+    }
+
+    private static AssetManifest read(String text) throws IOException {
+        return AssetManifest.read(new ByteArrayInputStream(text.getBytes("UTF-8")));
+    }
+
+    private static void assertMalformed(String line) {
+        try {
+            read(line + "\n");
+            fail("Accepted " + line);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Malformed manifest line 1"));
+        }
+    }
+
+    private static void writeBytes(File file, int size) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.artoolkit.ar.unity;
+
+import org.artoolkit.ar.base.MarkerPoseBatch;
+import org.artoolkit.ar.base.NativeInterface;
+import org.artoolkit.ar.base.VideoParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the work done for every frame in a steady state, submitting it and querying the tracking
+ * results, and fails if it allocates. A frame that allocates means a query fell back to a variant
+ * that allocates, or a buffer is no longer reused, and the garbage collector will pause tracking.
+ * <p/>
+ * Allocations are counted per thread by the JVM, so only what the frame does on the calling
+ * thread is counted, as on the ingest and Unity threads on a device.
+ */
+public class FrameAllocationTest {
+
+    private final static int WIDTH = 64;
+    private final static int HEIGHT = 48;
+    private final static int WARMUP_FRAMES = 1000;
+    private final static int FRAMES = 1000;
+    private final static int ROUNDS = 5;
+
+    private final static int[] MARKER_UIDS = { 0, 1, 2, 3 };
+
+    private final byte[] mFrame = new byte[WIDTH * HEIGHT * 3 / 2];
+    private final NativeFrameSink mSink = new NativeFrameSink();
+    private ThresholdEstimator mEstimator = null;
+    private long mTimestampNs = 0;
+
+    @Before
+    public void setUp() {
+        NativeInterface.reset(true);
+        NativeInterface.setChecksumFrames(false);
+        for (int i = 0; i < mFrame.length; i++) {
+            mFrame[i] = (byte) (i * 31);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mSink.onCaptureStopped();
+        ThresholdEstimator.setActive(null);
+        if (mEstimator != null) {
+            mEstimator.close();
+        }
+    }
+
+    @Test
+    public void queriesAllocateNothing() {
+        final MarkerPoseBatch batch = new MarkerPoseBatch(false);
+        batch.setMarkers(MARKER_UIDS, MARKER_UIDS.length);
+        final VideoParams videoParams = new VideoParams();
+        final float[] projection = new float[16];
+        final float[] matrix = new float[16];
+        assertNoAllocations("Querying a frame's results", new Runnable() {
+            @Override
+            public void run() {
+                NativeInterface.arwGetProjectionMatrixInto(projection);
+                videoParams.update();
+                batch.update();
+                for (int i = 0; i < batch.getCount(); i++) {
+                    if (batch.isVisible(i)) {
+                        batch.getTransformation(i, matrix);
+                    }
+                }
+            }
+        });
+        assertEquals(2, batch.getVisibleCount());
+        assertEquals(640, videoParams.getWidth());
+    }
+
+    @Test
+    public void stereoQueriesAllocateNothing() {
+        final MarkerPoseBatch batch = new MarkerPoseBatch(true);
+        batch.setMarkers(MARKER_UIDS, MARKER_UIDS.length);
+        final VideoParams videoParamsL = new VideoParams();
+        final VideoParams videoParamsR = new VideoParams();
+        final float[] projectionL = new float[16];
+        final float[] projectionR = new float[16];
+        final float[] matrixL = new float[16];
+        final float[] matrixR = new float[16];
+        assertNoAllocations("Querying a stereo frame's results", new Runnable() {
+            @Override
+            public void run() {
+                NativeInterface.arwGetProjectionMatrixStereo(projectionL, projectionR);
+                videoParamsL.updateStereo(videoParamsR);
+                batch.update();
+                for (int i = 0; i < batch.getCount(); i++) {
+                    if (batch.isVisible(i)) {
+                        batch.getTransformation(i, matrixL);
+                        batch.getTransformationR(i, matrixR);
+                    }
+                }
+            }
+        });
+        assertEquals(2, batch.getVisibleCount());
+    }
+
+    @Test
+    public void submittingFramesAllocatesNothing() {
+        mSink.onCaptureStarted(WIDTH, HEIGHT, 0, false);
+        assertNoAllocations("Submitting a frame", submitFrame());
+        assertEquals(WARMUP_FRAMES + ROUNDS * FRAMES, NativeInterface.getImageFrames());
+    }
+
+    @Test
+    public void submittingFramesToDirectBuffersAllocatesNothing() {
+        mSink.setUseDirectBuffers(true);
+        mSink.onCaptureStarted(WIDTH, HEIGHT, 0, false);
+        assertNoAllocations("Submitting a frame to a direct buffer", submitFrame());
+        assertTrue(mSink.isDirect());
+        assertEquals(WARMUP_FRAMES + ROUNDS * FRAMES, NativeInterface.getBufferFrames());
+    }
+
+    @Test
+    public void submittingLumaOnlyFramesAllocatesNothing() {
+        mSink.setLumaOnly(true);
+        mSink.onCaptureStarted(WIDTH, HEIGHT, 0, false);
+        assertNoAllocations("Submitting a luma-only frame", submitFrame());
+        assertEquals(WARMUP_FRAMES + ROUNDS * FRAMES, NativeInterface.getMonoFrames());
+    }
+
+    @Test
+    public void estimatingTheThresholdAllocatesNothing() {
+        mEstimator = new ThresholdEstimator(ThresholdEstimator.METHOD_OTSU, 2);
+        ThresholdEstimator.setActive(mEstimator);
+        mSink.setUseDirectBuffers(true);
+        mSink.onCaptureStarted(WIDTH, HEIGHT, 0, false);
+        assertNoAllocations("Submitting a frame and estimating the threshold", submitFrame());
+        assertEquals(WARMUP_FRAMES + ROUNDS * FRAMES, mEstimator.getEstimateCount());
+    }
+
+    private Runnable submitFrame() {
+        return new Runnable() {
+            @Override
+            public void run() {
+                mTimestampNs += 33000000L;
+                mSink.onFrame(mFrame, mTimestampNs);
+            }
+        };
+    }
+
+    /**
+     * Runs a frame until buffers are allocated and code is compiled, then fails if running it
+     * FRAMES more times allocates, in every one of ROUNDS tries. What a frame allocates shows in
+     * every try, and what the JVM allocates once, e.g. as it compiles, only in some. Less than a
+     * byte per frame is allowed, for what counting itself allocates, as any object is larger.
+     */
+    private static void assertNoAllocations(String what, Runnable frame) {
+        for (int i = 0; i < WARMUP_FRAMES; i++) {
+            frame.run();
+        }
+        long bytes = Long.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = allocatedBytes();
+            for (int i = 0; i < FRAMES; i++) {
+                frame.run();
+            }
+            bytes = Math.min(bytes, allocatedBytes() - start);
+        }
+        if (bytes >= FRAMES) {
+            fail(what + " allocated " + bytes + " bytes over " + FRAMES + " frames (" + (float) bytes / FRAMES + " bytes per frame)");
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        assertTrue("The JVM can't count allocations per thread", threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
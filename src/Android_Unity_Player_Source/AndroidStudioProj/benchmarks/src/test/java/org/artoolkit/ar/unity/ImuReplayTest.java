@@ -0,0 +1,134 @@
+package org.artoolkit.ar.unity;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Records a log of a camera turning at a constant rate in front of a marker, with the optical
+ * poses it would see, and replays it through the fusion. Propagating each frame's poses with the
+ * gyroscope must land on the next frame's, where holding them is off by the turn in between.
+ */
+public class ImuReplayTest {
+
+    private final static long START_NS = 1000000000L;
+    private final static long FRAME_NS = 33333333L; // 30 Hz
+    private final static long SAMPLE_NS = 5000000L; // 200 Hz
+    private final static int FRAMES = 30;
+    private final static int MARKERS = 2;
+
+    // Turning about the camera's y axis, in radians per second
+    private final static float RATE = 1.0f;
+
+    private File mLog;
+
+    @Before
+    public void setUp() throws IOException {
+        mLog = File.createTempFile("imu", ".log");
+    }
+
+    @After
+    public void tearDown() {
+        mLog.delete();
+    }
+
+    @Test
+    public void propagatedPosesFollowTheCamera() throws IOException {
+        int samples = record();
+
+        ImuReplay replay = new ImuReplay(MARKERS);
+        replay.run(mLog.getPath());
+
+        assertEquals(FRAMES, replay.getFrameCount());
+        assertEquals(samples, replay.getSampleCount());
+        // Only the visible marker is compared, at every frame but the first
+        assertEquals(FRAMES - 1, replay.getComparedCount());
+
+        float[] errors = replay.getErrors();
+        // Holding the poses is off by about 1.9 degrees a frame, and the marker moves 16 mm
+        assertTrue("Held rotation error " + errors[ImuReplay.ERRORS_HELD_ROTATION], errors[ImuReplay.ERRORS_HELD_ROTATION] > 1.0f);
+        assertTrue("Held translation error " + errors[ImuReplay.ERRORS_HELD_TRANSLATION], errors[ImuReplay.ERRORS_HELD_TRANSLATION] > 10.0f);
+        assertTrue("Fused rotation error " + errors[ImuReplay.ERRORS_FUSED_ROTATION + 1], errors[ImuReplay.ERRORS_FUSED_ROTATION + 1] < 0.1f);
+        assertTrue("Fused translation error " + errors[ImuReplay.ERRORS_FUSED_TRANSLATION + 1], errors[ImuReplay.ERRORS_FUSED_TRANSLATION + 1] < 1.0f);
+    }
+
+    @Test
+    public void replayingTwiceGivesTheSameErrors() throws IOException {
+        record();
+        ImuReplay first = new ImuReplay(MARKERS);
+        first.run(mLog.getPath());
+        float[] expected = first.getErrors().clone();
+        ImuReplay second = new ImuReplay(MARKERS);
+        second.run(mLog.getPath());
+        float[] actual = second.getErrors();
+        for (int i = 0; i < ImuReplay.ERRORS_SIZE; i++) {
+            assertEquals(expected[i], actual[i], 0.0f);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFiles() throws IOException {
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(mLog));
+        try {
+            out.writeInt(ImuLogWriter.MAGIC + 1);
+            out.writeInt(ImuLogWriter.VERSION);
+        } finally {
+            out.close();
+        }
+        new ImuReplay(MARKERS).run(mLog.getPath());
+    }
+
+    /**
+     * Writes gyroscope and accelerometer samples and, at each frame, the poses the camera sees of
+     * a marker 500 mm in front of it as it turns, and of a marker it doesn't see.
+     *
+     * @return The number of samples written.
+     */
+    private int record() throws IOException {
+        ImuLogWriter writer = new ImuLogWriter(mLog.getPath());
+        float[] initial = new float[PoseMath.POSE_SIZE];
+        initial[PoseMath.TZ] = -500.0f;
+        initial[PoseMath.QW] = 1.0f;
+        float[] rotation = new float[PoseMath.POSE_SIZE];
+        float[] pose = new float[PoseMath.POSE_SIZE];
+        float[] poses = new float[MARKERS * PoseMath.MARKER_POSE_STRIDE];
+
+        int samples = 0;
+        long sampleNs = START_NS;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            long frameNs = START_NS + frame * FRAME_NS;
+            for (; sampleNs <= frameNs; sampleNs += SAMPLE_NS) {
+                writer.writeSample(ImuLogWriter.RECORD_GYROSCOPE, sampleNs, 0.0f, RATE, 0.0f);
+                writer.writeSample(ImuLogWriter.RECORD_ACCELEROMETER, sampleNs, 0.0f, 9.81f, 0.0f);
+                samples += 2;
+            }
+
+            // The turn since the start, and the marker seen from the turned camera
+            rotation[PoseMath.QX] = 0.0f;
+            rotation[PoseMath.QY] = 0.0f;
+            rotation[PoseMath.QZ] = 0.0f;
+            rotation[PoseMath.QW] = 1.0f;
+            PoseMath.integrateBodyRotation(rotation, 0, 0.0f, RATE, 0.0f, (frameNs - START_NS) / 1e9f);
+            System.arraycopy(initial, 0, pose, 0, PoseMath.POSE_SIZE);
+            PoseMath.rotateByInverse(pose, 0, rotation, 0);
+            PoseMath.normalizeRotation(pose, 0);
+            poses[0] = 1.0f;
+            PoseMath.poseToMatrix(pose, 0, poses, 1);
+            poses[PoseMath.MARKER_POSE_STRIDE] = 0.0f;
+
+            writer.writePoses(frameNs, poses, MARKERS);
+        }
+        writer.close();
+        assertNull(writer.getLastError());
+        return samples;
+    }
+}
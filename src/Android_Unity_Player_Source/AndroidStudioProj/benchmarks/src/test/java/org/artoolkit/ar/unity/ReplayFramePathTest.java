@@ -0,0 +1,135 @@
+package org.artoolkit.ar.unity;
+
+import org.artoolkit.ar.base.NativeInterface;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Plays a recorded sequence through {@link NativeFrameSink} and the video stream into a stand-in
+ * for the native library, and checks every frame arrives intact, by each way of submitting it.
+ */
+public class ReplayFramePathTest {
+
+    private final static int WIDTH = 64;
+    private final static int HEIGHT = 48;
+    private final static int FRAMES = 12;
+
+    private File mFile;
+    private final List<Long> mFrameChecksums = new ArrayList<Long>();
+    private final List<Long> mLumaChecksums = new ArrayList<Long>();
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("replay", ".nv21");
+        Nv21SequenceWriter writer = new Nv21SequenceWriter(mFile.getPath(), 0);
+        writer.onCaptureStarted(WIDTH, HEIGHT, 0, false);
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int f = 0; f < FRAMES; f++) {
+            for (int i = 0; i < frame.length; i++) {
+                frame[i] = (byte) (i * 31 + f * 7);
+            }
+            assertTrue(writer.onFrame(frame, f * 33000000L));
+            mFrameChecksums.add(NativeInterface.checksum(frame, frame.length));
+            mLumaChecksums.add(NativeInterface.checksum(frame, WIDTH * HEIGHT));
+        }
+        writer.onCaptureStopped();
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    @Test
+    public void framesReachArwAcceptVideoImage() throws Exception {
+        NativeInterface.reset(true);
+        play(new NativeFrameSink());
+        assertEquals(FRAMES, NativeInterface.getImageFrames());
+        assertEquals(mFrameChecksums, NativeInterface.getChecksums());
+    }
+
+    @Test
+    public void framesReachTheDirectBuffers() throws Exception {
+        NativeInterface.reset(true);
+        NativeFrameSink sink = new NativeFrameSink();
+        sink.setUseDirectBuffers(true);
+        play(sink);
+        assertEquals(FRAMES, NativeInterface.getBufferFrames());
+        assertEquals(0, NativeInterface.getImageFrames());
+        assertEquals(mFrameChecksums, NativeInterface.getChecksums());
+        assertFalse("stream left registered", NativeInterface.isStreamRegistered());
+    }
+
+    @Test
+    public void framesFallBackUntilTheStreamCanBeRegistered() throws Exception {
+        NativeInterface.reset(false);
+        NativeFrameSink sink = new NativeFrameSink();
+        sink.setUseDirectBuffers(true);
+        play(sink);
+        assertEquals(FRAMES, NativeInterface.getImageFrames());
+        assertEquals(0, NativeInterface.getBufferFrames());
+        assertEquals(mFrameChecksums, NativeInterface.getChecksums());
+    }
+
+    @Test
+    public void lumaOnlyFramesCarryTheYPlane() throws Exception {
+        NativeInterface.reset(true);
+        NativeFrameSink sink = new NativeFrameSink();
+        sink.setLumaOnly(true);
+        play(sink);
+        assertEquals(FRAMES, NativeInterface.getMonoFrames());
+        assertEquals(mLumaChecksums, NativeInterface.getChecksums());
+    }
+
+    @Test
+    public void captureRestartsAfterStoppingBetweenFrames() throws Exception {
+        NativeInterface.reset(true);
+        ReplayFrameSource source = new ReplayFrameSource(mFile.getPath(), new NativeFrameSink());
+        source.open();
+        source.StartCapture();
+        long deadlineNs = System.nanoTime() + 5000000000L;
+        while (source.GetDeliveredFrameCount() < 2 && System.nanoTime() < deadlineNs) {
+            Thread.sleep(1);
+        }
+        // Stopped while waiting for the next frame's recorded time
+        source.StopCapture();
+        assertTrue(source.GetDeliveredFrameCount() < FRAMES);
+
+        source.SetPacing(ReplayFrameSource.Pacing.AS_FAST_AS_POSSIBLE);
+        source.StartCapture();
+        while (source.IsCapturing() && System.nanoTime() < deadlineNs) {
+            Thread.sleep(1);
+        }
+        source.CloseCamera();
+        assertEquals(null, source.GetLastError());
+        assertEquals(FRAMES, source.GetDeliveredFrameCount());
+        assertEquals(FRAMES, FrameMetrics.Shared.getCount(FrameMetrics.STAGE_ACCEPT));
+    }
+
+    private void play(FrameSink sink) throws Exception {
+        ReplayFrameSource source = new ReplayFrameSource(mFile.getPath(), sink);
+        source.SetPacing(ReplayFrameSource.Pacing.AS_FAST_AS_POSSIBLE);
+        source.open();
+        assertEquals(WIDTH, source.GetParamWidth());
+        assertEquals(HEIGHT, source.GetParamHeight());
+        assertEquals(FRAMES, source.GetFrameCount());
+        source.StartCapture();
+        long deadlineNs = System.nanoTime() + 5000000000L;
+        while (source.IsCapturing() && System.nanoTime() < deadlineNs) {
+            Thread.sleep(1);
+        }
+        source.CloseCamera();
+        assertEquals(null, source.GetLastError());
+        assertEquals(FRAMES, source.GetDeliveredFrameCount());
+    }
+}
@@ -0,0 +1,121 @@
+package org.artoolkit.ar.unity;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StereoFramePairerTest {
+
+    private final static int LENGTH = 16;
+    private final static long MS = 1000000L;
+
+    private StereoFramePairer mPairer;
+    private boolean mAccept = true;
+    private long mLeftNs = -1;
+    private long mRightNs = -1;
+    private byte mLeftValue = 0;
+    private byte mRightValue = 0;
+
+    @Before
+    public void setUp() {
+        mPairer = new StereoFramePairer(new StereoFramePairer.PairConsumer() {
+            @Override
+            public boolean onPair(byte[] left, long leftNs, byte[] right, long rightNs) {
+                mLeftNs = leftNs;
+                mRightNs = rightNs;
+                mLeftValue = left[0];
+                mRightValue = right[0];
+                return mAccept;
+            }
+        });
+    }
+
+    @Test
+    public void pairsFramesWithinTheTolerance() {
+        assertFalse(offer(StereoFramePairer.RIGHT, 100 * MS));
+        assertTrue(offer(StereoFramePairer.LEFT, 103 * MS));
+        // Each eye's frame is passed as that eye's, whichever completed the pair
+        assertEquals(103 * MS, mLeftNs);
+        assertEquals(100 * MS, mRightNs);
+        assertEquals(frameValue(StereoFramePairer.LEFT, 103 * MS), mLeftValue);
+        assertEquals(frameValue(StereoFramePairer.RIGHT, 100 * MS), mRightValue);
+
+        assertFalse(offer(StereoFramePairer.LEFT, 136 * MS));
+        assertTrue(offer(StereoFramePairer.RIGHT, 134 * MS));
+
+        assertEquals(2, mPairer.getPairCount());
+        assertEquals(0, mPairer.getDroppedCount(StereoFramePairer.LEFT));
+        assertEquals(0, mPairer.getDroppedCount(StereoFramePairer.RIGHT));
+        assertEquals(3 * MS, mPairer.getMaxSkewNs());
+    }
+
+    @Test
+    public void dropsTheOlderFrameWhenTheyAreTooFarApart() {
+        assertFalse(offer(StereoFramePairer.LEFT, 100 * MS));
+        // The left frame can't pair with this or any later right frame
+        assertFalse(offer(StereoFramePairer.RIGHT, 120 * MS));
+        assertEquals(1, mPairer.getDroppedCount(StereoFramePairer.LEFT));
+        // Nor can this left frame pair with the waiting right frame or any later one
+        assertFalse(offer(StereoFramePairer.LEFT, 110 * MS));
+        assertEquals(2, mPairer.getDroppedCount(StereoFramePairer.LEFT));
+
+        assertTrue(offer(StereoFramePairer.LEFT, 121 * MS));
+        assertEquals(1, mPairer.getPairCount());
+        assertEquals(0, mPairer.getDroppedCount(StereoFramePairer.RIGHT));
+        assertEquals(1 * MS, mPairer.getMaxSkewNs());
+    }
+
+    @Test
+    public void dropsAWaitingFrameReplacedByANewerOne() {
+        assertFalse(offer(StereoFramePairer.RIGHT, 100 * MS));
+        assertFalse(offer(StereoFramePairer.RIGHT, 133 * MS));
+        assertEquals(1, mPairer.getDroppedCount(StereoFramePairer.RIGHT));
+        assertTrue(offer(StereoFramePairer.LEFT, 135 * MS));
+        assertEquals(133 * MS, mRightNs);
+        assertEquals(frameValue(StereoFramePairer.RIGHT, 133 * MS), mRightValue);
+    }
+
+    @Test
+    public void countsPairsTheConsumerRefuses() {
+        mAccept = false;
+        offer(StereoFramePairer.LEFT, 100 * MS);
+        assertFalse(offer(StereoFramePairer.RIGHT, 100 * MS));
+        assertEquals(0, mPairer.getPairCount());
+        assertEquals(1, mPairer.getRejectedPairCount());
+    }
+
+    @Test
+    public void honoursTheTolerance() {
+        mPairer.setTolerance(2 * MS);
+        offer(StereoFramePairer.LEFT, 100 * MS);
+        assertFalse(offer(StereoFramePairer.RIGHT, 103 * MS));
+        assertTrue(offer(StereoFramePairer.LEFT, 104 * MS));
+        assertEquals(1, mPairer.getDroppedCount(StereoFramePairer.LEFT));
+    }
+
+    @Test
+    public void clearingForgetsWaitingFramesButKeepsTheCounts() {
+        offer(StereoFramePairer.LEFT, 100 * MS);
+        offer(StereoFramePairer.LEFT, 133 * MS);
+        mPairer.clear();
+        assertFalse(offer(StereoFramePairer.RIGHT, 133 * MS));
+        assertEquals(1, mPairer.getDroppedCount(StereoFramePairer.LEFT));
+
+        mPairer.resetCounts();
+        assertEquals(0, mPairer.getDroppedCount(StereoFramePairer.LEFT));
+        assertEquals(0, mPairer.getMaxSkewNs());
+    }
+
+    private boolean offer(int eye, long timestampNs) {
+        byte[] frame = new byte[LENGTH + 4];
+        frame[0] = frameValue(eye, timestampNs);
+        return mPairer.offer(eye, frame, LENGTH, timestampNs);
+    }
+
+    private static byte frameValue(int eye, long timestampNs) {
+        return (byte) (timestampNs / MS * 2 + eye);
+    }
+}
@@ -0,0 +1,185 @@
+package org.artoolkit.ar.unity;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThresholdEstimatorTest {
+
+    private final static int WIDTH = 320;
+    private final static int HEIGHT = 240;
+
+    private ThresholdEstimator mEstimator;
+
+    @After
+    public void tearDown() {
+        if (mEstimator != null) {
+            mEstimator.close();
+        }
+    }
+
+    @Test
+    public void otsuSplitsTwoPeaksInTheMiddleOfTheGap() {
+        float[] histogram = new float[256];
+        histogram[40] = 0.5f;
+        histogram[200] = 0.5f;
+        // Every level from 40 to 199 separates the peaks equally well
+        assertEquals(119, ThresholdEstimator.otsu(histogram));
+    }
+
+    @Test
+    public void otsuFollowsTheHeavierClass() {
+        float[] histogram = new float[256];
+        for (int i = 20; i < 60; i++) {
+            histogram[i] = 0.02f;
+        }
+        for (int i = 180; i < 200; i++) {
+            histogram[i] = 0.01f;
+        }
+        int level = ThresholdEstimator.otsu(histogram);
+        assertTrue("level " + level, level >= 59 && level < 180);
+    }
+
+    @Test
+    public void medianIsTheLevelWithHalfTheSamplesAtOrBelowIt() {
+        float[] histogram = new float[256];
+        histogram[10] = 0.3f;
+        histogram[90] = 0.3f;
+        histogram[250] = 0.4f;
+        assertEquals(90, ThresholdEstimator.median(histogram));
+    }
+
+    @Test
+    public void firstFrameOffersItsLevel() {
+        mEstimator = new ThresholdEstimator(ThresholdEstimator.METHOD_MEDIAN, 1);
+        mEstimator.setStride(1);
+        assertTrue(mEstimator.onFrame(frame(100), WIDTH, HEIGHT));
+        assertEquals(100, mEstimator.takeThreshold());
+        assertEquals(-1, mEstimator.takeThreshold());
+    }
+
+    @Test
+    public void changesWithinTheDeadbandAreNotOffered() {
+        mEstimator = new ThresholdEstimator(ThresholdEstimator.METHOD_MEDIAN, 1);
+        mEstimator.setAdaptation(1.0f);
+        mEstimator.setDeadband(4);
+        assertTrue(mEstimator.onFrame(frame(100), WIDTH, HEIGHT));
+        assertEquals(100, mEstimator.takeThreshold());
+        assertFalse(mEstimator.onFrame(frame(104), WIDTH, HEIGHT));
+        assertEquals(-1, mEstimator.takeThreshold());
+        assertTrue(mEstimator.onFrame(frame(105), WIDTH, HEIGHT));
+        assertEquals(105, mEstimator.takeThreshold());
+        assertEquals(3, mEstimator.getEstimateCount());
+    }
+
+    @Test
+    public void runningThresholdMovesGradually() {
+        mEstimator = new ThresholdEstimator(ThresholdEstimator.METHOD_MEDIAN, 1);
+        mEstimator.setAdaptation(0.5f);
+        mEstimator.setDeadband(0);
+        mEstimator.onFrame(frame(100), WIDTH, HEIGHT);
+        mEstimator.takeThreshold();
+        mEstimator.onFrame(frame(200), WIDTH, HEIGHT);
+        assertEquals(150, mEstimator.takeThreshold());
+    }
+
+    @Test
+    public void resetForgetsTheRunningThreshold() {
+        mEstimator = new ThresholdEstimator(ThresholdEstimator.METHOD_MEDIAN, 1);
+        mEstimator.setAdaptation(0.1f);
+        mEstimator.onFrame(frame(100), WIDTH, HEIGHT);
+        mEstimator.reset();
+        assertTrue(mEstimator.onFrame(frame(200), WIDTH, HEIGHT));
+        assertEquals(200, mEstimator.takeThreshold());
+    }
+
+    @Test
+    public void threadsAgreeWithASingleThread() {
+        byte[] data = gradient();
+        int[] single = thresholds(1, data);
+        for (int threads = 2; threads <= 5; threads++) {
+            int[] split = thresholds(threads, data);
+            assertTrue(threads + " threads: " + Arrays.toString(split) + " vs " + Arrays.toString(single), Arrays.equals(single, split));
+        }
+    }
+
+    @Test
+    public void bufferAndArrayAgree() {
+        byte[] data = gradient();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+        buffer.put(data);
+        buffer.clear();
+        ThresholdEstimator array = new ThresholdEstimator(ThresholdEstimator.METHOD_OTSU, 3);
+        mEstimator = new ThresholdEstimator(ThresholdEstimator.METHOD_OTSU, 3);
+        try {
+            array.onFrame(data, WIDTH, HEIGHT);
+            mEstimator.onFrame(buffer, WIDTH, HEIGHT);
+            assertEquals(array.takeThreshold(), mEstimator.takeThreshold());
+        } finally {
+            array.close();
+        }
+    }
+
+    @Test(timeout = 5000)
+    public void closeDoesNotHangAFrameOrTheFramesAfter() throws InterruptedException {
+        mEstimator = new ThresholdEstimator(ThresholdEstimator.METHOD_OTSU, 4);
+        final byte[] data = gradient();
+        final ThresholdEstimator estimator = mEstimator;
+        Thread ingest = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 100000; i++) {
+                    estimator.onFrame(data, WIDTH, HEIGHT);
+                }
+            }
+        });
+        ingest.start();
+        Thread.sleep(20);
+        mEstimator.close();
+        ingest.join(4000);
+        assertFalse("ingest thread still waiting for the workers", ingest.isAlive());
+        assertFalse(mEstimator.onFrame(data, WIDTH, HEIGHT));
+    }
+
+    private static byte[] frame(int level) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        Arrays.fill(data, (byte) level);
+        return data;
+    }
+
+    // Dark and light halves with a little noise, and NV21 chroma that must not be sampled
+    private static byte[] gradient() {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                int base = y < HEIGHT / 3 ? 50 : 170;
+                data[y * WIDTH + x] = (byte) (base + (x * 7 + y * 13) % 31);
+            }
+        }
+        Arrays.fill(data, WIDTH * HEIGHT, data.length, (byte) 255);
+        return data;
+    }
+
+    private static int[] thresholds(int threads, byte[] data) {
+        ThresholdEstimator estimator = new ThresholdEstimator(ThresholdEstimator.METHOD_OTSU, threads);
+        estimator.setDeadband(0);
+        estimator.setAdaptation(1.0f);
+        try {
+            int[] thresholds = new int[4];
+            for (int stride = 1; stride <= thresholds.length; stride++) {
+                estimator.setStride(stride);
+                estimator.onFrame(data, WIDTH, HEIGHT);
+                thresholds[stride - 1] = estimator.takeThreshold();
+            }
+            return thresholds;
+        } finally {
+            estimator.close();
+        }
+    }
+}
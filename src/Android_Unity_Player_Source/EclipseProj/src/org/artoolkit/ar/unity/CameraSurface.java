@@ -50,6 +50,7 @@
 package org.artoolkit.ar.unity;
 
 import java.io.IOException;
+import java.util.List;
 
 
 import org.artoolkit.ar.base.NativeInterface;
@@ -64,7 +65,12 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-public class CameraSurface extends SurfaceView implements SurfaceHolder.Callback, Camera.PreviewCallback {
+/**
+ * The camera preview of the Eclipse player, as a {@link FrameSource}. The surface it is shown on
+ * drives the lifecycle: the camera is opened when the surface is created, capture starts when it
+ * is sized and stops when it is destroyed. The same calls can also be made directly.
+ */
+public class CameraSurface extends SurfaceView implements SurfaceHolder.Callback, Camera.PreviewCallback, FrameSource {
 	
 	static {
 		NativeInterface.loadNativeLibrary();
@@ -72,10 +78,17 @@ public class CameraSurface extends SurfaceView implements SurfaceHolder.Callback
 
 	private static final String TAG = "CameraSurface";
 	private Camera camera;
+	private SurfaceHolder mSurfaceHolder = null;
 	private int mWidth = 0;
 	private int mHeight = 0;
 	private boolean mCameraIsFrontFacing = false;
 	private int mCameraIndex= 0;
+	private int mTargetWidth = 0;
+	private int mTargetHeight = 0;
+	private boolean mForceDefaultAspectRatio = false;
+	private final FrameSink mNativeSink = new NativeSink();
+	private FrameSink mFrameSink = mNativeSink;
+	private FrameSink mCaptureSink = null; // The sink of the capture in progress, or null
 	
     @SuppressWarnings("deprecation")
 	public CameraSurface(Context context) {
@@ -90,10 +103,55 @@ public class CameraSurface extends SurfaceView implements SurfaceHolder.Callback
  
     // SurfaceHolder.Callback methods
 
-    //@SuppressLint("NewApi")
     @Override
     public void surfaceCreated(SurfaceHolder holder) {
-        
+    	mSurfaceHolder = holder;
+    	if (camera == null) {
+    		OpenCamera();
+    	} else {
+    		setPreviewDisplay();
+    	}
+    }
+
+    @Override
+    public void surfaceDestroyed(SurfaceHolder holder) {
+    	CloseCamera();
+    	mSurfaceHolder = null;
+    }
+
+	@Override
+    public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+    	// The preview size doesn't depend on the surface's, so capture is only restarted
+    	StopCapture();
+    	StartCapture();
+    }
+
+    // FrameSource methods
+
+	/**
+	 * Chooses the largest supported preview size that fits within the target, instead of the
+	 * size in the preferences. Takes effect on the next StartCapture().
+	 *
+	 * @param forceDefaultAspectRatio Only choose sizes with the aspect ratio of the camera's default preview size.
+	 */
+	@Override
+	public void SetResolutionTargetMax(int targetWidth, int targetHeight, boolean forceDefaultAspectRatio) {
+		mTargetWidth = targetWidth;
+		mTargetHeight = targetHeight;
+		mForceDefaultAspectRatio = forceDefaultAspectRatio;
+	}
+
+	@Override
+	public void SetFrameSink(FrameSink sink) {
+		mFrameSink = sink != null ? sink : mNativeSink;
+	}
+
+    //@SuppressLint("NewApi")
+	@Override
+	public void OpenCamera() {
+		if (camera != null) {
+			return;
+		}
 		Log.i(TAG, "Opening camera.");
     	try {
     		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
@@ -105,12 +163,15 @@ public class CameraSurface extends SurfaceView implements SurfaceHolder.Callback
     	} catch (RuntimeException exception) {
     		Log.e(TAG, "Cannot open camera. It may be in use by another process.");
     	}
-    	if (camera != null) {
+    	setPreviewDisplay();
+	}
+
+	// Shows the preview on the surface, once both exist
+	private void setPreviewDisplay() {
+    	if (camera != null && mSurfaceHolder != null) {
     		try {
         	
-    			camera.setPreviewDisplay(holder);
-    			//camera.setPreviewCallback(this);
-    			camera.setPreviewCallbackWithBuffer(this); // API level 8 (Android 2.2)
+    			camera.setPreviewDisplay(mSurfaceHolder);
        	
     		} catch (IOException exception) {
         		Log.e(TAG, "Cannot set camera preview display.");
@@ -118,27 +179,13 @@ public class CameraSurface extends SurfaceView implements SurfaceHolder.Callback
         		camera = null;  
     		}
     	}
-    }
-
-    @Override
-    public void surfaceDestroyed(SurfaceHolder holder) {
-
-    	if (camera != null) {  	
-    		Log.i(TAG, "Closing camera.");
-    		camera.stopPreview();
-    		camera.setPreviewCallback(null);
-    		camera.release();
-    		camera = null;
-    	}
-    }
+	}
 
- 
     //@SuppressLint("NewApi") // CameraInfo
-	@SuppressWarnings("deprecation") // setPreviewFrameRate
 	@Override
-    public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+	public void StartCapture() {
     	
-    	if (camera != null) {
+    	if (camera != null && mCaptureSink == null) {
 
     		String camResolution = PreferenceManager.getDefaultSharedPreferences(getContext()).getString("pref_cameraResolution", "320x240");
     		String[] dims = camResolution.split("x", 2);
@@ -150,11 +197,16 @@ public class CameraSurface extends SurfaceView implements SurfaceHolder.Callback
     		}
             
             Camera.Parameters parameters = camera.getParameters();
-            parameters.setPreviewSize(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+            Camera.Size target = mTargetWidth > 0 && mTargetHeight > 0 ? choosePreviewSize(parameters) : null;
+            if (target != null) {
+            	parameters.setPreviewSize(target.width, target.height);
+            } else {
+            	parameters.setPreviewSize(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+            }
             if (parameters.getSupportedFocusModes().contains(camFocusMode)) {
             	parameters.setFocusMode(camFocusMode);
             }
-            parameters.setPreviewFrameRate(30);
+            setPreviewFpsRange(parameters, 30);
             camera.setParameters(parameters);        
             
             parameters = camera.getParameters();
@@ -184,18 +236,119 @@ public class CameraSurface extends SurfaceView implements SurfaceHolder.Callback
             mCameraIndex = cameraIndex;
             mCameraIsFrontFacing = frontFacing;
             
+            mCaptureSink = mFrameSink;
+            mCaptureSink.onCaptureStarted(mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+            camera.setPreviewCallbackWithBuffer(this); // API level 8 (Android 2.2)
             camera.startPreview();
     	}
     }
 
+	@Override
+	public void StopCapture() {
+		if (camera != null && mCaptureSink != null) {
+			camera.stopPreview();
+			camera.setPreviewCallbackWithBuffer(null); // Also drops the callback buffers
+			mCaptureSink.onCaptureStopped();
+			mCaptureSink = null;
+		}
+	}
+
+	@Override
+	public void CloseCamera() {
+    	if (camera != null) {  	
+    		StopCapture();
+    		Log.i(TAG, "Closing camera.");
+    		camera.release();
+    		camera = null;
+    	}
+	}
+
+	@Override
+	public int GetParamWidth() {
+		return mWidth;
+	}
+
+	@Override
+	public int GetParamHeight() {
+		return mHeight;
+	}
+
+	// The largest supported preview size within the target, or null if none is
+	private Camera.Size choosePreviewSize(Camera.Parameters parameters) {
+		Camera.Size preferred = parameters.getPreviewSize();
+		Camera.Size best = null;
+		for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
+			if (size.width > mTargetWidth || size.height > mTargetHeight) continue;
+			if (mForceDefaultAspectRatio && size.width * preferred.height != size.height * preferred.width) continue;
+			if (best == null || size.width * size.height > best.width * best.height) best = size;
+		}
+		return best;
+	}
+
+	/**
+	 * Chooses the supported preview frame rate range with the highest lower bound that still
+	 * reaches the target, so the frame rate doesn't drop in low light.
+	 */
+	@SuppressWarnings("deprecation") // setPreviewFrameRate
+	private void setPreviewFpsRange(Camera.Parameters parameters, int targetFps) {
+		List<int[]> ranges = parameters.getSupportedPreviewFpsRange();
+		if (ranges == null || ranges.isEmpty()) {
+			parameters.setPreviewFrameRate(targetFps);
+			return;
+		}
+		int[] best = null;
+		for (int[] range : ranges) {
+			int min = range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+			int max = range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+			if (max < targetFps * 1000) continue;
+			if (best == null || min > best[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]
+					|| (min == best[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] && max < best[Camera.Parameters.PREVIEW_FPS_MAX_INDEX])) {
+				best = range;
+			}
+		}
+		if (best == null) best = ranges.get(ranges.size() - 1); // Ranges are sorted, so this has the highest rates.
+		parameters.setPreviewFpsRange(best[Camera.Parameters.PREVIEW_FPS_MIN_INDEX], best[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+		Log.i(TAG, "Camera preview FPS range " + best[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] / 1000.0f + "-" + best[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] / 1000.0f + ".");
+	}
+
     // Camera.PreviewCallback methods.
     
 	@Override
 	public void onPreviewFrame(byte[] data, Camera cam) {
 		
-		NativeInterface.arwAcceptVideoImage(data, mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+		FrameSink sink = mCaptureSink;
+		if (sink != null) {
+			sink.onFrame(data, System.nanoTime());
+		}
 		
 		cam.addCallbackBuffer(data);
 	}
+
+	/**
+	 * Hands frames to the native library, as the preview callback always did.
+	 */
+	private static class NativeSink implements FrameSink {
+		private int mWidth;
+		private int mHeight;
+		private int mCameraIndex;
+		private boolean mCameraIsFrontFacing;
+
+		@Override
+		public void onCaptureStarted(int width, int height, int cameraIndex, boolean cameraIsFrontFacing) {
+			mWidth = width;
+			mHeight = height;
+			mCameraIndex = cameraIndex;
+			mCameraIsFrontFacing = cameraIsFrontFacing;
+		}
+
+		@Override
+		public boolean onFrame(byte[] data, long timestampNs) {
+			return NativeInterface.arwAcceptVideoImage(data, mWidth, mHeight, mCameraIndex, mCameraIsFrontFacing);
+		}
+
+		@Override
+		public void onCaptureStopped() {
+		}
+	}
  
 }